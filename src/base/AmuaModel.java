@@ -21,7 +21,9 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
@@ -34,6 +36,7 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
+import export_Java.JavaCompiledModel;
 import gui.frmMain;
 import gui.frmTraceSummary;
 import main.Console;
@@ -51,9 +54,12 @@ import markov.MarkovTrace;
 import markov.MarkovTraceSummary;
 import markov.MarkovTree;
 import markov.PanelMarkov;
+import markov.PersonTable;
+import math.CompiledExpression;
 import math.Interpreter;
 import math.MathUtils;
 import math.Numeric;
+import math.NumericException;
 import tree.DecisionTree;
 import tree.PanelTree;
 import tree.TreeNode;
@@ -79,6 +85,7 @@ public class AmuaModel{
 	@XmlElement public int cohortSize=1000;
 	@XmlElement public boolean CRN; //common random numbers
 	@XmlElement public int crnSeed; //CRN seed
+	@XmlElement public int numThreads=1; //worker threads for Monte Carlo simulation
 	//Model types
 	@XmlElement public DecisionTree tree;
 	@XmlElement public MarkovTree markov;
@@ -97,11 +104,21 @@ public class AmuaModel{
 	//innate vars
 	@XmlTransient public ArrayList<Variable> innateVariables;
 	@XmlTransient public MarkovTrace traceMarkov;
+	@XmlTransient public ModelDependencies dependencies; //built by parseModel, used by parseModelIncremental
+	//compiled expressions, keyed on expression text.  Cleared when full so text replaced by edits doesn't accumulate
+	public static final int MAX_COMPILED=1<<14;
+	@XmlTransient public ConcurrentHashMap<String,CompiledExpression> compiledExpressions=new ConcurrentHashMap<String,CompiledExpression>();
+	//per-thread variable values and RNG (parallel simulation)
+	@XmlTransient ThreadLocal<PersonTable.Cursor> threadRow=new ThreadLocal<PersonTable.Cursor>();
+	@XmlTransient ThreadLocal<MersenneTwisterFast> threadGenerator=new ThreadLocal<MersenneTwisterFast>();
+	//symbol tables
+	@XmlTransient SymbolTable paramSymbols=new SymbolTable(), varSymbols=new SymbolTable(), innateSymbols=new SymbolTable(), tableSymbols=new SymbolTable();
 		
 	//Display
 	@XmlTransient public frmMain mainForm;
 	@XmlTransient public PanelTree panelTree;
 	@XmlTransient public PanelMarkov panelMarkov;
+	@XmlTransient public MarkovNode selectedChain; //selected Markov chain for copies without a panel
 
 
 	//Constructor
@@ -154,32 +171,12 @@ public class AmuaModel{
 			this.mainForm=mainFrm;
 			this.errorLog=errorLog;
 			
-			innateVariables=new ArrayList<Variable>();
-			
-			//Update tables
-			if(parameters==null){parameters=new ArrayList<Parameter>();}
-			if(variables==null){variables=new ArrayList<Variable>();}
-			if(tables==null){tables=new ArrayList<Table>();}
-			if(constraints==null){constraints=new ArrayList<Constraint>();}
-			//Construct splines if needed
-			for(int t=0; t<tables.size(); t++){
-				Table curTable=tables.get(t);
-				if(curTable.interpolate!=null && curTable.interpolate.matches("Cubic Splines")){
-					curTable.constructSplines();
-				}
-			}
+			initModelData();
 			
 			refreshParamTable();
 			refreshVarTable();
 			refreshTableTable();
 			refreshConstTable();
-			//Parse parameters
-			if(parameterNames!=null){
-				int numSets=parameterSets.length;
-				for(int i=0; i<numSets; i++){
-					parameterSets[i].parseValues();
-				}
-			}
 			refreshParamSetsTable();
 			refreshAlignment();
 			//Update undo stacks
@@ -208,6 +205,70 @@ public class AmuaModel{
 		}
 	}
 
+	/**
+	 * Initializes a model read from file without any display (e.g. command line runs).
+	 * Trees are linked to the model directly instead of through a panel.
+	 * @param errorLog
+	 */
+	public void openModelHeadless(ErrorLog errorLog){
+		try{
+			this.mainForm=null;
+			this.errorLog=errorLog;
+			
+			initModelData();
+			
+			int numDim=dimInfo.dimNames.length;
+			if(type==0){ //Decision tree
+				tree.setModel(this);
+				tree.nodes.get(0).cost=new String[numDim];
+				for(int i=0; i<tree.nodes.size(); i++){
+					tree.nodes.get(i).numDimensions=numDim;
+				}
+			}
+			else if(type==1){ //Markov
+				addT();
+				markov.setModel(this);
+				markov.nodes.get(0).cost=new String[numDim];
+				for(int i=0; i<markov.nodes.size(); i++){
+					markov.nodes.get(i).numDimensions=numDim;
+				}
+				markov.updateMarkovChain(markov.nodes.get(0));
+			}
+		}catch(Exception e){
+			e.printStackTrace();
+			errorLog.recordError(e);
+		}
+	}
+	
+	/**
+	 * Initializes lists, symbols, splines and parameter sets after the model is read from file
+	 */
+	private void initModelData(){
+		innateVariables=new ArrayList<Variable>();
+		compiledExpressions=new ConcurrentHashMap<String,CompiledExpression>();
+		
+		//Update tables
+		if(parameters==null){parameters=new ArrayList<Parameter>();}
+		if(variables==null){variables=new ArrayList<Variable>();}
+		if(tables==null){tables=new ArrayList<Table>();}
+		if(constraints==null){constraints=new ArrayList<Constraint>();}
+		rebuildSymbolTable();
+		//Construct splines if needed
+		for(int t=0; t<tables.size(); t++){
+			Table curTable=tables.get(t);
+			if(curTable.interpolate!=null && curTable.interpolate.matches("Cubic Splines")){
+				curTable.constructSplines();
+			}
+		}
+		//Parse parameters
+		if(parameterNames!=null){
+			int numSets=parameterSets.length;
+			for(int i=0; i<numSets; i++){
+				parameterSets[i].parseValues();
+			}
+		}
+	}
+
 	public void refreshParamTable(){
 		mainForm.modelParameters.setRowCount(0);
 		int numParams=parameters.size();
@@ -322,6 +383,7 @@ public class AmuaModel{
 		mainForm.mntmRedo.setText("Redo "+lastAction);
 
 		modelStackUndo.pop().getSnapshot(this); //gets previous model
+		rebuildSymbolTable();
 		
 		//Update nodes on panel
 		if(type==0){panelTree.revert();}
@@ -368,6 +430,7 @@ public class AmuaModel{
 		mainForm.mntmUndo.setText("Undo "+lastAction);
 
 		modelStackRedo.pop().getSnapshot(this); //gets previous model
+		rebuildSymbolTable();
 		
 		//Update nodes on panel
 		if(type==0){panelTree.revert();}
@@ -410,6 +473,7 @@ public class AmuaModel{
 		saveSnapshot("Delete Parameter");//Add to undo stack
 		parameters.remove(paramNum);
 		mainForm.modelParameters.removeRow(paramNum);
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 	
@@ -417,6 +481,7 @@ public class AmuaModel{
 		saveSnapshot("Delete Variable");//Add to undo stack
 		variables.remove(varNum);
 		mainForm.modelVariables.removeRow(varNum);
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 
@@ -424,6 +489,7 @@ public class AmuaModel{
 		saveSnapshot("Delete Table");//Add to undo stack
 		tables.remove(tableNum);
 		mainForm.modelTables.removeRow(tableNum);
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 	
@@ -436,16 +502,19 @@ public class AmuaModel{
 	
 	public void addParameter(Parameter param){
 		mainForm.modelParameters.addRow(new Object[]{param.name,param.expression});
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 	
 	public void addVariable(Variable variable){
 		mainForm.modelVariables.addRow(new Object[]{variable.name,variable.initValue});
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 
 	public void addTable(Table table){
 		mainForm.modelTables.addRow(new Object[]{table.name,table.type,table.numRows+" x "+table.numCols});
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 	
@@ -459,6 +528,7 @@ public class AmuaModel{
 		mainForm.modelTables.setValueAt(table.name, tableNum, 0);
 		mainForm.modelTables.setValueAt(table.type, tableNum, 1);
 		mainForm.modelTables.setValueAt(table.numRows+" x "+table.numCols, tableNum, 2);
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 
@@ -466,6 +536,7 @@ public class AmuaModel{
 		Parameter param=parameters.get(paramNum);
 		mainForm.modelParameters.setValueAt(param.name, paramNum, 0);
 		mainForm.modelParameters.setValueAt(param.expression, paramNum, 1);
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 	
@@ -473,6 +544,7 @@ public class AmuaModel{
 		Variable variable=variables.get(varNum);
 		mainForm.modelVariables.setValueAt(variable.name, varNum, 0);
 		mainForm.modelVariables.setValueAt(variable.initValue, varNum, 1);
+		rebuildSymbolTable(); //symbols changed
 		validateParamsVars();
 	}
 	
@@ -675,16 +747,121 @@ public class AmuaModel{
 	}
 	
 	public ArrayList<String> parseModel(){
-		if(type==0){return(tree.parseTree());}
+		dependencies=new ModelDependencies(this);
+		ArrayList<String> errors=null;
+		if(type==0){errors=tree.parseTree();}
 		else if(type==1){
-			if(panelMarkov.curNode==null || panelMarkov.curNode.type!=1){ //No Markov Chain selected, check whole model
-				return(markov.parseTree());
+			MarkovNode chainRoot=getSelectedChain();
+			dependencies.parsedChain=chainRoot;
+			if(chainRoot==null){ //No Markov Chain selected, check whole model
+				errors=markov.parseTree();
 			}
 			else{ //Markov Chain selected
-				return(markov.parseChain(panelMarkov.curNode));
+				errors=markov.parseChain(chainRoot);
 			}
 		}
-		return(null);
+		dependencies.snapshot();
+		return(errors);
+	}
+	
+	/**
+	 * Re-validates only the expressions that depend on parameters changed since the last parse.
+	 * Falls back to a full parseModel() if the model hasn't been parsed, its symbols or structure changed, or the last parse had invalid probabilities.
+	 * @return ArrayList of error messages
+	 */
+	public ArrayList<String> parseModelIncremental(){
+		if(dependencies==null || dependencies.complete==false || dependencies.isCurrent()==false){
+			return(parseModel());
+		}
+		if(type==1 && dependencies.parsedChain!=getSelectedChain()){
+			return(parseModel());
+		}
+		BitSet changed=dependencies.getChanged();
+		dependencies.validateParamsVars(changed);
+		ArrayList<String> errors=null;
+		if(type==0){errors=tree.revalidateTree(changed);}
+		else if(type==1){errors=markov.revalidate(changed);}
+		dependencies.snapshot();
+		return(errors);
+	}
+	
+	/**
+	 * @return Selected Markov chain, or null if none selected (i.e. run all chains)
+	 */
+	public MarkovNode getSelectedChain(){
+		if(panelMarkov==null){return(selectedChain);}
+		if(panelMarkov.curNode==null || panelMarkov.curNode.type!=1){return(null);}
+		return(panelMarkov.curNode);
+	}
+	
+	/**
+	 * Returns an independent copy of the model data and tree that can be evaluated on another thread.
+	 * The copy has no display panel and shares only read-only objects (metadata, splines, main form)
+	 * @return
+	 */
+	public AmuaModel copyModel(){
+		AmuaModel copy=new AmuaModel();
+		copy.name=name;
+		copy.type=type;
+		copy.meta=meta; //reference
+		copy.dimInfo=dimInfo.copy();
+		copy.alignRight=alignRight;
+		copy.scale=scale;
+		copy.mainForm=mainForm;
+		copy.errorLog=errorLog;
+		
+		copy.parameters=new ArrayList<Parameter>();
+		for(int i=0; i<parameters.size(); i++){
+			Parameter copyParam=parameters.get(i).copy();
+			if(copyParam.value!=null){copyParam.value=copyParam.value.copy();}
+			copyParam.locked=parameters.get(i).locked;
+			copy.parameters.add(copyParam);
+		}
+		copy.variables=new ArrayList<Variable>();
+		for(int i=0; i<variables.size(); i++){
+			Variable copyVar=variables.get(i).copy();
+			if(copyVar.value!=null){copyVar.value=copyVar.value.copy();}
+			copy.variables.add(copyVar);
+		}
+		copy.tables=new ArrayList<Table>();
+		for(int i=0; i<tables.size(); i++){
+			copy.tables.add(tables.get(i).copy());
+		}
+		copy.constraints=new ArrayList<Constraint>();
+		for(int i=0; i<constraints.size(); i++){
+			Constraint copyConst=constraints.get(i).copy();
+			copyConst.parseConstraints();
+			copy.constraints.add(copyConst);
+		}
+		copy.parameterNames=parameterNames; //reference
+		copy.simParamSets=simParamSets;
+		copy.parameterSets=parameterSets; //reference
+		
+		copy.simType=simType;
+		copy.cohortSize=cohortSize;
+		copy.CRN=CRN;
+		copy.crnSeed=crnSeed;
+		copy.numThreads=numThreads;
+		copy.sampleParam=sampleParam;
+		copy.sampleVar=sampleVar;
+		
+		copy.innateVariables=new ArrayList<Variable>();
+		if(type==0){
+			copy.tree=tree.snapshot();
+			copy.tree.setModel(copy);
+		}
+		else if(type==1){
+			copy.markov=markov.snapshot();
+			copy.markov.setModel(copy);
+			copy.markov.updateMarkovChain(copy.markov.nodes.get(0));
+			MarkovNode chainRoot=getSelectedChain();
+			if(chainRoot!=null){
+				copy.selectedChain=copy.markov.nodes.get(markov.nodes.indexOf(chainRoot));
+			}
+			copy.addT();
+		}
+		copy.rebuildSymbolTable();
+		return(copy);
 	}
 
 	public void runModel(Console console,boolean display){
@@ -815,6 +992,74 @@ public class AmuaModel{
 		}
 	}
 	
+	/**
+	 * Runs the base case without display, using this model's tree rather than the display panel.
+	 * Used to run copies of the model on worker threads.
+	 * @throws Exception
+	 */
+	public void runModelNoDisplay() throws Exception{
+		evaluateParameters(); //get parameters
+		if(type==0){ //Decision tree
+			tree.runModel(false);
+		}
+		else if(type==1){ //Markov model
+			MarkovNode chainRoot=getSelectedChain();
+			if(chainRoot==null){ //No Markov Chain selected, run all chains
+				for(int n=0; n<markov.nodes.size(); n++){
+					MarkovNode curNode=markov.nodes.get(n);
+					if(curNode.type==1){markov.runModel(curNode,false);}
+				}
+			}
+			else{
+				markov.runModel(chainRoot,false);
+			}
+		}
+		unlockParams(); //unlock parameters
+	}
+	
+	/**
+	 * Runs the base case on Java code generated from the model, compiled in-process (Monte Carlo simulations only).
+	 * Results are stored in the strategy/chain expected values as in runModel
+	 * @param console
+	 */
+	public void runModelCompiled(Console console){
+		try{
+			evaluateParameters(); //get parameters
+			console.print("Compiling model... ");
+			JavaCompiledModel compiled=new JavaCompiledModel(this);
+			console.print("done!\n");
+			console.print("Running model... ");
+			compiled.run();
+			unlockParams(); //unlock parameters
+			console.print("done!\n");
+			
+			//Display output on console
+			if(type==0){ //Decision tree
+				int numStrat=getStrategies();
+				int numDim=dimInfo.dimSymbols.length;
+				console.print("\nStrategy");
+				for(int d=0; d<numDim; d++){
+					console.print("\tEV ("+dimInfo.dimSymbols[d]+")");
+				}
+				console.print("\n");
+				for(int s=0; s<numStrat; s++){
+					console.print(strategyNames[s]);
+					for(int d=0; d<numDim; d++){
+						console.print("\t"+round(getStrategyEV(s,d),d));
+					}
+					console.print("\n");
+				}
+			}
+			else if(type==1){ //Markov model
+				panelMarkov.tree.displayResults(console);
+			}
+		}catch(Exception e){
+			unlockParams();
+			console.print("Error: "+e.getMessage()); console.newLine();
+			errorLog.recordError(e);
+		}
+	}
+	
 	public void unlockParams(){
 		for(int v=0; v<parameters.size(); v++){
 			parameters.get(v).locked=false;
@@ -873,6 +1118,7 @@ public class AmuaModel{
 		curT.name="t";
 		curT.value=new Numeric(0);
 		innateVariables.add(curT);
+		innateSymbols.build(innateVariables);
 	}
 	
 	public void resetT(){
@@ -880,6 +1126,47 @@ public class AmuaModel{
 		innateVariables.get(indexT).value=new Numeric(0);
 	}
 	
+	/**
+	 * Binds a person table cursor to the current thread.  While bound (and cursor.row is not -1), expressions evaluated on this thread read and update
+	 * the variable values in that row instead of Variable.value
+	 * @param cursor  Cursor, or null to unbind
+	 */
+	public void bindThreadRow(PersonTable.Cursor cursor){
+		if(cursor==null){threadRow.remove();}
+		else{threadRow.set(cursor);}
+	}
+	
+	/**
+	 * Binds a random number generator to the current thread, used instead of curGenerator while bound
+	 * @param generator  RNG, or null to unbind
+	 */
+	public void bindThreadGenerator(MersenneTwisterFast generator){
+		if(generator==null){threadGenerator.remove();}
+		else{threadGenerator.set(generator);}
+	}
+	
+	public PersonTable.Cursor getThreadRow(){
+		return(threadRow.get());
+	}
+	
+	public Numeric getVariableValue(int index){
+		PersonTable.Cursor cursor=threadRow.get();
+		if(cursor!=null && cursor.row!=-1){return(cursor.table.get(index, cursor.row));}
+		return(variables.get(index).value);
+	}
+	
+	public void setVariableValue(int index, Numeric value) throws NumericException{
+		PersonTable.Cursor cursor=threadRow.get();
+		if(cursor!=null && cursor.row!=-1){cursor.table.set(index, cursor.row, value);}
+		else{variables.get(index).value=value;}
+	}
+	
+	public MersenneTwisterFast getGenerator(){
+		MersenneTwisterFast generator=threadGenerator.get();
+		if(generator!=null){return(generator);}
+		return(curGenerator);
+	}
+	
 	public boolean isParameter(String word){
 		return(getParameterIndex(word)!=-1);
 	}
@@ -896,48 +1183,32 @@ public class AmuaModel{
 		return(getTableIndex(word)!=-1);
 	}
 	
+	/**
+	 * Re-indexes parameter, variable, and table names and clears compiled expressions.  Called whenever model symbols are added, edited, or deleted.
+	 */
+	public void rebuildSymbolTable(){
+		paramSymbols.build(parameters);
+		varSymbols.build(variables);
+		innateSymbols.build(innateVariables);
+		tableSymbols.build(tables);
+		compiledExpressions.clear();
+		dependencies=null;
+	}
+	
 	public int getParameterIndex(String name){
-		int paramIndex=-1;
-		int numParams=parameters.size();
-		int i=0;
-		while(paramIndex==-1 && i<numParams){
-			if(parameters.get(i).name.matches(name)){paramIndex=i;}
-			i++;
-		}
-		return(paramIndex);
+		return(paramSymbols.getIndex(parameters, name));
 	}
 	
 	public int getVariableIndex(String name){
-		int varIndex=-1;
-		int numVars=variables.size();
-		int i=0;
-		while(varIndex==-1 && i<numVars){
-			if(variables.get(i).name.matches(name)){varIndex=i;}
-			i++;
-		}
-		return(varIndex);
+		return(varSymbols.getIndex(variables, name));
 	}
 	
 	public int getInnateVariableIndex(String name){
-		int varIndex=-1;
-		int numVars=innateVariables.size();
-		int i=0;
-		while(varIndex==-1 && i<numVars){
-			if(innateVariables.get(i).name.matches(name)){varIndex=i;}
-			i++;
-		}
-		return(varIndex);
+		return(innateSymbols.getIndex(innateVariables, name));
 	}
 	
 	public int getTableIndex(String name){
-		int tableIndex=-1;
-		int numTables=tables.size();
-		int i=0;
-		while(tableIndex==-1 && i<numTables){
-			if(tables.get(i).name.matches(name)){tableIndex=i;}
-			i++;
-		}
-		return(tableIndex);
+		return(tableSymbols.getIndex(tables, name));
 	}
 	
 	public boolean textHasVariable(String text){
@@ -969,15 +1240,39 @@ public class AmuaModel{
 		return(hasVariable);
 	}
 	
-	public String getTableType(String name){
-		String type=null;
-		int numTables=tables.size();
-		int i=0;
-		while(type==null && i<numTables){
-			if(tables.get(i).name.matches(name)){type=tables.get(i).type;}
-			i++;
+	/**
+	 * Returns true if the text depends on the current cycle, i.e. uses an innate variable (t) or the trace, directly or through a parameter
+	 * @param text
+	 * @return
+	 */
+	public boolean textHasInnateVariable(String text){
+		int len=text.length();
+		while(len>0){
+			int index=Interpreter.getNextBreakIndex(text);
+			String word=text.substring(0, index);
+			if(getInnateVariableIndex(word)!=-1 || word.equals("trace")){
+				return(true);
+			}
+			int paramIndex=getParameterIndex(word);
+			if(paramIndex!=-1){ //Check nested
+				if(textHasInnateVariable(parameters.get(paramIndex).expression)){
+					return(true);
+				}
+			}
+			
+			if(index==len){len=0;} //End of word
+			else{
+				text=text.substring(index+1);
+				len=text.length();
+			}
 		}
-		return(type);
+		return(false);
+	}
+	
+	public String getTableType(String name){
+		int index=getTableIndex(name);
+		if(index==-1){return(null);}
+		return(tables.get(index).type);
 	}
 	
 	public String getParamDescription(String param){
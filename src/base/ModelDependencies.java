@@ -0,0 +1,266 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import main.Constraint;
+import main.Parameter;
+import main.Variable;
+import markov.MarkovNode;
+import math.Interpreter;
+import math.Numeric;
+import tree.TreeNode;
+
+/**
+ * Parameter dependency graph used to re-validate only the parts of a model affected by parameter changes.
+ * Built by AmuaModel.parseModel().  Bit i is set if an expression depends on parameter i (directly or through other parameters).
+ * Expressions that use variables, innate variables (t) or the trace are flagged as volatile and always re-validated.
+ */
+public class ModelDependencies{
+	AmuaModel myModel;
+	ArrayList<Parameter> parameters;
+	ArrayList<Variable> variables;
+	int numParams, numNodes;
+	int exprHash;
+	int volatileIndex;
+	BitSet paramDeps[], constDeps[];
+	int paramState[]; //0=not visited, 1=visiting, 2=done
+	Numeric lastValues[];
+	boolean lastLocked[];
+	/**
+	 * Markov chain validated by the last full parse, null if all chains
+	 */
+	public MarkovNode parsedChain;
+	/**
+	 * False if the last full parse could not check probability sums, i.e. a full parse is needed
+	 */
+	public boolean complete=true;
+
+	//Constructor
+	public ModelDependencies(AmuaModel myModel){
+		this.myModel=myModel;
+		parameters=myModel.parameters;
+		variables=myModel.variables;
+		numParams=parameters.size();
+		volatileIndex=numParams;
+		paramDeps=new BitSet[numParams];
+		paramState=new int[numParams];
+		for(int p=0; p<numParams; p++){
+			getParamDeps(p);
+		}
+		int numConst=myModel.constraints.size();
+		constDeps=new BitSet[numConst];
+		for(int c=0; c<numConst; c++){
+			constDeps[c]=getDependencies(myModel.constraints.get(c).expression);
+		}
+		lastValues=new Numeric[numParams];
+		lastLocked=new boolean[numParams];
+		numNodes=getNumNodes();
+		exprHash=getExpressionHash();
+	}
+	
+	private int getNumNodes(){
+		if(myModel.type==0){return(myModel.tree.nodes.size());}
+		else{return(myModel.markov.nodes.size());}
+	}
+	
+	/**
+	 * Hash of all expression text the dependencies were built from, so an edited expression forces a full parse.
+	 * String hash codes are cached, so this only re-hashes text that has changed.
+	 */
+	private int getExpressionHash(){
+		int hash=1;
+		for(int p=0; p<parameters.size(); p++){hash=31*hash+hash(parameters.get(p).expression);}
+		for(int v=0; v<variables.size(); v++){hash=31*hash+hash(variables.get(v).initValue);}
+		for(int c=0; c<myModel.constraints.size(); c++){hash=31*hash+hash(myModel.constraints.get(c).expression);}
+		if(myModel.type==0){
+			ArrayList<TreeNode> nodes=myModel.tree.nodes;
+			for(int n=0; n<nodes.size(); n++){
+				TreeNode curNode=nodes.get(n);
+				hash=31*hash+curNode.type;
+				hash=31*hash+hash(curNode.prob);
+				hash=31*hash+hash(curNode.cost);
+				hash=31*hash+hash(curNode.payoff);
+				hash=31*hash+(curNode.hasVarUpdates ? 1 : 0);
+				hash=31*hash+hash(curNode.varUpdates);
+			}
+		}
+		else{
+			ArrayList<MarkovNode> nodes=myModel.markov.nodes;
+			for(int n=0; n<nodes.size(); n++){
+				MarkovNode curNode=nodes.get(n);
+				hash=31*hash+curNode.type;
+				hash=31*hash+hash(curNode.prob);
+				hash=31*hash+hash(curNode.cost);
+				hash=31*hash+hash(curNode.rewards);
+				hash=31*hash+hash(curNode.transition);
+				hash=31*hash+hash(curNode.terminationCondition);
+				hash=31*hash+(curNode.hasVarUpdates ? 1 : 0);
+				hash=31*hash+hash(curNode.varUpdates);
+			}
+		}
+		return(hash);
+	}
+	
+	private static int hash(String text){
+		if(text==null){return(0);}
+		return(text.hashCode());
+	}
+	
+	private static int hash(String text[]){
+		if(text==null){return(0);}
+		int hash=1;
+		for(int i=0; i<text.length; i++){hash=31*hash+hash(text[i]);}
+		return(hash);
+	}
+
+	private BitSet getParamDeps(int p){
+		if(paramState[p]==2){return(paramDeps[p]);}
+		if(paramState[p]==1){ //circular reference
+			BitSet deps=new BitSet();
+			deps.set(p);
+			return(deps);
+		}
+		paramState[p]=1;
+		BitSet deps=getDependencies(parameters.get(p).expression);
+		deps.set(p);
+		paramDeps[p]=deps;
+		paramState[p]=2;
+		return(deps);
+	}
+
+	/**
+	 * Returns the parameters an expression depends on
+	 * @param text
+	 * @return
+	 */
+	public BitSet getDependencies(String text){
+		BitSet deps=new BitSet();
+		if(text==null){return(deps);}
+		int len=text.length();
+		while(len>0){
+			int index=Interpreter.getNextBreakIndex(text);
+			String word=text.substring(0, index);
+			int paramIndex=myModel.getParameterIndex(word);
+			if(paramIndex!=-1){
+				deps.or(getParamDeps(paramIndex));
+			}
+			else if(myModel.getVariableIndex(word)!=-1 || myModel.getInnateVariableIndex(word)!=-1 || word.equals("trace")){
+				deps.set(volatileIndex);
+			}
+
+			if(index==len){len=0;} //End of word
+			else{
+				text=text.substring(index+1);
+				len=text.length();
+			}
+		}
+		return(deps);
+	}
+
+	/**
+	 * @return true if the model symbols haven't been replaced or resized, and no expression text has been edited, since this was built
+	 */
+	public boolean isCurrent(){
+		if(myModel.parameters!=parameters || parameters.size()!=numParams){return(false);}
+		if(myModel.variables!=variables){return(false);}
+		if(myModel.constraints.size()!=constDeps.length){return(false);}
+		if(getNumNodes()!=numNodes){return(false);}
+		if(getExpressionHash()!=exprHash){return(false);}
+		return(true);
+	}
+
+	/**
+	 * Records the current parameter values
+	 */
+	public void snapshot(){
+		for(int p=0; p<numParams; p++){
+			Parameter curParam=parameters.get(p);
+			lastValues[p]=null;
+			if(curParam.value!=null){lastValues[p]=curParam.value.copy();}
+			lastLocked[p]=curParam.locked;
+		}
+	}
+
+	/**
+	 * @return Parameters whose value or locked status changed since the last snapshot, plus the volatile flag
+	 */
+	public BitSet getChanged(){
+		BitSet changed=new BitSet();
+		changed.set(volatileIndex);
+		for(int p=0; p<numParams; p++){
+			Parameter curParam=parameters.get(p);
+			if(curParam.locked!=lastLocked[p]){changed.set(p);}
+			else if(curParam.value==null){
+				if(lastValues[p]!=null){changed.set(p);}
+			}
+			else if(lastValues[p]==null || !curParam.value.isEqual(lastValues[p])){changed.set(p);}
+		}
+		return(changed);
+	}
+
+	/**
+	 * Incremental version of AmuaModel.validateParamsVars().  Re-evaluates unlocked parameters and constraints that depend on changed parameters.
+	 * Variables are always re-initialized since the model run changes them.
+	 * @param changed
+	 */
+	public void validateParamsVars(BitSet changed){
+		//parameters
+		for(int p=0; p<numParams; p++){
+			Parameter curParam=parameters.get(p);
+			if(curParam.locked==false && paramDeps[p].intersects(changed)){
+				curParam.valid=true;
+				try{
+					curParam.value=Interpreter.evaluate(curParam.expression, myModel,false);
+				}catch(Exception e){
+					curParam.valid=false;
+					curParam.value=null;
+				}
+			}
+		}
+
+		//variables
+		int numVars=variables.size();
+		for(int i=0; i<numVars; i++){
+			Variable curVar=variables.get(i);
+			curVar.valid=true;
+			try{
+				curVar.value=Interpreter.evaluate(curVar.initValue, myModel,false);
+			}catch(Exception e){
+				curVar.valid=false;
+				curVar.value=null;
+			}
+		}
+
+		//constraints
+		for(int c=0; c<constDeps.length; c++){
+			if(constDeps[c].intersects(changed)){
+				Constraint curConst=myModel.constraints.get(c);
+				curConst.valid=true;
+				try{
+					curConst.checkConstraints(myModel);
+				} catch(Exception e){
+					curConst.valid=false;
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@ package base;
 import java.awt.Color;
 import java.awt.Font;
 import java.util.ArrayList;
+import java.util.BitSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
@@ -57,6 +58,11 @@ public class ModelNode{
 	@XmlTransient public int numDimensions=1;
 	@XmlTransient public AmuaModel myModel;
 	
+	//Validation state - errors found for this node by the last parse, and the parameters its expressions depend on
+	@XmlTransient public BitSet paramDeps;
+	@XmlTransient public ArrayList<String> nodeErrors, sumErrors;
+	@XmlTransient public boolean validProb=true;
+	
 	//Visual attributes
 	@XmlTransient public boolean selected;
 	@XmlTransient public boolean visible=true;
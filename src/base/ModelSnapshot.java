@@ -50,6 +50,7 @@ public class ModelSnapshot{
 	public int cohortSize=1000;
 	public boolean CRN;
 	public int crnSeed;
+	public int numThreads=1;
 	
 	//Model types
 	DecisionTree tree;
@@ -103,6 +104,7 @@ public class ModelSnapshot{
 		cohortSize=model.cohortSize;
 		CRN=model.CRN;
 		crnSeed=model.crnSeed;
+		numThreads=model.numThreads;
 		
 		if(type==0){tree=model.tree.snapshot();}
 		else if(type==1){markov=model.markov.snapshot();}
@@ -129,6 +131,7 @@ public class ModelSnapshot{
 		model.cohortSize=cohortSize;
 		model.CRN=CRN;
 		model.crnSeed=crnSeed;
+		model.numThreads=numThreads;
 		
 		if(type==0){
 			model.tree=tree;
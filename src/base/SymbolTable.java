@@ -0,0 +1,93 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import main.Parameter;
+import main.Table;
+import main.Variable;
+
+/**
+ * Name to index lookup for one of the model lists (parameters, variables, innate variables, tables).
+ * Rebuilt eagerly by the model mutators (add, delete, edit/rename) via AmuaModel.rebuildSymbolTable().
+ * Each build publishes a new immutable index through a volatile field, so lookups from simulation threads don't lock.
+ */
+class SymbolTable{
+	private volatile Index index=new Index(null);
+
+	int getIndex(ArrayList<?> curList, String name){
+		if(curList==null){return(-1);}
+		Index cur=index;
+		if(curList!=cur.list || curList.size()!=cur.size){cur=rebuild(curList);} //list replaced or resized without a rebuild
+		Integer i=cur.indices.get(name);
+		if(i==null){return(-1);}
+		int pos=i;
+		if(pos>=curList.size() || !name.equals(getName(curList.get(pos)))){ //renamed without a rebuild
+			cur=rebuild(curList);
+			i=cur.indices.get(name);
+			if(i==null){return(-1);}
+			pos=i;
+		}
+		return(pos);
+	}
+
+	void build(ArrayList<?> curList){
+		index=new Index(curList);
+	}
+	
+	private Index rebuild(ArrayList<?> curList){
+		Index cur=new Index(curList);
+		index=cur;
+		return(cur);
+	}
+
+	private static String getName(Object item){
+		if(item instanceof Parameter){return(((Parameter)item).name);}
+		else if(item instanceof Variable){return(((Variable)item).name);}
+		else if(item instanceof Table){return(((Table)item).name);}
+		return(null);
+	}
+	
+	/**
+	 * Snapshot of the names in a list.  Never modified after construction.
+	 */
+	private static class Index{
+		final ArrayList<?> list;
+		final int size;
+		final HashMap<String,Integer> indices;
+		
+		Index(ArrayList<?> curList){
+			list=curList;
+			indices=new HashMap<String,Integer>();
+			if(curList==null){
+				size=-1;
+				return;
+			}
+			size=curList.size();
+			for(int i=0; i<size; i++){
+				String name=getName(curList.get(i));
+				if(name!=null && !indices.containsKey(name)){ //keep first match
+					indices.put(name, i);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package export_Java;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import base.AmuaModel;
+import markov.MarkovNode;
+import math.Numeric;
+
+/**
+ * Monte Carlo model translated by the Java export generators, compiled in memory and loaded through a private class loader.
+ * Each run copies the current parameter values into the generated class, runs it, and stores the results in the model's
+ * strategy/chain expected values, so base case and PSA iterations can use the compiled code in place of the interpreter.
+ * Requires a JDK (javax.tools compiler) at run-time.
+ */
+public class JavaCompiledModel{
+	AmuaModel myModel;
+	String source;
+	Class<?> modelClass;
+	Method mainMethod;
+	Field paramValues, results, resultsDis;
+	ArrayList<MarkovNode> chains;
+
+	//Constructor
+	public JavaCompiledModel(AmuaModel myModel) throws Exception{
+		this.myModel=myModel;
+		if(myModel.simType!=1){
+			throw new Exception("Compiled runs are only available for Monte Carlo simulations");
+		}
+		//Generate source
+		StringWriter writer=new StringWriter();
+		BufferedWriter out=new BufferedWriter(writer);
+		JavaModel javaModel;
+		if(myModel.type==0){javaModel=new JavaTreeMonteCarlo(myModel,out).javaModel;}
+		else{
+			javaModel=new JavaMarkovMonteCarlo(myModel,out).javaModel;
+			chains=new ArrayList<MarkovNode>(); //same order as generated results
+			for(int n=0; n<myModel.markov.nodes.size(); n++){
+				MarkovNode curNode=myModel.markov.nodes.get(n);
+				if(curNode.type==1){chains.add(curNode);}
+			}
+		}
+		source=writer.toString();
+		if(javaModel.unsupported!=null){
+			throw new Exception("Compiled runs do not support distribution sampling or matrix functions: "+javaModel.unsupported);
+		}
+
+		ArrayList<String> classNames=new ArrayList<String>();
+		ArrayList<String> sources=new ArrayList<String>();
+		classNames.add("main"); sources.add(source);
+		if(javaModel.tableSource!=null){
+			classNames.add("Table"); sources.add(javaModel.tableSource);
+		}
+		modelClass=compile(classNames,sources);
+		mainMethod=modelClass.getMethod("main", String[].class);
+		paramValues=modelClass.getField("paramValues");
+		results=modelClass.getField("results");
+		if(myModel.type==1){resultsDis=modelClass.getField("resultsDis");}
+	}
+
+	/**
+	 * Compiles sources in memory and loads the first class (and the classes it uses) with a new class loader
+	 * @param classNames
+	 * @param sources
+	 * @return
+	 * @throws Exception
+	 */
+	private static Class<?> compile(ArrayList<String> classNames, ArrayList<String> sources) throws Exception{
+		JavaCompiler compiler=ToolProvider.getSystemJavaCompiler();
+		if(compiler==null){
+			throw new Exception("Java compiler not available - compiled runs require a JDK");
+		}
+		DiagnosticCollector<JavaFileObject> diagnostics=new DiagnosticCollector<JavaFileObject>();
+		final HashMap<String,ByteArrayOutputStream> classBytes=new HashMap<String,ByteArrayOutputStream>();
+		StandardJavaFileManager standardManager=compiler.getStandardFileManager(diagnostics, null, null);
+		JavaFileManager fileManager=new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager){
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind, FileObject sibling){
+				return(new SimpleJavaFileObject(URI.create("mem:///"+name.replace('.', '/')+kind.extension),kind){
+					@Override
+					public OutputStream openOutputStream(){
+						ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+						classBytes.put(name, bytes);
+						return(bytes);
+					}
+				});
+			}
+		};
+		ArrayList<JavaFileObject> sourceFiles=new ArrayList<JavaFileObject>();
+		for(int i=0; i<classNames.size(); i++){
+			final String source=sources.get(i);
+			sourceFiles.add(new SimpleJavaFileObject(URI.create("string:///"+classNames.get(i)+JavaFileObject.Kind.SOURCE.extension),JavaFileObject.Kind.SOURCE){
+				@Override
+				public CharSequence getCharContent(boolean ignoreEncodingErrors){
+					return(source);
+				}
+			});
+		}
+		List<String> options=Arrays.asList("-nowarn","-g:none");
+		boolean success=compiler.getTask(null, fileManager, diagnostics, options, null, sourceFiles).call();
+		fileManager.close();
+		if(success==false){
+			String message="Generated code did not compile";
+			List<Diagnostic<? extends JavaFileObject>> errors=diagnostics.getDiagnostics();
+			for(int i=0; i<errors.size(); i++){
+				Diagnostic<? extends JavaFileObject> curError=errors.get(i);
+				if(curError.getKind()==Diagnostic.Kind.ERROR){
+					message+="\nLine "+curError.getLineNumber()+": "+curError.getMessage(null);
+				}
+			}
+			throw new Exception(message);
+		}
+
+		ClassLoader loader=new ClassLoader(JavaCompiledModel.class.getClassLoader()){
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException{
+				ByteArrayOutputStream bytes=classBytes.get(name);
+				if(bytes==null){return(super.findClass(name));}
+				byte bytecode[]=bytes.toByteArray();
+				return(defineClass(name, bytecode, 0, bytecode.length));
+			}
+		};
+		return(loader.loadClass(classNames.get(0)));
+	}
+
+	/**
+	 * Runs the compiled model with the current parameter values and stores the results in the strategy (decision tree) or chain (Markov) expected values.
+	 * Parameters must already be evaluated.  Runs are not thread-safe since the generated class holds its inputs and results in static fields
+	 * @throws Exception
+	 */
+	public synchronized void run() throws Exception{
+		int numParams=myModel.parameters.size();
+		double values[]=new double[numParams];
+		for(int i=0; i<numParams; i++){
+			Numeric value=myModel.parameters.get(i).value;
+			if(value.isDouble() || value.isInteger()){values[i]=value.getDouble();}
+			else{values[i]=Double.NaN;} //non-scalar parameters are written as constants
+		}
+		paramValues.set(null, values);
+		try{
+			mainMethod.invoke(null, (Object)new String[0]);
+		}catch(InvocationTargetException e){ //report error thrown by the model code
+			if(e.getCause() instanceof Exception){throw (Exception)e.getCause();}
+			throw e;
+		}
+
+		int numDim=myModel.dimInfo.dimNames.length;
+		double outcomes[][]=(double[][]) results.get(null);
+		if(myModel.type==0){ //Decision tree, mean per strategy
+			int numStrat=myModel.getStrategies();
+			for(int s=0; s<numStrat; s++){
+				myModel.tree.nodes.get(myModel.strategyIndices[s]).expectedValues=Arrays.copyOf(outcomes[s], numDim);
+			}
+		}
+		else{ //Markov, totals per chain
+			double outcomesDis[][]=(double[][]) resultsDis.get(null);
+			for(int c=0; c<chains.size(); c++){
+				MarkovNode curChain=chains.get(c);
+				curChain.expectedValues=Arrays.copyOf(outcomes[c], numDim);
+				curChain.expectedValuesDis=Arrays.copyOf(outcomesDis[c], numDim);
+			}
+		}
+	}
+
+	/**
+	 * Generated source, for error reporting
+	 * @return
+	 */
+	public String getSource(){
+		return(source);
+	}
+}
@@ -40,6 +40,7 @@ public class JavaMarkovMonteCarlo{
 	JavaModel javaModel;
 	String dimNames[];
 	MarkovNode states[];
+	boolean compiledRun;
 
 	//Constructor
 	public JavaMarkovMonteCarlo(String dir1,AmuaModel myModel1,int tableFormat){
@@ -57,227 +58,273 @@ public class JavaMarkovMonteCarlo{
 			fstream = new FileWriter(dir+"main.java"); //Create new file
 			out = new BufferedWriter(fstream);
 
-			javaModel=new JavaModel(dir,out,myModel);
+			writeModel();
 
-			javaModel.writeProperties();
-			writeLine("");
-			if(tableFormat==1){ //csv
-				writeLine("import java.io.File;");
+		}catch(Exception e){
+			e.printStackTrace();
+			errorLog.recordError(e);
+		}
+	}
+	
+	/**
+	 * Writes the source for an in-process compiled run (see JavaCompiledModel).
+	 * Real-valued parameters are read from main.paramValues and total outcomes per chain are stored in main.results (and main.resultsDis).
+	 * The trace is not written to file
+	 * @param myModel1
+	 * @param out
+	 * @throws Exception
+	 */
+	public JavaMarkovMonteCarlo(AmuaModel myModel1,BufferedWriter out) throws Exception{
+		myModel=myModel1;
+		markov=myModel.markov;
+		errorLog=myModel.errorLog;
+		tableFormat=0; //in-line
+		dimNames=myModel.dimInfo.dimNames;
+		numDimensions=dimNames.length;
+		this.out=out;
+		compiledRun=true;
+		writeModel();
+	}
+
+	private void writeModel() throws Exception{
+		javaModel=new JavaModel(dir,out,myModel);
+		javaModel.compiledRun=compiledRun;
+
+		//Define Markov Chains
+		ArrayList<MarkovNode> chains=new ArrayList<MarkovNode>();
+		for(int n=0; n<markov.nodes.size(); n++){
+			MarkovNode curNode=markov.nodes.get(n);
+			if(curNode.type==1){
+				chains.add(curNode);
 			}
-			writeLine("import java.io.BufferedWriter;");
-			writeLine("import java.io.FileWriter;");
-			writeLine("import java.util.ArrayList;");
-			writeLine("import java.util.Random;");
-			writeLine("");
-			writeLine("public class main {");
-			writeLine("");	
-			writeLine("	public static void main(String[] args) {");
-			writeLine("		//Instantiate main (outer) class");
-			writeLine("		main outer=new main();");
+		}
+
+		javaModel.writeProperties();
+		writeLine("");
+		if(tableFormat==1){ //csv
+			writeLine("import java.io.File;");
+		}
+		writeLine("import java.io.BufferedWriter;");
+		writeLine("import java.io.FileWriter;");
+		writeLine("import java.util.ArrayList;");
+		writeLine("import java.util.Random;");
+		writeLine("");
+		writeLine("public class main {");
+		writeLine("");	
+		if(compiledRun){
+			writeLine("	public static double paramValues[];");
+			writeLine("	public static double results[][]=new double["+chains.size()+"]["+numDimensions+"], resultsDis[][]=new double["+chains.size()+"]["+numDimensions+"]; //total outcomes [Chain][Dimension]");
 			writeLine("");
-			
-			if(myModel.tables.size()>0){
-				javaModel.writeTableClass();
-				javaModel.writeTables(tableFormat);
-			}
+		}
+		writeLine("	public static void main(String[] args) {");
+		writeLine("		//Instantiate main (outer) class");
+		writeLine("		main outer=new main();");
+		writeLine("");
+		
+		if(myModel.tables.size()>0){
+			javaModel.writeTableClass();
+			javaModel.writeTables(tableFormat);
+		}
 
-			javaModel.writeParameters();
-			int numVars=myModel.variables.size();
+		javaModel.writeParameters();
+		int numVars=myModel.variables.size();
 
-			writeLine("		//Intialize Random Number Generator");
-			writeLine("		Random generator=new Random(); //built-in Java RNG - feel free to swap out");
-			writeLine("		double rand;");
-			writeLine("		//Initialize chain elements");
-			writeLine("		int t;");
-			writeLine("		boolean terminate;");
-			writeLine("		double childProbs[];");
-			writeLine("		int numStates;");
-			writeLine("		String stateNames[];");
-			writeLine("		MarkovTrace trace;");
-			writeLine("		double initPrev[], cumPrev[];");
-			writeLine("		int numPeople;");
-			writeLine("		Person people[];");
-			
+		writeLine("		//Intialize Random Number Generator");
+		writeLine("		Random generator=new Random(); //built-in Java RNG - feel free to swap out");
+		writeLine("		double rand;");
+		writeLine("		//Initialize chain elements");
+		writeLine("		int t;");
+		writeLine("		boolean terminate;");
+		writeLine("		double childProbs[];");
+		writeLine("		int numStates;");
+		writeLine("		String stateNames[];");
+		writeLine("		MarkovTrace trace;");
+		writeLine("		double initPrev[], cumPrev[];");
+		writeLine("		int numPeople;");
+		writeLine("		Person people[];");
+		
+		writeLine("");
+		writeLine("		//Initialize discount rates");
+		out.write("		double discountRates[]=new double[]{");
+		if(myModel.markov.discountRewards){
+			for(int d=0; d<numDimensions-1; d++){out.write(myModel.markov.discountRates[d]/100.0+",");}
+			out.write(myModel.markov.discountRates[numDimensions-1]/100.0+"};"); out.newLine();
+			writeLine("		int startDiscountCycle="+myModel.markov.discountStartCycle+";");
+		}
+		else{
+			for(int d=0; d<numDimensions-1; d++){out.write("0,");}
+			out.write("0};");  out.newLine();
+			writeLine("		int startDiscountCycle=0;");
+		}
+		writeLine("		boolean halfCycle="+myModel.markov.halfCycleCorrection+"; //half-cycle correction");
+
+		for(int c=0; c<chains.size(); c++){ //for each chain
+			MarkovNode curChain=chains.get(c);
+			String chainID=curChain.nameExport;
+			if(compiledRun){chainID="chain"+c;} //export names are only assigned by the export dialog
+			int numStates=curChain.childIndices.size();
+			states=new MarkovNode[numStates];
+			for(int s=0; s<numStates; s++){
+				int index=curChain.childIndices.get(s);
+				states[s]=markov.nodes.get(index);
+			}
 			writeLine("");
-			writeLine("		//Initialize discount rates");
-			out.write("		double discountRates[]=new double[]{");
-			if(myModel.markov.discountRewards){
-				for(int d=0; d<numDimensions-1; d++){out.write(myModel.markov.discountRates[d]/100.0+",");}
-				out.write(myModel.markov.discountRates[numDimensions-1]/100.0+"};"); out.newLine();
-				writeLine("		int startDiscountCycle="+myModel.markov.discountStartCycle+";");
+			writeLine("		//********** Markov Chain: "+curChain.name+" **********");
+			if(compiledRun==false){writeLine("		System.out.print(\"Running Markov Chain: "+curChain.name+" \");");}
+			if(myModel.CRN){
+				writeLine("		generator.setSeed("+myModel.crnSeed+");");
 			}
-			else{
-				for(int d=0; d<numDimensions-1; d++){out.write("0,");}
-				out.write("0};");  out.newLine();
+			writeLine("		numStates="+numStates+";");
+			out.write("		stateNames=new String[]{");
+			for(int s=0; s<numStates-1; s++){
+				out.write("\""+states[s].name+"\",");
 			}
-			writeLine("		boolean halfCycle="+myModel.markov.halfCycleCorrection+"; //half-cycle correction");
-			
-			//Define Markov Chains
-			ArrayList<MarkovNode> chains=new ArrayList<MarkovNode>();
-			for(int n=0; n<markov.nodes.size(); n++){
-				MarkovNode curNode=markov.nodes.get(n);
-				if(curNode.type==1){
-					chains.add(curNode);
-				}
+			out.write("\""+states[numStates-1].name+"\"};"); out.newLine();
+			writeLine("		trace=outer.new MarkovTrace(\""+curChain.name+"\",stateNames); //initialize trace");
+			writeLine("		//Initialize prevalence");
+			out.write("		initPrev=new double[]{");
+			for(int s=0; s<numStates-1; s++){
+				out.write(javaModel.translate(states[s].prob,true)+",");
 			}
-					
-			for(int c=0; c<chains.size(); c++){ //for each chain
-				MarkovNode curChain=chains.get(c);
-				int numStates=curChain.childIndices.size();
-				states=new MarkovNode[numStates];
-				for(int s=0; s<numStates; s++){
-					int index=curChain.childIndices.get(s);
-					states[s]=markov.nodes.get(index);
-				}
-				writeLine("");
-				writeLine("		//********** Markov Chain: "+curChain.name+" **********");
-				writeLine("		System.out.print(\"Running Markov Chain: "+curChain.name+" \");");
-				if(myModel.CRN){
-					writeLine("		generator.setSeed("+myModel.crnSeed+");");
-				}
-				writeLine("		numStates="+numStates+";");
-				out.write("		stateNames=new String[]{");
-				for(int s=0; s<numStates-1; s++){
-					out.write("\""+states[s].name+"\",");
-				}
-				out.write("\""+states[numStates-1].name+"\"};"); out.newLine();
-				writeLine("		trace=outer.new MarkovTrace(\""+curChain.name+"\",stateNames); //initialize trace");
-				writeLine("		//Initialize prevalence");
-				out.write("		initPrev=new double[]{");
-				for(int s=0; s<numStates-1; s++){
-					out.write(javaModel.translate(states[s].prob,true)+",");
-				}
-				out.write(javaModel.translate(states[numStates-1].prob,true)+"};"); out.newLine();
-				writeLine("		cumPrev=new double[numStates];");
-				writeLine("		cumPrev[0]=initPrev[0];");
-				writeLine("		for(int s=1; s<numStates; s++){");
-				writeLine("			cumPrev[s]=cumPrev[s-1]+initPrev[s];");
-				writeLine("		}");
-				writeLine("");
-				writeLine("		numPeople="+myModel.cohortSize+";");
-				writeLine("		people=new Person[numPeople];");
-				writeLine("		for(int p=0; p<numPeople; p++){");
-				writeLine("			people[p]=outer.new Person();");
-				writeLine("			rand=generator.nextDouble();");
-				writeLine("			int k=0;");
-				writeLine("			while(rand>initPrev[k]){k++;}");
-				writeLine("			people[p].state=k;");
-				if(numVars>0){
-					writeLine("			//Initialize variables");
-					for(int v=0; v<numVars; v++){
-						Variable curVar=myModel.variables.get(v);
-						writeLine("			people[p]."+curVar.name+"="+javaModel.translate(curVar.initValue,true)+";");
-					}
-				}
-				writeLine("		}");
-				writeLine("");
-				writeLine("		//Run chain");
-				writeLine("		//Initialize outcomes");
-				for(int d=0; d<numDimensions; d++){
-					writeLine("		double "+curChain.nameExport+"_"+dimNames[d]+"=0, "+curChain.nameExport+"_Dis_"+dimNames[d]+"=0;");
+			out.write(javaModel.translate(states[numStates-1].prob,true)+"};"); out.newLine();
+			writeLine("		cumPrev=new double[numStates];");
+			writeLine("		cumPrev[0]=initPrev[0];");
+			writeLine("		for(int s=1; s<numStates; s++){");
+			writeLine("			cumPrev[s]=cumPrev[s-1]+initPrev[s];");
+			writeLine("		}");
+			writeLine("");
+			writeLine("		numPeople="+myModel.cohortSize+";");
+			writeLine("		people=new Person[numPeople];");
+			writeLine("		for(int p=0; p<numPeople; p++){");
+			writeLine("			people[p]=outer.new Person();");
+			writeLine("			rand=generator.nextDouble();");
+			writeLine("			int initState=0;");
+			writeLine("			while(rand>cumPrev[initState]){initState++;}");
+			writeLine("			people[p].state=initState;");
+			if(numVars>0){
+				writeLine("			//Initialize variables");
+				for(int v=0; v<numVars; v++){
+					Variable curVar=myModel.variables.get(v);
+					writeLine("			people[p]."+curVar.name+"="+javaModel.translate(curVar.initValue,true)+";");
 				}
-				writeLine("		t=0; //initialize cycle");
-				writeLine("		terminate=false;");
-				writeLine("		while(terminate==false){");
+			}
+			writeLine("		}");
+			writeLine("");
+			writeLine("		//Run chain");
+			writeLine("		//Initialize outcomes");
+			for(int d=0; d<numDimensions; d++){
+				writeLine("		double "+chainID+"_"+dimNames[d]+"=0, "+chainID+"_Dis_"+dimNames[d]+"=0;");
+			}
+			writeLine("		t=0; //initialize cycle");
+			writeLine("		terminate=false;");
+			writeLine("		while(terminate==false){");
+			if(compiledRun==false){
 				writeLine("			//Update progress");
 				writeLine("			if(t%10==0){System.out.print(t);}");
 				writeLine("			else{System.out.print(\".\");}");
 				writeLine("");
-				writeLine("			//Cycle outcomes");
-				writeLine("			double prev[]=new double[numStates];");
-				for(int d=0; d<numDimensions; d++){
-					writeLine("			double cycle"+dimNames[d]+"=0, cycle"+dimNames[d]+"_dis=0;");
-				}
-				writeLine("");
-				writeLine("			//Update each person");
-				writeLine("			for(int p=0; p<numPeople; p++){");
-				writeLine("				Person curPerson=people[p];");
-				writeLine("				int curState=curPerson.state;");
-				writeLine("				prev[curState]++; //record prevalence");
-				writeLine("				if(curState==0){ //"+states[0].name);
-				defineNode(states[0]);
+			}
+			writeLine("			//Cycle outcomes");
+			writeLine("			double prev[]=new double[numStates];");
+			for(int d=0; d<numDimensions; d++){
+				writeLine("			double cycle"+dimNames[d]+"=0, cycle"+dimNames[d]+"_dis=0;");
+			}
+			writeLine("");
+			writeLine("			//Update each person");
+			writeLine("			for(int p=0; p<numPeople; p++){");
+			writeLine("				Person curPerson=people[p];");
+			writeLine("				int curState=curPerson.state;");
+			writeLine("				prev[curState]++; //record prevalence");
+			writeLine("				if(curState==0){ //"+states[0].name);
+			defineNode(states[0]);
+			writeLine("				}");
+			for(int s=1; s<numStates; s++){
+				writeLine("				else if(curState=="+s+"){ //"+states[s].name);
+				defineNode(states[s]);
 				writeLine("				}");
-				for(int s=1; s<numStates; s++){
-					writeLine("				else if(curState=="+s+"){ //"+states[s].name);
-					defineNode(states[s]);
-					writeLine("				}");
-				}
-				writeLine("			} //end person for loop");
-				writeLine("");
-				writeLine("			//Update outcomes");
-				for(int d=0; d<numDimensions; d++){
-					writeLine("			double discount=1.0;");
-					writeLine("			if(t>=startDiscountCycle){");
-					writeLine("				discount=1.0/Math.pow(1.0+discountRates["+d+"],(t-startDiscountCycle)+1);");
-					writeLine("			}");
-					writeLine("			cycle"+dimNames[d]+"_dis=cycle"+dimNames[d]+"*discount;");
-					writeLine("			if(t==0 && halfCycle){ //half-cycle correction");
-					writeLine("				cycle"+dimNames[d]+"*=0.5; cycle"+dimNames[d]+"_dis*=0.5;");
-					writeLine("			}");
-					writeLine("			"+curChain.nameExport+"_"+dimNames[d]+"+=cycle"+dimNames[d]+";");
-					writeLine("			"+curChain.nameExport+"_Dis_"+dimNames[d]+"+=cycle"+dimNames[d]+"_dis;");
-				}
-				writeLine("");
-				writeLine("			//Update trace");
-				out.write("			trace.update(prev");
-				for(int d=0; d<numDimensions; d++){out.write(", cycle"+dimNames[d]+", cycle"+dimNames[d]+"_dis");}
-				out.write(");"); out.newLine();
-				writeLine("");
-				writeLine("			//Check termination condition");
-				writeLine("			terminate = ("+javaModel.translate(curChain.terminationCondition, true)+");");
-				writeLine("			if(terminate && halfCycle){ //half cycle-correction, update last trace row");
-				writeLine("				trace.applyHalfCycle();");
-				writeLine("				//Update cum rewards)");
+			}
+			writeLine("			} //end person for loop");
+			writeLine("");
+			writeLine("			//Update outcomes");
+			for(int d=0; d<numDimensions; d++){
+				writeLine("			{ //"+dimNames[d]);
+				writeLine("			double discount=1.0;");
+				writeLine("			if(t>=startDiscountCycle){");
+				writeLine("				discount=1.0/Math.pow(1.0+discountRates["+d+"],(t-startDiscountCycle)+1);");
+				writeLine("			}");
+				writeLine("			cycle"+dimNames[d]+"_dis=cycle"+dimNames[d]+"*discount;");
+				writeLine("			if(t==0 && halfCycle){ //half-cycle correction");
+				writeLine("				cycle"+dimNames[d]+"*=0.5; cycle"+dimNames[d]+"_dis*=0.5;");
+				writeLine("			}");
+				writeLine("			"+chainID+"_"+dimNames[d]+"+=cycle"+dimNames[d]+";");
+				writeLine("			"+chainID+"_Dis_"+dimNames[d]+"+=cycle"+dimNames[d]+"_dis;");
+				writeLine("			}");
+			}
+			writeLine("");
+			writeLine("			//Update trace");
+			out.write("			trace.update(prev");
+			for(int d=0; d<numDimensions; d++){out.write(", cycle"+dimNames[d]+", cycle"+dimNames[d]+"_dis");}
+			out.write(");"); out.newLine();
+			writeLine("");
+			writeLine("			//Check termination condition");
+			writeLine("			terminate = ("+javaModel.translate(curChain.terminationCondition, true)+");");
+			writeLine("			if(terminate && halfCycle){ //half cycle-correction, update last trace row");
+			writeLine("				trace.applyHalfCycle();");
+			writeLine("				//Update cum rewards)");
+			for(int d=0; d<numDimensions; d++){
+				writeLine("				"+chainID+"_"+dimNames[d]+"-=cycle"+dimNames[d]+"*0.5;");
+				writeLine("				"+chainID+"_Dis_"+dimNames[d]+"-=cycle"+dimNames[d]+"_dis*0.5;");
+			}
+			writeLine("			}");
+			writeLine("");
+			writeLine("			t++; //next cycle");
+			writeLine("");
+			writeLine("		} //end cycle while loop");
+			if(compiledRun){
+				writeLine("		//Store totals");
 				for(int d=0; d<numDimensions; d++){
-					writeLine("				"+curChain.nameExport+"_"+dimNames[d]+"-=cycle"+dimNames[d]+"*0.5;");
-					writeLine("				"+curChain.nameExport+"_Dis_"+dimNames[d]+"-=cycle"+dimNames[d]+"_dis*0.5;");
+					writeLine("		results["+c+"]["+d+"]="+chainID+"_"+dimNames[d]+";");
+					writeLine("		resultsDis["+c+"]["+d+"]="+chainID+"_Dis_"+dimNames[d]+";");
 				}
-				writeLine("			}");
-				writeLine("");
-				writeLine("			t++; //next cycle");
-				writeLine("");
-				writeLine("		} //end cycle while loop");
+			}
+			else{
 				writeLine("		trace.writeCSV(); //write trace");
 				writeLine("		System.out.println(\" done!\");");
 				writeLine("");
 				writeLine("		//Report totals");
 				for(int d=0; d<numDimensions; d++){
-					writeLine("		System.out.println(\""+dimNames[d]+": \"+"+curChain.nameExport+"_"+dimNames[d]+");");
-					writeLine("		System.out.println(\""+dimNames[d]+" (Discounted): \"+"+curChain.nameExport+"_Dis_"+dimNames[d]+");");
+					writeLine("		System.out.println(\""+dimNames[d]+": \"+"+chainID+"_"+dimNames[d]+");");
+					writeLine("		System.out.println(\""+dimNames[d]+" (Discounted): \"+"+chainID+"_Dis_"+dimNames[d]+");");
 				}
 				writeLine("		System.out.println();");
 			}
-			
-			out.write("	}"); out.newLine(); //end method
-			out.newLine();
-			
-			javaModel.defineFunctions();
-			
-			//Inner classes
-			writeLine("	//Define inner class");
-			writeLine("	class Person{");
-			writeLine("		//Attributes");
-			writeLine("		int state;");
-			for(int v=0; v<numVars; v++){
-				Variable curVar=myModel.variables.get(v);
-				writeLine("		"+javaModel.defNumeric(curVar.name,curVar.value));
-			}
-			writeLine("");
-			writeLine("		//Constructor");
-			writeLine("		public Person(){");
-			writeLine("		}");
-			writeLine("	}"); //end person class
-			writeLine("");
-			
-			javaModel.writeMarkovTrace();
-			
-			out.write("}"); //Close class
-			out.close();
-
-		}catch(Exception e){
-			e.printStackTrace();
-			errorLog.recordError(e);
 		}
+		
+		out.write("	}"); out.newLine(); //end method
+		out.newLine();
+		
+		javaModel.defineFunctions();
+		
+		//Inner classes
+		writeLine("	//Define inner class");
+		writeLine("	class Person{");
+		writeLine("		//Attributes");
+		writeLine("		int state;");
+		for(int v=0; v<numVars; v++){
+			Variable curVar=myModel.variables.get(v);
+			writeLine("		"+javaModel.defNumeric(curVar.name,curVar.value));
+		}
+		writeLine("");
+		writeLine("		//Constructor");
+		writeLine("		public Person(){");
+		writeLine("		}");
+		writeLine("	}"); //end person class
+		writeLine("");
+		
+		javaModel.writeMarkovTrace();
+		
+		out.write("}"); //Close class
+		out.close();
 	}
 
 	private void defineNode(MarkovNode curNode){
@@ -21,6 +21,7 @@ package export_Java;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Date;
 
@@ -40,6 +41,18 @@ public class JavaModel{
 	AmuaModel myModel;
 	ArrayList<String> functionNames; //to export
 	ArrayList<String> functionMethods;
+	/**
+	 * Source is compiled in-process (see JavaCompiledModel): real-valued parameters are read from main.paramValues
+	 */
+	boolean compiledRun;
+	/**
+	 * Compiled runs: source of the Table class (written in memory instead of Table.java)
+	 */
+	String tableSource;
+	/**
+	 * Compiled runs: first expression that can't be translated to plain Java (distribution sampling or matrix functions), null if none
+	 */
+	String unsupported;
 		
 	public JavaModel(String dir, BufferedWriter out, AmuaModel myModel){
 		this.dir=dir;
@@ -143,6 +156,7 @@ public class JavaModel{
 				}
 			}
 			else if(MatrixFunctions.isFunction(word)){
+				if(compiledRun && unsupported==null){unsupported=expression;}
 				//just parse arguments for now
 				int close=Interpreter.findRightParen(curText, pos);
 				String args[]=Interpreter.splitArgs(curText.substring(pos+1,close));
@@ -154,6 +168,7 @@ public class JavaModel{
 				pos=close+1; //Move to end of function call
 			}
 			else if(Distributions.isDistribution(word)){
+				if(compiledRun && unsupported==null){unsupported=expression;}
 				//just parse arguments for now
 				int close=Interpreter.findRightParen(curText,pos);
 				String args[]=Interpreter.splitArgs(curText.substring(pos+1,close));
@@ -221,6 +236,9 @@ public class JavaModel{
 				}
 				String expr=curParam.expression;
 				String init=initNumeric(curParam.name,curParam.value);
+				if(compiledRun && (curParam.value.isDouble() || curParam.value.isInteger())){ //set for each run
+					init="		double "+curParam.name+"=paramValues["+i+"];";
+				}
 				writeLine(init+" //Expression: "+expr);
 			}
 			writeLine("");
@@ -373,8 +391,16 @@ public class JavaModel{
 	public void writeTableClass() throws IOException{
 		int numTables=myModel.tables.size();
 		if(numTables>0){
-			FileWriter fstream = new FileWriter(dir+"Table.java"); //Create new file
-			BufferedWriter outTable = new BufferedWriter(fstream);
+			BufferedWriter outTable;
+			StringWriter tableWriter=null;
+			if(compiledRun){ //compiled with main in memory
+				tableWriter=new StringWriter();
+				outTable=new BufferedWriter(tableWriter);
+			}
+			else{
+				FileWriter fstream = new FileWriter(dir+"Table.java"); //Create new file
+				outTable = new BufferedWriter(fstream);
+			}
 			BufferedWriter origOut=out;
 			out=outTable; //re-point
 
@@ -569,6 +595,7 @@ public class JavaModel{
 			writeLine("	}"); //end CublicSpline class
 			writeLine("}"); //end Table class
 			out.close();
+			if(compiledRun){tableSource=tableWriter.toString();}
 
 			out=origOut; //point back
 		}
@@ -658,30 +685,32 @@ public class JavaModel{
 			writeLine("			return(val);");
 			writeLine("		}");
 			writeLine("");
-			writeLine("		public void writeCSV(){");
-			writeLine("			try{");
-			writeLine("				String dir=\""+dir.replaceAll("\\\\", "\\\\\\\\")+"\";");
-			writeLine("				FileWriter fstream = new FileWriter(dir+name+\"_Trace.csv\");");
-			writeLine("				BufferedWriter out = new BufferedWriter(fstream);");
-			writeLine("				//Headers");
-			writeLine("				for(int i=0; i<numCols-1; i++){");
-			writeLine("					out.write(headers.get(i)+\",\");");
-			writeLine("				}");
-			writeLine("				out.write(headers.get(numCols-1)); out.newLine();");
-			writeLine("				//Data");
-			writeLine("				int numRows=data.size();");
-			writeLine("				for(int i=0; i<numRows; i++){");
-			writeLine("					double row[]=data.get(i);");
-			writeLine("					for(int j=0; j<numCols-1; j++){");
-			writeLine("						out.write(row[j]+\",\");");
-			writeLine("					}");
-			writeLine("					out.write(row[numCols-1]+\"\"); out.newLine();");
-			writeLine("				}");
-			writeLine("				out.close();");
-			writeLine("			} catch (Exception e){");
-			writeLine("				e.printStackTrace();");
-			writeLine("			}");
-			writeLine("		}");
+			if(compiledRun==false){ //compiled runs keep the trace in memory only
+				writeLine("		public void writeCSV(){");
+				writeLine("			try{");
+				writeLine("				String dir=\""+dir.replaceAll("\\\\", "\\\\\\\\")+"\";");
+				writeLine("				FileWriter fstream = new FileWriter(dir+name+\"_Trace.csv\");");
+				writeLine("				BufferedWriter out = new BufferedWriter(fstream);");
+				writeLine("				//Headers");
+				writeLine("				for(int i=0; i<numCols-1; i++){");
+				writeLine("					out.write(headers.get(i)+\",\");");
+				writeLine("				}");
+				writeLine("				out.write(headers.get(numCols-1)); out.newLine();");
+				writeLine("				//Data");
+				writeLine("				int numRows=data.size();");
+				writeLine("				for(int i=0; i<numRows; i++){");
+				writeLine("					double row[]=data.get(i);");
+				writeLine("					for(int j=0; j<numCols-1; j++){");
+				writeLine("						out.write(row[j]+\",\");");
+				writeLine("					}");
+				writeLine("					out.write(row[numCols-1]+\"\"); out.newLine();");
+				writeLine("				}");
+				writeLine("				out.close();");
+				writeLine("			} catch (Exception e){");
+				writeLine("				e.printStackTrace();");
+				writeLine("			}");
+				writeLine("		}");
+			}
 			writeLine("	}"); //end markovTrace
 		}catch(Exception e){
 			e.printStackTrace();
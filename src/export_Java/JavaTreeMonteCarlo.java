@@ -38,6 +38,7 @@ public class JavaTreeMonteCarlo{
 	String dir;
 	JavaModel javaModel;
 	String dimNames[];
+	boolean compiledRun;
 
 	//Constructor
 	public JavaTreeMonteCarlo(String dir1,AmuaModel myModel1,int tableFormat){
@@ -55,66 +56,107 @@ public class JavaTreeMonteCarlo{
 			fstream = new FileWriter(dir+"main.java"); //Create new file
 			out = new BufferedWriter(fstream);
 
-			javaModel=new JavaModel(dir,out,myModel);
+			writeModel();
 
-			javaModel.writeProperties();
-			writeLine("");
-			if(tableFormat==1){ //csv
-				writeLine("import java.io.File;");
-			}
-			writeLine("import java.util.Random;");
+		}catch(Exception e){
+			e.printStackTrace();
+			errorLog.recordError(e);
+		}
+	}
+	
+	/**
+	 * Writes the source for an in-process compiled run (see JavaCompiledModel).
+	 * Real-valued parameters are read from main.paramValues and mean outcomes per strategy are stored in main.results instead of printed
+	 * @param myModel1
+	 * @param out
+	 * @throws Exception
+	 */
+	public JavaTreeMonteCarlo(AmuaModel myModel1,BufferedWriter out) throws Exception{
+		myModel=myModel1;
+		tree=myModel.tree;
+		errorLog=myModel.errorLog;
+		tableFormat=0; //in-line
+		dimNames=myModel.dimInfo.dimNames;
+		numDimensions=dimNames.length;
+		this.out=out;
+		compiledRun=true;
+		writeModel();
+	}
+
+	private void writeModel() throws Exception{
+		javaModel=new JavaModel(dir,out,myModel);
+		javaModel.compiledRun=compiledRun;
+
+		javaModel.writeProperties();
+		writeLine("");
+		if(tableFormat==1){ //csv
+			writeLine("import java.io.File;");
+		}
+		writeLine("import java.util.Random;");
+		writeLine("");
+		writeLine("public class main {");
+		writeLine("");	
+		if(compiledRun){
+			writeLine("	public static double paramValues[];");
+			writeLine("	public static double results[][]=new double["+myModel.getStrategies()+"]["+numDimensions+"]; //mean outcomes [Strategy][Dimension]");
 			writeLine("");
-			writeLine("public class main {");
-			writeLine("");	
-			writeLine("	public static void main(String[] args) {");
-			
-			javaModel.writeTables(tableFormat);
+		}
+		writeLine("	public static void main(String[] args) {");
+		
+		javaModel.writeTables(tableFormat);
 
-			javaModel.writeParameters();
+		javaModel.writeParameters();
 
-			int numVars=myModel.variables.size();
-			javaModel.writeVariables();
+		int numVars=myModel.variables.size();
+		javaModel.writeVariables();
 
-			writeLine("		//Intialize Random Number Generator");
-			writeLine("		Random generator=new Random(); //built-in Java RNG - feel free to swap out");
-			writeLine("		double rand;");
+		writeLine("		//Intialize Random Number Generator");
+		writeLine("		Random generator=new Random(); //built-in Java RNG - feel free to swap out");
+		writeLine("		double rand;");
+		writeLine("");
+		writeLine("		//Define outcomes");
+		for(int d=0; d<dimNames.length; d++){
+			writeLine("		double "+dimNames[d]+"=0;");
+		}
+		writeLine("");
+		
+		//Define strategies
+		writeLine("		//Define strategies");
+		writeLine("		int numSim="+myModel.cohortSize+";");
+		writeLine("		double childProbs[];");
+		int numStrat=myModel.getStrategies();
+		for(int s=0; s<numStrat; s++){
 			writeLine("");
-			writeLine("		//Define outcomes");
+			writeLine("		//"+myModel.strategyNames[s]);
+			if(myModel.CRN){writeLine("		generator.setSeed("+myModel.crnSeed+");");}
+			writeLine("		//Initialize outcomes");
 			for(int d=0; d<dimNames.length; d++){
-				writeLine("		double "+dimNames[d]+"=0;");
+				writeLine("		"+dimNames[d]+"=0;");
 			}
-			writeLine("");
-			
-			//Define strategies
-			writeLine("		//Define strategies");
-			writeLine("		int numSim="+myModel.cohortSize+";");
-			writeLine("		double childProbs[];");
-			int numStrat=myModel.getStrategies();
-			for(int s=0; s<numStrat; s++){
-				writeLine("");
-				writeLine("		//"+myModel.strategyNames[s]);
-				if(myModel.CRN){writeLine("		generator.setSeed("+myModel.crnSeed+");");}
-				writeLine("		//Initialize outcomes");
-				for(int d=0; d<dimNames.length; d++){
-					writeLine("		"+dimNames[d]+"=0;");
+			writeLine("		//Run Monte Carlo simulation");
+			writeLine("		for(int i=0; i<numSim; i++){");
+			if(numVars>0){
+				writeLine("			//Initialize variables");
+				for(int v=0; v<numVars; v++){
+					Variable curVar=myModel.variables.get(v);
+					writeLine("			"+curVar.name+"="+javaModel.translate(curVar.initValue,false)+";");
 				}
-				writeLine("		//Run Monte Carlo simulation");
-				writeLine("		for(int i=0; i<numSim; i++){");
-				if(numVars>0){
-					writeLine("			//Initialize variables");
-					for(int v=0; v<numVars; v++){
-						Variable curVar=myModel.variables.get(v);
-						writeLine("			"+curVar.name+"="+javaModel.translate(curVar.initValue,false)+";");
-					}
+			}
+			//define nodes
+			int stratIndex=myModel.tree.nodes.get(0).childIndices.get(s);
+			TreeNode curStrategy=myModel.tree.nodes.get(stratIndex);
+			defineNode(curStrategy);
+			
+			//progress
+			
+			writeLine("		} //end Monte Carlo loop");
+			if(compiledRun){ //Store results
+				writeLine("		//Store results");
+				for(int d=0; d<numDimensions; d++){
+					writeLine("		results["+s+"]["+d+"]="+dimNames[d]+"/numSim;");
 				}
-				//define nodes
-				int stratIndex=myModel.tree.nodes.get(0).childIndices.get(s);
-				TreeNode curStrategy=myModel.tree.nodes.get(stratIndex);
-				defineNode(curStrategy);
-				
-				//progress
-				
-				writeLine("		} //end Monte Carlo loop");
+			}
+			else{
 				//Print results
 				writeLine("		//Print results");
 				writeLine("		System.out.println(\"Strategy: "+myModel.strategyNames[s]+"\");");
@@ -123,22 +165,18 @@ public class JavaTreeMonteCarlo{
 				}
 				writeLine("		System.out.println(\"\");");
 			}
+		}
 
-			out.write("	}"); out.newLine(); //end inner class
-			out.newLine();
-			
-			javaModel.defineFunctions();
-			
-			javaModel.writeTableClass();
-
-			
-			out.write("}"); //Close class
-			out.close();
+		out.write("	}"); out.newLine(); //end inner class
+		out.newLine();
+		
+		javaModel.defineFunctions();
+		
+		javaModel.writeTableClass();
 
-		}catch(Exception e){
-			e.printStackTrace();
-			errorLog.recordError(e);
-		}
+		
+		out.write("}"); //Close class
+		out.close();
 	}
 
 	private void defineNode(TreeNode curNode){
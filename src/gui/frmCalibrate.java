@@ -57,7 +57,7 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
-import main.Constraint;
+import main.CalibrationRunner;
 import main.DimInfo;
 import main.MersenneTwisterFast;
 import main.Parameter;
@@ -86,6 +86,7 @@ public class frmCalibrate {
 		
 	JComboBox comboPlot;
 	private JTextField textNumSets;
+	private JTextField textThreads;
 	String CEAnotes[][];
 	DefaultTableModel modelParamSets;
 	private JTable tableParamSets;
@@ -93,6 +94,7 @@ public class frmCalibrate {
 	String paramNames[];
 	ParameterSet params[];
 	double paramVals[][]; //[param][set]
+	double paramSorted[][]; //[param][set], sorted copies shared by histogram/CDF/quantile plots
 	DefaultTableModel modelCalibSettings;
 	private JTable tableCalibSettings;
 	DefaultTableModel modelParams;
@@ -265,7 +267,7 @@ public class frmCalibrate {
 						chart.getXYPlot().getRangeAxis().setLabel("Posterior Frequency");
 						for(int i=0; i<numSelected; i++){
 							int curIndex=selected[i];
-							double hist[][]=KernelSmooth.histogram(paramVals[curIndex], 100, 10);
+							double hist[][]=KernelSmooth.histogramSorted(getSortedParam(curIndex), 100, 10);
 							chartData.addSeries(paramNames[curIndex], hist);
 						}
 					}
@@ -274,7 +276,7 @@ public class frmCalibrate {
 						chart.getXYPlot().getRangeAxis().setLabel("Posterior CDF");
 						for(int i=0; i<numSelected; i++){
 							int curIndex=selected[i];
-							double cdf[][]=KernelSmooth.cdf(paramVals[curIndex]);
+							double cdf[][]=KernelSmooth.cdfSorted(getSortedParam(curIndex));
 							chartData.addSeries(paramNames[curIndex], cdf);
 						}
 					}
@@ -283,7 +285,7 @@ public class frmCalibrate {
 						chart.getXYPlot().getRangeAxis().setLabel("Parameter");
 						for(int i=0; i<numSelected; i++){
 							int curIndex=selected[i];
-							double cdf[][]=KernelSmooth.quantiles(paramVals[curIndex]);
+							double cdf[][]=KernelSmooth.quantilesSorted(getSortedParam(curIndex));
 							chartData.addSeries(paramNames[curIndex], cdf);
 						}
 					}
@@ -439,6 +441,17 @@ public class frmCalibrate {
 			panel_2.add(textNumSets);
 			textNumSets.setColumns(10);
 			
+			JLabel lblThreads = new JLabel("# Threads:");
+			lblThreads.setBounds(10, 70, 69, 16);
+			panel_2.add(lblThreads);
+			
+			textThreads = new JTextField();
+			textThreads.setHorizontalAlignment(SwingConstants.CENTER);
+			textThreads.setText(Runtime.getRuntime().availableProcessors()+"");
+			textThreads.setBounds(73, 66, 55, 24);
+			panel_2.add(textThreads);
+			textThreads.setColumns(10);
+			
 			JLabel lblMethod = new JLabel("Method:");
 			lblMethod.setBounds(10, 43, 55, 16);
 			panel_2.add(lblMethod);
@@ -456,9 +469,18 @@ public class frmCalibrate {
 						modelCalibSettings.setValueAt("Score Threshold", 0, 0);
 						tableCalibSettings.setEnabled(true);
 					}
+					else if(method==2){ //abc-smc
+						modelCalibSettings.setRowCount(3);
+						modelCalibSettings.setValueAt("Target Score Threshold", 0, 0);
+						modelCalibSettings.setValueAt("Max Generations", 1, 0);
+						modelCalibSettings.setValueAt("10", 1, 1);
+						modelCalibSettings.setValueAt("Threshold Quantile", 2, 0);
+						modelCalibSettings.setValueAt("0.5", 2, 1);
+						tableCalibSettings.setEnabled(true);
+					}
 				}
 			});
-			comboMethod.setModel(new DefaultComboBoxModel(new String[] {"Random", "Approximate Bayesian Computation"}));
+			comboMethod.setModel(new DefaultComboBoxModel(new String[] {"Random", "Approximate Bayesian Computation", "ABC - Sequential Monte Carlo"}));
 			comboMethod.setBounds(56, 38, 229, 26);
 			panel_2.add(comboMethod);
 			
@@ -553,77 +575,36 @@ public class frmCalibrate {
 									
 									modelParams.setRowCount(0);
 									
-									myModel.sampleParam=true;
-									myModel.generatorParam=new MersenneTwisterFast();
-									myModel.curGenerator=myModel.generatorParam;
-									
 									//Get orig values for all parameters
 									Numeric origValues[]=new Numeric[numParams];
-									for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters
+									for(int v=0; v<numParams; v++){
 										origValues[v]=myModel.parameters.get(v).value.copy();
 										modelParams.addRow(new Object[]{null});
 										modelParams.setValueAt(myModel.parameters.get(v).name, v, 0);
 										modelParams.setValueAt(myModel.parameters.get(v).expression, v, 1);
 									}
-									//Initialize constraint expressions
-									for(int c=0; c<numConst; c++){
-										myModel.constraints.get(c).parseConstraints();
-									}
 									
-									long startTime=System.currentTimeMillis();
-									boolean wasCancelled=false;
+									progress.setMillisToPopup(0);
+									progress.setMillisToDecideToPopup(0);
+									progress.setProgress(0);
+									progress.setNote("Sampling...");
 									
+									int numThreads=Math.max(1, Integer.parseInt(textThreads.getText()));
+									CalibrationRunner runner=new CalibrationRunner(myModel,curChain,strScore,numThreads);
 									if(method==0){ //random
-										for(int i=0; i<numSets; i++){
-											progress.setProgress(i+1);
-											sampleAll();
-											myModel.markov.runModel(curChain,false);
-											double curScore=Interpreter.evaluate(strScore, myModel, false).getDouble();
-											params[i]=new ParameterSet(myModel);
-											params[i].id=(i+1)+"";
-											params[i].score=curScore;
-											if(progress.isCanceled()){ //listen for cancel
-												numSets=i; //end for loop
-												wasCancelled=true;
-											}
-											//Update progress bar
-											String remTime=estimateTime(startTime,i,numSets);
-											progress.setNote("Time left: "+remTime);
-										}
+										params=runner.run(CalibrationRunner.RANDOM,numSets,Double.NaN,new MersenneTwisterFast(),progress);
 									}
 									else if(method==1){ //ABC
 										double thresh=Double.parseDouble((String) tableCalibSettings.getValueAt(0,1));
-										progress.setMillisToPopup(0);
-										progress.setMillisToDecideToPopup(0);
-										progress.setProgress(0);
-										progress.setProgress(1);
-										progress.setNote("Sampling...");
-										
-										for(int i=0; i<numSets; i++){
-											progress.setProgress(i+1);
-											double curScore=thresh+1;
-											while(curScore>thresh){
-												sampleAll();
-												myModel.markov.runModel(curChain,false);
-												curScore=Interpreter.evaluate(strScore, myModel, false).getDouble();
-												if(progress.isCanceled()){ //listen for cancel
-													curScore=thresh-1; //end while loop
-													numSets=i; //end for loop
-													wasCancelled=true;
-												}
-											}
-											if(wasCancelled==false){
-												params[i]=new ParameterSet(myModel);
-												params[i].id=(i+1)+"";
-												params[i].score=curScore;
-											}
-											
-											//Update progress bar
-											String remTime=estimateTime(startTime,i,numSets);
-											progress.setNote("Time left: "+remTime);
-											
-										}
+										params=runner.run(CalibrationRunner.ABC,numSets,thresh,new MersenneTwisterFast(),progress);
 									}
+									else if(method==2){ //ABC-SMC
+										double thresh=Double.parseDouble((String) tableCalibSettings.getValueAt(0,1));
+										runner.maxGenerations=Integer.parseInt((String) tableCalibSettings.getValueAt(1,1));
+										runner.quantile=Double.parseDouble((String) tableCalibSettings.getValueAt(2,1));
+										params=runner.run(CalibrationRunner.ABC_SMC,numSets,thresh,new MersenneTwisterFast(),progress);
+									}
+									numSets=params.length; //fewer if cancelled
 									
 									//Reset all parameters
 									myModel.sampleParam=false;
@@ -636,6 +617,7 @@ public class frmCalibrate {
 									
 									//Get parameter values
 									paramVals=new double[numParams][numSets];
+									paramSorted=new double[numParams][];
 									double scores[]=new double[numSets];
 									modelParamSets.setRowCount(0);
 									for(int i=0; i<numSets; i++){
@@ -703,50 +685,8 @@ public class frmCalibrate {
 		}
 	}
 	
-	private String estimateTime(long startTime,int i, int numSets){
-		double prog=((i+1)/(numSets*1.0))*100;
-    	long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-    	remTime=(long) (remTime*(100-prog));
-    	remTime=remTime/1000;
-    	String seconds = Integer.toString((int)(remTime % 60));
-    	String minutes = Integer.toString((int)(remTime/60));
-    	if(seconds.length()<2){seconds="0"+seconds;}
-    	if(minutes.length()<2){minutes="0"+minutes;}
-    	return(minutes+":"+seconds);
-    }
-	
-	private void sampleAll(){
-		try{
-		//Sample parameters
-		boolean validParams=false;
-		while(validParams==false){
-			for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
-				Parameter curParam=myModel.parameters.get(v);
-				curParam.locked=false;
-				curParam.value=origValues[v];
-			}
-			
-			for(int v=0; v<numParams; v++){ //sample all parameters
-				Parameter curParam=myModel.parameters.get(v);
-				curParam.locked=true;
-				curParam.value=Interpreter.evaluate(curParam.expression, myModel,true);
-			}
-			//check constraints
-			validParams=true;
-			int c=0;
-			while(validParams==true && c<numConst){
-				Constraint curConst=myModel.constraints.get(c);
-				validParams=curConst.checkConstraints(myModel);
-				c++;
-			}
-			if(validParams){ //check model for valid params
-				if(myModel.parseModel().size()!=0){validParams=false;}
-			}
-		}
-		}catch(Exception e){
-			e.printStackTrace();
-			JOptionPane.showMessageDialog(frmCalibrate, e.getMessage());
-			myModel.errorLog.recordError(e);
-		}
+	private double[] getSortedParam(int index){
+		if(paramSorted[index]==null){paramSorted[index]=KernelSmooth.sort(paramVals[index]);}
+		return(paramSorted[index]);
 	}
 }
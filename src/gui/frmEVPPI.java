@@ -0,0 +1,350 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gui;
+
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingConstants;
+import javax.swing.border.EtchedBorder;
+import javax.swing.table.DefaultTableModel;
+
+import base.AmuaModel;
+import main.DimInfo;
+import math.EVPPI;
+
+/**
+ * Expected value of perfect and partial perfect information from PSA results
+ */
+public class frmEVPPI {
+
+	public JFrame frmEVPPI;
+	AmuaModel myModel;
+	String paramNames[];
+	/**
+	 * [Parameter][x,y][Iteration]
+	 */
+	double dataParamsIter[][][];
+	/**
+	 * [Outcome][Strategy][x,y][Iteration]
+	 */
+	double dataResultsIter[][][][];
+	int numParams, numStrat, numDim;
+	double evpi;
+	int decimalDim;
+	DefaultTableModel modelEVPPI;
+	private JTable tableEVPPI;
+	JComboBox<String> comboOutcome;
+	JComboBox<String> comboObjective;
+	private JTextField textWTP;
+	private JTextField textKnots;
+	JLabel lblEVPI, lblGroup;
+
+	public frmEVPPI(AmuaModel myModel, String paramNames[], double dataParamsIter[][][], double dataResultsIter[][][][]){
+		this.myModel=myModel;
+		this.paramNames=paramNames;
+		this.dataParamsIter=dataParamsIter;
+		this.dataResultsIter=dataResultsIter;
+		numParams=paramNames.length;
+		numStrat=dataResultsIter[0].length;
+		numDim=myModel.dimInfo.dimNames.length;
+		initialize();
+	}
+
+	/**
+	 * Initializes the contents of the frame, including ActionListeners for the Combo-boxes and buttons on the form.
+	 */
+	private void initialize() {
+		try{
+			frmEVPPI = new JFrame();
+			frmEVPPI.setTitle("Amua - EVPPI");
+			frmEVPPI.setIconImage(Toolkit.getDefaultToolkit().getImage(frmMain.class.getResource("/images/logo_48.png")));
+			frmEVPPI.setBounds(100, 100, 560, 500);
+			frmEVPPI.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+			GridBagLayout gridBagLayout = new GridBagLayout();
+			gridBagLayout.columnWidths = new int[]{540, 0};
+			gridBagLayout.rowHeights = new int[]{100, 360, 0};
+			gridBagLayout.columnWeights = new double[]{1.0, Double.MIN_VALUE};
+			gridBagLayout.rowWeights = new double[]{0.0, 1.0, Double.MIN_VALUE};
+			frmEVPPI.getContentPane().setLayout(gridBagLayout);
+
+			JPanel panel = new JPanel();
+			panel.setBorder(new EtchedBorder(EtchedBorder.LOWERED, null, null));
+			panel.setLayout(null);
+			GridBagConstraints gbc_panel = new GridBagConstraints();
+			gbc_panel.insets = new Insets(0, 0, 5, 0);
+			gbc_panel.fill = GridBagConstraints.BOTH;
+			gbc_panel.gridx = 0;
+			gbc_panel.gridy = 0;
+			frmEVPPI.getContentPane().add(panel, gbc_panel);
+
+			final DimInfo info=myModel.dimInfo;
+			String outcomes[] = null;
+			if(info.analysisType==0){ //EV
+				outcomes=new String[numDim];
+				for(int d=0; d<numDim; d++){outcomes[d]=info.dimNames[d];}
+			}
+			else{ //CEA or BCA
+				outcomes=new String[numDim+1];
+				for(int d=0; d<numDim; d++){outcomes[d]=info.dimNames[d];}
+				if(info.analysisType==1){ //CEA
+					outcomes[numDim]="NMB (WTP*"+info.dimNames[info.effectDim]+"-"+info.dimNames[info.costDim]+")";
+				}
+				else if(info.analysisType==2){ //BCA
+					outcomes[numDim]="NMB ("+info.dimNames[info.effectDim]+"-"+info.dimNames[info.costDim]+")";
+				}
+			}
+
+			JLabel lblOutcome = new JLabel("Outcome:");
+			lblOutcome.setBounds(6, 12, 62, 16);
+			panel.add(lblOutcome);
+
+			comboOutcome = new JComboBox<String>();
+			comboOutcome.setModel(new DefaultComboBoxModel<String>(outcomes));
+			comboOutcome.setBounds(70, 7, 200, 26);
+			panel.add(comboOutcome);
+
+			comboObjective = new JComboBox<String>();
+			comboObjective.setModel(new DefaultComboBoxModel<String>(new String[] {"Maximize", "Minimize"}));
+			comboObjective.setBounds(276, 7, 110, 26);
+			panel.add(comboObjective);
+
+			JLabel lblWTP = new JLabel("WTP:");
+			lblWTP.setBounds(6, 42, 62, 16);
+			panel.add(lblWTP);
+
+			textWTP = new JTextField();
+			textWTP.setHorizontalAlignment(SwingConstants.CENTER);
+			textWTP.setText(info.WTP+"");
+			textWTP.setBounds(70, 36, 100, 28);
+			panel.add(textWTP);
+
+			JLabel lblKnots = new JLabel("Knots:");
+			lblKnots.setBounds(186, 42, 45, 16);
+			panel.add(lblKnots);
+
+			textKnots = new JTextField();
+			textKnots.setHorizontalAlignment(SwingConstants.CENTER);
+			textKnots.setText(EVPPI.DEFAULT_KNOTS+"");
+			textKnots.setBounds(233, 36, 50, 28);
+			panel.add(textKnots);
+
+			if(info.analysisType>0){ //default to net monetary benefit
+				comboOutcome.setSelectedIndex(numDim);
+				comboObjective.setEnabled(false);
+			}
+			textWTP.setEnabled(info.analysisType==1);
+			comboOutcome.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					boolean nmb=(comboOutcome.getSelectedIndex()==numDim);
+					comboObjective.setEnabled(!nmb);
+					if(nmb){comboObjective.setSelectedIndex(0);}
+					textWTP.setEnabled(nmb && info.analysisType==1);
+				}
+			});
+
+			lblEVPI = new JLabel("EVPI:");
+			lblEVPI.setBounds(6, 72, 250, 16);
+			panel.add(lblEVPI);
+
+			lblGroup = new JLabel("Group EVPPI:");
+			lblGroup.setBounds(260, 72, 270, 16);
+			panel.add(lblGroup);
+
+			JButton btnCalculate = new JButton("Calculate");
+			btnCalculate.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					calculate();
+				}
+			});
+			btnCalculate.setBounds(420, 6, 110, 28);
+			panel.add(btnCalculate);
+
+			JButton btnGroup = new JButton("Group");
+			btnGroup.setToolTipText("EVPPI for the selected parameters jointly");
+			btnGroup.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					calculateGroup();
+				}
+			});
+			btnGroup.setBounds(420, 36, 110, 28);
+			panel.add(btnGroup);
+
+			modelEVPPI=new DefaultTableModel(
+					new Object[][] {,},
+					new String[] {"Parameter", "EVPPI", "% EVPI"}){
+				boolean[] columnEditables = new boolean[] {false, false, false};
+				public boolean isCellEditable(int row, int column) {return columnEditables[column];}
+			};
+
+			JScrollPane scrollPane = new JScrollPane();
+			GridBagConstraints gbc_scrollPane = new GridBagConstraints();
+			gbc_scrollPane.fill = GridBagConstraints.BOTH;
+			gbc_scrollPane.gridx = 0;
+			gbc_scrollPane.gridy = 1;
+			frmEVPPI.getContentPane().add(scrollPane, gbc_scrollPane);
+
+			tableEVPPI = new JTable();
+			tableEVPPI.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+			tableEVPPI.setShowVerticalLines(true);
+			tableEVPPI.getTableHeader().setReorderingAllowed(false);
+			tableEVPPI.setModel(modelEVPPI);
+			scrollPane.setViewportView(tableEVPPI);
+
+			calculate();
+
+		} catch (Exception ex){
+			ex.printStackTrace();
+			myModel.errorLog.recordError(ex);
+		}
+	}
+
+	/**
+	 * Returns net benefit [Strategy][Iteration] for the selected outcome, or null if the inputs are invalid
+	 */
+	private double[][] getNetBenefit(){
+		DimInfo info=myModel.dimInfo;
+		int outcome=comboOutcome.getSelectedIndex();
+		int numIter=dataResultsIter[0][0][1].length;
+		double nb[][]=new double[numStrat][numIter];
+		if(outcome==numDim && info.analysisType==1){ //CEA - net monetary benefit
+			double wtp;
+			try{
+				wtp=Double.parseDouble(textWTP.getText().replaceAll(",", ""));
+			}catch(Exception e){
+				JOptionPane.showMessageDialog(frmEVPPI, "Please enter a valid WTP!");
+				return(null);
+			}
+			for(int s=0; s<numStrat; s++){
+				double effect[]=dataResultsIter[info.effectDim][s][1];
+				double cost[]=dataResultsIter[info.costDim][s][1];
+				for(int n=0; n<numIter; n++){nb[s][n]=wtp*effect[n]-cost[n];}
+			}
+			decimalDim=info.costDim;
+		}
+		else{
+			double sign=1;
+			if(comboObjective.getSelectedIndex()==1){sign=-1;} //minimize
+			for(int s=0; s<numStrat; s++){
+				double data[]=dataResultsIter[outcome][s][1];
+				for(int n=0; n<numIter; n++){nb[s][n]=sign*data[n];}
+			}
+			decimalDim=outcome;
+			if(outcome==numDim){decimalDim=info.costDim;}
+		}
+		return(nb);
+	}
+
+	private int getKnots(){
+		try{
+			int numKnots=Integer.parseInt(textKnots.getText());
+			if(numKnots<0){throw new Exception();}
+			return(numKnots);
+		}catch(Exception e){
+			JOptionPane.showMessageDialog(frmEVPPI, "Please enter a valid number of knots!");
+			return(-1);
+		}
+	}
+
+	private void calculate(){
+		try{
+			double nb[][]=getNetBenefit();
+			if(nb==null){return;}
+			int numKnots=getKnots();
+			if(numKnots<0){return;}
+			evpi=EVPPI.evpi(nb);
+			lblEVPI.setText("EVPI: "+myModel.round(evpi, decimalDim));
+			lblGroup.setText("Group EVPPI:");
+
+			//per-parameter EVPPI, sorted descending
+			double values[]=new double[numParams];
+			Integer order[]=new Integer[numParams];
+			for(int p=0; p<numParams; p++){
+				values[p]=EVPPI.evppi(nb, new double[][]{dataParamsIter[p][1]}, numKnots);
+				order[p]=p;
+			}
+			final double sortValues[]=values;
+			Arrays.sort(order, new Comparator<Integer>(){
+				public int compare(Integer a, Integer b){
+					return(Double.compare(sortValues[b], sortValues[a]));
+				}
+			});
+
+			modelEVPPI.setRowCount(0);
+			for(int i=0; i<numParams; i++){
+				int p=order[i];
+				modelEVPPI.addRow(new Object[]{paramNames[p], myModel.round(values[p], decimalDim), getPercent(values[p])});
+			}
+		}catch(Exception ex){
+			ex.printStackTrace();
+			JOptionPane.showMessageDialog(frmEVPPI, ex.getMessage());
+			myModel.errorLog.recordError(ex);
+		}
+	}
+
+	private void calculateGroup(){
+		try{
+			int rows[]=tableEVPPI.getSelectedRows();
+			if(rows.length==0){
+				JOptionPane.showMessageDialog(frmEVPPI, "Please select one or more parameters!");
+				return;
+			}
+			double nb[][]=getNetBenefit();
+			if(nb==null){return;}
+			int numKnots=getKnots();
+			if(numKnots<0){return;}
+			evpi=EVPPI.evpi(nb);
+			double group[][]=new double[rows.length][];
+			for(int i=0; i<rows.length; i++){
+				String name=(String) modelEVPPI.getValueAt(rows[i], 0);
+				int p=0;
+				while(!paramNames[p].equals(name)){p++;}
+				group[i]=dataParamsIter[p][1];
+			}
+			double value=EVPPI.evppi(nb, group, numKnots);
+			lblGroup.setText("Group EVPPI ("+rows.length+"): "+myModel.round(value, decimalDim)+" ("+getPercent(value)+"%)");
+		}catch(Exception ex){
+			ex.printStackTrace();
+			JOptionPane.showMessageDialog(frmEVPPI, ex.getMessage());
+			myModel.errorLog.recordError(ex);
+		}
+	}
+
+	private double getPercent(double value){
+		if(evpi<=0){return(0);}
+		return(Math.round(value/evpi*1000)/10.0);
+	}
+}
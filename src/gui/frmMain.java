@@ -495,6 +495,20 @@ public class frmMain {
 		});
 		mnRun.add(mntmRunTree);
 
+		JMenuItem mntmRunCompiled = new JMenuItem("Run Compiled (Monte Carlo)");
+		mntmRunCompiled.setToolTipText("Translate the model to Java, compile it in memory, and run the compiled code");
+		mntmRunCompiled.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Thread SimThread = new Thread(){ //Non-UI
+					public void run(){
+						runModelCompiled();
+					}
+				};
+				SimThread.start();
+			}
+		});
+		mnRun.add(mntmRunCompiled);
+
 		JMenu mnSensitivityAnalysis = new JMenu("Sensitivity Analysis");
 		mnRun.add(mnSensitivityAnalysis);
 
@@ -1891,6 +1905,15 @@ public class frmMain {
 		}
 	}
 
+	private void runModelCompiled(){
+		if(curModel.simType!=1){
+			console.print("Compiled runs are only available for Monte Carlo simulations\n");
+		}
+		else if(curModel.checkModel(console,true)){
+			curModel.runModelCompiled(console);
+		}
+	}
+
 	private void exit(){
 		boolean proceed=true;
 		int numPanels=modelList.size();
@@ -33,6 +33,14 @@ import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
@@ -66,15 +74,17 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
+import export_Java.JavaCompiledModel;
 import filters.CSVFilter;
 import main.CEAHelper;
 import main.Constraint;
 import main.DimInfo;
 import main.MersenneTwisterFast;
+import main.PSAStream;
 import main.Parameter;
 import markov.MarkovNode;
-import markov.MarkovTrace;
 import markov.MarkovTraceSummary;
+import markov.TraceArchive;
 import math.Interpreter;
 import math.KernelSmooth;
 import math.Numeric;
@@ -111,8 +121,22 @@ public class frmPSA {
 	DefaultListModel<String> listModelParams;
 	private JTextField textIterations;
 	int numIterations;
+	int numThreads;
 	JCheckBox chckbxSeed;
 	private JTextField textSeed;
+	private JTextField textThreads;
+	JCheckBox chckbxStream;
+	private JTextField textStored;
+	String streamPath;
+	/**
+	 * Streams iteration records to file when not null
+	 */
+	PSAStream stream;
+	JCheckBox chckbxCompiled;
+	/**
+	 * Generated Java code run in place of the interpreter when not null
+	 */
+	JavaCompiledModel compiledModel;
 	String outcome;
 
 	public frmPSA(AmuaModel myModel){
@@ -147,7 +171,7 @@ public class frmPSA {
 			frmPSA.getContentPane().add(panel_1, gbc_panel_1);
 			GridBagLayout gbl_panel_1 = new GridBagLayout();
 			gbl_panel_1.columnWidths = new int[]{455, 0};
-			gbl_panel_1.rowHeights = new int[]{466, 70, 0};
+			gbl_panel_1.rowHeights = new int[]{436, 100, 0};
 			gbl_panel_1.columnWeights = new double[]{0.0, Double.MIN_VALUE};
 			gbl_panel_1.rowWeights = new double[]{1.0, 0.0, Double.MIN_VALUE};
 			panel_1.setLayout(gbl_panel_1);
@@ -249,52 +273,25 @@ public class frmPSA {
 							FileWriter fstream = new FileWriter(path+".csv"); //Create new file
 							BufferedWriter out = new BufferedWriter(fstream);
 							
-							//Headers
-							DimInfo info=myModel.dimInfo;
-							int numDim=info.dimNames.length;
-							int analysisType=info.analysisType;
-							int numStrat=myModel.strategyNames.length;
-							out.write("Iteration");
-							out.write(",Parameters");
-							for(int p=0; p<numParams; p++){out.write(","+paramNames[p]);}
-							for(int d=0; d<numDim; d++){ //EVs
-								out.write(","+info.dimNames[d]);
-								for(int s=0; s<numStrat; s++){out.write(","+myModel.strategyNames[s]);}
-							}
-							if(analysisType>0){ //CEA or BCA
-								if(analysisType==1){out.write(",ICER ("+info.dimSymbols[info.costDim]+"/"+info.dimSymbols[info.effectDim]+")");}
-								else if(analysisType==2){out.write(",NMB ("+info.dimSymbols[info.effectDim]+"-"+info.dimSymbols[info.costDim]+")");}
-								for(int s=0; s<numStrat; s++){out.write(","+myModel.strategyNames[s]);}
-							}
-							out.newLine();
+							PSAStream.writeHeaders(out, myModel, paramNames);
 							
 							//Results
+							int numDim=myModel.dimInfo.dimNames.length;
+							int analysisType=myModel.dimInfo.analysisType;
+							int numOutcomes=dataResultsIter.length;
 							int numPoints=dataResultsIter[0][0][0].length;
+							double params[]=new double[numParams];
+							double results[][]=new double[numOutcomes][numStrat];
+							String notes[]=new String[numStrat];
 							for(int i=0; i<numPoints; i++){
-								out.write((i+1)+""); //Iteration
-								//Parameters
-								out.write(",");
-								for(int p=0; p<numParams; p++){out.write(","+dataParamsIter[p][1][i]);}
-								//Outcomes
-								for(int d=0; d<numDim; d++){ //EVs
-									out.write(",");
-									for(int s=0; s<numStrat; s++){out.write(","+dataResultsIter[d][s][1][i]);}
+								for(int p=0; p<numParams; p++){params[p]=dataParamsIter[p][1][i];}
+								for(int d=0; d<numOutcomes; d++){
+									for(int s=0; s<numStrat; s++){results[d][s]=dataResultsIter[d][s][1][i];}
 								}
-								if(analysisType>0){
-									out.write(",");
-									if(analysisType==1){ //CEA
-										for(int s=0; s<numStrat; s++){
-											double icer=dataResultsIter[numDim][s][1][i];
-											if(!Double.isNaN(icer)){out.write(","+icer);} //valid ICER
-											else{out.write(","+CEAnotes[s][i]);} //invalid ICER
-										}
-									}
-									else if(analysisType==2){ //BCA
-										for(int s=0; s<numStrat; s++){out.write(","+dataResultsIter[numDim][s][1][i]);}
-									}
+								if(CEAnotes!=null){
+									for(int s=0; s<numStrat; s++){notes[s]=CEAnotes[s][i];}
 								}
-								
-								out.newLine();
+								PSAStream.writeRow(out, (int)dataResultsIter[0][0][0][i], params, results, notes, numDim, analysisType);
 							}
 							out.close();
 
@@ -312,6 +309,17 @@ public class frmPSA {
 			btnExport.setBounds(359, 36, 90, 28);
 			panel_2.add(btnExport);
 
+			final JButton btnEVPPI = new JButton("EVPPI");
+			btnEVPPI.setEnabled(false);
+			btnEVPPI.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					frmEVPPI window=new frmEVPPI(myModel,paramNames,dataParamsIter,dataResultsIter);
+					window.frmEVPPI.setVisible(true);
+				}
+			});
+			btnEVPPI.setBounds(359, 66, 90, 28);
+			panel_2.add(btnEVPPI);
+
 			JLabel lblIterations = new JLabel("# Iterations:");
 			lblIterations.setBounds(6, 12, 69, 16);
 			panel_2.add(lblIterations);
@@ -338,6 +346,57 @@ public class frmPSA {
 			textSeed.setBounds(223, 6, 59, 28);
 			panel_2.add(textSeed);
 			textSeed.setColumns(10);
+			
+			JLabel lblThreads = new JLabel("# Threads:");
+			lblThreads.setBounds(6, 42, 69, 16);
+			panel_2.add(lblThreads);
+			
+			textThreads = new JTextField();
+			textThreads.setHorizontalAlignment(SwingConstants.CENTER);
+			textThreads.setText(Runtime.getRuntime().availableProcessors()+"");
+			textThreads.setBounds(73, 36, 69, 28);
+			panel_2.add(textThreads);
+			textThreads.setColumns(10);
+			
+			chckbxStream = new JCheckBox("Stream to File");
+			chckbxStream.setToolTipText("Write iterations to file as they complete and keep only a sample in memory");
+			chckbxStream.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					if(chckbxStream.isSelected()){
+						JFileChooser fc=new JFileChooser(myModel.filepath);
+						fc.setAcceptAllFileFilterUsed(false);
+						fc.setFileFilter(new CSVFilter());
+						fc.setDialogTitle("Stream PSA Results");
+						fc.setApproveButtonText("Select");
+						if(fc.showSaveDialog(frmPSA)==JFileChooser.APPROVE_OPTION){
+							streamPath=fc.getSelectedFile().getAbsolutePath();
+						}
+						else{chckbxStream.setSelected(false);}
+					}
+					textStored.setEnabled(chckbxStream.isSelected());
+				}
+			});
+			chckbxStream.setBounds(162, 41, 120, 18);
+			panel_2.add(chckbxStream);
+			
+			JLabel lblStored = new JLabel("# Stored:");
+			lblStored.setToolTipText("Number of iterations kept in memory for charts when streaming");
+			lblStored.setBounds(6, 72, 69, 16);
+			panel_2.add(lblStored);
+			
+			textStored = new JTextField();
+			textStored.setEnabled(false);
+			textStored.setHorizontalAlignment(SwingConstants.CENTER);
+			textStored.setText("10,000");
+			textStored.setBounds(73, 66, 69, 28);
+			panel_2.add(textStored);
+			textStored.setColumns(10);
+			
+			chckbxCompiled = new JCheckBox("Compiled Run");
+			chckbxCompiled.setToolTipText("Translate the model to Java and run iterations on the compiled code (Monte Carlo only, single thread)");
+			chckbxCompiled.setEnabled(myModel.simType==1);
+			chckbxCompiled.setBounds(162, 71, 120, 18);
+			panel_2.add(chckbxCompiled);
 
 			final JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP);
 			GridBagConstraints gbc_tabbedPane = new GridBagConstraints();
@@ -534,6 +593,11 @@ public class frmPSA {
 								else{
 									boolean cancelled=false;
 
+									compiledModel=null;
+									if(chckbxCompiled.isSelected()){
+										compiledModel=new JavaCompiledModel(myModel); //compile once, parameters are set each iteration
+									}
+									
 									myModel.sampleParam=true;
 									myModel.generatorParam=new MersenneTwisterFast();
 									myModel.curGenerator=myModel.generatorParam;
@@ -544,24 +608,16 @@ public class frmPSA {
 																		
 									numIterations=Integer.parseInt(textIterations.getText().replaceAll(",", ""));
 									progress.setMaximum(numIterations);
+									numThreads=Math.max(1, Integer.parseInt(textThreads.getText()));
+									if(compiledModel!=null){numThreads=1;} //generated class holds its inputs and results in static fields
 
 									numStrat=myModel.getStrategies();
 									int numOutcomes=comboDimensions.getItemCount();
-									int numDim=myModel.dimInfo.dimNames.length;
 									int analysisType=myModel.dimInfo.analysisType;
-									if(analysisType==1){CEAnotes=new String[numStrat][numIterations];} //CEA
-									else{CEAnotes=null;}
-									
-									dataResultsIter=new double[numOutcomes][numStrat][2][numIterations];
-									dataResultsVal=new double[numOutcomes][numStrat][2][numIterations];
-									dataResultsCumDens=new double[numOutcomes][numStrat][2][numIterations];
-
-									dataParamsIter=new double[numParams][2][numIterations];
-									dataParamsVal=new double[numParams][2][numIterations];
-									dataParamsCumDens=new double[numParams][2][numIterations];
-
-									dataScatterAbs=new double[numStrat][2][numIterations];
-									dataScatterRel=new double[numStrat][2][numIterations];
+									stream=null;
+									if(chckbxStream.isSelected()==false){ //hold all iterations in memory
+										allocateResults(numOutcomes,numIterations);
+									}
 									
 									//Get orig values for all parameters
 									Numeric origValues[]=new Numeric[numParams];
@@ -574,230 +630,141 @@ public class frmPSA {
 										myModel.constraints.get(c).parseConstraints();
 									}
 									
-									MarkovTrace traces[][]=null;
+									TraceArchive traces[]=null; //Markov traces are archived to file during the run
 									ArrayList<MarkovNode> chainRoots=null;
 									int numChains = 0;
-									if(myModel.type==1){
-										//get number of chains
-										chainRoots=new ArrayList<MarkovNode>();
-										if(myModel.panelMarkov.curNode==null || myModel.panelMarkov.curNode.type!=1){ //No Markov Chain selected, run all chains
-											for(int n=0; n<myModel.markov.nodes.size(); n++){
-												MarkovNode curNode=myModel.markov.nodes.get(n);
-												if(curNode.type==1){chainRoots.add(curNode);}
+									try{
+										if(myModel.type==1){
+											//get number of chains
+											chainRoots=new ArrayList<MarkovNode>();
+											if(myModel.panelMarkov.curNode==null || myModel.panelMarkov.curNode.type!=1){ //No Markov Chain selected, run all chains
+												for(int n=0; n<myModel.markov.nodes.size(); n++){
+													MarkovNode curNode=myModel.markov.nodes.get(n);
+													if(curNode.type==1){chainRoots.add(curNode);}
+												}
 											}
+											else{chainRoots.add(myModel.panelMarkov.curNode);}
+											numChains=chainRoots.size();
+											traces=new TraceArchive[numChains];
+											for(int c=0; c<numChains; c++){traces[c]=TraceArchive.createTemp();}
+										}
+										if(chckbxStream.isSelected()){
+											int numStored=Integer.parseInt(textStored.getText().replaceAll(",", ""));
+											stream=new PSAStream(myModel,paramNames,streamPath,Math.min(numStored, numIterations));
 										}
-										else{chainRoots.add(myModel.panelMarkov.curNode);}
-										numChains=chainRoots.size();
-										traces=new MarkovTrace[numChains][numIterations];
-									}
 									
-									long startTime=System.currentTimeMillis();
+										//Per-iteration parameter RNG streams drawn from the master generator, so results don't depend on the number of threads
+										int seeds[]=new int[numIterations];
+										for(int n=0; n<numIterations; n++){
+											seeds[n]=myModel.generatorParam.nextInt();
+										}
 									
-									for(int n=0; n<numIterations; n++){
-										//Update progress
-										double prog=((n+1)/(numIterations*1.0))*100;
-										long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-										remTime=(long) (remTime*(100-prog));
-										remTime=remTime/1000;
-										String seconds = Integer.toString((int)(remTime % 60));
-										String minutes = Integer.toString((int)(remTime/60));
-										if(seconds.length()<2){seconds="0"+seconds;}
-										if(minutes.length()<2){minutes="0"+minutes;}
-										progress.setProgress(n+1);
-										progress.setNote("Time left: "+minutes+":"+seconds);
-										
-										//Sample parameters
-										myModel.curGenerator=myModel.generatorParam;
-										boolean validParams=false;
-										while(validParams==false){
-											for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
-												Parameter curParam=myModel.parameters.get(v);
-												curParam.locked=false;
-												curParam.value=origValues[v];
-											}
+										long startTime=System.currentTimeMillis();
 									
-											for(int v=0; v<numParams; v++){ //sample all parameters
-												Parameter curParam=myModel.parameters.get(v);
-												curParam.locked=true;
-												curParam.value=Interpreter.evaluate(myModel.parameters.get(v).expression, myModel,true);
-											}
-											//check constraints
-											validParams=true;
-											int c=0;
-											while(validParams==true && c<numConstraints){
-												Constraint curConst=myModel.constraints.get(c);
-												validParams=curConst.checkConstraints(myModel);
-												c++;
+										try{
+											if(numThreads==1){
+												for(int n=0; n<numIterations; n++){
+													updateProgress(progress,n+1,startTime);
+													runIteration(myModel,n,seeds[n],origValues,chainRoots,traces);
+													if(progress.isCanceled()){  //End loop
+														n=numIterations;
+														cancelled=true;
+													}
+												}
 											}
-											if(validParams){ //check model for valid params
-												if(myModel.parseModel().size()!=0){validParams=false;}
+											else{ //Run iterations in parallel on copies of the model
+												cancelled=runParallel(progress,startTime,seeds,origValues,chainRoots,traces);
 											}
+										} finally{
+											if(stream!=null){stream.close();}
 										}
 
-										for(int v=0; v<numParams; v++){ //Record value
-											dataParamsIter[v][0][n]=n; dataParamsVal[v][0][n]=n;
-											try{
-												dataParamsIter[v][1][n]=myModel.parameters.get(v).value.getDouble();
-											} catch(Exception e){
-												dataParamsIter[v][1][n]=Double.NaN;
-											}
-											dataParamsVal[v][1][n]=dataParamsIter[v][1][n];
-										} 
-
-										//Run model
-										myModel.curGenerator=myModel.generatorVar;
-										if(myModel.type==0){ //Decision tree
-											myModel.runModel(null, false);
-										}
-										else if(myModel.type==1){ //Markov model
-											myModel.evaluateParameters(); //get parameters
-											for(int c=0; c<numChains; c++){
-												traces[c][n]=myModel.markov.runModel(chainRoots.get(c),false);
-											}
-											myModel.unlockParams(); //unlock parameters
-										
+										//Reset all parameters
+										myModel.sampleParam=false;
+										for(int v=0; v<numParams; v++){ //Reset 'locked' for all parameter and orig values
+											Parameter curParam=myModel.parameters.get(v);
+											curParam.locked=false;
+											curParam.value=origValues[v];
 										}
-																				
-										//Get EVs
-										for(int d=0; d<numDim; d++){
-											for(int s=0; s<numStrat; s++){
-												dataResultsIter[d][s][0][n]=n; dataResultsVal[d][s][0][n]=n;
-												double curOutcome=myModel.getStrategyEV(s, d);
-												dataResultsIter[d][s][1][n]=curOutcome; dataResultsVal[d][s][1][n]=curOutcome;
+										myModel.validateParamsVars();
+									
+										if(cancelled==false){
+											int numPoints=numIterations;
+											if(stream!=null){ //charts use the stored sample
+												getStreamSample(numOutcomes);
+												numPoints=dataResultsIter[0][0][0].length;
 											}
-										}
-										if(analysisType>0){ //CEA or BCA
-											if(analysisType==1){ //CEA
-												Object table[][]=new CEAHelper().calculateICERs(myModel);
-												//get baseline row
-												int baseRow=-1,curRow=0;
-												while(baseRow==-1){
-													if((int)table[curRow][0]==myModel.dimInfo.baseScenario){
-														baseRow=curRow;
-													}
-												}
-												
-												for(int s=0; s<table.length; s++){	
-													int origStrat=(int) table[s][0];
-													if(origStrat!=-1){
-														dataResultsIter[numDim][origStrat][0][n]=n; dataResultsVal[numDim][origStrat][0][n]=n;
-														double curOutcome=(double) table[s][4];
-														dataResultsIter[numDim][origStrat][1][n]=curOutcome; dataResultsVal[numDim][origStrat][1][n]=curOutcome;
-														CEAnotes[origStrat][n]=(String) table[s][5];
-														double cost=(double) table[s][2];
-														double benefit=(double) table[s][3];
-														dataScatterAbs[origStrat][0][n]=benefit;
-														dataScatterAbs[origStrat][1][n]=cost;
-														double baseCost=(double) table[baseRow][2];
-														double baseBenefit=(double) table[baseRow][3];
-														dataScatterRel[origStrat][0][n]=benefit-baseBenefit;
-														dataScatterRel[origStrat][1][n]=cost-baseCost;
+											//Sort ordered arrays
+											for(int d=0; d<numOutcomes; d++){
+												for(int s=0; s<numStrat; s++){
+													Arrays.sort(dataResultsVal[d][s][1]);
+													for(int n=0; n<numPoints; n++){
+														dataResultsVal[d][s][0][n]=n/(numPoints*1.0);
+														dataResultsCumDens[d][s][0][n]=dataResultsVal[d][s][1][n];
+														dataResultsCumDens[d][s][1][n]=dataResultsVal[d][s][0][n];
 													}
 												}
 											}
-											else if(analysisType==2){ //BCA
-												Object table[][]=new CEAHelper().calculateNMB(myModel);
-												//get baseline row
-												int baseRow=-1,curRow=0;
-												while(baseRow==-1){
-													if((int)table[curRow][0]==myModel.dimInfo.baseScenario){
-														baseRow=curRow;
-													}
-												}
-												for(int s=0; s<table.length; s++){	
-													int origStrat=(int) table[s][0];
-													dataResultsIter[numDim][origStrat][0][n]=n;	dataResultsVal[numDim][origStrat][0][n]=n;
-													double curOutcome=(double) table[s][4];
-													dataResultsIter[numDim][origStrat][1][n]=curOutcome; dataResultsVal[numDim][origStrat][1][n]=curOutcome;
-													double cost=(double) table[s][2];
-													double benefit=(double) table[s][3];
-													dataScatterAbs[origStrat][0][n]=benefit;
-													dataScatterAbs[origStrat][1][n]=cost;
-													double baseCost=(double) table[baseRow][2];
-													double baseBenefit=(double) table[baseRow][3];
-													dataScatterRel[origStrat][0][n]=benefit-baseBenefit;
-													dataScatterRel[origStrat][1][n]=cost-baseCost;
+											for(int v=0; v<numParams; v++){
+												Arrays.sort(dataParamsVal[v][1]);
+												for(int n=0; n<numPoints; n++){
+													dataParamsVal[v][0][n]=n/(numPoints*1.0);
+													dataParamsCumDens[v][0][n]=dataParamsVal[v][1][n];
+													dataParamsCumDens[v][1][n]=dataParamsVal[v][0][n];
 												}
 											}
-										}
-								
-										if(progress.isCanceled()){  //End loop
-											n=numIterations;
-											cancelled=true;
-										}
-									}
-
-									//Reset all parameters
-									myModel.sampleParam=false;
-									for(int v=0; v<numParams; v++){ //Reset 'locked' for all parameter and orig values
-										Parameter curParam=myModel.parameters.get(v);
-										curParam.locked=false;
-										curParam.value=origValues[v];
-									}
-									myModel.validateParamsVars();
-									
-									if(cancelled==false){
-										//Sort ordered arrays
-										for(int d=0; d<numOutcomes; d++){
-											for(int s=0; s<numStrat; s++){
-												Arrays.sort(dataResultsVal[d][s][1]);
-												for(int n=0; n<numIterations; n++){
-													dataResultsVal[d][s][0][n]=n/(numIterations*1.0);
-													dataResultsCumDens[d][s][0][n]=dataResultsVal[d][s][1][n];
-													dataResultsCumDens[d][s][1][n]=dataResultsVal[d][s][0][n];
-												}
-											}
-										}
-										for(int v=0; v<numParams; v++){
-											Arrays.sort(dataParamsVal[v][1]);
-											for(int n=0; n<numIterations; n++){
-												dataParamsVal[v][0][n]=n/(numIterations*1.0);
-												dataParamsCumDens[v][0][n]=dataParamsVal[v][1][n];
-												dataParamsCumDens[v][1][n]=dataParamsVal[v][0][n];
-											}
-										}
 
-										//Update results chart
-										updateResultsChart();
+											//Update results chart
+											updateResultsChart();
 
-										//Update param chart
-										XYPlot plotParams = chartParams.getXYPlot();
-										XYLineAndShapeRenderer rendererParams = new XYLineAndShapeRenderer(true,false);
-										DefaultDrawingSupplier supplierParams = new DefaultDrawingSupplier();
-										for(int v=0; v<numParams; v++){
-											rendererParams.setSeriesPaint(v, supplierParams.getNextPaint());
-										}
-										plotParams.setRenderer(rendererParams);
-										updateParamChart();
-
-										//Update scatter chart
-										if(analysisType>0){
-											tabbedPane.setEnabledAt(2, true);
-											XYPlot plotScatter = chartScatter.getXYPlot();
-											XYLineAndShapeRenderer rendererScatter = new XYLineAndShapeRenderer(false,true);
-											Shape dot=new Ellipse2D.Double(0,0,3,3);
-											DefaultDrawingSupplier supplier = new DefaultDrawingSupplier();
-											for(int s=0; s<numStrat; s++){
-												rendererScatter.setSeriesPaint(s, supplier.getNextPaint());
-												rendererScatter.setSeriesShape(s, dot);
+											//Update param chart
+											XYPlot plotParams = chartParams.getXYPlot();
+											XYLineAndShapeRenderer rendererParams = new XYLineAndShapeRenderer(true,false);
+											DefaultDrawingSupplier supplierParams = new DefaultDrawingSupplier();
+											for(int v=0; v<numParams; v++){
+												rendererParams.setSeriesPaint(v, supplierParams.getNextPaint());
 											}
-											plotScatter.setRenderer(rendererScatter);
-											updateScatter();
+											plotParams.setRenderer(rendererParams);
+											updateParamChart();
+
+											//Update scatter chart
+											if(analysisType>0){
+												tabbedPane.setEnabledAt(2, true);
+												XYPlot plotScatter = chartScatter.getXYPlot();
+												XYLineAndShapeRenderer rendererScatter = new XYLineAndShapeRenderer(false,true);
+												Shape dot=new Ellipse2D.Double(0,0,3,3);
+												DefaultDrawingSupplier supplier = new DefaultDrawingSupplier();
+												for(int s=0; s<numStrat; s++){
+													rendererScatter.setSeriesPaint(s, supplier.getNextPaint());
+													rendererScatter.setSeriesShape(s, dot);
+												}
+												plotScatter.setRenderer(rendererScatter);
+												updateScatter();
 											
 											
-										}
-										btnExport.setEnabled(true);
+											}
+											btnExport.setEnabled(stream==null); //streamed results are already on file
+											btnEVPPI.setEnabled(true);
 										
-										//Get trace summary
-										if(myModel.type==1){
-											//get mean and bounds of results
-											for(int c=0; c<numChains; c++){
-												MarkovTraceSummary traceSummary=new MarkovTraceSummary(traces[c]);
-												frmTraceSummary showSummary=new frmTraceSummary(traceSummary,myModel.errorLog);
-												showSummary.frmTraceSummary.setVisible(true);
+											//Get trace summary
+											if(myModel.type==1){
+												//get mean and bounds of results
+												for(int c=0; c<numChains; c++){
+													if(traces[c].numTraces>0){
+														MarkovTraceSummary traceSummary=new MarkovTraceSummary(traces[c]);
+														frmTraceSummary showSummary=new frmTraceSummary(traceSummary,myModel.errorLog);
+														showSummary.frmTraceSummary.setVisible(true);
+													}
+												}
 											}
-										}
 										
+										}
+									} finally{ //delete archive files even if the run fails
+										if(traces!=null){
+											for(int c=0; c<traces.length; c++){
+												if(traces[c]!=null){traces[c].close();}
+											}
+										}
 									}
 									progress.close();
 								}
@@ -819,6 +786,272 @@ public class frmPSA {
 		}
 	}
 
+	/**
+	 * Samples parameters and runs the model for one PSA iteration.  Results are written to index n of the results arrays, or to the stream if streaming.
+	 * @param curModel  Model (or copy of the model) to run
+	 * @param n  Iteration
+	 * @param seed  Seed for this iteration's parameter sampling stream
+	 * @param origValues  Original parameter values
+	 * @param chainRoots  Markov chains of curModel to run
+	 * @param traces  Trace archive for each chain
+	 * @throws Exception
+	 */
+	private void runIteration(AmuaModel curModel, int n, int seed, Numeric origValues[], ArrayList<MarkovNode> chainRoots, TraceArchive traces[]) throws Exception{
+		int numDim=curModel.dimInfo.dimNames.length;
+		int analysisType=curModel.dimInfo.analysisType;
+		
+		//Sample parameters
+		curModel.generatorParam=new MersenneTwisterFast(seed);
+		curModel.curGenerator=curModel.generatorParam;
+		boolean validParams=false;
+		while(validParams==false){
+			for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
+				Parameter curParam=curModel.parameters.get(v);
+				curParam.locked=false;
+				curParam.value=origValues[v];
+			}
+	
+			for(int v=0; v<numParams; v++){ //sample all parameters
+				Parameter curParam=curModel.parameters.get(v);
+				curParam.locked=true;
+				curParam.value=Interpreter.evaluate(curModel.parameters.get(v).expression, curModel,true);
+			}
+			//check constraints
+			validParams=true;
+			int c=0;
+			while(validParams==true && c<numConstraints){
+				Constraint curConst=curModel.constraints.get(c);
+				validParams=curConst.checkConstraints(curModel);
+				c++;
+			}
+			if(validParams){ //check model for valid params
+				if(curModel.parseModelIncremental().size()!=0){validParams=false;}
+			}
+		}
+
+		double params[]=new double[numParams];
+		for(int v=0; v<numParams; v++){ //Record value
+			try{
+				params[v]=curModel.parameters.get(v).value.getDouble();
+			} catch(Exception e){
+				params[v]=Double.NaN;
+			}
+		} 
+
+		//Run model
+		int numChains=0;
+		if(chainRoots!=null){numChains=chainRoots.size();}
+		curModel.curGenerator=curModel.generatorVar;
+		if(compiledModel!=null){ //generated code, Markov traces are not recorded
+			curModel.evaluateParameters(); //get parameters
+			compiledModel.run();
+			curModel.unlockParams(); //unlock parameters
+		}
+		else if(curModel.type==0){ //Decision tree
+			curModel.evaluateParameters(); //get parameters
+			curModel.tree.runModel(false);
+			curModel.unlockParams(); //unlock parameters
+		}
+		else if(curModel.type==1){ //Markov model
+			curModel.evaluateParameters(); //get parameters
+			for(int c=0; c<numChains; c++){
+				traces[c].append(curModel.markov.runModel(chainRoots.get(c),false));
+			}
+			curModel.unlockParams(); //unlock parameters
+		
+		}
+		
+		int numOutcomes=numDim;
+		if(analysisType>0){numOutcomes++;}
+		double results[][]=new double[numOutcomes][numStrat];
+		String notes[]=new String[numStrat];
+		double scatterAbs[][]=new double[numStrat][2];
+		double scatterRel[][]=new double[numStrat][2];
+		
+		//Get EVs
+		for(int d=0; d<numDim; d++){
+			for(int s=0; s<numStrat; s++){
+				results[d][s]=curModel.getStrategyEV(s, d);
+			}
+		}
+		if(analysisType>0){ //CEA or BCA
+			Object table[][]=null;
+			if(analysisType==1){table=new CEAHelper().calculateICERs(curModel);} //CEA
+			else if(analysisType==2){table=new CEAHelper().calculateNMB(curModel);} //BCA
+			//get baseline row
+			int baseRow=-1,curRow=0;
+			while(baseRow==-1){
+				if((int)table[curRow][0]==curModel.dimInfo.baseScenario){
+					baseRow=curRow;
+				}
+			}
+			for(int s=0; s<table.length; s++){	
+				int origStrat=(int) table[s][0];
+				if(origStrat!=-1){
+					results[numDim][origStrat]=(double) table[s][4];
+					if(analysisType==1){notes[origStrat]=(String) table[s][5];}
+					double cost=(double) table[s][2];
+					double benefit=(double) table[s][3];
+					scatterAbs[origStrat][0]=benefit;
+					scatterAbs[origStrat][1]=cost;
+					double baseCost=(double) table[baseRow][2];
+					double baseBenefit=(double) table[baseRow][3];
+					scatterRel[origStrat][0]=benefit-baseBenefit;
+					scatterRel[origStrat][1]=cost-baseCost;
+				}
+			}
+		}
+		
+		if(stream!=null){ //write to file
+			stream.add(n, params, results, notes, scatterAbs, scatterRel);
+		}
+		else{ //store in memory
+			for(int v=0; v<numParams; v++){
+				dataParamsIter[v][0][n]=n; dataParamsVal[v][0][n]=n;
+				dataParamsIter[v][1][n]=params[v]; dataParamsVal[v][1][n]=params[v];
+			}
+			for(int d=0; d<numOutcomes; d++){
+				for(int s=0; s<numStrat; s++){
+					dataResultsIter[d][s][0][n]=n; dataResultsVal[d][s][0][n]=n;
+					dataResultsIter[d][s][1][n]=results[d][s]; dataResultsVal[d][s][1][n]=results[d][s];
+				}
+			}
+			for(int s=0; s<numStrat; s++){
+				if(CEAnotes!=null){CEAnotes[s][n]=notes[s];}
+				dataScatterAbs[s][0][n]=scatterAbs[s][0]; dataScatterAbs[s][1][n]=scatterAbs[s][1];
+				dataScatterRel[s][0][n]=scatterRel[s][0]; dataScatterRel[s][1][n]=scatterRel[s][1];
+			}
+		}
+	}
+	
+	/**
+	 * Allocates the results arrays
+	 * @param numOutcomes
+	 * @param numPoints
+	 */
+	private void allocateResults(int numOutcomes, int numPoints){
+		if(myModel.dimInfo.analysisType==1){CEAnotes=new String[numStrat][numPoints];} //CEA
+		else{CEAnotes=null;}
+		
+		dataResultsIter=new double[numOutcomes][numStrat][2][numPoints];
+		dataResultsVal=new double[numOutcomes][numStrat][2][numPoints];
+		dataResultsCumDens=new double[numOutcomes][numStrat][2][numPoints];
+
+		dataParamsIter=new double[numParams][2][numPoints];
+		dataParamsVal=new double[numParams][2][numPoints];
+		dataParamsCumDens=new double[numParams][2][numPoints];
+
+		dataScatterAbs=new double[numStrat][2][numPoints];
+		dataScatterRel=new double[numStrat][2][numPoints];
+	}
+	
+	/**
+	 * Fills the results arrays with the iterations sampled by the stream, in iteration order
+	 */
+	private void getStreamSample(int numOutcomes){
+		Integer order[]=stream.getSampleOrder();
+		int numPoints=order.length;
+		allocateResults(numOutcomes,numPoints);
+		for(int i=0; i<numPoints; i++){
+			int slot=order[i];
+			int n=stream.sampleIteration[slot];
+			for(int v=0; v<numParams; v++){
+				dataParamsIter[v][0][i]=n; dataParamsVal[v][0][i]=n;
+				dataParamsIter[v][1][i]=stream.sampleParams[v][slot]; dataParamsVal[v][1][i]=stream.sampleParams[v][slot];
+			}
+			for(int d=0; d<numOutcomes; d++){
+				for(int s=0; s<numStrat; s++){
+					double curOutcome=stream.sampleResults[d][s][slot];
+					dataResultsIter[d][s][0][i]=n; dataResultsVal[d][s][0][i]=n;
+					dataResultsIter[d][s][1][i]=curOutcome; dataResultsVal[d][s][1][i]=curOutcome;
+				}
+			}
+			for(int s=0; s<numStrat; s++){
+				if(CEAnotes!=null){CEAnotes[s][i]=stream.sampleNotes[s][slot];}
+				dataScatterAbs[s][0][i]=stream.sampleScatterAbs[s][0][slot]; dataScatterAbs[s][1][i]=stream.sampleScatterAbs[s][1][slot];
+				dataScatterRel[s][0][i]=stream.sampleScatterRel[s][0][slot]; dataScatterRel[s][1][i]=stream.sampleScatterRel[s][1][slot];
+			}
+		}
+	}
+	
+	/**
+	 * Runs PSA iterations on a pool of worker threads, each with its own copy of the model.
+	 * Iterations are handed out in order and each writes to its own index of the results arrays (or to the stream).
+	 * @return true if cancelled
+	 * @throws Exception
+	 */
+	private boolean runParallel(ProgressMonitor progress, long startTime, final int seeds[], final Numeric origValues[], ArrayList<MarkovNode> chainRoots, final TraceArchive traces[]) throws Exception{
+		final AtomicInteger nextIteration=new AtomicInteger(0);
+		final AtomicInteger numComplete=new AtomicInteger(0);
+		final AtomicBoolean cancelled=new AtomicBoolean(false);
+		ExecutorService pool=Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<Object>> results=new ArrayList<Future<Object>>();
+		for(int w=0; w<numThreads; w++){
+			final AmuaModel curModel=myModel.copyModel();
+			curModel.numThreads=1; //already running in parallel
+			curModel.mainForm=null; //no progress monitors or display from worker threads
+			curModel.getStrategies();
+			final ArrayList<MarkovNode> curChainRoots=new ArrayList<MarkovNode>();
+			if(chainRoots!=null){ //get chains in copy
+				for(int c=0; c<chainRoots.size(); c++){
+					int index=myModel.markov.nodes.indexOf(chainRoots.get(c));
+					curChainRoots.add(curModel.markov.nodes.get(index));
+				}
+			}
+			results.add(pool.submit(new Callable<Object>(){
+				public Object call() throws Exception{
+					int n=nextIteration.getAndIncrement();
+					while(n<numIterations && cancelled.get()==false){
+						runIteration(curModel,n,seeds[n],origValues,curChainRoots,traces);
+						numComplete.incrementAndGet();
+						n=nextIteration.getAndIncrement();
+					}
+					return(null);
+				}
+			}));
+		}
+		pool.shutdown();
+		while(pool.awaitTermination(200, TimeUnit.MILLISECONDS)==false){
+			updateProgress(progress,numComplete.get(),startTime);
+			if(progress.isCanceled()){cancelled.set(true);}
+			for(int w=0; w<numThreads; w++){ //stop the other workers as soon as one fails
+				if(results.get(w).isDone()){
+					try{
+						results.get(w).get();
+					} catch(ExecutionException e){ //re-thrown below
+						cancelled.set(true);
+					}
+				}
+			}
+		}
+		for(int w=0; w<numThreads; w++){
+			try{
+				results.get(w).get();
+			} catch(ExecutionException e){ //re-throw worker error
+				Throwable cause=e.getCause();
+				if(cause instanceof Exception){throw (Exception)cause;}
+				throw e;
+			}
+		}
+		if(progress.isCanceled()){cancelled.set(true);}
+		return(cancelled.get());
+	}
+	
+	private void updateProgress(ProgressMonitor progress, int numComplete, long startTime){
+		double prog=(numComplete/(numIterations*1.0))*100;
+		progress.setProgress(numComplete);
+		if(prog>0){
+			long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
+			remTime=(long) (remTime*(100-prog));
+			remTime=remTime/1000;
+			String seconds = Integer.toString((int)(remTime % 60));
+			String minutes = Integer.toString((int)(remTime/60));
+			if(seconds.length()<2){seconds="0"+seconds;}
+			if(minutes.length()<2){minutes="0"+minutes;}
+			progress.setNote("Time left: "+minutes+":"+seconds);
+		}
+	}
+	
 	public void updateResultsChart(){
 		DimInfo info=myModel.dimInfo;
 		int dim=comboDimensions.getSelectedIndex();
@@ -90,6 +90,7 @@ public class frmProperties {
 	private JTextField textCohortSize;
 	JCheckBox chckbxCRN;
 	private JTextField textCRNSeed;
+	private JTextField textThreads;
 	
 	//Markov
 	private JTextField textMarkovMaxCycles;
@@ -274,6 +275,17 @@ public class frmProperties {
 								JOptionPane.showMessageDialog(frmProperties, "Please enter a valid CRN seed!");
 							}
 						}
+						
+						try{
+							myModel.numThreads=Integer.parseInt(textThreads.getText());
+							if(myModel.numThreads<=0){
+								close=false;
+								JOptionPane.showMessageDialog(frmProperties, "Please enter a valid number of threads!");
+							}
+						} catch(Exception er){
+							close=false;
+							JOptionPane.showMessageDialog(frmProperties, "Please enter a valid number of threads!");
+						}
 					}
 					
 					//Check Markov settings
@@ -560,6 +572,7 @@ public class frmProperties {
 						}
 						chckbxCRN.setEnabled(false);
 						textCRNSeed.setEnabled(false);
+						textThreads.setEnabled(false);
 					}
 					else if(selected==1){ //Monte Carlo
 						lblCohortSize.setText("# simulations:");
@@ -567,6 +580,7 @@ public class frmProperties {
 						chckbxCRN.setEnabled(true);
 						if(chckbxCRN.isSelected()){textCRNSeed.setEnabled(true);}
 						else{textCRNSeed.setEnabled(false);}
+						textThreads.setEnabled(true);
 					}
 				}
 			});
@@ -606,6 +620,18 @@ public class frmProperties {
 			panel_3.add(textCRNSeed);
 			textCRNSeed.setColumns(10);
 			
+			JLabel lblThreads = new JLabel("Threads:");
+			lblThreads.setHorizontalAlignment(SwingConstants.RIGHT);
+			lblThreads.setBounds(6, 118, 92, 16);
+			panel_3.add(lblThreads);
+			
+			textThreads = new JTextField();
+			textThreads.setEnabled(false);
+			textThreads.setText("1");
+			textThreads.setBounds(103, 112, 105, 28);
+			panel_3.add(textThreads);
+			textThreads.setColumns(10);
+			
 			JPanel testDiscountStartCycle = new JPanel();
 			testDiscountStartCycle.setBorder(new EtchedBorder(EtchedBorder.LOWERED, null, null));
 			testDiscountStartCycle.setBackground(SystemColor.window);
@@ -730,6 +756,8 @@ public class frmProperties {
 			textCRNSeed.setEnabled(true);
 			textCRNSeed.setText(myModel.crnSeed+"");
 		}
+		textThreads.setText(myModel.numThreads+"");
+		textThreads.setEnabled(myModel.simType==1);
 		
 	}
 	
@@ -321,9 +321,9 @@ public class frmSensOneWay {
 									boolean error=false;
 									//Test parameter at min and max...
 									curParam.value.setDouble(min);
-									ArrayList<String> errorsMin=myModel.parseModel();
+									ArrayList<String> errorsMin=myModel.parseModelIncremental();
 									curParam.value.setDouble(max);
-									ArrayList<String> errorsMax=myModel.parseModel();
+									ArrayList<String> errorsMax=myModel.parseModelIncremental();
 									curParam.value=origValue; //Reset
 									if(errorsMin.size()>0){
 										error=true;
@@ -354,7 +354,7 @@ public class frmSensOneWay {
 											double curVal=min+(step*i);
 											curParam.value.setDouble(curVal);
 											curParam.locked=true;
-											myModel.parseModel();
+											myModel.parseModelIncremental();
 											myModel.runModel(null, false);
 											
 											//Get EVs
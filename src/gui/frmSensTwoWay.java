@@ -58,6 +58,7 @@ import filters.CSVFilter;
 import main.CEAHelper;
 import main.DimInfo;
 import main.Parameter;
+import main.SensitivityGrid;
 import main.SurfaceModel;
 import math.Numeric;
 
@@ -97,6 +98,8 @@ public class frmSensTwoWay {
 	JComboBox<String> comboMinMax;
 	JLabel lblCEThresh;
 	private JTextField textCEThresh;
+	private JTextField textThreads;
+	private JTextField textRefine;
 	Parameter curParam1, curParam2;
 
 	public frmSensTwoWay(AmuaModel model){
@@ -131,7 +134,7 @@ public class frmSensTwoWay {
 			frmSensTwoWay.getContentPane().add(panel_1, gbc_panel_1);
 			GridBagLayout gbl_panel_1 = new GridBagLayout();
 			gbl_panel_1.columnWidths = new int[]{455, 0};
-			gbl_panel_1.rowHeights = new int[]{466, 137, 0};
+			gbl_panel_1.rowHeights = new int[]{433, 170, 0};
 			gbl_panel_1.columnWeights = new double[]{0.0, Double.MIN_VALUE};
 			gbl_panel_1.rowWeights = new double[]{1.0, 0.0, Double.MIN_VALUE};
 			panel_1.setLayout(gbl_panel_1);
@@ -320,6 +323,29 @@ public class frmSensTwoWay {
 			textCEThresh.setBounds(181, 102, 122, 28);
 			panel_2.add(textCEThresh);
 			textCEThresh.setColumns(10);
+			
+			JLabel lblThreads = new JLabel("# Threads:");
+			lblThreads.setBounds(12, 141, 81, 16);
+			panel_2.add(lblThreads);
+			
+			textThreads = new JTextField();
+			textThreads.setHorizontalAlignment(SwingConstants.CENTER);
+			textThreads.setText(Runtime.getRuntime().availableProcessors()+"");
+			textThreads.setBounds(94, 135, 55, 28);
+			panel_2.add(textThreads);
+			textThreads.setColumns(10);
+			
+			JLabel lblRefine = new JLabel("Boundary Refinement Levels:");
+			lblRefine.setToolTipText("Number of times grid cells where the optimal strategy changes are subdivided");
+			lblRefine.setBounds(212, 141, 176, 16);
+			panel_2.add(lblRefine);
+			
+			textRefine = new JTextField();
+			textRefine.setHorizontalAlignment(SwingConstants.CENTER);
+			textRefine.setText("0");
+			textRefine.setBounds(388, 135, 55, 28);
+			panel_2.add(textRefine);
+			textRefine.setColumns(10);
 
 			final JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP);
 			
@@ -356,8 +382,6 @@ public class frmSensTwoWay {
 									double min2=Double.parseDouble(strMin2);
 									double max1=Double.parseDouble(strMax1);
 									double max2=Double.parseDouble(strMax2);
-									double step1=(max1-min1)/(intervals*1.0);
-									double step2=(max2-min2)/(intervals*1.0);
 									curParam1=myModel.parameters.get(row1);
 									curParam2=myModel.parameters.get(row2);
 									
@@ -396,10 +420,10 @@ public class frmSensTwoWay {
 									//Test parameters at min and max...
 									curParam1.value.setDouble(min1); curParam2.value.setDouble(min2);
 									curParam1.locked=true; curParam2.locked=true;
-									ArrayList<String> errorsMin=myModel.parseModel();
+									ArrayList<String> errorsMin=myModel.parseModelIncremental();
 									curParam1.value.setDouble(max1); curParam2.value.setDouble(max2);
 									curParam1.locked=true; curParam2.locked=true;
-									ArrayList<String> errorsMax=myModel.parseModel();
+									ArrayList<String> errorsMax=myModel.parseModelIncremental();
 									curParam1.value=origValue1; curParam2.value=origValue2; //Reset
 									if(errorsMin.size()>0){
 										error=true;
@@ -415,87 +439,25 @@ public class frmSensTwoWay {
 									}
 
 									if(error==false){
-										boolean cancelled=false;
-										//Run model...
-										
+										//Run model on grid...
 										int numStrat=myModel.strategyNames.length;
-										dataEV=new double[numStrat][2][(intervals+1)*(intervals+1)];
-										dataSurface=new double[numStrat][intervals+1][intervals+1];
-										progress.setMaximum((intervals+1)*(intervals+1));
-										int count=0;
-										for(int i=0; i<=intervals; i++){
-											double curVal1=min1+(step1*i);
-											curParam1.value.setDouble(curVal1);
-											for(int j=0; j<=intervals; j++){
-												double curVal2=min2+(step2*j);
-												curParam2.value.setDouble(curVal2);
-												curParam1.locked=true; curParam2.locked=true;
-												myModel.parseModel();
-												myModel.runModel(null, false);
-												
-												if(analysisType==0){ //EV
-													double maxEV=Double.NEGATIVE_INFINITY;
-													double minEV=Double.POSITIVE_INFINITY;
-													int maxStrat=-1, minStrat=-1;
-													for(int s=0; s<numStrat; s++){
-														dataEV[s][0][count]=curVal1;
-														dataEV[s][1][count]=Double.NaN;
-														double curOutcome=myModel.getStrategyEV(s, dim);
-														if(curOutcome>maxEV){maxEV=curOutcome; maxStrat=s;}
-														if(curOutcome<minEV){minEV=curOutcome; minStrat=s;}
-														dataSurface[s][i][j]=curOutcome;
-													}
-													if(max){dataEV[maxStrat][1][count]=curVal2;}
-													else{dataEV[minStrat][1][count]=curVal2;}
-												}
-												else if(analysisType==1){ //CEA
-													Object table[][]=new CEAHelper().calculateICERs(myModel);
-													double bestICER=Double.NEGATIVE_INFINITY;
-													int bestStrat=-1;
-													for(int s=0; s<table.length; s++){	
-														int origStrat=(int) table[s][0];
-														if(origStrat!=-1){
-															dataEV[origStrat][0][count]=curVal1;
-															dataEV[origStrat][1][count]=Double.NaN;
-															double curICER=(double)table[s][4];
-															if(curICER>bestICER && curICER<=ceThresh){
-																bestICER=curICER;
-																bestStrat=origStrat;
-															}
-															dataSurface[origStrat][i][j]=curICER;
-														}
-													}
-													if(bestStrat!=-1){
-														dataEV[bestStrat][1][count]=curVal2;
-													}
-												}
-												else if(analysisType==2){ //BCA
-													Object table[][]=new CEAHelper().calculateNMB(myModel);
-													double maxNMB=Double.NEGATIVE_INFINITY;
-													int maxStrat=-1;
-													for(int s=0; s<table.length; s++){	
-														int origStrat=(int) table[s][0];
-														dataEV[origStrat][0][count]=curVal1;
-														dataEV[origStrat][1][count]=Double.NaN;
-														double curNMB=(double)table[s][4];
-														if(curNMB>maxNMB){
-															maxNMB=curNMB;
-															maxStrat=origStrat;
-														}
-														dataSurface[origStrat][i][j]=curNMB;
-													}
-													dataEV[maxStrat][1][count]=curVal2;
-												}
-												
-												count++;
-												progress.setProgress(count);
-												if(progress.isCanceled()){ //End loop
-													cancelled=true;
-													j=intervals+1;
-													i=intervals+1;
-												}
+										int numThreads=Math.max(1, Integer.parseInt(textThreads.getText()));
+										int refineLevels=Math.max(0, Integer.parseInt(textRefine.getText()));
+										SensitivityGrid grid=new SensitivityGrid(myModel,row1,row2,dim,analysisType,max,ceThresh,numThreads);
+										boolean cancelled=grid.run(min1,max1,min2,max2,intervals,refineLevels,progress);
+										
+										int numPoints=grid.numPoints;
+										dataSurface=grid.surface;
+										dataEV=new double[numStrat][2][numPoints];
+										for(int p=0; p<numPoints; p++){
+											for(int s=0; s<numStrat; s++){
+												dataEV[s][0][p]=grid.pointX[p];
+												dataEV[s][1][p]=Double.NaN;
 											}
+											int bestStrat=grid.pointBest[p];
+											if(bestStrat!=-1){dataEV[bestStrat][1][p]=grid.pointY[p];}
 										}
+										
 										//Reset parameter values
 										curParam1.value=origValue1; curParam2.value=origValue2;
 										curParam1.locked=false; curParam2.locked=false;
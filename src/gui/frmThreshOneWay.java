@@ -25,6 +25,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JButton;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.awt.event.ActionEvent;
 
 import javax.swing.DefaultComboBoxModel;
@@ -37,6 +38,8 @@ import java.awt.Toolkit;
 import javax.swing.JTable;
 import javax.swing.table.DefaultTableModel;
 
+import org.apache.commons.math3.analysis.UnivariateFunction;
+import org.apache.commons.math3.analysis.solvers.BrentSolver;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
@@ -80,6 +83,8 @@ public class frmThreshOneWay {
 	double dataEV[][][];
 	private JTextField textThresh;
 	private JTextField textIntervals;
+	private JTextField textTolerance;
+	int maxEvaluations=100; //max model runs per threshold
 	String CEAnotes[][];
 	Parameter curParam;
 		
@@ -115,7 +120,7 @@ public class frmThreshOneWay {
 			frmThreshOneWay.getContentPane().add(panel_1, gbc_panel_1);
 			GridBagLayout gbl_panel_1 = new GridBagLayout();
 			gbl_panel_1.columnWidths = new int[]{455, 0};
-			gbl_panel_1.rowHeights = new int[]{401, 125, 0};
+			gbl_panel_1.rowHeights = new int[]{371, 155, 0};
 			gbl_panel_1.columnWeights = new double[]{0.0, Double.MIN_VALUE};
 			gbl_panel_1.rowWeights = new double[]{1.0, 0.0, Double.MIN_VALUE};
 			panel_1.setLayout(gbl_panel_1);
@@ -228,6 +233,18 @@ public class frmThreshOneWay {
 			textIntervals.setBounds(383, 39, 55, 28);
 			panel_2.add(textIntervals);
 			textIntervals.setColumns(10);
+			
+			JLabel lblTolerance = new JLabel("Tolerance:");
+			lblTolerance.setToolTipText("Thresholds are refined until they are within this distance of the intersection");
+			lblTolerance.setBounds(6, 125, 67, 16);
+			panel_2.add(lblTolerance);
+			
+			textTolerance = new JTextField();
+			textTolerance.setHorizontalAlignment(SwingConstants.CENTER);
+			textTolerance.setText("1E-6");
+			textTolerance.setBounds(88, 119, 100, 28);
+			panel_2.add(textTolerance);
+			textTolerance.setColumns(10);
 
 
 			btnRun.addActionListener(new ActionListener() {
@@ -251,6 +268,7 @@ public class frmThreshOneWay {
 								else{
 									//Get parameter
 									int intervals=Integer.parseInt(textIntervals.getText());
+									double tolerance=Double.parseDouble(textTolerance.getText());
 									int row=tableParams.getSelectedRow();
 									String strMin=(String)tableParams.getValueAt(row, 2);
 									String strMax=(String)tableParams.getValueAt(row, 3);
@@ -276,10 +294,10 @@ public class frmThreshOneWay {
 									//Test parameter at min and max...
 									curParam.value.setDouble(min);
 									curParam.locked=true;
-									ArrayList<String> errorsMin=myModel.parseModel();
+									ArrayList<String> errorsMin=myModel.parseModelIncremental();
 									curParam.value.setDouble(max);
 									curParam.locked=true;
-									ArrayList<String> errorsMax=myModel.parseModel();
+									ArrayList<String> errorsMax=myModel.parseModelIncremental();
 									curParam.value=origValue; //Reset
 									if(errorsMin.size()>0){
 										error=true;
@@ -298,8 +316,6 @@ public class frmThreshOneWay {
 										boolean cancelled=false;
 										//Run model...
 										int numStrat=myModel.strategyNames.length;
-										double minDist=Double.POSITIVE_INFINITY;
-										int minIndex=-1;
 
 										dataEV=new double[numStrat][2][intervals+1];
 										progress.setMaximum(intervals+1);
@@ -310,7 +326,7 @@ public class frmThreshOneWay {
 											double curVal=min+(step*i);
 											curParam.value.setDouble(curVal);
 											curParam.locked=true;
-											myModel.parseModel();
+											myModel.parseModelIncremental();
 											myModel.runModel(null, false);
 											
 											if(analysisType==0){ //EV
@@ -339,11 +355,6 @@ public class frmThreshOneWay {
 												}
 											}
 											
-											double curDist=Math.abs(dataEV[strat1][1][i]-dataEV[strat2][1][i]);
-											if(curDist<minDist){
-												minDist=curDist;
-												minIndex=i;
-											}
 											progress.setProgress(i);
 											if(progress.isCanceled()){ //End loop
 												cancelled=true;
@@ -352,97 +363,55 @@ public class frmThreshOneWay {
 										}
 
 										if(cancelled==false){
-											//Find intersection
+											//Bracket sign changes of the difference between strategies
+											ArrayList<double[]> brackets=new ArrayList<double[]>();
+											ArrayList<Double> thresholds=new ArrayList<Double>();
+											for(int i=0; i<=intervals; i++){
+												double diff=dataEV[strat1][1][i]-dataEV[strat2][1][i];
+												if(diff==0){thresholds.add(dataEV[strat1][0][i]);} //Intersection found
+												else if(i<intervals){
+													double nextDiff=dataEV[strat1][1][i+1]-dataEV[strat2][1][i+1];
+													if((diff<0 && nextDiff>0) || (diff>0 && nextDiff<0)){
+														brackets.add(new double[]{dataEV[strat1][0][i],dataEV[strat1][0][i+1]});
+													}
+												}
+											}
+											//Refine each bracket to tolerance
+											final int fStrat1=strat1, fStrat2=strat2, fDim=dim, fAnalysisType=analysisType;
+											UnivariateFunction diffFunction=new UnivariateFunction(){
+												public double value(double x){
+													try{
+														return(getDifference(x,fStrat1,fStrat2,fDim,fAnalysisType));
+													}catch(Exception e){
+														throw new RuntimeException(e);
+													}
+												}
+											};
+											BrentSolver solver=new BrentSolver(tolerance);
+											for(int b=0; b<brackets.size(); b++){
+												progress.setNote("Refining threshold "+(b+1)+"/"+brackets.size());
+												double bracket[]=brackets.get(b);
+												try{
+													thresholds.add(solver.solve(maxEvaluations, diffFunction, bracket[0], bracket[1]));
+												}catch(RuntimeException re){
+													if(re.getCause() instanceof Exception){throw (Exception)re.getCause();}
+													throw re;
+												}
+											}
+											Collections.sort(thresholds);
+											
 											double intersection=Double.NaN;
-											if(minDist==0){ //Intersection found
-												intersection=dataEV[0][0][minIndex];
+											if(thresholds.size()==0){
+												JOptionPane.showMessageDialog(frmThreshOneWay, "No intersection found in current range!");
 											}
 											else{
-												if(minIndex==0 || minIndex==intervals){
-													JOptionPane.showMessageDialog(frmThreshOneWay, "No intersection found in current range!");
-												}
-												else{ //Search neighbourhood for intersection
-													double minVal=dataEV[0][0][minIndex];
-													double thresh=Math.pow(10, -(myModel.dimInfo.decimals[decimalDim]+1));
-													int i=0;
-													while(minDist>thresh && i<1000){ //Binary search of neighbourhood until convergence
-														//Left
-														double valL=minVal-(step/2.0);
-														curParam.value.setDouble(valL);
-														curParam.locked=true;
-														myModel.parseModel();
-														myModel.runModel(null, false);
-														
-														double result1L=0, result2L=0;
-														if(analysisType==0){ //EV
-															result1L=myModel.getStrategyEV(strat1, dim);
-															result2L=myModel.getStrategyEV(strat2, dim);
-														}
-														else if(analysisType==1){ //CEA
-															Object table[][]=new CEAHelper().calculateICERs(myModel);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1L=(double) table[s][4];}
-																if(origStrat==strat2){result2L=(double) table[s][4];}
-															}
-														}
-														else if(analysisType==2){ //BCA
-															Object table[][]=new CEAHelper().calculateNMB(myModel);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1L=(double) table[s][4];}
-																if(origStrat==strat2){result2L=(double) table[s][4];}
-															}
-														}
-														double distL=Math.abs(result1L-result2L);
-														
-														//Right
-														double valR=minVal+(step/2.0);
-														curParam.value.setDouble(valR);
-														curParam.locked=true;
-														myModel.parseModel();
-														myModel.runModel(null, false);
-														
-														double result1R=0, result2R=0;
-														if(analysisType==0){ //EV
-															result1R=myModel.getStrategyEV(strat1, dim);
-															result2R=myModel.getStrategyEV(strat2, dim);
-														}
-														else if(analysisType==1){ //CEA
-															Object table[][]=new CEAHelper().calculateICERs(myModel);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1R=(double) table[s][4];}
-																if(origStrat==strat2){result2R=(double) table[s][4];}
-															}
-														}
-														else if(analysisType==2){ //BCA
-															Object table[][]=new CEAHelper().calculateNMB(myModel);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1R=(double) table[s][4];}
-																if(origStrat==strat2){result2R=(double) table[s][4];}
-															}
-														}
-														double distR=Math.abs(result1R-result2R);
-														
-														//Move to lowest dist (or stay)
-														if(distL<minDist){
-															minVal=valL;
-															minDist=distL;
-														}
-														if(distR<minDist){
-															minVal=valR;
-															minDist=distR;
-														}
-														step/=2.0;
-													}
-													if(minDist<thresh){ //Convergence achieved
-														intersection=minVal;
-													}
-													else{
-														JOptionPane.showMessageDialog(frmThreshOneWay, "No intersection found in current range!");
+												intersection=thresholds.get(0);
+												if(thresholds.size()>1){
+													String strThresh="";
+													for(int t=0; t<thresholds.size(); t++){
+														strThresh+="\n"+myModel.round(thresholds.get(t),decimalDim);
 													}
+													JOptionPane.showMessageDialog(frmThreshOneWay, "Multiple thresholds found:"+strThresh);
 												}
 											}
 											textThresh.setText(myModel.round(intersection,decimalDim)+"");
@@ -516,4 +485,39 @@ public class frmThreshOneWay {
 			myModel.errorLog.recordError(ex);
 		}
 	}
+	
+	/**
+	 * Runs the model at the given parameter value
+	 * @return Difference in outcome between strategy 1 and strategy 2
+	 * @throws Exception
+	 */
+	private double getDifference(double x, int strat1, int strat2, int dim, int analysisType) throws Exception{
+		curParam.value.setDouble(x);
+		curParam.locked=true;
+		myModel.parseModelIncremental();
+		myModel.runModel(null, false);
+		
+		double result1=0, result2=0;
+		if(analysisType==0){ //EV
+			result1=myModel.getStrategyEV(strat1, dim);
+			result2=myModel.getStrategyEV(strat2, dim);
+		}
+		else if(analysisType==1){ //CEA
+			Object table[][]=new CEAHelper().calculateICERs(myModel);
+			for(int s=0; s<table.length; s++){	
+				int origStrat=(int) table[s][0];
+				if(origStrat==strat1){result1=(double) table[s][4];}
+				if(origStrat==strat2){result2=(double) table[s][4];}
+			}
+		}
+		else if(analysisType==2){ //BCA
+			Object table[][]=new CEAHelper().calculateNMB(myModel);
+			for(int s=0; s<table.length; s++){	
+				int origStrat=(int) table[s][0];
+				if(origStrat==strat1){result1=(double) table[s][4];}
+				if(origStrat==strat2){result2=(double) table[s][4];}
+			}
+		}
+		return(result1-result2);
+	}
 }
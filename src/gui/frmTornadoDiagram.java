@@ -29,12 +29,25 @@ import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.awt.event.ActionEvent;
 
 import javax.swing.DefaultComboBoxModel;
 import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import java.awt.Insets;
 import java.awt.Toolkit;
 
@@ -86,7 +99,8 @@ public class frmTornadoDiagram {
 	JFreeChart chart;
 	double baseOutcome;
 	ArrayList<ParamResult> results;
-	Parameter curParam;
+	int numThreads;
+	private JTextField textThreads;
 	
 	public frmTornadoDiagram(AmuaModel model){
 		this.myModel=model;
@@ -120,7 +134,7 @@ public class frmTornadoDiagram {
 			frmTornadoDiagram.getContentPane().add(panel_1, gbc_panel_1);
 			GridBagLayout gbl_panel_1 = new GridBagLayout();
 			gbl_panel_1.columnWidths = new int[]{455, 0};
-			gbl_panel_1.rowHeights = new int[]{466, 67, 0};
+			gbl_panel_1.rowHeights = new int[]{433, 100, 0};
 			gbl_panel_1.columnWeights = new double[]{0.0, Double.MIN_VALUE};
 			gbl_panel_1.rowWeights = new double[]{1.0, 0.0, Double.MIN_VALUE};
 			panel_1.setLayout(gbl_panel_1);
@@ -248,198 +262,77 @@ public class frmTornadoDiagram {
 			btnExport.setEnabled(false);
 			btnExport.setBounds(355, 36, 90, 28);
 			panel_2.add(btnExport);
+			
+			JLabel lblThreads = new JLabel("# Threads:");
+			lblThreads.setBounds(6, 73, 81, 16);
+			panel_2.add(lblThreads);
+			
+			textThreads = new JTextField();
+			textThreads.setHorizontalAlignment(SwingConstants.CENTER);
+			textThreads.setText(Runtime.getRuntime().availableProcessors()+"");
+			textThreads.setBounds(88, 67, 55, 28);
+			panel_2.add(textThreads);
+			textThreads.setColumns(10);
 
 
 			btnRun.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
-					try{
-						int strat=comboStrategy.getSelectedIndex();
-						int dim=comboDimensions.getSelectedIndex();
-						int analysisType=0; //EV
-						if(dim==comboDimensions.getItemCount()-1){ //ICER or NMB selected
-							analysisType=myModel.dimInfo.analysisType;
-						} 
-						
-						ArrayList<String> errorsBase=myModel.parseModel();
-						if(errorsBase.size()>0){
-							JOptionPane.showMessageDialog(frmTornadoDiagram, "Errors in base case model!");
-						}
-						else{
-							//Get baseline
-							myModel.runModel(null, false);
-							
-							if(analysisType==0){baseOutcome=myModel.getStrategyEV(strat, dim);} //EV
-							else if(analysisType==1){ //CEA
-								Object table[][]=new CEAHelper().calculateICERs(myModel);
-								for(int s=0; s<table.length; s++){	
-									int origStrat=(int) table[s][0];
-									if(origStrat==strat){
-										baseOutcome=(double) table[s][4];
-									}
-								}
-							}
-							else if(analysisType==2){ //BCA
-								Object table[][]=new CEAHelper().calculateNMB(myModel);
-								for(int s=0; s<table.length; s++){	
-									int origStrat=(int) table[s][0];
-									if(origStrat==strat){
-										baseOutcome=(double) table[s][4];
-									}
+					final ProgressMonitor progress=new ProgressMonitor(frmTornadoDiagram, "Tornado Diagram", "Analyzing...", 0, 100);
+
+					Thread SimThread = new Thread(){ //Non-UI
+						public void run(){
+							try{
+								int strat=comboStrategy.getSelectedIndex();
+								int dim=comboDimensions.getSelectedIndex();
+								int analysisType=0; //EV
+								if(dim==comboDimensions.getItemCount()-1){ //ICER or NMB selected
+									analysisType=myModel.dimInfo.analysisType;
+								} 
+
+								ArrayList<String> errorsBase=myModel.parseModel();
+								if(errorsBase.size()>0){
+									JOptionPane.showMessageDialog(frmTornadoDiagram, "Errors in base case model!");
 								}
-							}
-							
-							results=new ArrayList<ParamResult>();
-							double globalMin=Double.POSITIVE_INFINITY, globalMax=Double.NEGATIVE_INFINITY;
-
-							int numParams=tableParams.getRowCount();
-							for(int v=0; v<numParams; v++){
-								String paramName=(String)tableParams.getValueAt(v, 0);
-								String strMin=(String)tableParams.getValueAt(v, 2);
-								String strMax=(String)tableParams.getValueAt(v, 3);
-								if(strMin!=null && strMin.length()>0 && strMax!=null && strMax.length()>0){
-									ParamResult result=new ParamResult();
-									result.name=paramName;
-									strMin=strMin.replaceAll(",",""); //Replace any commas
-									strMax=strMax.replaceAll(",",""); //Replace any commas
-									double min=Double.parseDouble(strMin);
-									double max=Double.parseDouble(strMax);
-									curParam=myModel.parameters.get(v);
-									
-									Numeric origValue=curParam.value.copy();
-									double minOutcome=baseOutcome, maxOutcome=baseOutcome;
-
-									//Min
-									curParam.value.setDouble(min);
-									curParam.locked=true;
-									ArrayList<String> errorsMin=myModel.parseModel();
-									if(errorsMin.size()>0){
-										curParam.value=origValue;
-										curParam.locked=false;
-										myModel.validateParamsVars();
-										JOptionPane.showMessageDialog(frmTornadoDiagram, "Error: "+paramName+" - Min value");
-										break;
-									}
-									else{
-										myModel.parseModel();
-										myModel.runModel(null, false);
-										
-										if(analysisType==0){minOutcome=myModel.getStrategyEV(strat, dim);} //EV
-										else if(analysisType==1){ //CEA
-											Object table[][]=new CEAHelper().calculateICERs(myModel);
-											for(int s=0; s<table.length; s++){	
-												int origStrat=(int) table[s][0];
-												if(origStrat==strat){
-													minOutcome=(double) table[s][4];
-												}
-											}
+								else{
+									//Get baseline
+									myModel.runModel(null, false);
+									baseOutcome=getOutcome(myModel,strat,dim,analysisType);
+
+									//Get parameter ranges
+									ArrayList<ParamResult> pending=new ArrayList<ParamResult>();
+									int numParams=tableParams.getRowCount();
+									for(int v=0; v<numParams; v++){
+										String strMin=(String)tableParams.getValueAt(v, 2);
+										String strMax=(String)tableParams.getValueAt(v, 3);
+										if(strMin!=null && strMin.length()>0 && strMax!=null && strMax.length()>0){
+											ParamResult result=new ParamResult();
+											result.name=(String)tableParams.getValueAt(v, 0);
+											result.paramIndex=v;
+											result.low=Double.parseDouble(strMin.replaceAll(",","")); //Replace any commas
+											result.high=Double.parseDouble(strMax.replaceAll(",",""));
+											pending.add(result);
 										}
-										else if(analysisType==2){ //BCA
-											Object table[][]=new CEAHelper().calculateNMB(myModel);
-											for(int s=0; s<table.length; s++){	
-												int origStrat=(int) table[s][0];
-												if(origStrat==strat){
-													minOutcome=(double) table[s][4];
-												}
-											}
-										}
-									}
-									result.minVal=minOutcome;
-
-									//Max
-									curParam.value.setDouble(max);
-									curParam.locked=true;
-									ArrayList<String> errorsMax=myModel.parseModel();
-									if(errorsMax.size()>0){
-										curParam.value=origValue;
-										curParam.locked=false;
-										myModel.validateParamsVars();
-										JOptionPane.showMessageDialog(frmTornadoDiagram, "Error: "+paramName+" - Max value");
-										break;
 									}
-									else{
-										myModel.parseModel();
-										myModel.runModel(null, false);
-										
-										if(analysisType==0){maxOutcome=myModel.getStrategyEV(strat, dim);} //EV
-										else if(analysisType==1){ //CEA
-											Object table[][]=new CEAHelper().calculateICERs(myModel);
-											for(int s=0; s<table.length; s++){	
-												int origStrat=(int) table[s][0];
-												if(origStrat==strat){
-													maxOutcome=(double) table[s][4];
-												}
-											}
-										}
-										else if(analysisType==2){ //BCA
-											Object table[][]=new CEAHelper().calculateNMB(myModel);
-											for(int s=0; s<table.length; s++){	
-												int origStrat=(int) table[s][0];
-												if(origStrat==strat){
-													maxOutcome=(double) table[s][4];
-												}
-											}
-										}
+									numThreads=Math.max(1, Integer.parseInt(textThreads.getText()));
+									
+									btnExport.setEnabled(false);
+									results=new ArrayList<ParamResult>();
+									String error=runParallel(progress,pending,strat,dim,analysisType);
+									if(error!=null){
+										JOptionPane.showMessageDialog(frmTornadoDiagram, error);
 									}
-									result.maxVal=maxOutcome;
-									result.range=(Math.abs(result.maxVal-result.minVal));
-
-									curParam.value=origValue;
-									curParam.locked=false;
-									results.add(result);
+									btnExport.setEnabled(true);
 								}
+								progress.close();
+							}catch(Exception e1){
+								progress.close();
+								JOptionPane.showMessageDialog(frmTornadoDiagram, e1.getMessage());
+								e1.printStackTrace();
+								myModel.errorLog.recordError(e1);
 							}
-							myModel.validateParamsVars();
-							//Update chart
-							Collections.sort(results);
-
-							numParams=results.size();
-							String paramNamesChrt[]=new String[numParams];
-							double[][] starts = new double[1][numParams];   
-							double[][] ends = new double[1][numParams];  
-							for(int v=0; v<numParams; v++){
-								paramNamesChrt[v]=results.get(v).name;
-								starts[0][v]=results.get(v).minVal;
-								ends[0][v]=results.get(v).maxVal;
-								double curMin=Math.min(starts[0][v], ends[0][v]);
-								double curMax=Math.max(starts[0][v], ends[0][v]);
-								globalMin=Math.min(globalMin, curMin);
-								globalMax=Math.max(globalMax, curMax);
-							}
-							double offset=Math.abs(globalMin*0.05);
-							offset=Math.max(offset, Math.abs(globalMax*0.05));
-							globalMin-=offset;
-							globalMax+=offset;
-
-							DefaultIntervalCategoryDataset dataset = new DefaultIntervalCategoryDataset(starts, ends);
-							dataset.setCategoryKeys(paramNamesChrt);
-
-							CategoryAxis xAxis = new CategoryAxis("Parameters");
-							ValueAxis yAxis = new NumberAxis();
-							DimInfo info=myModel.dimInfo;
-							if(analysisType==0){yAxis.setLabel("EV ("+info.dimSymbols[dim]+")");}
-							else if(analysisType==1){yAxis.setLabel("ICER ("+info.dimSymbols[info.costDim]+"/"+info.dimSymbols[info.effectDim]+")");}
-							else if(analysisType==2){yAxis.setLabel("NMB ("+info.dimSymbols[info.effectDim]+"-"+info.dimSymbols[info.costDim]+")");}
-							yAxis.setRange(globalMin,globalMax);
-							IntervalBarRenderer renderer = new IntervalBarRenderer();
-							CategoryPlot plot = new CategoryPlot(dataset, xAxis, yAxis, renderer);
-							((BarRenderer) plot.getRenderer()).setBarPainter(new StandardBarPainter());
-							((BarRenderer) plot.getRenderer()).setShadowVisible(false);
-							plot.setOrientation(PlotOrientation.HORIZONTAL);
-							plot.addRangeMarker(new ValueMarker(baseOutcome, Color.BLACK,new BasicStroke(3f)));
-							plot.getRenderer().setSeriesPaint(0, Color.BLUE);
-
-							chart = new JFreeChart(plot);
-							chart.removeLegend();
-							panelChart.setChart(chart);
-							btnExport.setEnabled(true);
 						}
-					}catch(Exception e1){
-						curParam.locked=false;
-						myModel.validateParamsVars();
-						JOptionPane.showMessageDialog(frmTornadoDiagram, e1.getMessage());
-						e1.printStackTrace();
-						myModel.errorLog.recordError(e1);
-					}
+					};
+					SimThread.start();
 				}
 
 			});
@@ -458,10 +351,187 @@ public class frmTornadoDiagram {
 		}
 	}
 
+	/**
+	 * Gets the outcome of a strategy for the current run
+	 */
+	private double getOutcome(AmuaModel curModel, int strat, int dim, int analysisType){
+		double outcome=Double.NaN;
+		if(analysisType==0){outcome=curModel.getStrategyEV(strat, dim);} //EV
+		else if(analysisType==1){ //CEA
+			Object table[][]=new CEAHelper().calculateICERs(curModel);
+			for(int s=0; s<table.length; s++){	
+				int origStrat=(int) table[s][0];
+				if(origStrat==strat){
+					outcome=(double) table[s][4];
+				}
+			}
+		}
+		else if(analysisType==2){ //BCA
+			Object table[][]=new CEAHelper().calculateNMB(curModel);
+			for(int s=0; s<table.length; s++){	
+				int origStrat=(int) table[s][0];
+				if(origStrat==strat){
+					outcome=(double) table[s][4];
+				}
+			}
+		}
+		return(outcome);
+	}
+
+	/**
+	 * Evaluates each parameter at its low and high value on a pool of worker threads, each with its own copy of the model.
+	 * Bars are added to the chart as parameters complete, sorted so the most influential parameters are at the top.
+	 * @return Error message for the first invalid parameter value, or null if none
+	 * @throws Exception
+	 */
+	private String runParallel(ProgressMonitor progress, final ArrayList<ParamResult> pending, final int strat, final int dim, final int analysisType) throws Exception{
+		final int numTasks=pending.size()*2; //low and high for each parameter
+		final AtomicInteger nextTask=new AtomicInteger(0);
+		final AtomicInteger numComplete=new AtomicInteger(0);
+		final AtomicBoolean cancelled=new AtomicBoolean(false);
+		final ConcurrentLinkedQueue<ParamResult> completed=new ConcurrentLinkedQueue<ParamResult>();
+		final ConcurrentLinkedQueue<String> errors=new ConcurrentLinkedQueue<String>();
+		progress.setMaximum(numTasks);
+		
+		ExecutorService pool=Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<Object>> futures=new ArrayList<Future<Object>>();
+		for(int w=0; w<numThreads; w++){
+			final AmuaModel curModel=myModel.copyModel();
+			curModel.numThreads=1; //already running in parallel
+			curModel.getStrategies();
+			futures.add(pool.submit(new Callable<Object>(){
+				public Object call() throws Exception{
+					int t=nextTask.getAndIncrement();
+					while(t<numTasks && cancelled.get()==false){
+						ParamResult result=pending.get(t/2);
+						boolean high=(t%2==1);
+						Parameter curParam=curModel.parameters.get(result.paramIndex);
+						Numeric origValue=curParam.value;
+						curParam.value=origValue.copy();
+						if(high){curParam.value.setDouble(result.high);}
+						else{curParam.value.setDouble(result.low);}
+						curParam.locked=true;
+						if(curModel.parseModelIncremental().size()>0){
+							if(high){errors.add("Error: "+result.name+" - Max value");}
+							else{errors.add("Error: "+result.name+" - Min value");}
+							cancelled.set(true);
+						}
+						else{
+							curModel.runModelNoDisplay();
+							double outcome=getOutcome(curModel,strat,dim,analysisType);
+							boolean done=false;
+							synchronized(result){
+								if(high){result.maxVal=outcome;}
+								else{result.minVal=outcome;}
+								result.numBounds++;
+								done=(result.numBounds==2);
+							}
+							if(done){
+								result.range=(Math.abs(result.maxVal-result.minVal));
+								completed.add(result);
+							}
+						}
+						curParam.value=origValue;
+						curParam.locked=false;
+						numComplete.incrementAndGet();
+						t=nextTask.getAndIncrement();
+					}
+					return(null);
+				}
+			}));
+		}
+		pool.shutdown();
+		while(pool.awaitTermination(200, TimeUnit.MILLISECONDS)==false){
+			progress.setProgress(numComplete.get());
+			if(progress.isCanceled()){cancelled.set(true);}
+			if(addCompleted(completed)){updateChart(dim,analysisType);}
+		}
+		for(int w=0; w<numThreads; w++){
+			try{
+				futures.get(w).get();
+			} catch(ExecutionException e){ //re-throw worker error
+				Throwable cause=e.getCause();
+				if(cause instanceof Exception){throw (Exception)cause;}
+				throw e;
+			}
+		}
+		addCompleted(completed);
+		updateChart(dim,analysisType);
+		return(errors.peek());
+	}
+	
+	/**
+	 * Moves completed parameters to the results
+	 * @return true if any were added
+	 */
+	private boolean addCompleted(ConcurrentLinkedQueue<ParamResult> completed){
+		boolean added=false;
+		ParamResult result=completed.poll();
+		while(result!=null){
+			results.add(result);
+			added=true;
+			result=completed.poll();
+		}
+		if(added){Collections.sort(results);}
+		return(added);
+	}
+	
+	private void updateChart(int dim, int analysisType){
+		double globalMin=Double.POSITIVE_INFINITY, globalMax=Double.NEGATIVE_INFINITY;
+		int numParams=results.size();
+		String paramNamesChrt[]=new String[numParams];
+		double[][] starts = new double[1][numParams];   
+		double[][] ends = new double[1][numParams];  
+		for(int v=0; v<numParams; v++){
+			paramNamesChrt[v]=results.get(v).name;
+			starts[0][v]=results.get(v).minVal;
+			ends[0][v]=results.get(v).maxVal;
+			double curMin=Math.min(starts[0][v], ends[0][v]);
+			double curMax=Math.max(starts[0][v], ends[0][v]);
+			globalMin=Math.min(globalMin, curMin);
+			globalMax=Math.max(globalMax, curMax);
+		}
+		if(numParams==0){globalMin=baseOutcome; globalMax=baseOutcome;}
+		double offset=Math.abs(globalMin*0.05);
+		offset=Math.max(offset, Math.abs(globalMax*0.05));
+		globalMin-=offset;
+		globalMax+=offset;
+
+		DefaultIntervalCategoryDataset dataset = new DefaultIntervalCategoryDataset(starts, ends);
+		dataset.setCategoryKeys(paramNamesChrt);
+
+		CategoryAxis xAxis = new CategoryAxis("Parameters");
+		ValueAxis yAxis = new NumberAxis();
+		DimInfo info=myModel.dimInfo;
+		if(analysisType==0){yAxis.setLabel("EV ("+info.dimSymbols[dim]+")");}
+		else if(analysisType==1){yAxis.setLabel("ICER ("+info.dimSymbols[info.costDim]+"/"+info.dimSymbols[info.effectDim]+")");}
+		else if(analysisType==2){yAxis.setLabel("NMB ("+info.dimSymbols[info.effectDim]+"-"+info.dimSymbols[info.costDim]+")");}
+		if(globalMax>globalMin){yAxis.setRange(globalMin,globalMax);}
+		IntervalBarRenderer renderer = new IntervalBarRenderer();
+		CategoryPlot plot = new CategoryPlot(dataset, xAxis, yAxis, renderer);
+		((BarRenderer) plot.getRenderer()).setBarPainter(new StandardBarPainter());
+		((BarRenderer) plot.getRenderer()).setShadowVisible(false);
+		plot.setOrientation(PlotOrientation.HORIZONTAL);
+		plot.addRangeMarker(new ValueMarker(baseOutcome, Color.BLACK,new BasicStroke(3f)));
+		plot.getRenderer().setSeriesPaint(0, Color.BLUE);
+
+		final JFreeChart newChart = new JFreeChart(plot);
+		newChart.removeLegend();
+		chart=newChart;
+		SwingUtilities.invokeLater(new Runnable(){
+			public void run(){
+				panelChart.setChart(newChart);
+			}
+		});
+	}
+
 	class ParamResult implements Comparable<ParamResult>{
 		String name;
+		int paramIndex;
+		double low, high; //parameter range
 		double minVal, maxVal;
 		double range;
+		int numBounds; //number of bounds evaluated
 
 		@Override
 		public int compareTo(ParamResult result){
@@ -20,7 +20,6 @@ package gui;
 
 import javax.swing.JFrame;
 import javax.swing.JScrollPane;
-import java.util.ArrayList;
 import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
@@ -31,6 +30,7 @@ import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 
 import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
@@ -44,6 +44,7 @@ import org.jfree.data.xy.XYSeriesCollection;
 import filters.CSVFilter;
 import main.ErrorLog;
 import markov.MarkovTrace;
+import markov.TraceSeries;
 
 import javax.swing.border.LineBorder;
 import java.awt.Color;
@@ -172,19 +173,20 @@ public class frmTrace {
 							BufferedWriter out = new BufferedWriter(fstream);
 							
 							//Write headers
-							int numCol=trace.modelTraceRounded.getColumnCount();
-							int numRow=trace.modelTraceRounded.getRowCount();
+							DefaultTableModel modelTrace=trace.getTableModel();
+							int numCol=modelTrace.getColumnCount();
+							int numRow=modelTrace.getRowCount();
 							for(int c=0; c<numCol-1; c++){
-								out.write(trace.modelTraceRounded.getColumnName(c)+",");
+								out.write(modelTrace.getColumnName(c)+",");
 							}
-							out.write(trace.modelTraceRounded.getColumnName(numCol-1)); out.newLine();
+							out.write(modelTrace.getColumnName(numCol-1)); out.newLine();
 							
 							//Write trace rows
 							for(int r=0; r<numRow; r++){
 								for(int c=0; c<numCol-1; c++){
-									out.write(trace.modelTraceRounded.getValueAt(r, c)+",");
+									out.write(modelTrace.getValueAt(r, c)+",");
 								}
-								out.write(trace.modelTraceRounded.getValueAt(r, numCol-1)+""); out.newLine();
+								out.write(modelTrace.getValueAt(r, numCol-1)+""); out.newLine();
 							}
 							
 							out.close();
@@ -205,17 +207,18 @@ public class frmTrace {
 			JButton btnCopy = new JButton("Copy");
 			btnCopy.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent arg0) {
-					int numCol=trace.modelTraceRounded.getColumnCount();
-					int numRow=trace.modelTraceRounded.getRowCount();
+					DefaultTableModel modelTrace=trace.getTableModel();
+					int numCol=modelTrace.getColumnCount();
+					int numRow=modelTrace.getRowCount();
 					String data[][]=new String[numRow+1][numCol];
 					//Get headers
 					for(int c=0; c<numCol; c++){
-						data[0][c]=trace.modelTraceRounded.getColumnName(c);
+						data[0][c]=modelTrace.getColumnName(c);
 					}
 					//Get row
 					for(int r=0; r<numRow; r++){
 						for(int c=0; c<numCol; c++){
-							data[r+1][c]=trace.modelTraceRounded.getValueAt(r, c)+"";
+							data[r+1][c]=modelTrace.getValueAt(r, c)+"";
 						}
 					}
 					
@@ -240,7 +243,7 @@ public class frmTrace {
 			table = new JTable();
 			table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
 			table.setEnabled(false);
-			table.setModel(trace.modelTraceRounded);
+			table.setModel(trace.getTableModel());
 			table.setShowVerticalLines(true);
 			table.getTableHeader().setReorderingAllowed(false);
 			scrollPane.setViewportView(table);
@@ -343,7 +346,7 @@ public class frmTrace {
 		}
 	}
 	
-	private double [][] getSeriesData(ArrayList<Integer> cycle, ArrayList<Double> traceData){
+	private double [][] getSeriesData(TraceSeries cycle, TraceSeries traceData){
 		int numCycles=cycle.size();
 		double data[][]=new double[2][numCycles];
 		for(int i=0; i<numCycles; i++){
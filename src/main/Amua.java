@@ -28,6 +28,11 @@ public class Amua {
 	 * Launch the application.
 	 */
 	public static void main(String[] args) {
+		if(args.length>0){ //run headless from command line
+			AmuaCLI.run(args);
+			return;
+		}
+		
 		//get current OS
 		String curOS=System.getProperty("os.name").toLowerCase();
 		if(curOS.contains("mac")){ //if Mac
@@ -0,0 +1,507 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+
+import base.AmuaModel;
+import markov.MarkovNode;
+import math.Interpreter;
+import math.Numeric;
+
+/**
+ * Headless command line runner.  Loads an .amua model and runs the base case, PSA, one-way or two-way sensitivity analysis, or calibration,
+ * and writes the results to CSV or JSON.  No display is created, so this can be run on servers without a window system.
+ */
+public class AmuaCLI{
+	AmuaModel myModel;
+	ArrayList<MarkovNode> chainRoots;
+	int numStrat, numDim, analysisType;
+	//options
+	String modelPath, analysis;
+	String outPath=null, format=null;
+	String chainName=null;
+	int iterations=1000;
+	boolean seeded=false;
+	int seed=0;
+	String param1=null, param2=null;
+	double min1=Double.NaN, max1=Double.NaN, min2=Double.NaN, max2=Double.NaN;
+	int intervals=10;
+	String score=null;
+	String method="random";
+	double thresh=Double.NaN;
+	int numThreads=Runtime.getRuntime().availableProcessors();
+	int generations=10;
+	long maxRuns=0;
+	double maxTime=0; //seconds
+	//results
+	ArrayList<String> header=new ArrayList<String>();
+	ArrayList<Object[]> rows=new ArrayList<Object[]>();
+
+	public static void run(String args[]){
+		System.setProperty("java.awt.headless", "true");
+		AmuaCLI cli=new AmuaCLI();
+		try{
+			cli.parseArgs(args);
+			cli.openModel();
+			cli.runAnalysis();
+			cli.writeResults();
+		}catch(Exception e){
+			System.err.println("Error: "+e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public static void printUsage(){
+		System.out.println("Usage: Amua <model.amua> <base|psa|oneway|twoway|calibrate> [options]");
+		System.out.println("  -o <file>             Output file (.csv or .json). Default: CSV to standard output");
+		System.out.println("  -format <csv|json>    Output format (overrides file extension)");
+		System.out.println("  -chain <name>         Markov chain to run (default: all chains)");
+		System.out.println("  -n <number>           PSA iterations or calibration parameter sets (default: 1000)");
+		System.out.println("  -seed <seed>          Seed for parameter sampling");
+		System.out.println("  -param <name> -min <x> -max <x>      Parameter range for one-way/two-way");
+		System.out.println("  -param2 <name> -min2 <x> -max2 <x>   Second parameter range for two-way");
+		System.out.println("  -intervals <number>   Number of intervals for one-way/two-way (default: 10)");
+		System.out.println("  -score <expression>   Calibration score expression (Markov models)");
+		System.out.println("  -method <random|abc|abc-smc>  Calibration method (default: random)");
+		System.out.println("  -thresh <x>           Score threshold for ABC, or target threshold for ABC-SMC calibration");
+		System.out.println("  -generations <number> Max generations for ABC-SMC (default: 10)");
+		System.out.println("  -threads <number>     Worker threads for calibration (default: number of processors)");
+		System.out.println("  -maxruns <number>     Stop calibration after this many model runs and return the sets found so far");
+		System.out.println("  -maxtime <seconds>    Stop calibration after this much time and return the sets found so far");
+	}
+
+	private void parseArgs(String args[]) throws Exception{
+		if(args.length<2){
+			printUsage();
+			throw new Exception("Model file and analysis required");
+		}
+		modelPath=args[0];
+		analysis=args[1].toLowerCase();
+		int i=2;
+		while(i<args.length){
+			String option=args[i];
+			if(i+1>=args.length){throw new Exception("Missing value for option "+option);}
+			String value=args[i+1];
+			if(option.equals("-o")){outPath=value;}
+			else if(option.equals("-format")){format=value.toLowerCase();}
+			else if(option.equals("-chain")){chainName=value;}
+			else if(option.equals("-n")){iterations=Integer.parseInt(value.replaceAll(",", ""));}
+			else if(option.equals("-seed")){seeded=true; seed=Integer.parseInt(value);}
+			else if(option.equals("-param")){param1=value;}
+			else if(option.equals("-min")){min1=Double.parseDouble(value.replaceAll(",", ""));}
+			else if(option.equals("-max")){max1=Double.parseDouble(value.replaceAll(",", ""));}
+			else if(option.equals("-param2")){param2=value;}
+			else if(option.equals("-min2")){min2=Double.parseDouble(value.replaceAll(",", ""));}
+			else if(option.equals("-max2")){max2=Double.parseDouble(value.replaceAll(",", ""));}
+			else if(option.equals("-intervals")){intervals=Integer.parseInt(value);}
+			else if(option.equals("-score")){score=value;}
+			else if(option.equals("-method")){method=value.toLowerCase();}
+			else if(option.equals("-thresh")){thresh=Double.parseDouble(value.replaceAll(",", ""));}
+			else if(option.equals("-threads")){numThreads=Integer.parseInt(value);}
+			else if(option.equals("-generations")){generations=Integer.parseInt(value);}
+			else if(option.equals("-maxruns")){maxRuns=Long.parseLong(value.replaceAll(",", ""));}
+			else if(option.equals("-maxtime")){maxTime=Double.parseDouble(value.replaceAll(",", ""));}
+			else{
+				printUsage();
+				throw new Exception("Unrecognized option: "+option);
+			}
+			i+=2;
+		}
+		if(format==null){
+			if(outPath!=null && outPath.toLowerCase().endsWith(".json")){format="json";}
+			else{format="csv";}
+		}
+		if(!format.equals("csv") && !format.equals("json")){throw new Exception("Invalid format: "+format);}
+	}
+
+	private void openModel() throws Exception{
+		File file=new File(modelPath);
+		JAXBContext context = JAXBContext.newInstance(AmuaModel.class);
+		Unmarshaller un = context.createUnmarshaller();
+		myModel = (AmuaModel) un.unmarshal(file);
+		myModel.name=file.getName().replaceAll(".amua", "");
+		myModel.filepath=file.getAbsolutePath();
+		myModel.openModelHeadless(new ErrorLog("CLI"));
+
+		//get chains to run
+		if(myModel.type==1){
+			chainRoots=new ArrayList<MarkovNode>();
+			for(int n=0; n<myModel.markov.nodes.size(); n++){
+				MarkovNode curNode=myModel.markov.nodes.get(n);
+				if(curNode.type==1 && (chainName==null || curNode.name.equals(chainName))){chainRoots.add(curNode);}
+			}
+			if(chainRoots.size()==0){throw new Exception("Markov chain not found: "+chainName);}
+			if(chainName!=null){myModel.selectedChain=chainRoots.get(0);}
+		}
+
+		ArrayList<String> errors=myModel.parseModel();
+		if(errors.size()>0){
+			for(int e=0; e<errors.size(); e++){System.err.println(errors.get(e));}
+			throw new Exception("Errors in base case model!");
+		}
+		numStrat=myModel.getStrategies();
+		numDim=myModel.dimInfo.dimNames.length;
+		analysisType=myModel.dimInfo.analysisType;
+	}
+
+	private void runAnalysis() throws Exception{
+		if(analysis.equals("base")){runBaseCase();}
+		else if(analysis.equals("psa")){runPSA();}
+		else if(analysis.equals("oneway")){runOneWay();}
+		else if(analysis.equals("twoway")){runTwoWay();}
+		else if(analysis.equals("calibrate")){runCalibration();}
+		else{
+			printUsage();
+			throw new Exception("Unrecognized analysis: "+analysis);
+		}
+	}
+
+	private void runBaseCase() throws Exception{
+		addOutcomeHeader();
+		runModel();
+		addOutcomeRows(new Object[0]);
+	}
+
+	private void runPSA() throws Exception{
+		int numParams=myModel.parameters.size();
+		header.add("Iteration");
+		for(int v=0; v<numParams; v++){header.add(myModel.parameters.get(v).name);}
+		addOutcomeHeader();
+
+		myModel.sampleParam=true;
+		myModel.generatorParam=new MersenneTwisterFast();
+		if(seeded){myModel.generatorParam.setSeed(seed);}
+		Numeric origValues[]=getOrigValues();
+		parseConstraints();
+		//Per-iteration parameter RNG streams, as in the PSA window
+		int seeds[]=new int[iterations];
+		for(int n=0; n<iterations; n++){
+			seeds[n]=myModel.generatorParam.nextInt();
+		}
+		for(int n=0; n<iterations; n++){
+			myModel.generatorParam=new MersenneTwisterFast(seeds[n]);
+			sampleParameters(origValues);
+			Object ids[]=new Object[numParams+1];
+			ids[0]=n;
+			for(int v=0; v<numParams; v++){ids[v+1]=getDouble(myModel.parameters.get(v).value);}
+			myModel.curGenerator=myModel.generatorVar;
+			runModel();
+			addOutcomeRows(ids);
+		}
+		resetParameters(origValues);
+	}
+
+	private void runOneWay() throws Exception{
+		Parameter curParam=getParameter(param1, min1, max1);
+		header.add(curParam.name);
+		addOutcomeHeader();
+		double step=(max1-min1)/(intervals*1.0);
+		Numeric origValue=curParam.value.copy();
+		for(int i=0; i<=intervals; i++){
+			double curVal=min1+(step*i);
+			curParam.value=new Numeric(curVal);
+			curParam.locked=true;
+			checkParameters(curParam.name+"="+curVal);
+			runModel();
+			addOutcomeRows(new Object[]{curVal});
+		}
+		curParam.value=origValue;
+		curParam.locked=false;
+		myModel.validateParamsVars();
+	}
+
+	private void runTwoWay() throws Exception{
+		Parameter curParam1=getParameter(param1, min1, max1);
+		Parameter curParam2=getParameter(param2, min2, max2);
+		if(curParam1==curParam2){throw new Exception("Please select two different parameters!");}
+		header.add(curParam1.name);
+		header.add(curParam2.name);
+		addOutcomeHeader();
+		double step1=(max1-min1)/(intervals*1.0);
+		double step2=(max2-min2)/(intervals*1.0);
+		Numeric origValue1=curParam1.value.copy();
+		Numeric origValue2=curParam2.value.copy();
+		for(int i=0; i<=intervals; i++){
+			double curVal1=min1+(step1*i);
+			for(int j=0; j<=intervals; j++){
+				double curVal2=min2+(step2*j);
+				curParam1.value=new Numeric(curVal1);
+				curParam2.value=new Numeric(curVal2);
+				curParam1.locked=true; curParam2.locked=true;
+				checkParameters(curParam1.name+"="+curVal1+", "+curParam2.name+"="+curVal2);
+				runModel();
+				addOutcomeRows(new Object[]{curVal1,curVal2});
+			}
+		}
+		curParam1.value=origValue1; curParam2.value=origValue2;
+		curParam1.locked=false; curParam2.locked=false;
+		myModel.validateParamsVars();
+	}
+
+	private void runCalibration() throws Exception{
+		if(myModel.type!=1){throw new Exception("Calibration requires a Markov model");}
+		if(score==null){throw new Exception("Score expression required (-score)");}
+		int calibMethod;
+		if(method.equals("random")){calibMethod=CalibrationRunner.RANDOM;}
+		else if(method.equals("abc")){calibMethod=CalibrationRunner.ABC;}
+		else if(method.equals("abc-smc")){calibMethod=CalibrationRunner.ABC_SMC;}
+		else{throw new Exception("Invalid calibration method: "+method);}
+		if(calibMethod!=CalibrationRunner.RANDOM && Double.isNaN(thresh)){throw new Exception("Score threshold required for ABC (-thresh)");}
+		MarkovNode curChain=chainRoots.get(0);
+		//initial run to build trace
+		myModel.evaluateParameters();
+		myModel.markov.runModel(curChain,false);
+		myModel.unlockParams();
+		Interpreter.evaluate(score, myModel, false); //check score expression
+
+		int numParams=myModel.parameters.size();
+		header.add("Set");
+		header.add("Score");
+		for(int v=0; v<numParams; v++){header.add(myModel.parameters.get(v).name);}
+
+		MersenneTwisterFast generator=new MersenneTwisterFast();
+		if(seeded){generator.setSeed(seed);}
+		CalibrationRunner runner=new CalibrationRunner(myModel,curChain,score,numThreads);
+		runner.maxGenerations=generations;
+		runner.maxRuns=maxRuns;
+		runner.maxTime=(long) (maxTime*1000);
+		ParameterSet sets[]=runner.run(calibMethod, iterations, thresh, generator, null);
+		if(runner.limitReached){ //partial results
+			String message="Calibration stopped at run/time limit after "+runner.numRuns.get()+" runs: ";
+			if(calibMethod==CalibrationRunner.ABC_SMC && runner.generation>0){message+="returning population from generation "+(runner.generation-1);}
+			else{message+=sets.length+" of "+iterations+" sets";}
+			System.err.println(message);
+		}
+		for(int i=0; i<sets.length; i++){
+			Object row[]=new Object[numParams+2];
+			row[0]=i+1;
+			row[1]=sets[i].score;
+			for(int v=0; v<numParams; v++){row[v+2]=getDouble(sets[i].values[v]);}
+			rows.add(row);
+		}
+	}
+
+	/**
+	 * Runs the model with the current parameters.  Locked parameters are kept, all others are re-evaluated.
+	 */
+	private void runModel() throws Exception{
+		myModel.evaluateParameters(); //get parameters
+		if(myModel.type==0){ //Decision tree
+			myModel.tree.runModel(false);
+		}
+		else if(myModel.type==1){ //Markov model
+			for(int c=0; c<chainRoots.size(); c++){
+				myModel.markov.runModel(chainRoots.get(c),false);
+			}
+		}
+		myModel.unlockParams(); //unlock parameters
+	}
+
+	private void checkParameters(String label) throws Exception{
+		if(myModel.parseModelIncremental().size()>0){
+			throw new Exception("Errors in model at "+label);
+		}
+	}
+
+	private Parameter getParameter(String name, double min, double max) throws Exception{
+		if(name==null){throw new Exception("Parameter required (-param/-param2)");}
+		int index=myModel.getParameterIndex(name);
+		if(index==-1){throw new Exception("Parameter not found: "+name);}
+		if(Double.isNaN(min) || Double.isNaN(max)){throw new Exception("Min and max required for parameter "+name);}
+		if(intervals<1){throw new Exception("Invalid number of intervals: "+intervals);}
+		return(myModel.parameters.get(index));
+	}
+
+	private Numeric[] getOrigValues(){
+		int numParams=myModel.parameters.size();
+		Numeric origValues[]=new Numeric[numParams];
+		for(int v=0; v<numParams; v++){
+			origValues[v]=myModel.parameters.get(v).value.copy();
+		}
+		return(origValues);
+	}
+
+	private void parseConstraints(){
+		for(int c=0; c<myModel.constraints.size(); c++){
+			myModel.constraints.get(c).parseConstraints();
+		}
+	}
+
+	/**
+	 * Samples all parameters until constraints are met and the model is valid
+	 */
+	private void sampleParameters(Numeric origValues[]) throws Exception{
+		int numParams=myModel.parameters.size();
+		int numConst=myModel.constraints.size();
+		myModel.curGenerator=myModel.generatorParam;
+		boolean validParams=false;
+		while(validParams==false){
+			for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
+				Parameter curParam=myModel.parameters.get(v);
+				curParam.locked=false;
+				curParam.value=origValues[v];
+			}
+			for(int v=0; v<numParams; v++){ //sample all parameters
+				Parameter curParam=myModel.parameters.get(v);
+				curParam.locked=true;
+				curParam.value=Interpreter.evaluate(curParam.expression, myModel,true);
+			}
+			//check constraints
+			validParams=true;
+			int c=0;
+			while(validParams==true && c<numConst){
+				validParams=myModel.constraints.get(c).checkConstraints(myModel);
+				c++;
+			}
+			if(validParams){ //check model for valid params
+				if(myModel.parseModelIncremental().size()!=0){validParams=false;}
+			}
+		}
+	}
+
+	private void resetParameters(Numeric origValues[]){
+		myModel.sampleParam=false;
+		for(int v=0; v<origValues.length; v++){
+			Parameter curParam=myModel.parameters.get(v);
+			curParam.locked=false;
+			curParam.value=origValues[v];
+		}
+		myModel.validateParamsVars();
+	}
+
+	private void addOutcomeHeader(){
+		DimInfo info=myModel.dimInfo;
+		header.add("Strategy");
+		for(int d=0; d<numDim; d++){header.add(info.dimNames[d]);}
+		if(analysisType==1){header.add("ICER ("+info.dimSymbols[info.costDim]+"/"+info.dimSymbols[info.effectDim]+")");}
+		else if(analysisType==2){header.add("NMB ("+info.dimSymbols[info.effectDim]+"-"+info.dimSymbols[info.costDim]+")");}
+	}
+
+	/**
+	 * Adds one row per strategy with the given identifying columns
+	 */
+	private void addOutcomeRows(Object ids[]){
+		int numCols=ids.length+1+numDim;
+		if(analysisType>0){numCols++;}
+		Object cea[]=new Object[numStrat];
+		if(analysisType>0){
+			Object table[][]=null;
+			if(analysisType==1){table=new CEAHelper().calculateICERs(myModel);}
+			else{table=new CEAHelper().calculateNMB(myModel);}
+			for(int s=0; s<table.length; s++){
+				int origStrat=(int) table[s][0];
+				if(origStrat!=-1){cea[origStrat]=table[s][4];}
+			}
+		}
+		for(int s=0; s<numStrat; s++){
+			Object row[]=new Object[numCols];
+			for(int i=0; i<ids.length; i++){row[i]=ids[i];}
+			int col=ids.length;
+			row[col++]=myModel.strategyNames[s];
+			for(int d=0; d<numDim; d++){row[col++]=myModel.getStrategyEV(s, d);}
+			if(analysisType>0){row[col++]=cea[s];}
+			rows.add(row);
+		}
+	}
+
+	private static Object getDouble(Numeric value){
+		try{
+			return(value.getDouble());
+		}catch(Exception e){
+			return(value.toString());
+		}
+	}
+
+	private void writeResults() throws Exception{
+		BufferedWriter out;
+		if(outPath==null){out=new BufferedWriter(new OutputStreamWriter(System.out));}
+		else{out=new BufferedWriter(new FileWriter(outPath));}
+		int numCols=header.size();
+		if(format.equals("csv")){
+			for(int c=0; c<numCols; c++){
+				if(c>0){out.write(",");}
+				out.write(csv(header.get(c)));
+			}
+			out.newLine();
+			for(int r=0; r<rows.size(); r++){
+				Object row[]=rows.get(r);
+				for(int c=0; c<numCols; c++){
+					if(c>0){out.write(",");}
+					if(row[c]!=null){out.write(csv(row[c].toString()));}
+				}
+				out.newLine();
+			}
+		}
+		else{ //json
+			out.write("{\"model\":"+json(myModel.name)+",\"analysis\":"+json(analysis)+",\"results\":[");
+			out.newLine();
+			for(int r=0; r<rows.size(); r++){
+				Object row[]=rows.get(r);
+				out.write("{");
+				for(int c=0; c<numCols; c++){
+					if(c>0){out.write(",");}
+					out.write(json(header.get(c))+":");
+					if(row[c]==null){out.write("null");}
+					else if(row[c] instanceof Number){
+						double val=((Number)row[c]).doubleValue();
+						if(Double.isNaN(val) || Double.isInfinite(val)){out.write("null");}
+						else{out.write(row[c].toString());}
+					}
+					else{out.write(json(row[c].toString()));}
+				}
+				out.write("}");
+				if(r<rows.size()-1){out.write(",");}
+				out.newLine();
+			}
+			out.write("]}");
+			out.newLine();
+		}
+		out.close();
+	}
+
+	private static String csv(String text){
+		if(text.contains(",") || text.contains("\"") || text.contains("\n")){
+			return("\""+text.replaceAll("\"", "\"\"")+"\"");
+		}
+		return(text);
+	}
+
+	private static String json(String text){
+		StringBuilder sb=new StringBuilder("\"");
+		for(int i=0; i<text.length(); i++){
+			char ch=text.charAt(i);
+			if(ch=='"' || ch=='\\'){sb.append('\\').append(ch);}
+			else if(ch=='\n'){sb.append("\\n");}
+			else if(ch=='\r'){sb.append("\\r");}
+			else if(ch=='\t'){sb.append("\\t");}
+			else if(ch<0x20){sb.append(String.format("\\u%04x", (int)ch));}
+			else{sb.append(ch);}
+		}
+		sb.append("\"");
+		return(sb.toString());
+	}
+}
@@ -0,0 +1,608 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.ProgressMonitor;
+
+import base.AmuaModel;
+import markov.MarkovNode;
+import math.Distributions;
+import math.Interpreter;
+import math.Numeric;
+import math.NumericException;
+
+/**
+ * Evaluates candidate parameter sets for calibration on a pool of worker threads, each with its own copy of the model.
+ * Random: every candidate is kept, each set has its own RNG stream so results do not depend on the number of threads.
+ * ABC: candidates are sampled until enough sets with score <= threshold are accepted.
+ * ABC-SMC: a population is moved through decreasing thresholds, proposing from the previous weighted population
+ * with a Gaussian perturbation kernel (Beaumont et al. 2009).  The final weighted population is resampled to equal weights.
+ */
+public class CalibrationRunner{
+	public static final int RANDOM=0, ABC=1, ABC_SMC=2;
+	static final int PRIOR=0, PROPOSAL=1; //candidate types
+
+	AmuaModel myModel;
+	MarkovNode chainRoot;
+	String strScore;
+	int numThreads;
+	int numParams;
+	Numeric origValues[];
+	//ABC-SMC settings
+	public int maxGenerations=10;
+	public double quantile=0.5; //quantile of previous scores used as next threshold
+	//limits for unattended runs, 0 for no limit.  When reached the run stops as if cancelled
+	public long maxRuns=0;
+	public long maxTime=0; //milliseconds
+	public volatile boolean limitReached;
+
+	//continuous univariate priors that can be perturbed, null otherwise
+	String priorDist[];
+	String priorArgs[][];
+
+	int numSets;
+	ParameterSet sets[];
+	double logWeights[];
+	AtomicInteger nextSet=new AtomicInteger(0);
+	AtomicInteger numAccepted=new AtomicInteger(0);
+	AtomicLong numRuns=new AtomicLong(0);
+	AtomicBoolean cancelled=new AtomicBoolean(false);
+	long startTime;
+	int generation=-1;
+	long generationRuns; //runs before current generation
+	double curThresh;
+	//previous ABC-SMC population
+	double prevVals[][]; //[param][particle]
+	double prevWeights[], prevCumWeights[];
+	double kernelSD[];
+
+	//Constructor
+	public CalibrationRunner(AmuaModel myModel, MarkovNode chainRoot, String strScore, int numThreads){
+		this.myModel=myModel;
+		this.chainRoot=chainRoot;
+		this.strScore=strScore;
+		this.numThreads=Math.max(1, numThreads);
+		numParams=myModel.parameters.size();
+		origValues=new Numeric[numParams];
+		priorDist=new String[numParams];
+		priorArgs=new String[numParams][];
+		for(int v=0; v<numParams; v++){
+			Parameter curParam=myModel.parameters.get(v);
+			origValues[v]=curParam.value.copy();
+			if(origValues[v].isDouble() || origValues[v].isInteger()){
+				parsePrior(v,curParam.expression);
+			}
+		}
+	}
+
+	/**
+	 * Runs the calibration
+	 * @param method RANDOM, ABC, or ABC_SMC
+	 * @param numSets Number of parameter sets to return
+	 * @param thresh Score threshold (ABC), or target threshold (ABC-SMC)
+	 * @param generator Master RNG used to seed the workers
+	 * @param progress Optional progress monitor, polled for cancel
+	 * @return Accepted parameter sets, fewer than numSets if cancelled
+	 * @throws Exception
+	 */
+	public ParameterSet[] run(int method, int numSets, double thresh, MersenneTwisterFast generator, ProgressMonitor progress) throws Exception{
+		this.numSets=numSets;
+		startTime=System.currentTimeMillis();
+		cancelled.set(false);
+		limitReached=false;
+		numRuns.set(0);
+		generation=-1;
+
+		//Copy model for each worker
+		AmuaModel models[]=new AmuaModel[numThreads];
+		MarkovNode chains[]=new MarkovNode[numThreads];
+		int chainIndex=myModel.markov.nodes.indexOf(chainRoot);
+		for(int w=0; w<numThreads; w++){
+			models[w]=myModel.copyModel();
+			models[w].numThreads=1; //already running in parallel
+			chains[w]=models[w].markov.nodes.get(chainIndex);
+		}
+
+		ExecutorService pool=Executors.newFixedThreadPool(numThreads);
+		try{
+			if(method==RANDOM){
+				runGeneration(pool,models,chains,PRIOR,Double.POSITIVE_INFINITY,true,generator,progress);
+				return(getCompleteSets());
+			}
+			else if(method==ABC){
+				runGeneration(pool,models,chains,PRIOR,thresh,false,generator,progress);
+				return(getCompleteSets());
+			}
+			else{
+				return(runSMC(pool,models,chains,thresh,generator,progress));
+			}
+		} finally{
+			pool.shutdown();
+		}
+	}
+
+	private ParameterSet[] runSMC(ExecutorService pool, AmuaModel models[], MarkovNode chains[], double targetThresh, MersenneTwisterFast generator, ProgressMonitor progress) throws Exception{
+		//Generation 0: sample from priors
+		generation=0;
+		runGeneration(pool,models,chains,PRIOR,Double.POSITIVE_INFINITY,true,generator,progress);
+		if(cancelled.get()){return(getCompleteSets());}
+		updatePopulation(); //equal weights
+
+		boolean done=false;
+		while(done==false && generation<maxGenerations){
+			//next threshold from quantile of current scores
+			double scores[]=new double[numSets];
+			for(int i=0; i<numSets; i++){scores[i]=sets[i].score;}
+			Arrays.sort(scores);
+			int index=(int) Math.ceil(quantile*numSets)-1;
+			index=Math.max(0, Math.min(numSets-1, index));
+			double nextThresh=scores[index];
+			if(nextThresh<=targetThresh){
+				nextThresh=targetThresh;
+				done=true;
+			}
+			ParameterSet prevSets[]=sets;
+			generation++;
+			runGeneration(pool,models,chains,PROPOSAL,nextThresh,false,generator,progress);
+			if(cancelled.get()){ //keep last complete population
+				sets=prevSets;
+				break;
+			}
+			updatePopulation();
+		}
+
+		//Resample to equal weights (systematic)
+		ParameterSet resampled[]=new ParameterSet[numSets];
+		double step=1.0/numSets;
+		double u=generator.nextDouble()*step;
+		int j=0;
+		for(int i=0; i<numSets; i++){
+			while(j<numSets-1 && prevCumWeights[j]<u){j++;}
+			resampled[i]=sets[j].copy();
+			resampled[i].id=(i+1)+"";
+			u+=step;
+		}
+		sets=resampled;
+		return(sets);
+	}
+
+	/**
+	 * Fills sets[] with numSets accepted candidates
+	 * @param type PRIOR or PROPOSAL
+	 * @param thresh Accept if score <= thresh
+	 * @param indexed If true each set gets its own RNG stream (all candidates accepted), otherwise one stream per worker
+	 */
+	private void runGeneration(ExecutorService pool, AmuaModel models[], MarkovNode chains[], final int type, final double thresh, final boolean indexed, MersenneTwisterFast generator, ProgressMonitor progress) throws Exception{
+		sets=new ParameterSet[numSets];
+		logWeights=new double[numSets];
+		nextSet.set(0); numAccepted.set(0);
+		generationRuns=numRuns.get();
+		curThresh=thresh;
+
+		//Draw seeds up front
+		final int seeds[];
+		if(indexed){seeds=new int[numSets];} //one stream per set
+		else{seeds=new int[numThreads];} //one stream per worker
+		for(int i=0; i<seeds.length; i++){
+			seeds[i]=generator.nextInt();
+		}
+
+		ArrayList<Future<Object>> results=new ArrayList<Future<Object>>();
+		for(int w=0; w<numThreads; w++){
+			final AmuaModel curModel=models[w];
+			final MarkovNode curChain=chains[w];
+			final int worker=w;
+			results.add(pool.submit(new Callable<Object>(){
+				public Object call() throws Exception{
+					if(indexed){
+						int n=nextSet.getAndIncrement();
+						while(n<sets.length && cancelled.get()==false){
+							double score=runCandidate(curModel,curChain,type,new MersenneTwisterFast(seeds[n]));
+							sets[n]=getSet(curModel,n,score);
+							countRun();
+							numAccepted.incrementAndGet();
+							n=nextSet.getAndIncrement();
+						}
+					}
+					else{
+						MersenneTwisterFast curGenerator=new MersenneTwisterFast(seeds[worker]);
+						while(numAccepted.get()<sets.length && cancelled.get()==false){
+							double score=runCandidate(curModel,curChain,type,curGenerator);
+							countRun();
+							if(score<=thresh){
+								int slot=numAccepted.getAndIncrement();
+								if(slot<sets.length){
+									if(type==PROPOSAL){logWeights[slot]=getLogWeight(curModel);}
+									sets[slot]=getSet(curModel,slot,score);
+								}
+							}
+						}
+					}
+					return(null);
+				}
+			}));
+		}
+		for(int w=0; w<numThreads; w++){
+			boolean complete=false;
+			while(complete==false){
+				try{
+					results.get(w).get(200, TimeUnit.MILLISECONDS);
+					complete=true;
+				} catch(TimeoutException e){
+					checkLimits(numRuns.get());
+					if(progress!=null){
+						updateProgress(progress);
+						if(progress.isCanceled()){cancelled.set(true);}
+					}
+				} catch(ExecutionException e){ //re-throw worker error
+					cancelled.set(true);
+					Throwable cause=e.getCause();
+					if(cause instanceof Exception){throw (Exception)cause;}
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void countRun(){
+		checkLimits(numRuns.incrementAndGet());
+	}
+
+	/**
+	 * Stops the run (like cancel) once the run cap or time limit is reached
+	 */
+	private void checkLimits(long runs){
+		if((maxRuns>0 && runs>=maxRuns) || (maxTime>0 && System.currentTimeMillis()-startTime>=maxTime)){
+			limitReached=true;
+			cancelled.set(true);
+		}
+	}
+
+	/**
+	 * Returns the completed sets, fewer than numSets if cancelled
+	 */
+	private ParameterSet[] getCompleteSets(){
+		int numComplete=0;
+		for(int i=0; i<sets.length; i++){
+			if(sets[i]!=null){numComplete++;}
+		}
+		if(numComplete<sets.length){
+			ParameterSet complete[]=new ParameterSet[numComplete];
+			int index=0;
+			for(int i=0; i<sets.length; i++){
+				if(sets[i]!=null){complete[index]=sets[i]; index++;}
+			}
+			sets=complete;
+		}
+		return(sets);
+	}
+
+	/**
+	 * Normalizes weights of the current population and updates the perturbation kernel
+	 */
+	private void updatePopulation(){
+		double maxLog=Double.NEGATIVE_INFINITY;
+		for(int i=0; i<numSets; i++){maxLog=Math.max(maxLog, logWeights[i]);}
+		prevWeights=new double[numSets];
+		prevCumWeights=new double[numSets];
+		double sum=0;
+		for(int i=0; i<numSets; i++){
+			prevWeights[i]=Math.exp(logWeights[i]-maxLog);
+			sum+=prevWeights[i];
+		}
+		double cum=0;
+		for(int i=0; i<numSets; i++){
+			prevWeights[i]/=sum;
+			cum+=prevWeights[i];
+			prevCumWeights[i]=cum;
+		}
+		prevCumWeights[numSets-1]=1.0;
+
+		//particle values and kernel SD = sqrt(2 x weighted variance)
+		prevVals=new double[numParams][numSets];
+		kernelSD=new double[numParams];
+		for(int v=0; v<numParams; v++){
+			if(priorDist[v]!=null){
+				double mean=0;
+				for(int i=0; i<numSets; i++){
+					prevVals[v][i]=getDouble(sets[i].values[v]);
+					mean+=prevWeights[i]*prevVals[v][i];
+				}
+				double var=0;
+				for(int i=0; i<numSets; i++){
+					double dev=prevVals[v][i]-mean;
+					var+=prevWeights[i]*dev*dev;
+				}
+				kernelSD[v]=Math.sqrt(2*var);
+			}
+		}
+	}
+
+	/**
+	 * Samples parameters, runs the chain, and returns the calibration score
+	 */
+	private double runCandidate(AmuaModel curModel, MarkovNode curChain, int type, MersenneTwisterFast generator) throws Exception{
+		curModel.sampleParam=true;
+		curModel.generatorParam=generator;
+		curModel.curGenerator=generator;
+		if(type==PRIOR){sampleParameters(curModel);}
+		else{proposeParameters(curModel,generator);}
+		curModel.markov.runModel(curChain,false);
+		return(Interpreter.evaluate(strScore, curModel, false).getDouble());
+	}
+
+	/**
+	 * Samples all parameters until constraints are met and the model is valid
+	 */
+	private void sampleParameters(AmuaModel curModel) throws Exception{
+		boolean validParams=false;
+		while(validParams==false){
+			resetParameters(curModel);
+			for(int v=0; v<numParams; v++){ //sample all parameters
+				Parameter curParam=curModel.parameters.get(v);
+				curParam.locked=true;
+				curParam.value=Interpreter.evaluate(curParam.expression, curModel, true);
+			}
+			validParams=checkParameters(curModel);
+		}
+	}
+
+	/**
+	 * Picks a particle from the previous population by weight and perturbs it.
+	 * Parameters without a continuous prior are sampled from their expression.
+	 */
+	private void proposeParameters(AmuaModel curModel, MersenneTwisterFast generator) throws Exception{
+		boolean validParams=false;
+		while(validParams==false){
+			resetParameters(curModel);
+			//pick particle
+			int j=Arrays.binarySearch(prevCumWeights, generator.nextDouble());
+			if(j<0){j=-(j+1);}
+			j=Math.min(j, numSets-1);
+			//perturb
+			for(int v=0; v<numParams; v++){
+				if(priorDist[v]!=null){
+					Parameter curParam=curModel.parameters.get(v);
+					curParam.locked=true;
+					curParam.value=new Numeric(prevVals[v][j]+kernelSD[v]*generator.nextGaussian());
+				}
+			}
+			for(int v=0; v<numParams; v++){ //sample all others
+				if(priorDist[v]==null){
+					Parameter curParam=curModel.parameters.get(v);
+					curParam.locked=true;
+					curParam.value=Interpreter.evaluate(curParam.expression, curModel, true);
+				}
+			}
+			//check prior support
+			validParams=true;
+			int v=0;
+			while(validParams==true && v<numParams){
+				if(priorDist[v]!=null){
+					double density=getPriorDensity(curModel,v);
+					if(!(density>0)){validParams=false;}
+				}
+				v++;
+			}
+			if(validParams){validParams=checkParameters(curModel);}
+		}
+	}
+
+	private void resetParameters(AmuaModel curModel){
+		for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
+			Parameter curParam=curModel.parameters.get(v);
+			curParam.locked=false;
+			curParam.value=origValues[v];
+		}
+	}
+
+	/**
+	 * Checks constraints and model validity with the current parameters
+	 */
+	private boolean checkParameters(AmuaModel curModel) throws Exception{
+		int numConst=curModel.constraints.size();
+		boolean validParams=true;
+		int c=0;
+		while(validParams==true && c<numConst){
+			validParams=curModel.constraints.get(c).checkConstraints(curModel);
+			c++;
+		}
+		if(validParams){ //check model for valid params
+			if(curModel.parseModelIncremental().size()!=0){validParams=false;}
+		}
+		return(validParams);
+	}
+
+	/**
+	 * Importance weight of the current parameters: prior / sum_j w_j K(theta|theta_j), on log scale
+	 */
+	private double getLogWeight(AmuaModel curModel) throws Exception{
+		double logPrior=0;
+		double theta[]=new double[numParams];
+		for(int v=0; v<numParams; v++){
+			if(priorDist[v]!=null){
+				logPrior+=Math.log(getPriorDensity(curModel,v));
+				theta[v]=getDouble(curModel.parameters.get(v).value);
+			}
+		}
+		double logK[]=new double[numSets];
+		double maxLog=Double.NEGATIVE_INFINITY;
+		for(int j=0; j<numSets; j++){
+			double sumSq=0;
+			for(int v=0; v<numParams; v++){
+				if(priorDist[v]!=null && kernelSD[v]>0){
+					double z=(theta[v]-prevVals[v][j])/kernelSD[v];
+					sumSq+=z*z;
+				}
+			}
+			logK[j]=Math.log(prevWeights[j])-0.5*sumSq;
+			maxLog=Math.max(maxLog, logK[j]);
+		}
+		double sum=0;
+		for(int j=0; j<numSets; j++){
+			sum+=Math.exp(logK[j]-maxLog);
+		}
+		return(logPrior-(maxLog+Math.log(sum)));
+	}
+
+	/**
+	 * Evaluates the prior density of parameter v at its current value.
+	 * Values outside the prior's support have density 0 (some pdfs reject them, e.g. Beta with a negative value)
+	 */
+	private double getPriorDensity(AmuaModel curModel, int v) throws Exception{
+		String args[]=priorArgs[v];
+		Numeric params[]=new Numeric[args.length+1];
+		params[0]=new Numeric(getDouble(curModel.parameters.get(v).value));
+		for(int i=0; i<args.length; i++){
+			params[i+1]=Interpreter.evaluate(args[i], curModel, false);
+		}
+		try{
+			return(Distributions.evaluate(priorDist[v], params, 0).getDouble());
+		} catch(NumericException e){ //outside support, re-propose
+			return(0);
+		}
+	}
+
+	/**
+	 * Records the distribution and arguments if the expression is a single continuous univariate distribution, e.g. Beta(a,b,~)
+	 */
+	private void parsePrior(int v, String expression){
+		String expr=expression.trim();
+		int open=expr.indexOf("(");
+		if(open<1 || !expr.endsWith(")")){return;}
+		String word=expr.substring(0, open);
+		if(!isContinuous(word)){return;}
+		//split top-level arguments, first bracket must close at end
+		ArrayList<String> args=new ArrayList<String>();
+		int depth=0, start=open+1;
+		for(int i=open; i<expr.length(); i++){
+			char ch=expr.charAt(i);
+			if(ch=='(' || ch=='['){depth++;}
+			else if(ch==')' || ch==']'){
+				depth--;
+				if(depth==0 && i!=expr.length()-1){return;} //not a single call
+			}
+			else if(ch==',' && depth==1){
+				args.add(expr.substring(start, i).trim());
+				start=i+1;
+			}
+		}
+		args.add(expr.substring(start, expr.length()-1).trim());
+		if(!args.get(args.size()-1).equals("~")){return;} //not sampled
+		args.remove(args.size()-1);
+		priorDist[v]=word;
+		priorArgs[v]=args.toArray(new String[args.size()]);
+	}
+
+	private static boolean isContinuous(String dist){
+		switch(dist){
+		case "Beta": return(true);
+		case "Cauchy": return(true);
+		case "ChiSq": return(true);
+		case "Expo": return(true);
+		case "Gamma": return(true);
+		case "Gumbel": return(true);
+		case "HalfCauchy": return(true);
+		case "HalfNorm": return(true);
+		case "Laplace": return(true);
+		case "Logistic": return(true);
+		case "LogNorm": return(true);
+		case "Norm": return(true);
+		case "Pareto": return(true);
+		case "PERT": return(true);
+		case "StudentT": return(true);
+		case "Tri": return(true);
+		case "Unif": return(true);
+		case "Weibull": return(true);
+		case "TruncNorm": return(true);
+		}
+		return(false);
+	}
+
+	private static double getDouble(Numeric value){
+		try{
+			return(value.getDouble());
+		} catch(Exception e){
+			return(Double.NaN);
+		}
+	}
+
+	private ParameterSet getSet(AmuaModel curModel, int index, double score){
+		ParameterSet set=new ParameterSet(curModel);
+		set.id=(index+1)+"";
+		set.score=score;
+		return(set);
+	}
+
+	public boolean wasCancelled(){
+		return(cancelled.get());
+	}
+
+	public int getNumAccepted(){
+		return(Math.min(numAccepted.get(), numSets));
+	}
+
+	public long getNumRuns(){
+		return(numRuns.get());
+	}
+
+	private void updateProgress(ProgressMonitor progress){
+		int accepted=getNumAccepted();
+		long runs=numRuns.get();
+		long curRuns=runs-generationRuns;
+		long elapsed=System.currentTimeMillis()-startTime;
+		progress.setProgress(accepted);
+		String note="";
+		if(generation>=0){
+			note+="Generation "+generation;
+			if(generation>0){note+=" (threshold "+curThresh+")";}
+			note+="  ";
+		}
+		note+="Accepted: "+accepted+"/"+numSets;
+		if(curRuns>0){
+			note+=" ("+(Math.round((accepted*1000.0)/curRuns)/10.0)+"%)";
+		}
+		if(elapsed>0){
+			note+="  Runs/s: "+(Math.round((runs*10000.0)/elapsed)/10.0);
+		}
+		if(accepted>0 && generation==-1){
+			long remTime=(long) ((elapsed/(accepted*1.0))*(numSets-accepted));
+			remTime=remTime/1000;
+			String seconds = Integer.toString((int)(remTime % 60));
+			String minutes = Integer.toString((int)(remTime/60));
+			if(seconds.length()<2){seconds="0"+seconds;}
+			if(minutes.length()<2){minutes="0"+minutes;}
+			note+="  Time left: "+minutes+":"+seconds;
+		}
+		progress.setNote(note);
+	}
+}
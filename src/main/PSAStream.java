@@ -0,0 +1,303 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import base.AmuaModel;
+
+/**
+ * Streams PSA iteration records to a CSV file so that memory does not grow with the number of iterations.
+ * Keeps running summary statistics (mean, SD, min, max) over all iterations, plus a fixed-size sample of complete iteration records for charts.
+ * Markov traces are not sampled - they are written to a TraceArchive for each chain.
+ * The sample keeps the iterations with the smallest hash of their index, so it is the same regardless of the order (or number of threads) iterations complete in.
+ */
+public class PSAStream{
+	AmuaModel myModel;
+	String paramNames[];
+	BufferedWriter out;
+	String summaryPath;
+	int numParams, numOutcomes, numStrat, numDim;
+	int analysisType;
+	/**
+	 * Number of iterations recorded
+	 */
+	public int count;
+
+	//running statistics - [Outcome][Strategy] and [Parameter]
+	double resultsMean[][], resultsM2[][], resultsMin[][], resultsMax[][];
+	int resultsN[][];
+	double paramsMean[], paramsM2[], paramsMin[], paramsMax[];
+	int paramsN[];
+
+	//sample of iteration records
+	int sampleSize, numSample;
+	int heap[]; //max-heap of sample slots by key
+	long keys[];
+	public int sampleIteration[];
+	/**
+	 * [Parameter][Slot]
+	 */
+	public double sampleParams[][];
+	/**
+	 * [Outcome][Strategy][Slot]
+	 */
+	public double sampleResults[][][];
+	/**
+	 * [Strategy][x,y][Slot]
+	 */
+	public double sampleScatterAbs[][][], sampleScatterRel[][][];
+	public String sampleNotes[][];
+
+	//Constructor
+	public PSAStream(AmuaModel myModel, String paramNames[], String path, int sampleSize) throws IOException{
+		this.myModel=myModel;
+		this.paramNames=paramNames;
+		this.sampleSize=sampleSize;
+		DimInfo info=myModel.dimInfo;
+		numParams=paramNames.length;
+		numDim=info.dimNames.length;
+		analysisType=info.analysisType;
+		numOutcomes=numDim;
+		if(analysisType>0){numOutcomes++;} //ICER or NMB
+		numStrat=myModel.strategyNames.length;
+
+		resultsMean=new double[numOutcomes][numStrat]; resultsM2=new double[numOutcomes][numStrat];
+		resultsMin=new double[numOutcomes][numStrat]; resultsMax=new double[numOutcomes][numStrat];
+		resultsN=new int[numOutcomes][numStrat];
+		paramsMean=new double[numParams]; paramsM2=new double[numParams];
+		paramsMin=new double[numParams]; paramsMax=new double[numParams];
+		paramsN=new int[numParams];
+
+		heap=new int[sampleSize];
+		keys=new long[sampleSize];
+		sampleIteration=new int[sampleSize];
+		sampleParams=new double[numParams][sampleSize];
+		sampleResults=new double[numOutcomes][numStrat][sampleSize];
+		sampleScatterAbs=new double[numStrat][2][sampleSize];
+		sampleScatterRel=new double[numStrat][2][sampleSize];
+		if(analysisType==1){sampleNotes=new String[numStrat][sampleSize];}
+
+		path=path.replaceAll(".csv", "");
+		summaryPath=path+"_summary.csv";
+		out=new BufferedWriter(new FileWriter(path+".csv"));
+		writeHeaders(out, myModel, paramNames);
+	}
+
+	/**
+	 * Records one iteration
+	 * @param n Iteration
+	 * @param params [Parameter]
+	 * @param results [Outcome][Strategy]
+	 * @param notes CEA notes [Strategy], null if not CEA
+	 * @param scatterAbs [Strategy][x,y]
+	 * @param scatterRel [Strategy][x,y]
+	 * @throws IOException
+	 */
+	public synchronized void add(int n, double params[], double results[][], String notes[], double scatterAbs[][], double scatterRel[][]) throws IOException{
+		writeRow(out, n, params, results, notes, numDim, analysisType);
+		count++;
+
+		//running statistics (Welford)
+		for(int p=0; p<numParams; p++){
+			double x=params[p];
+			if(Double.isNaN(x)){continue;}
+			paramsN[p]++;
+			if(paramsN[p]==1){paramsMin[p]=x; paramsMax[p]=x;}
+			else{paramsMin[p]=Math.min(paramsMin[p], x); paramsMax[p]=Math.max(paramsMax[p], x);}
+			double delta=x-paramsMean[p];
+			paramsMean[p]+=delta/paramsN[p];
+			paramsM2[p]+=delta*(x-paramsMean[p]);
+		}
+		for(int d=0; d<numOutcomes; d++){
+			for(int s=0; s<numStrat; s++){
+				double x=results[d][s];
+				if(Double.isNaN(x) || Double.isInfinite(x)){continue;}
+				resultsN[d][s]++;
+				if(resultsN[d][s]==1){resultsMin[d][s]=x; resultsMax[d][s]=x;}
+				else{resultsMin[d][s]=Math.min(resultsMin[d][s], x); resultsMax[d][s]=Math.max(resultsMax[d][s], x);}
+				double delta=x-resultsMean[d][s];
+				resultsMean[d][s]+=delta/resultsN[d][s];
+				resultsM2[d][s]+=delta*(x-resultsMean[d][s]);
+			}
+		}
+
+		//sample
+		long key=hash(n);
+		int slot;
+		if(numSample<sampleSize){
+			slot=numSample;
+			keys[slot]=key;
+			heap[numSample]=slot;
+			numSample++;
+			siftUp(numSample-1);
+		}
+		else if(sampleSize>0 && key<keys[heap[0]]){ //replace largest key
+			slot=heap[0];
+			keys[slot]=key;
+			siftDown(0);
+		}
+		else{return;}
+		sampleIteration[slot]=n;
+		for(int p=0; p<numParams; p++){sampleParams[p][slot]=params[p];}
+		for(int d=0; d<numOutcomes; d++){
+			for(int s=0; s<numStrat; s++){sampleResults[d][s][slot]=results[d][s];}
+		}
+		for(int s=0; s<numStrat; s++){
+			sampleScatterAbs[s][0][slot]=scatterAbs[s][0]; sampleScatterAbs[s][1][slot]=scatterAbs[s][1];
+			sampleScatterRel[s][0][slot]=scatterRel[s][0]; sampleScatterRel[s][1][slot]=scatterRel[s][1];
+			if(sampleNotes!=null){sampleNotes[s][slot]=notes[s];}
+		}
+	}
+
+	/**
+	 * @return Sample slots ordered by iteration
+	 */
+	public Integer[] getSampleOrder(){
+		Integer order[]=new Integer[numSample];
+		for(int i=0; i<numSample; i++){order[i]=i;}
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return(Integer.compare(sampleIteration[a], sampleIteration[b]));
+			}
+		});
+		return(order);
+	}
+
+	/**
+	 * Closes the results file and writes the summary statistics file
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		out.close();
+
+		DimInfo info=myModel.dimInfo;
+		BufferedWriter summary=new BufferedWriter(new FileWriter(summaryPath));
+		summary.write("Iterations,"+count); summary.newLine();
+		summary.write("Type,Name,Strategy,N,Mean,SD,Min,Max"); summary.newLine();
+		for(int p=0; p<numParams; p++){
+			summary.write("Parameter,"+paramNames[p]+",");
+			writeStats(summary, paramsN[p], paramsMean[p], paramsM2[p], paramsMin[p], paramsMax[p]);
+		}
+		for(int d=0; d<numOutcomes; d++){
+			String name;
+			if(d<numDim){name=info.dimNames[d];}
+			else if(analysisType==1){name="ICER ("+info.dimSymbols[info.costDim]+"/"+info.dimSymbols[info.effectDim]+")";}
+			else{name="NMB ("+info.dimSymbols[info.effectDim]+"-"+info.dimSymbols[info.costDim]+")";}
+			for(int s=0; s<numStrat; s++){
+				summary.write("Outcome,"+name+","+myModel.strategyNames[s]+",");
+				writeStats(summary, resultsN[d][s], resultsMean[d][s], resultsM2[d][s], resultsMin[d][s], resultsMax[d][s]);
+			}
+		}
+		summary.close();
+	}
+
+	private void writeStats(BufferedWriter summary, int n, double mean, double m2, double min, double max) throws IOException{
+		if(n==0){summary.write("0,,,,"); summary.newLine(); return;}
+		double sd=0;
+		if(n>1){sd=Math.sqrt(m2/(n-1.0));}
+		summary.write(n+","+mean+","+sd+","+min+","+max);
+		summary.newLine();
+	}
+
+	/**
+	 * Writes the PSA results file headers
+	 */
+	public static void writeHeaders(BufferedWriter out, AmuaModel myModel, String paramNames[]) throws IOException{
+		DimInfo info=myModel.dimInfo;
+		int numDim=info.dimNames.length;
+		int analysisType=info.analysisType;
+		int numStrat=myModel.strategyNames.length;
+		out.write("Iteration");
+		out.write(",Parameters");
+		for(int p=0; p<paramNames.length; p++){out.write(","+paramNames[p]);}
+		for(int d=0; d<numDim; d++){ //EVs
+			out.write(","+info.dimNames[d]);
+			for(int s=0; s<numStrat; s++){out.write(","+myModel.strategyNames[s]);}
+		}
+		if(analysisType>0){ //CEA or BCA
+			if(analysisType==1){out.write(",ICER ("+info.dimSymbols[info.costDim]+"/"+info.dimSymbols[info.effectDim]+")");}
+			else if(analysisType==2){out.write(",NMB ("+info.dimSymbols[info.effectDim]+"-"+info.dimSymbols[info.costDim]+")");}
+			for(int s=0; s<numStrat; s++){out.write(","+myModel.strategyNames[s]);}
+		}
+		out.newLine();
+	}
+
+	/**
+	 * Writes one PSA results row
+	 * @param n Iteration (0-based)
+	 */
+	public static void writeRow(BufferedWriter out, int n, double params[], double results[][], String notes[], int numDim, int analysisType) throws IOException{
+		int numStrat=results[0].length;
+		out.write((n+1)+""); //Iteration
+		//Parameters
+		out.write(",");
+		for(int p=0; p<params.length; p++){out.write(","+params[p]);}
+		//Outcomes
+		for(int d=0; d<numDim; d++){ //EVs
+			out.write(",");
+			for(int s=0; s<numStrat; s++){out.write(","+results[d][s]);}
+		}
+		if(analysisType>0){
+			out.write(",");
+			if(analysisType==1){ //CEA
+				for(int s=0; s<numStrat; s++){
+					double icer=results[numDim][s];
+					if(!Double.isNaN(icer)){out.write(","+icer);} //valid ICER
+					else{out.write(","+notes[s]);} //invalid ICER
+				}
+			}
+			else if(analysisType==2){ //BCA
+				for(int s=0; s<numStrat; s++){out.write(","+results[numDim][s]);}
+			}
+		}
+		out.newLine();
+	}
+
+	private static long hash(long x){ //SplitMix64 finalizer
+		x+=0x9E3779B97F4A7C15L;
+		x=(x^(x>>>30))*0xBF58476D1CE4E5B9L;
+		x=(x^(x>>>27))*0x94D049BB133111EBL;
+		return((x^(x>>>31))>>>1); //non-negative
+	}
+
+	private void siftUp(int i){
+		while(i>0){
+			int parent=(i-1)/2;
+			if(keys[heap[i]]<=keys[heap[parent]]){return;}
+			int temp=heap[i]; heap[i]=heap[parent]; heap[parent]=temp;
+			i=parent;
+		}
+	}
+
+	private void siftDown(int i){
+		while(true){
+			int left=2*i+1, right=left+1, largest=i;
+			if(left<numSample && keys[heap[left]]>keys[heap[largest]]){largest=left;}
+			if(right<numSample && keys[heap[right]]>keys[heap[largest]]){largest=right;}
+			if(largest==i){return;}
+			int temp=heap[i]; heap[i]=heap[largest]; heap[largest]=temp;
+			i=largest;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.ProgressMonitor;
+
+import base.AmuaModel;
+
+/**
+ * Evaluates a two-way sensitivity grid on a pool of worker threads, each with its own copy of the model.
+ * The full grid gives the surface, and optional refinement levels halve the spacing of grid cells
+ * whose corners have different optimal strategies, so the area chart is densified only near strategy boundaries.
+ */
+public class SensitivityGrid{
+	AmuaModel myModel;
+	int paramIndex1, paramIndex2;
+	int numThreads;
+	int dim, analysisType; //analysis type for this grid: 0=EV, 1=CEA, 2=BCA
+	boolean max;
+	double ceThresh;
+	int numStrat;
+
+	double min1, max1, min2, max2;
+	int intervals, scale, fineN; //fine lattice has intervals*scale steps per axis
+
+	/**
+	 * Outcome of each strategy on the full grid [strategy][i][j]
+	 */
+	public double surface[][][];
+	/**
+	 * All evaluated points (grid points first, then refined points) and the optimal strategy at each, -1 if none
+	 */
+	public double pointX[], pointY[];
+	public int pointBest[];
+	public int numPoints;
+
+	HashMap<Long,Integer> pointIndices=new HashMap<Long,Integer>(); //lattice key -> index in point arrays
+	AtomicInteger numComplete=new AtomicInteger(0);
+	AtomicBoolean cancelled=new AtomicBoolean(false);
+	int numScheduled;
+	long startTime;
+
+	//Constructor
+	public SensitivityGrid(AmuaModel myModel, int paramIndex1, int paramIndex2, int dim, int analysisType, boolean max, double ceThresh, int numThreads){
+		this.myModel=myModel;
+		this.paramIndex1=paramIndex1;
+		this.paramIndex2=paramIndex2;
+		this.dim=dim;
+		this.analysisType=analysisType;
+		this.max=max;
+		this.ceThresh=ceThresh;
+		this.numThreads=Math.max(1, numThreads);
+		numStrat=myModel.strategyNames.length;
+	}
+
+	/**
+	 * Runs the grid
+	 * @param intervals Number of grid intervals per parameter
+	 * @param refineLevels Number of times cells on a strategy boundary are subdivided, 0 for none
+	 * @param progress Optional progress monitor, polled for cancel
+	 * @return true if cancelled
+	 * @throws Exception
+	 */
+	public boolean run(double min1, double max1, double min2, double max2, int intervals, int refineLevels, ProgressMonitor progress) throws Exception{
+		this.min1=min1; this.max1=max1;
+		this.min2=min2; this.max2=max2;
+		this.intervals=intervals;
+		scale=1<<refineLevels;
+		fineN=intervals*scale;
+		startTime=System.currentTimeMillis();
+		numComplete.set(0);
+		cancelled.set(false);
+		numPoints=0;
+		numScheduled=0;
+		int capacity=(intervals+1)*(intervals+1);
+		pointX=new double[capacity]; pointY=new double[capacity];
+		pointBest=new int[capacity];
+		pointIndices.clear();
+		surface=new double[numStrat][intervals+1][intervals+1];
+
+		//Copy model for each worker
+		AmuaModel models[]=new AmuaModel[numThreads];
+		for(int w=0; w<numThreads; w++){
+			models[w]=myModel.copyModel();
+			models[w].numThreads=1; //already running in parallel
+			models[w].getStrategies();
+		}
+
+		ExecutorService pool=Executors.newFixedThreadPool(numThreads);
+		try{
+			//Full grid
+			ArrayList<int[]> batch=new ArrayList<int[]>();
+			for(int i=0; i<=intervals; i++){
+				for(int j=0; j<=intervals; j++){
+					batch.add(new int[]{i*scale,j*scale});
+				}
+			}
+			double outcomes[][]=runBatch(pool,models,batch,progress);
+			if(cancelled.get()){return(true);}
+			for(int n=0; n<batch.size(); n++){
+				int i=n/(intervals+1), j=n%(intervals+1);
+				for(int s=0; s<numStrat; s++){surface[s][i][j]=outcomes[n][s];}
+			}
+
+			//Refine cells on strategy boundaries
+			ArrayList<int[]> cells=new ArrayList<int[]>();
+			for(int i=0; i<intervals; i++){
+				for(int j=0; j<intervals; j++){
+					cells.add(new int[]{i*scale,j*scale});
+				}
+			}
+			int size=scale;
+			for(int level=0; level<refineLevels; level++){
+				int half=size/2;
+				ArrayList<int[]> nextCells=new ArrayList<int[]>();
+				batch=new ArrayList<int[]>();
+				for(int c=0; c<cells.size(); c++){
+					int cell[]=cells.get(c);
+					if(onBoundary(cell[0],cell[1],size)){
+						for(int dx=0; dx<=2; dx++){
+							for(int dy=0; dy<=2; dy++){
+								int x=cell[0]+dx*half, y=cell[1]+dy*half;
+								if(dx<2 && dy<2){nextCells.add(new int[]{x,y});}
+								Long key=getKey(x,y);
+								if(pointIndices.containsKey(key)==false){
+									pointIndices.put(key, -1); //scheduled
+									batch.add(new int[]{x,y});
+								}
+							}
+						}
+					}
+				}
+				if(batch.size()==0){break;}
+				runBatch(pool,models,batch,progress);
+				if(cancelled.get()){return(true);}
+				cells=nextCells;
+				size=half;
+			}
+		} finally{
+			pool.shutdown();
+		}
+		return(false);
+	}
+
+	/**
+	 * @return true if the corners of the cell don't all have the same optimal strategy
+	 */
+	private boolean onBoundary(int x, int y, int size){
+		int best=pointBest[pointIndices.get(getKey(x,y))];
+		if(pointBest[pointIndices.get(getKey(x+size,y))]!=best){return(true);}
+		if(pointBest[pointIndices.get(getKey(x,y+size))]!=best){return(true);}
+		if(pointBest[pointIndices.get(getKey(x+size,y+size))]!=best){return(true);}
+		return(false);
+	}
+
+	private Long getKey(int x, int y){
+		return((long)x*(fineN+1)+y);
+	}
+
+	private double getValue(double min, double max, int index){
+		if(index%scale==0){ //grid point
+			double step=(max-min)/(intervals*1.0);
+			return(min+(step*(index/scale)));
+		}
+		double step=(max-min)/(fineN*1.0);
+		return(min+(step*index));
+	}
+
+	/**
+	 * Evaluates a batch of lattice points in parallel and appends them to the point arrays
+	 * @return Outcomes for each point in the batch [point][strategy]
+	 */
+	private double[][] runBatch(ExecutorService pool, AmuaModel models[], final ArrayList<int[]> batch, ProgressMonitor progress) throws Exception{
+		final int batchSize=batch.size();
+		final double values1[]=new double[batchSize], values2[]=new double[batchSize];
+		for(int n=0; n<batchSize; n++){
+			values1[n]=getValue(min1,max1,batch.get(n)[0]);
+			values2[n]=getValue(min2,max2,batch.get(n)[1]);
+		}
+		final double outcomes[][]=new double[batchSize][numStrat];
+		final int best[]=new int[batchSize];
+		numScheduled+=batchSize;
+		if(progress!=null){progress.setMaximum(numScheduled);}
+
+		final AtomicInteger nextPoint=new AtomicInteger(0);
+		ArrayList<Future<Object>> results=new ArrayList<Future<Object>>();
+		for(int w=0; w<numThreads; w++){
+			final AmuaModel curModel=models[w];
+			results.add(pool.submit(new Callable<Object>(){
+				public Object call() throws Exception{
+					Parameter curParam1=curModel.parameters.get(paramIndex1);
+					Parameter curParam2=curModel.parameters.get(paramIndex2);
+					curParam1.value=curParam1.value.copy(); //don't write to values shared with the original model
+					curParam2.value=curParam2.value.copy();
+					int n=nextPoint.getAndIncrement();
+					while(n<batchSize && cancelled.get()==false){
+						curParam1.value.setDouble(values1[n]);
+						curParam2.value.setDouble(values2[n]);
+						curParam1.locked=true; curParam2.locked=true;
+						curModel.parseModelIncremental();
+						curModel.runModelNoDisplay();
+						best[n]=getOutcomes(curModel,outcomes[n]);
+						numComplete.incrementAndGet();
+						n=nextPoint.getAndIncrement();
+					}
+					return(null);
+				}
+			}));
+		}
+		for(int w=0; w<numThreads; w++){
+			boolean done=false;
+			while(done==false){
+				try{
+					results.get(w).get(200, TimeUnit.MILLISECONDS);
+					done=true;
+				} catch(TimeoutException e){
+					updateProgress(progress);
+				} catch(ExecutionException e){ //re-throw worker error
+					cancelled.set(true);
+					Throwable cause=e.getCause();
+					if(cause instanceof Exception){throw (Exception)cause;}
+					throw e;
+				}
+			}
+		}
+		updateProgress(progress);
+
+		//Append points
+		if(numPoints+batchSize>pointX.length){
+			int capacity=Math.max(pointX.length*2, numPoints+batchSize);
+			double growX[]=new double[capacity], growY[]=new double[capacity];
+			int growBest[]=new int[capacity];
+			System.arraycopy(pointX, 0, growX, 0, numPoints);
+			System.arraycopy(pointY, 0, growY, 0, numPoints);
+			System.arraycopy(pointBest, 0, growBest, 0, numPoints);
+			pointX=growX; pointY=growY; pointBest=growBest;
+		}
+		for(int n=0; n<batchSize; n++){
+			pointX[numPoints]=values1[n];
+			pointY[numPoints]=values2[n];
+			pointBest[numPoints]=best[n];
+			int point[]=batch.get(n);
+			pointIndices.put(getKey(point[0],point[1]), numPoints);
+			numPoints++;
+		}
+		return(outcomes);
+	}
+
+	/**
+	 * Gets the outcome of each strategy for the current run
+	 * @param outcomes Filled with the outcome of each strategy
+	 * @return Index of the optimal strategy, -1 if none
+	 */
+	private int getOutcomes(AmuaModel curModel, double outcomes[]){
+		int bestStrat=-1;
+		if(analysisType==0){ //EV
+			double maxEV=Double.NEGATIVE_INFINITY;
+			double minEV=Double.POSITIVE_INFINITY;
+			int maxStrat=-1, minStrat=-1;
+			for(int s=0; s<numStrat; s++){
+				double curOutcome=curModel.getStrategyEV(s, dim);
+				if(curOutcome>maxEV){maxEV=curOutcome; maxStrat=s;}
+				if(curOutcome<minEV){minEV=curOutcome; minStrat=s;}
+				outcomes[s]=curOutcome;
+			}
+			if(max){bestStrat=maxStrat;}
+			else{bestStrat=minStrat;}
+		}
+		else if(analysisType==1){ //CEA
+			Object table[][]=new CEAHelper().calculateICERs(curModel);
+			double bestICER=Double.NEGATIVE_INFINITY;
+			for(int s=0; s<table.length; s++){
+				int origStrat=(int) table[s][0];
+				if(origStrat!=-1){
+					double curICER=(double)table[s][4];
+					if(curICER>bestICER && curICER<=ceThresh){
+						bestICER=curICER;
+						bestStrat=origStrat;
+					}
+					outcomes[origStrat]=curICER;
+				}
+			}
+		}
+		else if(analysisType==2){ //BCA
+			Object table[][]=new CEAHelper().calculateNMB(curModel);
+			double maxNMB=Double.NEGATIVE_INFINITY;
+			for(int s=0; s<table.length; s++){
+				int origStrat=(int) table[s][0];
+				double curNMB=(double)table[s][4];
+				if(curNMB>maxNMB){
+					maxNMB=curNMB;
+					bestStrat=origStrat;
+				}
+				outcomes[origStrat]=curNMB;
+			}
+		}
+		return(bestStrat);
+	}
+
+	private void updateProgress(ProgressMonitor progress){
+		if(progress==null){return;}
+		int complete=numComplete.get();
+		progress.setProgress(complete);
+		if(complete>0){
+			long remTime=(long) ((System.currentTimeMillis()-startTime)/(complete*1.0)*(numScheduled-complete)); //miliseconds
+			remTime=remTime/1000;
+			String seconds = Integer.toString((int)(remTime % 60));
+			String minutes = Integer.toString((int)(remTime/60));
+			if(seconds.length()<2){seconds="0"+seconds;}
+			if(minutes.length()<2){minutes="0"+minutes;}
+			progress.setNote("Points: "+complete+"/"+numScheduled+"   Time left: "+minutes+":"+seconds);
+		}
+		if(progress.isCanceled()){cancelled.set(true);}
+	}
+}
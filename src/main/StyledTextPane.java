@@ -19,6 +19,8 @@
 package main;
 
 import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
@@ -27,6 +29,7 @@ import java.awt.event.MouseListener;
 import javax.swing.JTextPane;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.ToolTipManager;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
@@ -34,6 +37,7 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
@@ -50,6 +54,14 @@ public class StyledTextPane extends JTextPane{
 	public AmuaModel myModel;
 	int defaultDismiss; //for tooltips
 	int startStyle=0; //index to begin restyle
+	/**
+	 * Delay (ms) after the last edit before the damaged region is restyled, so bursts of edits are coalesced
+	 */
+	static final int RESTYLE_DELAY=40;
+	Timer restyleTimer;
+	final Object dirtyLock=new Object();
+	int dirtyStart=-1, dirtyEnd=-1; //edited region waiting to be restyled, -1 if none
+	Segment segment=new Segment(); //reused to read single characters
 	
 	//Constructor
 	public StyledTextPane(AmuaModel myModel){
@@ -57,15 +69,22 @@ public class StyledTextPane extends JTextPane{
 		this.myModel=myModel;
 		this.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER,0), "none"); //Disable enter key in text pane
 		this.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_TAB,0), "none");
+		restyleTimer=new Timer(RESTYLE_DELAY, new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent e){
+				restyleDamaged();
+			}
+		});
+		restyleTimer.setRepeats(false);
 		this.getDocument().addDocumentListener(new DocumentListener(){
 			@Override
 			public void insertUpdate(DocumentEvent e) {
-				restyle();
+				markDamaged(e.getOffset(), e.getOffset()+e.getLength(), e.getLength());
 			}
 
 			@Override
 			public void removeUpdate(DocumentEvent e) {
-				restyle();
+				markDamaged(e.getOffset(), e.getOffset(), -e.getLength());
 			}
 
 			@Override
@@ -339,6 +358,9 @@ public class StyledTextPane extends JTextPane{
 		}
 	}
 
+	/**
+	 * Restyles all text from startStyle
+	 */
 	public void restyle(){
 		try{
 			Runnable doRestyle=new Runnable(){
@@ -347,35 +369,7 @@ public class StyledTextPane extends JTextPane{
 					String text=pane.getText();
 					StyledDocument doc=pane.getStyledDocument();
 					doc.setCharacterAttributes(startStyle, text.length(), pane.getStyle("plain"), true); //Reset all to plain text
-
-					//Parse word by word
-					text=text.substring(startStyle);
-					int offset=startStyle;
-					int len=text.length();
-					while(len>0){
-						int index=Interpreter.getNextBreakIndex(text);
-						String word=text.substring(0, index);
-						if(isString(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("string"), true);}
-						else if(myModel!=null && myModel.isParameter(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("param"), true);}
-						else if(myModel!=null && myModel.isVariable(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("var"), true);}
-						else if(myModel!=null && myModel.isTable(word)){
-							Table curTable=myModel.tables.get(myModel.getTableIndex(word));
-							if(curTable.type.matches("Lookup")){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("table"), true);}
-							else if(curTable.type.matches("Distribution")){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("dist"), true);}
-							else if(curTable.type.matches("Matrix")){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("matrix"), true);}
-						}
-						else if(Constants.isConstant(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("fx"), true);}
-						else if(Functions.isFunction(word) || MatrixFunctions.isFunction(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("fx"), true);}
-						else if(Distributions.isDistribution(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("dist"), true);}
-						else if(isItalics(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("ital"), true);}
-						
-						if(index==len){len=0;} //End of word
-						else{
-							text=text.substring(index+1);
-							offset+=index+1;
-							len=text.length();
-						}
-					}
+					styleWords(doc, text.substring(startStyle), startStyle);
 				}
 			};
 			SwingUtilities.invokeLater(doRestyle);
@@ -384,6 +378,92 @@ public class StyledTextPane extends JTextPane{
 			//varHelper.errorLog.recordError(e);
 		}
 	}
+	
+	/**
+	 * Records an edited region and (re)starts the restyle timer.  Regions from successive edits are merged
+	 * @param start  Start of edit
+	 * @param end  End of inserted text (start for removals)
+	 * @param delta  Change in document length
+	 */
+	private void markDamaged(int start, int end, int delta){
+		synchronized(dirtyLock){
+			if(dirtyStart==-1){
+				dirtyStart=start; dirtyEnd=end;
+			}
+			else{
+				if(dirtyEnd>start){dirtyEnd=Math.max(start, dirtyEnd+delta);} //shift by edit
+				dirtyStart=Math.min(dirtyStart, start);
+				dirtyEnd=Math.max(dirtyEnd, end);
+			}
+		}
+		restyleTimer.restart();
+	}
+	
+	/**
+	 * Restyles the words touching the edited region (on the event dispatch thread)
+	 */
+	private void restyleDamaged(){
+		int start, end;
+		synchronized(dirtyLock){
+			start=dirtyStart; end=dirtyEnd;
+			dirtyStart=-1; dirtyEnd=-1;
+		}
+		if(start==-1){return;}
+		try{
+			StyledDocument doc=pane.getStyledDocument();
+			int docLength=doc.getLength();
+			start=Math.max(startStyle, Math.min(start, docLength));
+			end=Math.max(start, Math.min(end, docLength));
+			//expand to word boundaries
+			while(start>startStyle && Interpreter.isBreak(charAt(doc,start-1))==false){start--;}
+			while(end<docLength && Interpreter.isBreak(charAt(doc,end))==false){end++;}
+			if(end==start){return;}
+			doc.setCharacterAttributes(start, end-start, pane.getStyle("plain"), true); //Reset region to plain text
+			styleWords(doc, doc.getText(start, end-start), start);
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+	}
+	
+	private char charAt(Document doc, int pos) throws BadLocationException{
+		doc.getText(pos, 1, segment);
+		return(segment.first());
+	}
+	
+	/**
+	 * Styles each recognized word in text
+	 * @param doc
+	 * @param text
+	 * @param offset  Document position of text
+	 */
+	private void styleWords(StyledDocument doc, String text, int offset){
+		//Parse word by word
+		int len=text.length();
+		while(len>0){
+			int index=Interpreter.getNextBreakIndex(text);
+			String word=text.substring(0, index);
+			if(isString(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("string"), true);}
+			else if(myModel!=null && myModel.isParameter(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("param"), true);}
+			else if(myModel!=null && myModel.isVariable(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("var"), true);}
+			else if(myModel!=null && myModel.isTable(word)){
+				Table curTable=myModel.tables.get(myModel.getTableIndex(word));
+				if(curTable.type.matches("Lookup")){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("table"), true);}
+				else if(curTable.type.matches("Distribution")){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("dist"), true);}
+				else if(curTable.type.matches("Matrix")){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("matrix"), true);}
+			}
+			else if(Constants.isConstant(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("fx"), true);}
+			else if(Functions.isFunction(word) || MatrixFunctions.isFunction(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("fx"), true);}
+			else if(Distributions.isDistribution(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("dist"), true);}
+			else if(isItalics(word)){doc.setCharacterAttributes(offset, word.length(), pane.getStyle("ital"), true);}
+			
+			if(index==len){len=0;} //End of word
+			else{
+				text=text.substring(index+1);
+				offset+=index+1;
+				len=text.length();
+			}
+		}
+	}
 
 	private boolean isString(String word){
 		boolean isStr=false;
@@ -46,6 +46,7 @@ public class Table{
 	@XmlTransient double value;
 	@XmlTransient public CubicSpline splines[];
 	@XmlTransient public AmuaModel myModel;
+	@XmlTransient volatile TableLookup lookup; //built on first use
 
 	//Constructor
 	public Table(){
@@ -75,16 +76,29 @@ public class Table{
 		return(copyTable);
 	}
 
+	/**
+	 * Returns the compiled lookup structures, rebuilding them if the table has been edited
+	 * @return
+	 */
+	public TableLookup getLookup(){
+		TableLookup curLookup=lookup;
+		if(curLookup==null || curLookup.isStale(this)){
+			curLookup=new TableLookup(this); //immutable once built, safe to share across threads
+			lookup=curLookup;
+		}
+		return(curLookup);
+	}
+
 	public int getColumnIndex(String colText){
 		int col=-1;
 		if(colText.contains("\"") || colText.contains("\'")){ //String
-			//Trim quotes
-			colText=colText.replace("\"","");
-			colText=colText.replace("\'","");
-			boolean found=false;
-			while(found==false && col<numCols){
-				col++;
-				if(colText.equals(headers[col])){found=true;}
+			TableLookup curLookup=getLookup();
+			col=curLookup.getHeaderIndex(colText); //quoted header
+			if(col==-1){
+				//Trim quotes
+				colText=colText.replace("\"","");
+				colText=colText.replace("\'","");
+				col=curLookup.getHeaderIndex(colText);
 			}
 		}
 		else{ //Try evaluate as integer
@@ -103,59 +117,57 @@ public class Table{
 		int col=getColumnIndex(colText);
 		if(col<1 || col>(numCols-1)){return(Double.NaN);} //Throw error
 
+		TableLookup curLookup=getLookup();
 		double val=Double.NaN;
-		if(lookupMethod.matches("Exact")){
-			int row=-1;
-			boolean found=false;
-			while(found==false && row<numRows){
-				row++;
-				if(index==data[row][0]){found=true;}
-			}
-			if(found){val=data[row][col];}
+		switch(curLookup.mode){
+		case EXACT:{
+			int row=curLookup.findExact(index);
+			if(row!=-1){val=data[row][col];}
+			break;
 		}
-		else if(lookupMethod.matches("Truncate")){
+		case TRUNCATE:{
 			if(index<data[0][0]){val=Double.NaN;} //Below first value - error
 			else if(index>=data[numRows-1][0]){val=data[numRows-1][col];} //Above last value
 			else{
-				int row=0;
-				while(data[row][0]<index){row++;}
+				int row=curLookup.lowerBound(index);
 				if(index==data[row][0]){val=data[row][col];}
 				else{val=data[row-1][col];}
 			}
+			break;
 		}
-		else if(lookupMethod.matches("Interpolate")){
-			if(interpolate.matches("Linear")){
-				if(index<=data[0][0]){ //Below or at first index
-					double slope=(data[1][col]-data[0][col])/(data[1][0]-data[0][0]);
-					val=data[0][col]-(data[0][0]-index)*slope;
-				}
-				else if(index>data[numRows-1][0]){ //Above last index
-					double slope=(data[numRows-1][col]-data[numRows-2][col])/(data[numRows-1][0]-data[numRows-2][0]);
-					val=data[numRows-1][col]+(index-data[numRows-1][0])*slope;
-				}
-				else{ //Between
-					int row=0;
-					while(data[row][0]<index){row++;}
-					double slope=(data[row][col]-data[row-1][col])/(data[row][0]-data[row-1][0]);
-					val=data[row-1][col]+(index-data[row-1][0])*slope;
-				}
-			}
-			else if(interpolate.matches("Cubic Splines")){
-				val=splines[col-1].evaluate(index);
-			}
-
-			//Check extrapolation conditions
-			if(extrapolate.matches("No")){
-				if(index<=data[0][0]){val=data[0][col];} //Below or at first index
-				else if(index>data[numRows-1][0]){val=data[numRows-1][col];} //Above last index
+		case LINEAR:{
+			if(index<=data[0][0]){ //Below or at first index
+				double slope=(data[1][col]-data[0][col])/(data[1][0]-data[0][0]);
+				val=data[0][col]-(data[0][0]-index)*slope;
 			}
-			else if(extrapolate.matches("Left only")){ //truncate right
-				if(index>data[numRows-1][0]){val=data[numRows-1][col];} //Above last index
+			else if(index>data[numRows-1][0]){ //Above last index
+				double slope=(data[numRows-1][col]-data[numRows-2][col])/(data[numRows-1][0]-data[numRows-2][0]);
+				val=data[numRows-1][col]+(index-data[numRows-1][0])*slope;
 			}
-			else if(extrapolate.matches("Right only")){ //truncate left
-				if(index<=data[0][0]){val=data[0][col];} //Below or at first index
+			else{ //Between
+				int row=curLookup.lowerBound(index);
+				double slope=(data[row][col]-data[row-1][col])/(data[row][0]-data[row-1][0]);
+				val=data[row-1][col]+(index-data[row-1][0])*slope;
 			}
+			break;
+		}
+		case CUBIC_SPLINES:
+			val=splines[col-1].evaluate(index);
+			break;
+		default:
+			break;
+		}
 
+		//Check extrapolation conditions
+		if(curLookup.extrapolate==TableLookup.Extrapolate.NO){
+			if(index<=data[0][0]){val=data[0][col];} //Below or at first index
+			else if(index>data[numRows-1][0]){val=data[numRows-1][col];} //Above last index
+		}
+		else if(curLookup.extrapolate==TableLookup.Extrapolate.LEFT_ONLY){ //truncate right
+			if(index>data[numRows-1][0]){val=data[numRows-1][col];} //Above last index
+		}
+		else if(curLookup.extrapolate==TableLookup.Extrapolate.RIGHT_ONLY){ //truncate left
+			if(index<=data[0][0]){val=data[0][col];} //Below or at first index
 		}
 
 		return(val);
@@ -174,12 +186,12 @@ public class Table{
 			if(df==-1 || df==3){ //Sample, Mean
 				int col=getColumnIndex(params[0]);
 				if(col<1 || col>(numCols-1)){throw new NumericException("Invalid column index: "+col+" ("+params[0]+")",name);} //Throw error
-				return(new Numeric(calcEV(col)));
+				return(new Numeric(getLookup().ev[col]));
 			} 
 			else if(df==4){ //Variance
 				int col=getColumnIndex(params[0]);
 				if(col<1 || col>(numCols-1)){throw new NumericException("Invalid column index: "+col+" ("+params[0]+")",name);} //Throw error
-				return(new Numeric(calcVariance(col)));
+				return(new Numeric(getLookup().variance[col]));
 			} 
 			else{throw new NumericException("Invalid parameters",name);}
 		}
@@ -202,25 +214,11 @@ public class Table{
 			} 
 			else if(df==1){ //CDF
 				double k=Interpreter.evaluate(params[0], myModel,false).getDouble();
-				double CDF=0;
-				if(k<data[0][col]){CDF=0;}
-				else if(k>=data[numRows-1][col]){CDF=1;}
-				else{
-					int row=0;
-					while(data[row][col]<=k){
-						CDF+=data[row][0];
-						row++;
-					}
-				}
-				return(new Numeric(CDF));
+				return(new Numeric(getLookup().getCDF(k, col)));
 			}
 			else if(df==2){ //Quantile
-				double x=Interpreter.evaluate(params[0], myModel,false).getProb(), CDF=0;
-				int row=0;
-				while(x>CDF){
-					CDF+=data[row][0];
-					row++;
-				}
+				double x=Interpreter.evaluate(params[0], myModel,false).getProb();
+				int row=getLookup().findCumulative(x); //first row with cumulative prob >= x
 				return(new Numeric(data[row][col]));
 			}
 			else{throw new NumericException("Invalid parameters",name);}
@@ -250,17 +248,9 @@ public class Table{
 		int col=getColumnIndex(params[0]);
 			if(col<1 || col>(numCols-1)){return(Double.NaN);} //Throw error
 			else{ //Valid column
-				int row=0;
-				double cdf=data[row][0]; //First entry
-				while(rand>cdf){
-					row++;
-					cdf+=data[row][0];
-				}
-				value=data[row][col];
+				int row=getLookup().sampleRow(rand);
+				return(data[row][col]); //local result, may be sampled by multiple threads
 			}
-		
-		
-		return(value);
 	}
 	
 	public void writeCSV(String filepath, ErrorLog errorLog){
@@ -0,0 +1,228 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package main;
+
+import java.util.HashMap;
+
+import math.AliasTable;
+
+/**
+ * Lookup structures compiled from a Table definition: the lookup mode as an enum, the index column for binary search,
+ * and cumulative probabilities, moments, and an alias table for distribution tables.
+ * Built on first use and rebuilt when the table's data or settings are replaced (see Table.getLookup).
+ */
+public class TableLookup{
+	public enum Mode{NONE,EXACT,TRUNCATE,LINEAR,CUBIC_SPLINES};
+	public enum Extrapolate{YES,NO,LEFT_ONLY,RIGHT_ONLY};
+
+	//Definition this was built from, compared by reference to detect edits
+	double data[][];
+	String headers[];
+	String type, lookupMethod, interpolate, extrapolateText;
+
+	public Mode mode=Mode.NONE;
+	/**
+	 * Extrapolation rule for interpolated lookups, null otherwise
+	 */
+	public Extrapolate extrapolate;
+	int numRows;
+	double index[]; //first column
+	boolean sorted; //index column is non-decreasing
+	HashMap<String,Integer> headerIndices;
+	//Distribution tables
+	double cumProbs[]; //cumulative probability at each row
+	double ev[], variance[]; //by column
+	boolean colSorted[]; //value column is non-decreasing
+	AliasTable alias;
+
+	//Constructor
+	public TableLookup(Table table){
+		data=table.data;
+		headers=table.headers;
+		type=table.type;
+		lookupMethod=table.lookupMethod;
+		interpolate=table.interpolate;
+		extrapolateText=table.extrapolate;
+
+		headerIndices=new HashMap<String,Integer>();
+		if(headers!=null){
+			for(int c=headers.length-1; c>=0; c--){ //first match wins
+				headerIndices.put(headers[c], c);
+				headerIndices.put("\""+headers[c]+"\"", c); //quoted as written in expressions
+				headerIndices.put("\'"+headers[c]+"\'", c);
+			}
+		}
+		if(data==null){return;}
+		numRows=data.length;
+		int numCols=0;
+		if(numRows>0){numCols=data[0].length;}
+
+		if("Lookup".equals(type)){
+			if("Exact".equals(lookupMethod)){mode=Mode.EXACT;}
+			else if("Truncate".equals(lookupMethod)){mode=Mode.TRUNCATE;}
+			else if("Interpolate".equals(lookupMethod)){
+				if("Linear".equals(interpolate)){mode=Mode.LINEAR;}
+				else if("Cubic Splines".equals(interpolate)){mode=Mode.CUBIC_SPLINES;}
+				if("No".equals(extrapolateText)){extrapolate=Extrapolate.NO;}
+				else if("Left only".equals(extrapolateText)){extrapolate=Extrapolate.LEFT_ONLY;}
+				else if("Right only".equals(extrapolateText)){extrapolate=Extrapolate.RIGHT_ONLY;}
+				else{extrapolate=Extrapolate.YES;}
+			}
+			index=new double[numRows];
+			sorted=true;
+			for(int r=0; r<numRows; r++){
+				index[r]=data[r][0];
+				if(r>0 && index[r]<index[r-1]){sorted=false;}
+			}
+		}
+		else if("Distribution".equals(type) && numRows>0){
+			cumProbs=new double[numRows];
+			double cdf=0;
+			for(int r=0; r<numRows; r++){
+				cdf+=data[r][0];
+				cumProbs[r]=cdf;
+			}
+			ev=new double[numCols]; variance=new double[numCols];
+			colSorted=new boolean[numCols];
+			for(int c=1; c<numCols; c++){
+				ev[c]=table.calcEV(c);
+				variance[c]=table.calcVariance(c);
+				colSorted[c]=true;
+				for(int r=1; r<numRows; r++){
+					if(data[r][c]<data[r-1][c]){colSorted[c]=false;}
+				}
+			}
+			if(numRows>=AliasTable.MIN_SIZE){
+				alias=new AliasTable(numRows);
+				alias.buildCumulative(cumProbs);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the table's data or settings have been replaced since this was built
+	 * @param table
+	 * @return
+	 */
+	boolean isStale(Table table){
+		return(data!=table.data || headers!=table.headers || type!=table.type || lookupMethod!=table.lookupMethod
+				|| interpolate!=table.interpolate || extrapolateText!=table.extrapolate);
+	}
+
+	/**
+	 * Returns the column with this header, or -1 if not found
+	 * @param header
+	 * @return
+	 */
+	int getHeaderIndex(String header){
+		Integer col=headerIndices.get(header);
+		if(col==null){return(-1);}
+		return(col);
+	}
+
+	/**
+	 * First row with an index value >= x (numRows if none).  Binary search if the index column is sorted
+	 * @param x
+	 * @return
+	 */
+	int lowerBound(double x){
+		if(sorted){
+			int lo=0, hi=numRows;
+			while(lo<hi){
+				int mid=(lo+hi)>>>1;
+				if(index[mid]<x){lo=mid+1;}
+				else{hi=mid;}
+			}
+			return(lo);
+		}
+		int row=0;
+		while(row<numRows && index[row]<x){row++;}
+		return(row);
+	}
+
+	/**
+	 * First row with an index value equal to x, or -1 if not found
+	 * @param x
+	 * @return
+	 */
+	int findExact(double x){
+		if(sorted){
+			int row=lowerBound(x);
+			if(row<numRows && index[row]==x){return(row);}
+			return(-1);
+		}
+		for(int r=0; r<numRows; r++){
+			if(index[r]==x){return(r);}
+		}
+		return(-1);
+	}
+
+	/**
+	 * Row for a uniform draw: alias table if built, otherwise the first row whose cumulative probability is >= rand
+	 * @param rand
+	 * @return
+	 */
+	int sampleRow(double rand){
+		if(alias!=null){return(alias.sample(rand));}
+		return(findCumulative(rand));
+	}
+
+	/**
+	 * First row whose cumulative probability is >= p (last row if none)
+	 * @param p
+	 * @return
+	 */
+	int findCumulative(double p){
+		int lo=0, hi=numRows-1;
+		while(lo<hi){
+			int mid=(lo+hi)>>>1;
+			if(cumProbs[mid]<p){lo=mid+1;}
+			else{hi=mid;}
+		}
+		return(lo);
+	}
+
+	/**
+	 * Cumulative probability of values <= k in a value column
+	 * @param k
+	 * @param col
+	 * @return
+	 */
+	double getCDF(double k, int col){
+		if(k<data[0][col]){return(0);}
+		else if(k>=data[numRows-1][col]){return(1);}
+		int row; //first row with value > k
+		if(colSorted[col]){
+			int lo=0, hi=numRows;
+			while(lo<hi){
+				int mid=(lo+hi)>>>1;
+				if(data[mid][col]<=k){lo=mid+1;}
+				else{hi=mid;}
+			}
+			row=lo;
+		}
+		else{
+			row=0;
+			while(data[row][col]<=k){row++;}
+		}
+		if(row==0){return(0);}
+		return(cumProbs[row-1]);
+	}
+}
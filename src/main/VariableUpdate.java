@@ -19,6 +19,7 @@
 package main;
 
 import base.AmuaModel;
+import markov.PersonTable;
 import math.Interpreter;
 import math.Numeric;
 import math.NumericException;
@@ -26,6 +27,7 @@ import math.NumericException;
 
 public class VariableUpdate{
 	Variable variable;
+	int varIndex; //index in model variables
 	String exprUpdate; //expression to evaluate when updating
 	/**
 	 * 0:=, 1:++, 2:--, 3:+=, 4:-=, 5:*=, 6:/=
@@ -53,7 +55,7 @@ public class VariableUpdate{
 			throw new NumericException("No operator found in expression: '"+expression+"'","VariableUpdate");
 		}
 		String strVar=curExpr.substring(0, pos);
-		int varIndex=myModel.getVariableIndex(strVar);
+		varIndex=myModel.getVariableIndex(strVar);
 		if(varIndex==-1){
 			throw new NumericException("Variable not found: "+strVar,"VariableUpdate");
 		}
@@ -96,7 +98,7 @@ public class VariableUpdate{
 	}
 	
 	public void updateCohort(double prev) throws Exception{
-		Numeric value=variable.value;
+		Numeric value=myModel.getVariableValue(varIndex);
 		if(operation==1){ //++
 			value.setDouble(value.getDouble()+prev);
 		} 
@@ -118,7 +120,12 @@ public class VariableUpdate{
 	}
 	
 	public void updateMonteCarlo(boolean sample) throws Exception{
-		Numeric value=variable.value;
+		PersonTable.Cursor cursor=myModel.getThreadRow();
+		if(cursor!=null && cursor.row!=-1 && cursor.table.getFormat(varIndex, cursor.row)!=PersonTable.MATRIX){
+			updatePerson(cursor.table, cursor.row, sample);
+			return;
+		}
+		Numeric value=myModel.getVariableValue(varIndex); //matrix cell or model-level value
 		if(operation==1){ //++
 			if(value.isInteger()){value.setInt(value.getInt()+1);}
 			else{value.setDouble(value.getDouble()+1);}
@@ -157,5 +164,56 @@ public class VariableUpdate{
 				}
 			}
 		}
+		myModel.setVariableValue(varIndex, value); //write back (person rows hold primitives, not this object)
+	}
+	
+	/**
+	 * Updates a scalar person-level value in place, with the same type rules as updateMonteCarlo but without allocating Numeric objects
+	 * @param table
+	 * @param row
+	 * @param sample
+	 * @throws Exception
+	 */
+	private void updatePerson(PersonTable table, int row, boolean sample) throws Exception{
+		boolean isInteger=(table.getFormat(varIndex, row)==PersonTable.INTEGER);
+		if(operation==1){ //++
+			if(isInteger){table.setInt(varIndex, row, (int)table.getValue(varIndex, row)+1);}
+			else{table.setDouble(varIndex, row, table.getDouble(varIndex, row)+1);}
+		} 
+		else if(operation==2){ //--
+			if(isInteger){table.setInt(varIndex, row, (int)table.getValue(varIndex, row)-1);}
+			else{table.setDouble(varIndex, row, table.getDouble(varIndex, row)-1);}
+		} 
+		else{
+			double eval=Interpreter.evaluateDouble(exprUpdate, myModel, sample);
+			boolean evalInteger=Interpreter.isIntegerResult();
+			if(operation==0){
+				if(evalInteger){table.setInt(varIndex, row, (int)eval);}
+				else{table.setDouble(varIndex, row, eval);}
+			}
+			else{
+				if(operation<6){ //not division
+					if(isInteger && evalInteger){ //preseve integer type
+						int curVal=(int)table.getValue(varIndex, row);
+						if(operation==3){curVal+=(int)eval;}
+						else if(operation==4){curVal-=(int)eval;}
+						else if(operation==5){curVal*=(int)eval;}
+						table.setInt(varIndex, row, curVal);
+					}
+					else{ //treat all as double
+						double curVal=table.getDouble(varIndex, row);
+						if(operation==3){curVal+=eval;}
+						else if(operation==4){curVal-=eval;}
+						else if(operation==5){curVal*=eval;}
+						table.setDouble(varIndex, row, curVal);
+					}
+				}
+				else if(operation==6){ //division, treat all as double
+					double curVal=table.getDouble(varIndex, row);
+					curVal/=eval;
+					table.setDouble(varIndex, row, curVal);
+				}
+			}
+		}
 	}
 }
\ No newline at end of file
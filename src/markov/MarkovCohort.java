@@ -40,6 +40,13 @@ public class MarkovCohort{
 	MarkovTrace trace;
 	Variable curT;
 	AmuaModel myModel;
+	//Matrix form, used when probs/costs/rewards don't depend on variables
+	boolean matrixForm;
+	boolean rowHasTime[]; //row re-built each cycle
+	int rowCols[][]; //sparse transition rows [from state][non-zero]
+	double rowVals[][];
+	double rowRewards[][]; //expected reward per person in state [state][dimension]
+	double denseRow[]; //scratch for building rows
 	
 	//Constructor
 	public MarkovCohort(MarkovNode chainRoot){
@@ -69,6 +76,18 @@ public class MarkovCohort{
 		//Get state indices for all transition nodes
 		chainRoot.transFrom=-1;
 		getTransitionIndex(chainRoot);
+		//Check if chain can be run in matrix form
+		matrixForm=true;
+		rowHasTime=new boolean[numStates];
+		for(int s=0; s<numStates; s++){
+			if(checkMatrixForm(states[s],s)==false){matrixForm=false;}
+		}
+		if(matrixForm){
+			rowCols=new int[numStates][];
+			rowVals=new double[numStates][];
+			rowRewards=new double[numStates][numDim];
+			denseRow=new double[numStates];
+		}
 	}
 	
 	public void simulate(boolean showTrace) throws NumericException, Exception{
@@ -93,12 +112,20 @@ public class MarkovCohort{
 		curT.value=new Numeric(0);
 		boolean terminate=false;
 		while(terminate==false && t<markovTree.maxCycles){
-			for(int s=0; s<numStates; s++){ //Update each state
-				for(int d=0; d<numDim; d++){ //Update state rewards
-					double curReward=Interpreter.evaluate(states[s].rewards[d],myModel,false).getDouble();
-					cycleRewards[d]+=curReward*curPrev[s];
+			if(matrixForm){
+				for(int s=0; s<numStates; s++){
+					if(t==0 || rowHasTime[s]){buildRow(s);}
+				}
+				stepMatrix();
+			}
+			else{
+				for(int s=0; s<numStates; s++){ //Update each state
+					for(int d=0; d<numDim; d++){ //Update state rewards
+						double curReward=Interpreter.evaluate(states[s].rewards[d],myModel,false).getDouble();
+						cycleRewards[d]+=curReward*curPrev[s];
+					}
+					traverseNode(states[s],curPrev[s]);
 				}
-				traverseNode(states[s],curPrev[s]);
 			}
 			updateTrace(t);
 			terminate=checkTerminationCondition(); //check condition
@@ -125,6 +152,7 @@ public class MarkovCohort{
 
 		//Reset variable 't'
 		curT.value.setInt(0);
+		trace.trim();
 
 		if(showTrace){//Show trace
 			frmTrace window=new frmTrace(trace,chainRoot.panel.errorLog);
@@ -141,7 +169,7 @@ public class MarkovCohort{
 			}
 		}catch(Exception e){
 			e.printStackTrace();
-			chainRoot.panel.errorLog.recordError(e);
+			myModel.errorLog.recordError(e);
 			curT.value.setInt(0);
 		}
 		return(terminate);
@@ -174,12 +202,27 @@ public class MarkovCohort{
 		}
 		
 		//Calculate probabilities for children
+		evalChildProbs(node);
+		
+		if(node.type==4){ //Transition node, end of branch
+			newPrev[node.transFrom]-=nodePrev; //from state
+			newPrev[node.transTo]+=nodePrev; //next state
+		}
+		else{
+			for(int c=0; c<node.numChildren; c++){
+				MarkovNode curChild=node.children[c];
+				traverseNode(curChild,nodePrev);
+			}
+		}
+	}
+	
+	private void evalChildProbs(MarkovNode node) throws Exception{
 		if(node.numChildren>0){
 			double sumProb=0;
 			int indexCompProb=-1;
 			for(int c=0; c<node.numChildren; c++){
 				MarkovNode curChild=node.children[c];
-				if(curChild.prob.matches("C") || curChild.prob.matches("c")){ //Complementary
+				if(curChild.prob.equalsIgnoreCase("C")){ //Complementary
 					curChild.curProb=-1;
 					indexCompProb=c;
 				}
@@ -203,16 +246,103 @@ public class MarkovCohort{
 				}
 			}
 		}
-		
-		
+	}
+	
+	/**
+	 * Checks that the state's sub-tree has no variables or variable updates, and flags the row if it depends on t
+	 * @return true if the sub-tree can be run in matrix form
+	 */
+	private boolean checkMatrixForm(MarkovNode node, int s){
+		if(node.hasVarUpdates){return(false);}
+		if(node.type==2){ //state rewards
+			for(int d=0; d<numDim; d++){
+				if(myModel.textHasVariable(node.rewards[d])){return(false);}
+				if(myModel.textHasInnateVariable(node.rewards[d])){rowHasTime[s]=true;}
+			}
+		}
+		else{
+			if(myModel.textHasVariable(node.prob)){return(false);}
+			if(myModel.textHasInnateVariable(node.prob)){rowHasTime[s]=true;}
+		}
+		if(node.hasCost){
+			for(int d=0; d<numDim; d++){
+				if(myModel.textHasVariable(node.cost[d])){return(false);}
+				if(myModel.textHasInnateVariable(node.cost[d])){rowHasTime[s]=true;}
+			}
+		}
+		for(int c=0; c<node.numChildren; c++){
+			if(checkMatrixForm(node.children[c],s)==false){return(false);}
+		}
+		return(true);
+	}
+	
+	/**
+	 * Builds the sparse transition row and expected rewards for state s at the current cycle
+	 * @throws Exception
+	 */
+	private void buildRow(int s) throws Exception{
+		for(int j=0; j<numStates; j++){denseRow[j]=0;}
+		denseRow[s]=1; //stay unless transitioned
+		for(int d=0; d<numDim; d++){
+			rowRewards[s][d]=Interpreter.evaluate(states[s].rewards[d],myModel,false).getDouble();
+		}
+		buildNode(states[s],1.0,s);
+		//compress
+		int numNonZero=0;
+		for(int j=0; j<numStates; j++){
+			if(denseRow[j]!=0){numNonZero++;}
+		}
+		rowCols[s]=new int[numNonZero];
+		rowVals[s]=new double[numNonZero];
+		int k=0;
+		for(int j=0; j<numStates; j++){
+			if(denseRow[j]!=0){
+				rowCols[s][k]=j;
+				rowVals[s][k]=denseRow[j];
+				k++;
+			}
+		}
+	}
+	
+	private void buildNode(MarkovNode node, double parentProb, int s) throws Exception{
+		double nodeProb=parentProb;
+		if(node.type!=2){ //not state, update prob
+			nodeProb=parentProb*node.curProb;
+		}
+		//Update costs
+		if(node.hasCost){
+			for(int d=0; d<numDim; d++){
+				double curCost=Interpreter.evaluate(node.cost[d],myModel,false).getDouble();
+				rowRewards[s][d]+=curCost*nodeProb;
+			}
+		}
+		evalChildProbs(node);
 		if(node.type==4){ //Transition node, end of branch
-			newPrev[node.transFrom]-=nodePrev; //from state
-			newPrev[node.transTo]+=nodePrev; //next state
+			denseRow[node.transFrom]-=nodeProb;
+			denseRow[node.transTo]+=nodeProb;
 		}
 		else{
 			for(int c=0; c<node.numChildren; c++){
-				MarkovNode curChild=node.children[c];
-				traverseNode(curChild,nodePrev);
+				buildNode(node.children[c],nodeProb,s);
+			}
+		}
+	}
+	
+	/**
+	 * newPrev = curPrev x transition matrix, and adds expected cycle rewards
+	 */
+	private void stepMatrix(){
+		for(int j=0; j<numStates; j++){newPrev[j]=0;}
+		for(int s=0; s<numStates; s++){
+			double prev=curPrev[s];
+			int cols[]=rowCols[s];
+			double vals[]=rowVals[s];
+			for(int k=0; k<cols.length; k++){
+				newPrev[cols[k]]+=prev*vals[k];
+			}
+			double rewards[]=rowRewards[s];
+			for(int d=0; d<numDim; d++){
+				cycleRewards[d]+=prev*rewards[d];
 			}
 		}
 	}
@@ -260,13 +390,11 @@ public class MarkovCohort{
 			trace.cycleVariables[c].add(cycleVariables[c]);
 			trace.cumVariables[c].add(cumVariables[c]);
 		}
-		
-		trace.updateTable(t);
 	}
 	
 	private void getTransitionIndex(MarkovNode node){
 		if(node.type==4){ //get transition to
-			String nextState=(String) node.comboTransition.getSelectedItem();
+			String nextState=node.transition; //kept in sync with transition combo box
 			node.transTo=getStateIndex(nextState);
 		}
 		else{
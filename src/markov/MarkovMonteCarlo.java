@@ -18,12 +18,20 @@
 
 package markov;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.swing.ProgressMonitor;
 
 import base.AmuaModel;
 import gui.frmTrace;
 import main.MersenneTwisterFast;
 import main.Variable;
+import math.AliasTable;
 import math.Interpreter;
 import math.Numeric;
 import math.NumericException;
@@ -34,7 +42,8 @@ public class MarkovMonteCarlo{
 	int numStates;
 	MarkovNode states[];
 	int numPeople;
-	MarkovPerson people[];
+	PersonTable people;
+	PersonTable.Cursor cursor; //row evaluated on the simulation thread
 	double curPrev[], newPrev[];
 	int numDim;
 	double cycleRewards[],cumRewards[];
@@ -48,6 +57,8 @@ public class MarkovMonteCarlo{
 	AmuaModel myModel;
 	MersenneTwisterFast generator;
 	ProgressMonitor progress;
+	int numThreads;
+	MarkovMonteCarloWorker workers[];
 	
 	//Constructor
 	public MarkovMonteCarlo(MarkovNode chainRoot){
@@ -63,8 +74,9 @@ public class MarkovMonteCarlo{
 		}
 		//Individuals
 		numPeople=myModel.cohortSize;
-		people=new MarkovPerson[numPeople];
-		progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, 100);
+		if(myModel.mainForm!=null){ //no progress monitor if headless
+			progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, 100);
+		}
 		//Initialize random number generator
 		generator=new MersenneTwisterFast();
 		if(myModel.CRN){ //Common random numbers
@@ -107,93 +119,134 @@ public class MarkovMonteCarlo{
 			initPrev[s]=initPrev[s-1]+states[s].curProb;
 			curPrev[s]=0; newPrev[s]=0;
 		}
+		AliasTable initAlias=null;
+		if(numStates>=AliasTable.MIN_SIZE){
+			initAlias=new AliasTable(numStates);
+			initAlias.buildCumulative(initPrev);
+		}
 		
+		boolean objectColumns[]=new boolean[numVariables]; //matrix-valued (or not yet evaluated) variables
+		for(int c=0; c<numVariables; c++){
+			objectColumns[c]=(origVariableVals[c]==null || origVariableVals[c].isMatrix());
+		}
+		people=new PersonTable(numPeople,numVariables,objectColumns);
 		for(int p=0; p<numPeople; p++){
-			people[p]=new MarkovPerson();
 			double rand=generator.nextDouble();
 			int k=0;
-			while(rand>initPrev[k]){k++;}
-			people[p].curState=k;
+			if(initAlias!=null){k=initAlias.sample(rand);}
+			else{
+				while(rand>initPrev[k]){k++;}
+			}
+			people.state[p]=k;
 			curPrev[k]++; newPrev[k]++;
 			//initialize variables
-			people[p].variableVals=new Numeric[numVariables];
 			for(int c=0; c<numVariables; c++){
-				people[p].variableVals[c]=Interpreter.evaluate(variables[c].initValue, myModel,false);
-				prevVariables[c]+=people[p].variableVals[c].getDouble();
+				Numeric value=Interpreter.evaluate(variables[c].initValue, myModel,false);
+				people.set(c, p, value);
+				prevVariables[c]+=value.getDouble();
 			}
 		}
 		
+		//Partition people across worker threads, each with its own RNG stream seeded from the master generator
+		numThreads=Math.max(1, Math.min(myModel.numThreads, numPeople));
+		ExecutorService pool=null;
+		ArrayList<MarkovMonteCarloWorker> tasks=null;
+		if(numThreads>1){
+			int maxChildren=getMaxChildren(chainRoot);
+			workers=new MarkovMonteCarloWorker[numThreads];
+			tasks=new ArrayList<MarkovMonteCarloWorker>();
+			int blockSize=(numPeople+numThreads-1)/numThreads;
+			for(int w=0; w<numThreads; w++){
+				int start=Math.min(w*blockSize, numPeople);
+				int end=Math.min(start+blockSize, numPeople);
+				workers[w]=new MarkovMonteCarloWorker(this,start,end,generator.nextInt(),maxChildren);
+				tasks.add(workers[w]);
+			}
+			pool=Executors.newFixedThreadPool(numThreads);
+		}
+		
 		//Simulate cycles
 		int t=0;
 		curT.value=new Numeric(0);
 		boolean terminate=false;
 		boolean cancelled=false;
-		progress.setMaximum(markovTree.maxCycles);
+		if(progress!=null){progress.setMaximum(markovTree.maxCycles);}
 		
-		while(terminate==false && t<markovTree.maxCycles){
-			progress.setProgress(t);
-			progress.setNote("t = "+t);
+		//expressions on this thread read the cursor's row (-1 until the first cycle is simulated)
+		cursor=new PersonTable.Cursor(people);
+		myModel.bindThreadRow(cursor);
+		try{
+			while(terminate==false && t<markovTree.maxCycles){
+				if(progress!=null){
+					progress.setProgress(t);
+					progress.setNote("t = "+t);
+				}
 			
-			//Update expressions for costs/rewards
-			evalCosts(chainRoot);
-			for(int s=0; s<numStates; s++){
-				states[s].curRewards=new double[numDim];
-				for(int d=0; d<numDim; d++){
-					double curReward=Interpreter.evaluate(states[s].rewards[d],myModel,false).getDouble();
-					states[s].curRewards[d]=curReward;
+				//Update expressions for costs/rewards
+				evalCosts(chainRoot);
+				for(int s=0; s<numStates; s++){
+					if(states[s].curRewards==null || states[s].curRewards.length!=numDim){states[s].curRewards=new double[numDim];} //reuse across cycles
+					for(int d=0; d<numDim; d++){
+						double curReward=Interpreter.evaluateDouble(states[s].rewards[d],myModel,false);
+						states[s].curRewards[d]=curReward;
+					}
 				}
-			}
 			
-			//Update probs
-			evalChildProbs(chainRoot,true);
+				//Update probs
+				evalChildProbs(chainRoot,true);
 			
-			//Update each person
-			for(int p=0; p<numPeople; p++){ 
-				//re-point variables
-				for(int c=0; c<numVariables; c++){
-					variables[c].value=people[p].variableVals[c];
+				if(numThreads>1){ //Update people in parallel
+					simulateCycleParallel(pool,tasks);
 				}
+				else{ //Update each person
+					for(int p=0; p<numPeople; p++){ 
+						cursor.row=p; //point expressions at person's variables
 				
-				int curState=people[p].curState;
-				//rewards
-				for(int d=0; d<numDim; d++){ //Update state rewards
-					if(states[curState].rewardHasVariables[d]==false){ //use pre-calculated reward
-						cycleRewards[d]+=states[curState].curRewards[d];
-					}
-					else{ //has variable, re-evaluate reward
-						double curReward=Interpreter.evaluate(states[curState].rewards[d],myModel,false).getDouble();
-						cycleRewards[d]+=curReward;
-					}
+						int curState=people.state[p];
+						//rewards
+						for(int d=0; d<numDim; d++){ //Update state rewards
+							if(states[curState].rewardHasVariables[d]==false){ //use pre-calculated reward
+								cycleRewards[d]+=states[curState].curRewards[d];
+							}
+							else{ //has variable, re-evaluate reward
+								double curReward=Interpreter.evaluateDouble(states[curState].rewards[d],myModel,false);
+								cycleRewards[d]+=curReward;
+							}
 					
+						}
+						//state transition
+						traverseNode(states[curState],p);
+						//update variables
+						for(int c=0; c<numVariables; c++){
+							cumVariables[c]+=people.getDouble(c, p);
+						}
+					}
 				}
-				//state transition
-				traverseNode(states[curState],people[p]);
-				//update variables
-				for(int c=0; c<numVariables; c++){
-					cumVariables[c]+=variables[c].value.getDouble();
-				}
-			}
 			
-			updateTrace(t);
-			terminate=checkTerminationCondition(); //check condition
-			if(terminate && markovTree.halfCycleCorrection==true){
-				trace.updateHalfCycle();
-				//adjust cum rewards
-				for(int d=0; d<numDim; d++){
-					cumRewards[d]=trace.cumRewards[d].get(t);
-					cumRewardsDis[d]=trace.cumRewardsDis[d].get(t);
+				updateTrace(t);
+				terminate=checkTerminationCondition(); //check condition
+				if(terminate && markovTree.halfCycleCorrection==true){
+					trace.updateHalfCycle();
+					//adjust cum rewards
+					for(int d=0; d<numDim; d++){
+						cumRewards[d]=trace.cumRewards[d].get(t);
+						cumRewardsDis[d]=trace.cumRewardsDis[d].get(t);
+					}
 				}
-			}
 
-			t++; //next cycle
-			curT.value.setInt(t);
+				t++; //next cycle
+				curT.value.setInt(t);
 			
-			if(progress.isCanceled()){
-				cancelled=true;
-				terminate=true;
+				if(progress!=null && progress.isCanceled()){
+					cancelled=true;
+					terminate=true;
+				}
 			}
+		} finally{
+			myModel.bindThreadRow(null);
+			if(pool!=null){pool.shutdown();} //also on errors evaluating this thread's expressions
 		}
-		progress.close();
+		if(progress!=null){progress.close();}
 
 		//Get chain EVs
 		if(cancelled==false){
@@ -207,8 +260,9 @@ public class MarkovMonteCarlo{
 
 		//Reset variable 't'
 		curT.value.setInt(0);
+		trace.trim();
 
-		//repoint variable vals
+		//reset variable vals
 		for(int c=0; c<numVariables; c++){
 			variables[c].value=origVariableVals[c];
 		}
@@ -219,6 +273,40 @@ public class MarkovMonteCarlo{
 		}
 	}
 	
+	/**
+	 * Runs one cycle across the worker threads and merges their accumulators in worker order, so results are reproducible for a given seed and number of threads
+	 * @param pool
+	 * @param tasks
+	 * @throws Exception
+	 */
+	private void simulateCycleParallel(ExecutorService pool, ArrayList<MarkovMonteCarloWorker> tasks) throws Exception{
+		List<Future<Object>> results=pool.invokeAll(tasks);
+		for(int w=0; w<numThreads; w++){
+			try{
+				results.get(w).get();
+			} catch(ExecutionException e){ //re-throw worker error
+				pool.shutdownNow();
+				Throwable cause=e.getCause();
+				if(cause instanceof Exception){throw (Exception)cause;}
+				throw e;
+			}
+			MarkovMonteCarloWorker curWorker=workers[w];
+			for(int d=0; d<numDim; d++){cycleRewards[d]+=curWorker.cycleRewards[d];}
+			for(int s=0; s<numStates; s++){newPrev[s]+=curWorker.prevChange[s];}
+			for(int c=0; c<numVariables; c++){cumVariables[c]+=curWorker.cumVariables[c];}
+		}
+		//point expressions at last person, as in serial simulation
+		cursor.row=numPeople-1;
+	}
+	
+	private int getMaxChildren(MarkovNode node){
+		int max=node.numChildren;
+		for(int c=0; c<node.numChildren; c++){
+			max=Math.max(max, getMaxChildren(node.children[c]));
+		}
+		return(max);
+	}
+	
 	private boolean checkTerminationCondition(){
 		boolean terminate=false;
 		try{
@@ -228,7 +316,7 @@ public class MarkovMonteCarlo{
 			}
 		}catch(Exception e){
 			e.printStackTrace();
-			chainRoot.panel.errorLog.recordError(e);
+			myModel.errorLog.recordError(e);
 			curT.value.setInt(0);
 		}
 		return(terminate);
@@ -239,7 +327,7 @@ public class MarkovMonteCarlo{
 	 * @throws Exception 
 	 */
 	
-	private void traverseNode(MarkovNode node, MarkovPerson curPerson) throws Exception{
+	private void traverseNode(MarkovNode node, int p) throws Exception{
 		//Update variables
 		if(node.hasVarUpdates){
 			for(int u=0; u<node.curVariableUpdates.length; u++){
@@ -254,7 +342,7 @@ public class MarkovMonteCarlo{
 					cycleRewards[d]+=node.curCosts[d];
 				}
 				else{ //has variable, re-evaluate cost
-					double curCost=Interpreter.evaluate(node.cost[d],myModel,false).getDouble();
+					double curCost=Interpreter.evaluateDouble(node.cost[d],myModel,false);
 					cycleRewards[d]+=curCost;
 				}
 			}
@@ -264,7 +352,7 @@ public class MarkovMonteCarlo{
 		if(node.type==4){ //Transition node, end of branch
 			newPrev[node.transFrom]--; //from state
 			newPrev[node.transTo]++; //next state
-			curPerson.curState=node.transTo;
+			people.state[p]=node.transTo;
 		}
 		else{ //sim chance node
 			double rand=generator.nextDouble();
@@ -272,9 +360,12 @@ public class MarkovMonteCarlo{
 			if(node.childHasProbVariables==true){ //re-evaluate child probs
 				evalChildProbs(node,false);
 			}
-			while(rand>node.curChildProbs[k]){k++;}
+			if(node.curAlias!=null){k=node.curAlias.sample(rand);} //fixed probs, O(1) lookup
+			else{
+				while(rand>node.curChildProbs[k]){k++;}
+			}
 			MarkovNode curChild=node.children[k];
-			traverseNode(curChild,curPerson);
+			traverseNode(curChild,p);
 		}
 		
 	}
@@ -287,9 +378,9 @@ public class MarkovMonteCarlo{
 	 */
 	private void evalCosts(MarkovNode node) throws NumericException, Exception{
 		if(node.hasCost){
-			node.curCosts=new double[numDim];
+			if(node.curCosts==null || node.curCosts.length!=numDim){node.curCosts=new double[numDim];} //reuse across cycles
 			for(int d=0; d<numDim; d++){
-				double curCost=Interpreter.evaluate(node.cost[d],myModel,false).getDouble();
+				double curCost=Interpreter.evaluateDouble(node.cost[d],myModel,false);
 				node.curCosts[d]=curCost;
 			}
 		}
@@ -312,12 +403,12 @@ public class MarkovMonteCarlo{
 			int indexCompProb=-1;
 			for(int c=0; c<node.numChildren; c++){
 				MarkovNode curChild=node.children[c];
-				if(curChild.prob.matches("C") || curChild.prob.matches("c")){ //Complementary
+				if(curChild.prob.equalsIgnoreCase("C")){ //Complementary
 					curChild.curProb=-1;
 					indexCompProb=c;
 				}
 				else{ //Evaluate text
-					curChild.curProb=Interpreter.evaluate(curChild.prob,myModel,false).getDouble();
+					curChild.curProb=Interpreter.evaluateDouble(curChild.prob,myModel,false);
 					sumProb+=curChild.curProb;
 				}
 			}
@@ -343,6 +434,7 @@ public class MarkovMonteCarlo{
 				curChild=node.children[c];
 				node.curChildProbs[c]=node.curChildProbs[c-1]+curChild.curProb;
 			}
+			updateAlias(node);
 
 			if(recursive==true){ //move down tree
 				for(int c=0; c<node.numChildren; c++){
@@ -353,6 +445,18 @@ public class MarkovMonteCarlo{
 		}
 	}
 
+	/**
+	 * Builds an alias table for nodes whose child probs are fixed for the cycle
+	 * @param node
+	 */
+	private void updateAlias(MarkovNode node){
+		if(node.childHasProbVariables==false && node.numChildren>=AliasTable.MIN_SIZE){
+			if(node.curAlias==null || node.curAlias.size()!=node.numChildren){node.curAlias=new AliasTable(node.numChildren);}
+			node.curAlias.buildCumulative(node.curChildProbs);
+		}
+		else{node.curAlias=null;}
+	}
+
 	private void updateTrace(int t){
 		trace.cycles.add(t);
 		//Update prev
@@ -395,12 +499,11 @@ public class MarkovMonteCarlo{
 			trace.cumVariables[c].add(cumVariables[c]);
 			cumVariables[c]=0;
 		}
-		trace.updateTable(t);
 	}
 	
 	private void getTransitionIndex(MarkovNode node){
 		if(node.type==4){ //get transition to
-			String nextState=(String) node.comboTransition.getSelectedItem();
+			String nextState=node.transition; //kept in sync with transition combo box
 			node.transTo=getStateIndex(nextState);
 		}
 		else{
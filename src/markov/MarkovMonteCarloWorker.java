@@ -0,0 +1,177 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package markov;
+
+import java.util.concurrent.Callable;
+
+import base.AmuaModel;
+import main.MersenneTwisterFast;
+import math.Interpreter;
+
+/**
+ * Simulates one cycle for a block of people [start,end) on a worker thread.
+ * Each worker has its own RNG stream and accumulators, which are merged into the trace by MarkovMonteCarlo at the end of each cycle.
+ */
+class MarkovMonteCarloWorker implements Callable<Object>{
+	MarkovMonteCarlo sim;
+	AmuaModel myModel;
+	PersonTable people;
+	PersonTable.Cursor cursor;
+	int start, end;
+	int numDim, numStates, numVariables;
+	MersenneTwisterFast generator;
+	//accumulators for current cycle
+	double cycleRewards[];
+	double prevChange[];
+	double cumVariables[];
+	double childProbs[]; //scratch cumulative probs
+
+	//Constructor
+	MarkovMonteCarloWorker(MarkovMonteCarlo sim, int start, int end, int seed, int maxChildren){
+		this.sim=sim;
+		this.myModel=sim.myModel;
+		this.people=sim.people;
+		cursor=new PersonTable.Cursor(people);
+		this.start=start; this.end=end;
+		numDim=sim.numDim; numStates=sim.numStates; numVariables=sim.numVariables;
+		generator=new MersenneTwisterFast(seed);
+		cycleRewards=new double[numDim];
+		prevChange=new double[numStates];
+		cumVariables=new double[numVariables];
+		childProbs=new double[Math.max(1, maxChildren)];
+	}
+
+	public Object call() throws Exception{
+		for(int d=0; d<numDim; d++){cycleRewards[d]=0;}
+		for(int s=0; s<numStates; s++){prevChange[s]=0;}
+		for(int c=0; c<numVariables; c++){cumVariables[c]=0;}
+
+		myModel.bindThreadGenerator(generator);
+		myModel.bindThreadRow(cursor);
+		try{
+			for(int p=start; p<end; p++){
+				cursor.row=p; //point this thread at person's variables
+
+				int curState=people.state[p];
+				MarkovNode state=sim.states[curState];
+				//rewards
+				for(int d=0; d<numDim; d++){ //Update state rewards
+					if(state.rewardHasVariables[d]==false){ //use pre-calculated reward
+						cycleRewards[d]+=state.curRewards[d];
+					}
+					else{ //has variable, re-evaluate reward
+						double curReward=Interpreter.evaluateDouble(state.rewards[d],myModel,false);
+						cycleRewards[d]+=curReward;
+					}
+				}
+				//state transition
+				traverseNode(state,p);
+				//update variables
+				for(int c=0; c<numVariables; c++){
+					cumVariables[c]+=people.getDouble(c, p);
+				}
+			}
+		} finally{
+			myModel.bindThreadRow(null);
+			myModel.bindThreadGenerator(null);
+		}
+		return(null);
+	}
+
+	private void traverseNode(MarkovNode node, int p) throws Exception{
+		//Update variables
+		if(node.hasVarUpdates){
+			for(int u=0; u<node.curVariableUpdates.length; u++){
+				node.curVariableUpdates[u].updateMonteCarlo(true);
+			}
+		}
+
+		//Update costs
+		if(node.hasCost){
+			for(int d=0; d<numDim; d++){
+				if(node.costHasVariables[d]==false){ //use pre-calculated cost
+					cycleRewards[d]+=node.curCosts[d];
+				}
+				else{ //has variable, re-evaluate cost
+					double curCost=Interpreter.evaluateDouble(node.cost[d],myModel,false);
+					cycleRewards[d]+=curCost;
+				}
+			}
+		}
+
+		if(node.type==4){ //Transition node, end of branch
+			prevChange[node.transFrom]--; //from state
+			prevChange[node.transTo]++; //next state
+			people.state[p]=node.transTo;
+		}
+		else{ //sim chance node
+			double rand=generator.nextDouble();
+			int k=0;
+			double cumProbs[]=node.curChildProbs;
+			if(node.childHasProbVariables==true){ //re-evaluate child probs for this person (don't write to shared node)
+				evalChildProbs(node);
+				cumProbs=childProbs;
+			}
+			if(node.curAlias!=null){k=node.curAlias.sample(rand);} //fixed probs, built by MarkovMonteCarlo each cycle
+			else{
+				while(rand>cumProbs[k]){k++;}
+			}
+			MarkovNode curChild=node.children[k];
+			traverseNode(curChild,p);
+		}
+	}
+
+	/**
+	 * Evaluates cumulative child probs into the scratch array
+	 * @param node
+	 * @throws Exception
+	 */
+	private void evalChildProbs(MarkovNode node) throws Exception{
+		double sumProb=0;
+		int indexCompProb=-1;
+		for(int c=0; c<node.numChildren; c++){
+			MarkovNode curChild=node.children[c];
+			if(curChild.prob.equalsIgnoreCase("C")){ //Complementary
+				childProbs[c]=-1;
+				indexCompProb=c;
+			}
+			else{ //Evaluate text
+				childProbs[c]=Interpreter.evaluateDouble(curChild.prob,myModel,false);
+				sumProb+=childProbs[c];
+			}
+		}
+		if(indexCompProb==-1){
+			if(sumProb!=1.0){ //throw error
+				throw new Exception("Probability error: "+node.name);
+			}
+		}
+		else{
+			if(sumProb>1.0 || sumProb<0.0){ //throw error
+				throw new Exception("Probability error: "+node.name);
+			}
+			else{
+				childProbs[indexCompProb]=1.0-sumProb;
+			}
+		}
+		//Get cum. child probs
+		for(int c=1; c<node.numChildren; c++){
+			childProbs[c]=childProbs[c-1]+childProbs[c];
+		}
+	}
+}
@@ -29,6 +29,7 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
@@ -43,6 +44,7 @@ import javax.xml.bind.annotation.XmlTransient;
 
 import base.ModelNode;
 import main.VariableUpdate;
+import math.AliasTable;
 
 @XmlRootElement(name="node")
 public class MarkovNode extends ModelNode{
@@ -62,10 +64,13 @@ public class MarkovNode extends ModelNode{
 	@XmlTransient public double expectedValues[], expectedValuesDis[]; //For each chain
 	@XmlTransient double curRewards[];
 	@XmlTransient double curChildProbs[]; //cumulative
+	@XmlTransient AliasTable curAlias; //null if child probs have variables or there are few children
 	@XmlTransient VariableUpdate curVariableUpdates[];
 	@XmlTransient boolean probHasVariables, childHasProbVariables;
 	@XmlTransient boolean costHasVariables[];
 	@XmlTransient boolean rewardHasVariables[];
+	@XmlTransient BitSet termDeps; //parameters the termination condition depends on
+	@XmlTransient ArrayList<String> termErrors;
 	
 	//Visual Attributes
 	@XmlTransient PanelMarkov panel;
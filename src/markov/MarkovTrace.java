@@ -18,190 +18,173 @@
 
 package markov;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 
 import javax.swing.table.DefaultTableModel;
 
 import base.AmuaModel;
-import math.Interpreter;
 import math.Numeric;
 import math.NumericException;
 
+/**
+ * Markov trace stored as primitive columns, one value per cycle.
+ * Table models for display are only built when requested.
+ */
 public class MarkovTrace{
 	public String traceName;
-	public ArrayList<Integer> cycles;
+	public TraceSeries cycles;
 	int numStates;
 	public String stateNames[];
-	public ArrayList<Double> prev[];
+	public TraceSeries prev[];
 	String dimSymbols[];
 	public String dimNames[];
 	public int numDim;
 	public boolean discounted;
-	public ArrayList<Double> cycleRewards[], cycleRewardsDis[];
-	public ArrayList<Double> cumRewards[], cumRewardsDis[];
+	public TraceSeries cycleRewards[], cycleRewardsDis[];
+	public TraceSeries cumRewards[], cumRewardsDis[];
 	public int numVariables;
 	public String varNames[];
-	public ArrayList<Double> cycleVariables[], cumVariables[];
-	public DefaultTableModel modelTraceRounded;
-	DefaultTableModel modelTraceRaw;
+	public TraceSeries cycleVariables[], cumVariables[];
+	//table columns
+	TraceSeries columns[];
+	String columnNames[];
+	int columnDims[]; //dimension for rounding, -1 if not rounded
+	HashMap<String,Integer> columnIndices;
+	DefaultTableModel modelTraceRounded; //built on request
 	AmuaModel myModel;
 	
 	//Constructor
 	public MarkovTrace(MarkovNode chainRoot){
 		traceName=chainRoot.name;
 		myModel=chainRoot.myModel;
-		cycles=new ArrayList<Integer>();
+		cycles=new TraceSeries();
 		numStates=chainRoot.stateNames.size();
 		stateNames=new String[numStates];
-		prev=new ArrayList[numStates];
+		prev=new TraceSeries[numStates];
 		MarkovTree tree=chainRoot.tree;
 		for(int s=0; s<numStates; s++){
 			int index=chainRoot.childIndices.get(s);
 			stateNames[s]=tree.nodes.get(index).name;
-			prev[s]=new ArrayList<Double>();
+			prev[s]=new TraceSeries();
 		}
 		numDim=chainRoot.numDimensions;
 		dimSymbols=chainRoot.myModel.dimInfo.dimSymbols;
 		dimNames=chainRoot.myModel.dimInfo.dimNames;
-		cycleRewards=new ArrayList[numDim]; cycleRewardsDis=new ArrayList[numDim];
-		cumRewards=new ArrayList[numDim]; cumRewardsDis=new ArrayList[numDim];
+		cycleRewards=new TraceSeries[numDim]; cycleRewardsDis=new TraceSeries[numDim];
+		cumRewards=new TraceSeries[numDim]; cumRewardsDis=new TraceSeries[numDim];
 		discounted=myModel.markov.discountRewards;
 		for(int d=0; d<numDim; d++){
-			cycleRewards[d]=new ArrayList<Double>(); cycleRewardsDis[d]=new ArrayList<Double>();
-			cumRewards[d]=new ArrayList<Double>(); cumRewardsDis[d]=new ArrayList<Double>();
+			cycleRewards[d]=new TraceSeries(); cycleRewardsDis[d]=new TraceSeries();
+			cumRewards[d]=new TraceSeries(); cumRewardsDis[d]=new TraceSeries();
 		}
 		numVariables=chainRoot.myModel.variables.size();
 		varNames=new String[numVariables];
-		cycleVariables=new ArrayList[numVariables]; cumVariables=new ArrayList[numVariables];
+		cycleVariables=new TraceSeries[numVariables]; cumVariables=new TraceSeries[numVariables];
 		for(int c=0; c<numVariables; c++){
 			varNames[c]=chainRoot.myModel.variables.get(c).name;
-			cycleVariables[c]=new ArrayList<Double>(); cumVariables[c]=new ArrayList<Double>();
+			cycleVariables[c]=new TraceSeries(); cumVariables[c]=new TraceSeries();
 		}
-		//Build Model headers
-		modelTraceRaw=new DefaultTableModel(); modelTraceRounded=new DefaultTableModel();
-		modelTraceRaw.addColumn("Cycle"); modelTraceRounded.addColumn("Cycle");
+		//Build column headers
+		int numCols=1+numStates+2*numDim+2*numVariables;
+		if(discounted==true){numCols+=2*numDim;}
+		columns=new TraceSeries[numCols];
+		columnNames=new String[numCols];
+		columnDims=new int[numCols];
+		columnIndices=new HashMap<String,Integer>();
+		int curCol=0;
+		curCol=addColumn(curCol,"Cycle",cycles,-1);
 		for(int s=0; s<numStates; s++){
-			modelTraceRaw.addColumn(stateNames[s]);
-			modelTraceRounded.addColumn(stateNames[s]);
+			curCol=addColumn(curCol,stateNames[s],prev[s],-1);
 		}
 		//undiscounted
 		for(int d=0; d<numDim; d++){
-			modelTraceRaw.addColumn("Cycle_"+dimSymbols[d]);
-			modelTraceRounded.addColumn("Cycle_"+dimSymbols[d]);
+			curCol=addColumn(curCol,"Cycle_"+dimSymbols[d],cycleRewards[d],d);
 		}
 		for(int d=0; d<numDim; d++){
-			modelTraceRaw.addColumn("Cum_"+dimSymbols[d]);
-			modelTraceRounded.addColumn("Cum_"+dimSymbols[d]);
+			curCol=addColumn(curCol,"Cum_"+dimSymbols[d],cumRewards[d],d);
 		}
 		//discounted
 		if(discounted==true){
 			for(int d=0; d<numDim; d++){
-				modelTraceRaw.addColumn("Cycle_Dis_"+dimSymbols[d]);
-				modelTraceRounded.addColumn("Cycle_Dis_"+dimSymbols[d]);
+				curCol=addColumn(curCol,"Cycle_Dis_"+dimSymbols[d],cycleRewardsDis[d],d);
 			}
 			for(int d=0; d<numDim; d++){
-				modelTraceRaw.addColumn("Cum_Dis_"+dimSymbols[d]);
-				modelTraceRounded.addColumn("Cum_Dis_"+dimSymbols[d]);
+				curCol=addColumn(curCol,"Cum_Dis_"+dimSymbols[d],cumRewardsDis[d],d);
 			}
 		}
 		//variables
 		for(int c=0; c<numVariables; c++){
-			modelTraceRaw.addColumn("Cycle_"+chainRoot.myModel.variables.get(c).name);
-			modelTraceRounded.addColumn("Cycle_"+chainRoot.myModel.variables.get(c).name);
+			curCol=addColumn(curCol,"Cycle_"+varNames[c],cycleVariables[c],-1);
 		}
 		for(int c=0; c<numVariables; c++){
-			modelTraceRaw.addColumn("Cum_"+chainRoot.myModel.variables.get(c).name);
-			modelTraceRounded.addColumn("Cum_"+chainRoot.myModel.variables.get(c).name);
+			curCol=addColumn(curCol,"Cum_"+varNames[c],cumVariables[c],-1);
 		}
 	}
 	
-	public void updateTable(int t){
-		modelTraceRaw.addRow(new Object[]{null}); modelTraceRounded.addRow(new Object[]{null});
-		int curCol=0;
-		modelTraceRaw.setValueAt(cycles.get(t), t, curCol); modelTraceRounded.setValueAt(cycles.get(t), t, curCol); //cycle
-		curCol++;
-		for(int s=0; s<numStates; s++){
-			modelTraceRaw.setValueAt(prev[s].get(t), t, curCol);
-			modelTraceRounded.setValueAt(prev[s].get(t), t, curCol);
-			curCol++;
-		}
-		//undiscounted
-		for(int d=0; d<numDim; d++){
-			modelTraceRaw.setValueAt(cycleRewards[d].get(t),t,curCol);
-			modelTraceRounded.setValueAt(myModel.round(cycleRewards[d].get(t),d),t,curCol);
-			curCol++;
-		}
-		for(int d=0; d<numDim; d++){
-			modelTraceRaw.setValueAt(cumRewards[d].get(t),t,curCol);
-			modelTraceRounded.setValueAt(myModel.round(cumRewards[d].get(t),d),t,curCol);
-			curCol++;
-		}
-		//discounted
-		if(discounted==true){
-			for(int d=0; d<numDim; d++){
-				modelTraceRaw.setValueAt(cycleRewardsDis[d].get(t),t,curCol);
-				modelTraceRounded.setValueAt(myModel.round(cycleRewardsDis[d].get(t),d),t,curCol);
-				curCol++;
-			}
-			for(int d=0; d<numDim; d++){
-				modelTraceRaw.setValueAt(cumRewardsDis[d].get(t),t,curCol);
-				modelTraceRounded.setValueAt(myModel.round(cumRewardsDis[d].get(t),d),t,curCol);
-				curCol++;
+	private int addColumn(int col, String name, TraceSeries series, int dim){
+		columnNames[col]=name;
+		columns[col]=series;
+		columnDims[col]=dim;
+		if(!columnIndices.containsKey(name)){columnIndices.put(name, col);} //keep first match
+		return(col+1);
+	}
+	
+	/**
+	 * Builds the rounded table model for display/export.  The model is cached until the trace changes
+	 * @return
+	 */
+	public DefaultTableModel getTableModel(){
+		int numRows=cycles.size();
+		if(modelTraceRounded!=null && modelTraceRounded.getRowCount()==numRows){return(modelTraceRounded);}
+		int numCols=columns.length;
+		Object data[][]=new Object[numRows][numCols];
+		for(int t=0; t<numRows; t++){
+			data[t][0]=(int)cycles.get(t);
+			for(int c=1; c<numCols; c++){
+				double val=columns[c].get(t);
+				if(columnDims[c]==-1){data[t][c]=val;}
+				else{data[t][c]=myModel.round(val,columnDims[c]);}
 			}
 		}
-		//variables
-		for(int c=0; c<numVariables; c++){
-			modelTraceRaw.setValueAt(cycleVariables[c].get(t), t, curCol);
-			modelTraceRounded.setValueAt(cycleVariables[c].get(t), t, curCol);
-			curCol++;
-		}
-		for(int c=0; c<numVariables; c++){
-			modelTraceRaw.setValueAt(cumVariables[c].get(t), t, curCol);
-			modelTraceRounded.setValueAt(cumVariables[c].get(t), t, curCol);
-			curCol++;
+		modelTraceRounded=new DefaultTableModel(data,columnNames);
+		return(modelTraceRounded);
+	}
+	
+	/**
+	 * Releases unused capacity once the simulation is complete
+	 */
+	public void trim(){
+		for(int c=0; c<columns.length; c++){
+			columns[c].trim();
 		}
-	}	
+	}
 	
 	public void updateHalfCycle(){
-		int row=modelTraceRaw.getRowCount()-1; //get last row
+		int row=cycles.size()-1; //get last row
 		//update cycle rewards and cum rewards
-		int curCol=numStates+1;
-		
 		//undiscounted
 		for(int d=0; d<numDim; d++){
 			double halfReward=cycleRewards[d].get(row)*0.5;
 			cycleRewards[d].set(row, halfReward); //update with half-cycle reward
-			modelTraceRaw.setValueAt(halfReward,row,curCol);
-			modelTraceRounded.setValueAt(myModel.round(halfReward,d),row,curCol);
-			curCol++;
 		}
 		for(int d=0; d<numDim; d++){
 			double rewardPrev=cumRewards[d].get(row-1);
 			double halfReward=cycleRewards[d].get(row);
 			cumRewards[d].set(row, rewardPrev+halfReward); //update with half-cycle reward
-			modelTraceRaw.setValueAt(rewardPrev+halfReward,row,curCol);
-			modelTraceRounded.setValueAt(myModel.round(rewardPrev+halfReward,d),row,curCol);
-			curCol++;
 		}
 		//discounted
 		if(discounted==true){
 			for(int d=0; d<numDim; d++){
 				double halfReward=cycleRewardsDis[d].get(row)*0.5;
 				cycleRewardsDis[d].set(row, halfReward); //update with half-cycle reward
-				modelTraceRaw.setValueAt(halfReward,row,curCol);
-				modelTraceRounded.setValueAt(myModel.round(halfReward,d),row,curCol);
-				curCol++;
 			}
 			for(int d=0; d<numDim; d++){
 				double rewardPrev=cumRewardsDis[d].get(row-1);
 				double halfReward=cycleRewardsDis[d].get(row);
 				cumRewardsDis[d].set(row, rewardPrev+halfReward); //update with half-cycle reward
-				modelTraceRaw.setValueAt(rewardPrev+halfReward,row,curCol);
-				modelTraceRounded.setValueAt(myModel.round(rewardPrev+halfReward,d),row,curCol);
-				curCol++;
 			}
 		}
-		
+		modelTraceRounded=null; //values changed
 	}	
 	
 	public void setT0(MarkovNode chainRoot){
@@ -223,90 +206,66 @@ public class MarkovTrace{
 		for(int c=0; c<numVariables; c++){
 			cycleVariables[c].add(0.0); cumVariables[c].add(0.0);
 		}
-		updateTable(0);
 	}
 	
 	/*public double getValue(int t, String colText){
 		//Get column index
 		int col=getColumnIndex(colText);
-		if(col<1 || col>(modelTraceRaw.getColumnCount()-1)){return(Double.NaN);} //Throw error
+		if(col<1 || col>(columns.length-1)){return(Double.NaN);} //Throw error
 		else{ //Valid column
-			double val=(double) modelTraceRaw.getValueAt(t, col);
+			double val=columns[col].get(t);
 			return(val);
 		}
 	}*/
 	
-	public Numeric getValue(String row, String col) throws NumericException, Exception{
-		double traceVals[][];
-		int numRows=modelTraceRaw.getRowCount();
-		int numCols=modelTraceRaw.getColumnCount();
-		int startRow, endRow;
-		int startCol, endCol;
-		if(row.contains(":")){ //Multiple rows
-			if(row.length()==1){ //":" all rows
-				startRow=0; endRow=numRows-1;
-			}
-			else{ //"x:y" Sequence of rows
-				int index=row.indexOf(":");
-				startRow=Interpreter.evaluate(row.substring(0, index),myModel,false).getInt();
-				endRow=Interpreter.evaluate(row.substring(index+1),myModel,false).getInt();
-			}
-		}
-		else{
-			startRow=Interpreter.evaluate(row,myModel,false).getInt();
-			endRow=startRow;
+	/**
+	 * Returns the sub-matrix [startRow:endRow, startCol:endCol] (inclusive) directly from the trace columns
+	 * @param startRow
+	 * @param endRow
+	 * @param startCol
+	 * @param endCol
+	 * @return
+	 * @throws NumericException
+	 */
+	public Numeric getValue(int startRow, int endRow, int startCol, int endCol) throws NumericException{
+		int numRows=cycles.size();
+		int numCols=columns.length;
+		if(startRow<0 || endRow>=numRows || startRow>endRow){
+			throw new NumericException("Invalid row index: "+startRow+(startRow!=endRow ? ":"+endRow : ""),"trace");
 		}
-		
-		if(col.contains(":")){ //Multiple cols
-			if(col.length()==1){ //":" all cols
-				startCol=0; endCol=numCols-1;
-			}
-			else{ //"x:y" Sequence of cols
-				int index=col.indexOf(":");
-				startCol=Interpreter.evaluate(col.substring(0, index),myModel,false).getInt();
-				endCol=Interpreter.evaluate(col.substring(index+1),myModel,false).getInt();
-			}
+		if(startCol<0 || endCol>=numCols || startCol>endCol){
+			throw new NumericException("Invalid column index: "+startCol+(startCol!=endCol ? ":"+endCol : ""),"trace");
 		}
-		else{
-			startCol=getColumnIndex(col);
-			endCol=startCol;
+		if(startRow==endRow && startCol==endCol){ //single value
+			return(new Numeric(columns[startCol].values[startRow]));
 		}
-		
-		traceVals=new double[endRow-startRow+1][endCol-startCol+1];
-		for(int i=startRow; i<=endRow; i++){
-			for(int j=startCol; j<=endCol; j++){
-				traceVals[i-startRow][j-startCol]=(double) modelTraceRaw.getValueAt(i, j);
+		double traceVals[][]=new double[endRow-startRow+1][endCol-startCol+1];
+		for(int j=startCol; j<=endCol; j++){
+			double curCol[]=columns[j].values;
+			for(int i=startRow; i<=endRow; i++){
+				traceVals[i-startRow][j-startCol]=curCol[i];
 			}
 		}
-		
 		return(new Numeric(traceVals));
 	}
 	
-	private int getColumnIndex(String colText) throws NumericException{
-		int col=-1;
-		if(colText.contains("\"") || colText.contains("\'")){ //String
-			//Trim quotes
-			colText=colText.replace("\"","");
-			colText=colText.replace("\'","");
-			boolean found=false;
-			while(found==false && col<modelTraceRaw.getColumnCount()){
-				col++;
-				if(colText.equals(modelTraceRaw.getColumnName(col))){found=true;}
-			}
-			if(found==false){
-				throw new NumericException("Can't find column: "+colText,"trace");
-			}
-		}
-		else{ //Try evaluate as integer
-			try{
-				col=Interpreter.evaluate(colText,myModel,false).getInt();
-			}
-			catch(Exception  e){
-				col=-1;
-				throw new NumericException("Invalid column index: "+colText,"trace");
-			}
-		}
-		return(col);
+	public int getNumRows(){
+		return(cycles.size());
+	}
+	
+	public int getNumColumns(){
+		return(columns.length);
+	}
+	
+	/**
+	 * Returns the index of the named column, or -1 if not found
+	 * @param name
+	 * @return
+	 */
+	public int getColumnIndex(String name){
+		Integer index=columnIndices.get(name);
+		if(index==null){return(-1);}
+		return(index);
 	}
 
 }
\ No newline at end of file
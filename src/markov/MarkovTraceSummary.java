@@ -18,9 +18,8 @@
 
 package markov;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collections;
 
 import javax.swing.table.DefaultTableModel;
 
@@ -44,19 +43,41 @@ public class MarkovTraceSummary{
 	public DefaultTableModel modelTraceRounded;
 	DefaultTableModel modelTraceRaw;
 	AmuaModel myModel;
+	//source traces
+	MarkovTrace traces[];
+	TraceArchive archive;
+	int numTraces;
 	
 	//Constructor
 	public MarkovTraceSummary(MarkovTrace traces[]){
+		this.traces=traces;
+		numTraces=traces.length;
+		MarkovTrace first=traces[0];
+		summarize(first.traceName, first.myModel, first.numStates, first.stateNames, first.numDim, first.dimSymbols, first.dimNames, first.discounted);
+	}
+	
+	/**
+	 * Summarizes traces stored in an archive by scanning its memory-mapped buffers
+	 * @param archive
+	 * @throws IOException
+	 */
+	public MarkovTraceSummary(TraceArchive archive) throws IOException{
+		this.archive=archive;
+		archive.map();
+		numTraces=archive.numTraces;
+		summarize(archive.traceName, archive.myModel, archive.numStates, archive.stateNames, archive.numDim, archive.dimSymbols, archive.dimNames, archive.discounted);
+	}
+	
+	private void summarize(String traceName, AmuaModel myModel, int numStates, String stateNames[], int numDim, String dimSymbols[], String dimNames[], boolean discounted){
 		//get names
-		int numTraces=traces.length;
-		traceName=traces[0].traceName;
-		myModel=traces[0].myModel;
-		numStates=traces[0].numStates;
-		stateNames=traces[0].stateNames;
-		numDim=traces[0].numDim;
-		dimSymbols=traces[0].dimSymbols;
-		dimNames=traces[0].dimNames;
-		discounted=traces[0].discounted;
+		this.traceName=traceName;
+		this.myModel=myModel;
+		this.numStates=numStates;
+		this.stateNames=stateNames;
+		this.numDim=numDim;
+		this.dimSymbols=dimSymbols;
+		this.dimNames=dimNames;
+		this.discounted=discounted;
 		//Build Model headers
 		modelTraceRaw=new DefaultTableModel(); modelTraceRounded=new DefaultTableModel();
 		modelTraceRaw.addColumn("Cycle"); modelTraceRounded.addColumn("Cycle");
@@ -87,9 +108,9 @@ public class MarkovTraceSummary{
 		
 		//get max cycles
 		maxCyclesLocal=new int[numTraces];
-		maxCyclesLocal[0]=traces[0].cycles.size(); maxCyclesGlobal=maxCyclesLocal[0]; 
+		maxCyclesLocal[0]=getNumCycles(0); maxCyclesGlobal=maxCyclesLocal[0]; 
 		for(int i=1; i<numTraces; i++){
-			maxCyclesLocal[i]=traces[i].cycles.size(); maxCyclesGlobal=Math.max(maxCyclesGlobal, maxCyclesLocal[i]);
+			maxCyclesLocal[i]=getNumCycles(i); maxCyclesGlobal=Math.max(maxCyclesGlobal, maxCyclesLocal[i]);
 		}
 		int numSims[]=new int[maxCyclesGlobal];
 		for(int i=0; i<numTraces; i++){
@@ -105,10 +126,10 @@ public class MarkovTraceSummary{
 			double curVal[]=new double[numTraces], curValDis[]=new double[numTraces];
 			for(int t=0; t<numTraces; t++){
 				int c=maxCyclesLocal[t]-1; //max cycle observed
-				double val=traces[t].cumRewards[d].get(c);
+				double val=get(t,cumIndex(d),c);
 				mean+=val; curVal[t]=val;
 				if(discounted){
-					val=traces[t].cumRewardsDis[d].get(c);
+					val=get(t,cumDisIndex(d),c);
 					meanDis+=val; curValDis[t]=val;
 				}
 			}
@@ -134,62 +155,58 @@ public class MarkovTraceSummary{
 		}
 		
 		//calculate prev
+		double curVals[]=new double[numTraces], curCum[]=new double[numTraces]; //reused sort buffers
 		for(int s=0; s<numStates; s++){
 			for(int c=0; c<maxCyclesGlobal; c++){
-				ArrayList<Double> curPrev=new ArrayList<Double>();
-				double mean=0, denom=0;
+				double mean=0; int denom=0;
 				for(int t=0; t<numTraces; t++){
 					if(maxCyclesLocal[t]>c){ //cycle observed
-						double val=traces[t].prev[s].get(c);
-						curPrev.add(val);
+						double val=get(t,s,c);
+						curVals[denom]=val;
 						mean+=val; denom++;
 					}
 				}
 				prev[s][0][c]=mean/denom;
-				Collections.sort(curPrev);
+				Arrays.sort(curVals,0,denom);
 				int bounds[]=getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-				prev[s][1][c]=curPrev.get(lb); prev[s][2][c]=curPrev.get(ub);
+				prev[s][1][c]=curVals[lb]; prev[s][2][c]=curVals[ub];
 			}
 		}
 		//calculate rewards
 		for(int d=0; d<numDim; d++){
 			for(int c=0; c<maxCyclesGlobal; c++){
-				ArrayList<Double> curRewards= new ArrayList<Double>();
-				ArrayList<Double> curCum= new ArrayList<Double>();
-				double mean=0, meanCum=0, denom=0;
+				double mean=0, meanCum=0; int denom=0;
 				for(int t=0; t<numTraces; t++){
 					if(maxCyclesLocal[t]>c){ //cycle observed
-						double val=traces[t].cycleRewards[d].get(c), valCum=traces[t].cumRewards[d].get(c);
-						curRewards.add(val); curCum.add(valCum);
+						double val=get(t,cycleIndex(d),c), valCum=get(t,cumIndex(d),c);
+						curVals[denom]=val; curCum[denom]=valCum;
 						mean+=val; meanCum+=valCum; denom++;
 					}
 				}
 				cycleRewards[d][0][c]=mean/denom; cumRewards[d][0][c]=meanCum/denom;
-				Collections.sort(curRewards); Collections.sort(curCum);
+				Arrays.sort(curVals,0,denom); Arrays.sort(curCum,0,denom);
 				int bounds[]=getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-				cycleRewards[d][1][c]=curRewards.get(lb); cycleRewards[d][2][c]=curRewards.get(ub);
-				cumRewards[d][1][c]=curCum.get(lb); cumRewards[d][2][c]=curCum.get(ub);
+				cycleRewards[d][1][c]=curVals[lb]; cycleRewards[d][2][c]=curVals[ub];
+				cumRewards[d][1][c]=curCum[lb]; cumRewards[d][2][c]=curCum[ub];
 			}
 		}
 		//discounted rewards
 		if(discounted){
 			for(int d=0; d<numDim; d++){
 				for(int c=0; c<maxCyclesGlobal; c++){
-					ArrayList<Double> curRewards= new ArrayList<Double>();
-					ArrayList<Double> curCum= new ArrayList<Double>();
-					double mean=0, meanCum=0, denom=0;
+					double mean=0, meanCum=0; int denom=0;
 					for(int t=0; t<numTraces; t++){
 						if(maxCyclesLocal[t]>c){ //cycle observed
-							double val=traces[t].cycleRewardsDis[d].get(c), valCum=traces[t].cumRewardsDis[d].get(c);
-							curRewards.add(val); curCum.add(valCum);
+							double val=get(t,cycleDisIndex(d),c), valCum=get(t,cumDisIndex(d),c);
+							curVals[denom]=val; curCum[denom]=valCum;
 							mean+=val; meanCum+=valCum; denom++;
 						}
 					}
 					cycleRewardsDis[d][0][c]=mean/denom; cumRewardsDis[d][0][c]=meanCum/denom;
-					Collections.sort(curRewards); Collections.sort(curCum);
+					Arrays.sort(curVals,0,denom); Arrays.sort(curCum,0,denom);
 					int bounds[]=getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-					cycleRewardsDis[d][1][c]=curRewards.get(lb); cycleRewardsDis[d][2][c]=curRewards.get(ub);
-					cumRewardsDis[d][1][c]=curCum.get(lb); cumRewardsDis[d][2][c]=curCum.get(ub);
+					cycleRewardsDis[d][1][c]=curVals[lb]; cycleRewardsDis[d][2][c]=curVals[ub];
+					cumRewardsDis[d][1][c]=curCum[lb]; cumRewardsDis[d][2][c]=curCum[ub];
 				}
 			}
 		}
@@ -244,6 +261,31 @@ public class MarkovTraceSummary{
 		
 	}
 
+	private int getNumCycles(int t){
+		if(archive!=null){return(archive.getNumCycles(t));}
+		return(traces[t].cycles.size());
+	}
+	
+	//series indices, in trace archive order
+	private int cycleIndex(int d){return(numStates+d);}
+	private int cumIndex(int d){return(numStates+numDim+d);}
+	private int cycleDisIndex(int d){return(numStates+2*numDim+d);}
+	private int cumDisIndex(int d){return(numStates+3*numDim+d);}
+	
+	private double get(int t, int series, int c){
+		if(archive!=null){return(archive.get(t, series, c));}
+		MarkovTrace trace=traces[t];
+		if(series<numStates){return(trace.prev[series].get(c));}
+		series-=numStates;
+		int d=series%numDim;
+		switch(series/numDim){
+		case 0: return(trace.cycleRewards[d].get(c));
+		case 1: return(trace.cumRewards[d].get(c));
+		case 2: return(trace.cycleRewardsDis[d].get(c));
+		default: return(trace.cumRewardsDis[d].get(c));
+		}
+	}
+
 	private int[] getBoundIndices(double dNum){
 		int num=(int)dNum;
 		int lb=(int) Math.round(0.025*num)-1;
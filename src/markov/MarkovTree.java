@@ -20,12 +20,14 @@ package markov;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import base.AmuaModel;
+import base.ModelDependencies;
 import main.CEAHelper;
 import main.Console;
 import main.DimInfo;
@@ -51,7 +53,8 @@ public class MarkovTree{
 		
 	@XmlTransient public boolean showEV=false;
 	@XmlTransient boolean validProbs;
-	@XmlTransient ArrayList<String> errors;
+	@XmlTransient ArrayList<Integer> parseOrder; //node indices in the order they were parsed
+	@XmlTransient ArrayList<MarkovNode> termNodes; //chains whose termination conditions were checked
 	@XmlTransient public AmuaModel myModel;
 	
 	//Constructor
@@ -117,6 +120,19 @@ public class MarkovTree{
 		return(copy);
 	}
 
+	/**
+	 * Re-points the tree and its nodes to a model (e.g. a copy of the model without a panel)
+	 * @param model
+	 */
+	public void setModel(AmuaModel model){
+		myModel=model;
+		for(int i=0; i<nodes.size(); i++){
+			MarkovNode curNode=nodes.get(i);
+			curNode.myModel=model;
+			curNode.tree=this;
+		}
+	}
+
 	/**
 	 * Parse text entries and ensure tree inputs are plausible.
 	 * @return ArrayList of error messages
@@ -124,21 +140,21 @@ public class MarkovTree{
 	public ArrayList<String> parseTree(){
 		myModel.validateParamsVars(); 
 		
-		errors=new ArrayList<String>();
+		parseOrder=new ArrayList<Integer>();
+		termNodes=new ArrayList<MarkovNode>();
 		//Initialize root
 		MarkovNode root=nodes.get(0);
 		root.curCosts=new double[myModel.dimInfo.dimNames.length];
 		
 		//Parse tree inputs and variables
-		validProbs=true;
 		int numChildren=root.childIndices.size(); //Exclude root node
 		for(int i=0; i<numChildren; i++){
 			int childIndex=root.childIndices.get(i);
-			MarkovNode child=nodes.get(childIndex);
-			parseNode(child);
+			parseNode(childIndex);
 		}
 
 		//Ensure probabilities sum to 1.0
+		validProbs=checkValidProbs();
 		if(validProbs){
 			for(int i=0; i<numChildren; i++){
 				int childIndex=root.childIndices.get(i);
@@ -147,41 +163,140 @@ public class MarkovTree{
 			}
 			//check termination conditions
 			for(int i=1; i<nodes.size(); i++){
-				checkTerminationCondition(nodes.get(i));
+				MarkovNode curNode=nodes.get(i);
+				if(curNode.type==1){
+					termNodes.add(curNode);
+					checkTerminationCondition(curNode);
+				}
 			}
 		}
-
-		return(errors);
+		if(myModel.dependencies!=null){myModel.dependencies.complete=validProbs;}
+		return(getErrors());
 	}
 	
 	public ArrayList<String> parseChain(MarkovNode chainRoot){
 		myModel.validateParamsVars();
-		errors=new ArrayList<String>();
+		parseOrder=new ArrayList<Integer>();
+		termNodes=new ArrayList<MarkovNode>();
 		//Parse chain inputs and variables
-		validProbs=true;
-		parseNode(chainRoot);
+		parseNode(nodes.indexOf(chainRoot));
 		//Ensure probabilities sum to 1.0
+		validProbs=checkValidProbs();
 		if(validProbs){
 			checkProbs(chainRoot);
+			termNodes.add(chainRoot);
 			checkTerminationCondition(chainRoot);
 		}
-		return(errors);
+		if(myModel.dependencies!=null){myModel.dependencies.complete=validProbs;}
+		return(getErrors());
+	}
+	
+	/**
+	 * Re-validates only the nodes that depend on changed parameters, the probability sums of their parents, and affected termination conditions.
+	 * Assumes the tree structure hasn't changed since the last call to parseTree() or parseChain().
+	 * @param changed Changed parameters (see ModelDependencies)
+	 * @return ArrayList of error messages
+	 */
+	public ArrayList<String> revalidate(BitSet changed){
+		int size=nodes.size();
+		int numParsed=parseOrder.size();
+		boolean reparse[]=new boolean[size];
+		boolean recheck[]=new boolean[size]; //parents to re-sum
+		for(int i=0; i<numParsed; i++){
+			int index=parseOrder.get(i);
+			if(nodes.get(index).paramDeps.intersects(changed)){reparse[index]=true;}
+		}
+		for(int i=0; i<numParsed; i++){
+			int index=parseOrder.get(i);
+			MarkovNode curNode=nodes.get(index);
+			if(curNode.type!=0){
+				for(int c=0; c<curNode.numChildren; c++){
+					if(reparse[curNode.childIndices.get(c)]){recheck[index]=true;}
+				}
+			}
+		}
+		for(int i=0; i<numParsed; i++){
+			int index=parseOrder.get(i);
+			if(recheck[index]){ //re-parse siblings to reset complementary probs and highlights
+				MarkovNode curNode=nodes.get(index);
+				for(int c=0; c<curNode.numChildren; c++){
+					reparse[curNode.childIndices.get(c)]=true;
+				}
+			}
+		}
+		for(int i=0; i<numParsed; i++){
+			int index=parseOrder.get(i);
+			if(reparse[index]){validateNode(nodes.get(index));}
+		}
+		
+		validProbs=checkValidProbs();
+		if(validProbs){
+			for(int i=0; i<numParsed; i++){
+				int index=parseOrder.get(i);
+				if(recheck[index]){checkSum(nodes.get(index));}
+			}
+			for(int i=0; i<termNodes.size(); i++){
+				MarkovNode curNode=termNodes.get(i);
+				if(curNode.termDeps.intersects(changed)){checkTerminationCondition(curNode);}
+			}
+		}
+		myModel.dependencies.complete=validProbs;
+		return(getErrors());
 	}
 
-	private void parseNode(MarkovNode curNode){
+	private void parseNode(int index){
+		MarkovNode curNode=nodes.get(index);
+		parseOrder.add(index);
+		curNode.sumErrors=null;
+		ModelDependencies dependencies=myModel.dependencies;
+		if(dependencies!=null){
+			curNode.paramDeps=getDependencies(curNode,dependencies);
+			if(curNode.type==1){curNode.termDeps=dependencies.getDependencies(curNode.terminationCondition);}
+		}
+		validateNode(curNode);
+		
+		curNode.numChildren=curNode.childIndices.size();
+		curNode.children=new MarkovNode[curNode.numChildren];
+		for(int c=0; c<curNode.numChildren; c++){
+			int childIndex=curNode.childIndices.get(c);
+			MarkovNode child=nodes.get(childIndex);
+			curNode.children[c]=child; //get pointer to child
+			parseNode(childIndex);
+		}
+	}
+	
+	private BitSet getDependencies(MarkovNode curNode, ModelDependencies dependencies){
+		BitSet deps=new BitSet();
+		if(curNode.parentType!=0){deps.or(dependencies.getDependencies(curNode.prob));}
+		for(int c=0; c<myModel.dimInfo.dimNames.length; c++){
+			if(curNode.type!=2){deps.or(dependencies.getDependencies(curNode.cost[c]));}
+			else{deps.or(dependencies.getDependencies(curNode.rewards[c]));}
+		}
+		if(curNode.type!=1 && curNode.hasVarUpdates){deps.or(dependencies.getDependencies(curNode.varUpdates));}
+		return(deps);
+	}
+	
+	/**
+	 * Validates the probability, transition, costs/rewards, and variable updates of a node
+	 * @param curNode
+	 */
+	private void validateNode(MarkovNode curNode){
+		ArrayList<String> errors=new ArrayList<String>();
+		curNode.nodeErrors=errors;
+		curNode.validProb=true;
 		if(curNode.parentType!=0){ //Validate probability
 			curNode.highlightTextField(0,null); //Prob
-			if(curNode.prob.matches("C") || curNode.prob.matches("c")){curNode.curProb=-1;} //Complementary
+			if(curNode.prob.equalsIgnoreCase("C")){curNode.curProb=-1;} //Complementary
 			else{ //Evaluate text
 				try{
 					curNode.curProb=Interpreter.evaluate(curNode.prob, myModel,false).getDouble();
 				}catch(Exception e){
-					validProbs=false;
+					curNode.validProb=false;
 					curNode.highlightTextField(0, Color.YELLOW); //Prob
 					errors.add("Node "+curNode.name+": Probability Error ("+curNode.prob+")");
 				}
 				if(curNode.curProb<0 || curNode.curProb>1 || Double.isNaN(curNode.curProb)){
-					validProbs=false;
+					curNode.validProb=false;
 					curNode.highlightTextField(0, Color.YELLOW); //Prob
 					errors.add("Node "+curNode.name+": Probability Error ("+curNode.prob+")");
 				}
@@ -194,12 +309,16 @@ public class MarkovTree{
 			}
 		}
 		else{ //Transition, validate next state
-			curNode.comboTransition.setBackground(new Color(0,0,0,0));
-			curNode.comboTransition.setBorder(null);
+			if(curNode.comboTransition!=null){ //displayed
+				curNode.comboTransition.setBackground(new Color(0,0,0,0));
+				curNode.comboTransition.setBorder(null);
+			}
 			int index=curNode.chain.stateNames.indexOf(curNode.transition);
 			if(index==-1){
-				curNode.comboTransition.setBackground(Color.YELLOW);
-				curNode.comboTransition.setBorder(null);
+				if(curNode.comboTransition!=null){
+					curNode.comboTransition.setBackground(Color.YELLOW);
+					curNode.comboTransition.setBorder(null);
+				}
 				errors.add("Node "+curNode.name+": State Transition not found ("+curNode.transition+")");
 			}
 		}
@@ -261,72 +380,75 @@ public class MarkovTree{
 				}
 			}
 		}
-		
-		curNode.numChildren=curNode.childIndices.size();
-		curNode.children=new MarkovNode[curNode.numChildren];
-		for(int c=0; c<curNode.numChildren; c++){
+	}
+	
+	private void checkProbs(MarkovNode curNode){
+		if(curNode.type!=0){ //Not decision node
+			checkSum(curNode);
+		}
+		int numChildren=curNode.childIndices.size();
+		curNode.curChildProbs=new double[numChildren];
+		for(int c=0; c<numChildren; c++){
 			int childIndex=curNode.childIndices.get(c);
 			MarkovNode child=nodes.get(childIndex);
-			curNode.children[c]=child; //get pointer to child
-			parseNode(child);
+			checkProbs(child);
 		}
 	}
 	
-	private void checkProbs(MarkovNode curNode){
-		if(curNode.type!=0){ //Not decision node
-			int numChildren=curNode.childIndices.size();
-			if(numChildren>0){
-				double sumProb=0;
-				int numCompProb=0;
-				for(int j=0; j<numChildren; j++){
-					MarkovNode child=nodes.get(curNode.childIndices.get(j));
-					if(child.curProb==-1){numCompProb++;}
-					else{sumProb+=child.curProb;}
-				}
-				if(numCompProb==0){
-					if(sumProb!=1.0){
-						errors.add("Node "+curNode.name+": Probabilities sum to "+sumProb+"!");
-						for(int j=0; j<numChildren; j++){
-							MarkovNode child=nodes.get(curNode.childIndices.get(j));
-							child.highlightTextField(0, Color.YELLOW); //Prob
-						}
+	/**
+	 * Ensures child probabilities of a node sum to 1.0 and calculates the complementary probability
+	 * @param curNode
+	 */
+	private void checkSum(MarkovNode curNode){
+		ArrayList<String> errors=new ArrayList<String>();
+		curNode.sumErrors=errors;
+		int numChildren=curNode.childIndices.size();
+		if(numChildren>0){
+			double sumProb=0;
+			int numCompProb=0;
+			for(int j=0; j<numChildren; j++){
+				MarkovNode child=nodes.get(curNode.childIndices.get(j));
+				if(child.curProb==-1){numCompProb++;}
+				else{sumProb+=child.curProb;}
+			}
+			if(numCompProb==0){
+				if(sumProb!=1.0){
+					errors.add("Node "+curNode.name+": Probabilities sum to "+sumProb+"!");
+					for(int j=0; j<numChildren; j++){
+						MarkovNode child=nodes.get(curNode.childIndices.get(j));
+						child.highlightTextField(0, Color.YELLOW); //Prob
 					}
 				}
-				else if(numCompProb==1){
-					if(sumProb<0 || sumProb>1){
-						errors.add("Node "+curNode.name+": Entered probabilities sum to "+sumProb+"!");
-						for(int j=0; j<numChildren; j++){
-							MarkovNode child=nodes.get(curNode.childIndices.get(j));
-							if(child.curProb!=-1){child.highlightTextField(0, Color.YELLOW);} //Entered prob
-						}
-					}
-					else{ //Calculate complementary prob
-						for(int j=0; j<numChildren; j++){
-							MarkovNode child=nodes.get(curNode.childIndices.get(j));
-							if(child.curProb==-1){child.curProb=1.0-sumProb;}
-						}
+			}
+			else if(numCompProb==1){
+				if(sumProb<0 || sumProb>1){
+					errors.add("Node "+curNode.name+": Entered probabilities sum to "+sumProb+"!");
+					for(int j=0; j<numChildren; j++){
+						MarkovNode child=nodes.get(curNode.childIndices.get(j));
+						if(child.curProb!=-1){child.highlightTextField(0, Color.YELLOW);} //Entered prob
 					}
 				}
-				else{ //2+ comp probs
-					errors.add("Node "+curNode.name+": At most 1 probability can be complementary!");
+				else{ //Calculate complementary prob
 					for(int j=0; j<numChildren; j++){
 						MarkovNode child=nodes.get(curNode.childIndices.get(j));
-						if(child.curProb==-1){child.highlightTextField(0, Color.YELLOW);} //Comp. prob
+						if(child.curProb==-1){child.curProb=1.0-sumProb;}
 					}
 				}
 			}
-		}
-		int numChildren=curNode.childIndices.size();
-		curNode.curChildProbs=new double[numChildren];
-		for(int c=0; c<numChildren; c++){
-			int childIndex=curNode.childIndices.get(c);
-			MarkovNode child=nodes.get(childIndex);
-			checkProbs(child);
+			else{ //2+ comp probs
+				errors.add("Node "+curNode.name+": At most 1 probability can be complementary!");
+				for(int j=0; j<numChildren; j++){
+					MarkovNode child=nodes.get(curNode.childIndices.get(j));
+					if(child.curProb==-1){child.highlightTextField(0, Color.YELLOW);} //Comp. prob
+				}
+			}
 		}
 	}
 	
 	private void checkTerminationCondition(MarkovNode curNode){
 		if(curNode.type==1){ //Chain, check termination condition
+			ArrayList<String> errors=new ArrayList<String>();
+			curNode.termErrors=errors;
 			try{
 				//Initialize trace
 				myModel.traceMarkov=new MarkovTrace(curNode);
@@ -349,6 +471,35 @@ public class MarkovTree{
 		}
 	}
 	
+	private boolean checkValidProbs(){
+		for(int i=0; i<parseOrder.size(); i++){
+			if(nodes.get(parseOrder.get(i)).validProb==false){return(false);}
+		}
+		return(true);
+	}
+	
+	/**
+	 * Collects node errors in parse order, followed by probability sum and termination condition errors if all probabilities are valid
+	 * @return
+	 */
+	private ArrayList<String> getErrors(){
+		ArrayList<String> errors=new ArrayList<String>();
+		int numParsed=parseOrder.size();
+		for(int i=0; i<numParsed; i++){
+			errors.addAll(nodes.get(parseOrder.get(i)).nodeErrors);
+		}
+		if(validProbs){
+			for(int i=0; i<numParsed; i++){
+				MarkovNode curNode=nodes.get(parseOrder.get(i));
+				if(curNode.sumErrors!=null){errors.addAll(curNode.sumErrors);}
+			}
+			for(int i=0; i<termNodes.size(); i++){
+				errors.addAll(termNodes.get(i).termErrors);
+			}
+		}
+		return(errors);
+	}
+	
 	/**
 	 * Run all Markov chains
 	 * @param display
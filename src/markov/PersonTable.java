@@ -0,0 +1,134 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package markov;
+
+import math.Numeric;
+import math.NumericException;
+
+/**
+ * Individual state for Monte Carlo simulation stored as primitive columns, one row per person.
+ * Variable values keep their type (integer, double, boolean) per row.  Matrix values are stored as objects for that variable only.
+ * Expressions read and update the row selected by the thread's Cursor (see AmuaModel.bindThreadRow).
+ */
+public class PersonTable{
+	public static final byte INTEGER=0, DOUBLE=1, BOOL=2, MATRIX=3;
+
+	public int numPeople, numVariables;
+	/**
+	 * Current state index [Person]
+	 */
+	public int state[];
+	double values[][]; //[Variable][Person]
+	byte formats[][]; //[Variable][Person]
+	Numeric objects[][]; //[Variable][Person], only allocated for variables with matrix values (before workers start, not resized later)
+
+	/**
+	 * Row selected for expression evaluation on a thread.  Row -1 reads the model's Variable values
+	 */
+	public static class Cursor{
+		public PersonTable table;
+		public int row=-1;
+
+		public Cursor(PersonTable table){
+			this.table=table;
+		}
+	}
+
+	/**
+	 * @param numPeople
+	 * @param numVariables
+	 * @param objectColumns Variables that may hold matrix values, their object columns are allocated up front
+	 */
+	public PersonTable(int numPeople, int numVariables, boolean objectColumns[]){
+		this.numPeople=numPeople;
+		this.numVariables=numVariables;
+		state=new int[numPeople];
+		values=new double[numVariables][numPeople];
+		formats=new byte[numVariables][numPeople];
+		objects=new Numeric[numVariables][];
+		for(int v=0; v<numVariables; v++){
+			if(objectColumns[v]){objects[v]=new Numeric[numPeople];}
+		}
+	}
+
+	/**
+	 * Returns a new Numeric holding the value of a variable for a person
+	 * @param var
+	 * @param row
+	 * @return
+	 */
+	public Numeric get(int var, int row){
+		switch(formats[var][row]){
+		case INTEGER: return(new Numeric((int)values[var][row]));
+		case DOUBLE: return(new Numeric(values[var][row]));
+		case BOOL: return(new Numeric(values[var][row]!=0));
+		default: return(objects[var][row]);
+		}
+	}
+
+	public byte getFormat(int var, int row){
+		return(formats[var][row]);
+	}
+
+	/**
+	 * Raw column value for a non-matrix format (booleans are stored as 1/0)
+	 * @param var
+	 * @param row
+	 * @return
+	 */
+	public double getValue(int var, int row){
+		return(values[var][row]);
+	}
+
+	public double getDouble(int var, int row) throws NumericException{
+		byte format=formats[var][row];
+		if(format==INTEGER || format==DOUBLE){return(values[var][row]);}
+		if(format==BOOL){throw(new NumericException("Matrix type, not real number","Numeric"));} //same as Numeric.getDouble()
+		return(objects[var][row].getDouble()); //not a number, same error as Numeric
+	}
+
+	public void setInt(int var, int row, int value){
+		formats[var][row]=INTEGER; values[var][row]=value;
+		if(objects[var]!=null){objects[var][row]=null;} //release old matrix
+	}
+
+	public void setDouble(int var, int row, double value){
+		formats[var][row]=DOUBLE; values[var][row]=value;
+		if(objects[var]!=null){objects[var][row]=null;} //release old matrix
+	}
+
+	public void set(int var, int row, Numeric value) throws NumericException{
+		if(value.isInteger()){
+			formats[var][row]=INTEGER; values[var][row]=value.getInt();
+		}
+		else if(value.isDouble()){
+			formats[var][row]=DOUBLE; values[var][row]=value.getDouble();
+		}
+		else if(value.isBoolean()){
+			formats[var][row]=BOOL; values[var][row]=value.getBool() ? 1 : 0;
+		}
+		else{
+			if(objects[var]==null){ //columns are shared by worker threads so can't be allocated here
+				throw(new NumericException("Matrix value for scalar variable","PersonTable"));
+			}
+			formats[var][row]=MATRIX; objects[var][row]=value;
+		}
+		if(formats[var][row]!=MATRIX && objects[var]!=null){objects[var][row]=null;} //release old matrix
+	}
+}
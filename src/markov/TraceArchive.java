@@ -0,0 +1,205 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import base.AmuaModel;
+
+/**
+ * Binary archive of Markov traces for one chain, written during a run and read back through memory-mapped buffers.
+ * Each record is an 8-byte header (number of cycles) followed by one fixed-width column of doubles per series:
+ * state prevalence, cycle rewards, cumulative rewards, and (if discounted) discounted cycle and cumulative rewards.
+ * All values are 8-byte aligned so no value spans two mapped chunks.
+ */
+public class TraceArchive{
+	static final int MAGIC=0x414D5452; //AMTR
+	static final int VERSION=1;
+	static final int HEADER_BYTES=24;
+	static final int CHUNK_BITS=30; //1 GB mapped chunks
+	static final long CHUNK_MASK=(1L<<CHUNK_BITS)-1;
+
+	File file;
+	RandomAccessFile raf;
+	FileChannel channel;
+	long position;
+	boolean headerWritten;
+	MappedByteBuffer chunks[];
+
+	//trace info
+	public String traceName;
+	AmuaModel myModel;
+	int numStates;
+	String stateNames[];
+	int numDim;
+	String dimSymbols[], dimNames[];
+	boolean discounted;
+	int numSeries;
+
+	//record index
+	public int numTraces;
+	long offsets[];
+	int numCycles[];
+
+	//Constructor
+	public TraceArchive(File file) throws IOException{
+		this.file=file;
+		raf=new RandomAccessFile(file,"rw");
+		raf.setLength(0);
+		channel=raf.getChannel();
+		position=HEADER_BYTES;
+		offsets=new long[16];
+		numCycles=new int[16];
+	}
+
+	/**
+	 * Creates an archive in a temporary file that is deleted on close (or exit)
+	 * @return
+	 * @throws IOException
+	 */
+	public static TraceArchive createTemp() throws IOException{
+		File file=File.createTempFile("amua_trace", ".bin");
+		file.deleteOnExit();
+		return(new TraceArchive(file));
+	}
+
+	/**
+	 * Appends a trace.  Safe to call from multiple threads
+	 * @param trace
+	 * @throws IOException
+	 */
+	public void append(MarkovTrace trace) throws IOException{
+		if(chunks!=null){throw new IOException("Trace archive is read-only");}
+		synchronized(this){
+			if(headerWritten==false){writeHeader(trace);}
+		}
+		int cycles=trace.cycles.size();
+		ByteBuffer buf=ByteBuffer.allocate(8+numSeries*cycles*8);
+		buf.order(ByteOrder.nativeOrder());
+		buf.putInt(cycles); buf.putInt(0);
+		for(int s=0; s<numStates; s++){putSeries(buf,trace.prev[s],cycles);}
+		for(int d=0; d<numDim; d++){putSeries(buf,trace.cycleRewards[d],cycles);}
+		for(int d=0; d<numDim; d++){putSeries(buf,trace.cumRewards[d],cycles);}
+		if(discounted){
+			for(int d=0; d<numDim; d++){putSeries(buf,trace.cycleRewardsDis[d],cycles);}
+			for(int d=0; d<numDim; d++){putSeries(buf,trace.cumRewardsDis[d],cycles);}
+		}
+		buf.flip();
+
+		synchronized(this){
+			if(numTraces==offsets.length){ //grow index
+				long growOffsets[]=new long[numTraces*2];
+				int growCycles[]=new int[numTraces*2];
+				System.arraycopy(offsets, 0, growOffsets, 0, numTraces);
+				System.arraycopy(numCycles, 0, growCycles, 0, numTraces);
+				offsets=growOffsets; numCycles=growCycles;
+			}
+			offsets[numTraces]=position;
+			numCycles[numTraces]=cycles;
+			numTraces++;
+			long pos=position;
+			while(buf.hasRemaining()){
+				pos+=channel.write(buf, pos);
+			}
+			position=pos;
+		}
+	}
+
+	private void putSeries(ByteBuffer buf, TraceSeries series, int cycles){
+		for(int c=0; c<cycles; c++){buf.putDouble(series.values[c]);}
+	}
+
+	private void writeHeader(MarkovTrace trace) throws IOException{
+		traceName=trace.traceName;
+		myModel=trace.myModel;
+		numStates=trace.numStates;
+		stateNames=trace.stateNames;
+		numDim=trace.numDim;
+		dimSymbols=trace.dimSymbols;
+		dimNames=trace.dimNames;
+		discounted=trace.discounted;
+		numSeries=numStates+2*numDim;
+		if(discounted){numSeries+=2*numDim;}
+
+		ByteBuffer buf=ByteBuffer.allocate(HEADER_BYTES);
+		buf.order(ByteOrder.nativeOrder());
+		buf.putInt(MAGIC); buf.putInt(VERSION);
+		buf.putInt(numStates); buf.putInt(numDim);
+		buf.putInt(discounted ? 1 : 0); buf.putInt(0);
+		buf.flip();
+		long pos=0;
+		while(buf.hasRemaining()){
+			pos+=channel.write(buf, pos);
+		}
+		headerWritten=true;
+	}
+
+	/**
+	 * Finishes writing and maps the archive for reading
+	 * @throws IOException
+	 */
+	public synchronized void map() throws IOException{
+		if(chunks!=null){return;}
+		long size=position;
+		int numChunks=(int)((size+CHUNK_MASK)>>>CHUNK_BITS);
+		chunks=new MappedByteBuffer[numChunks];
+		for(int i=0; i<numChunks; i++){
+			long start=((long)i)<<CHUNK_BITS;
+			long length=Math.min(CHUNK_MASK+1, size-start);
+			chunks[i]=channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			chunks[i].order(ByteOrder.nativeOrder());
+		}
+	}
+
+	public int getNumCycles(int t){
+		return(numCycles[t]);
+	}
+
+	/**
+	 * Returns a value from the mapped archive
+	 * @param t Trace
+	 * @param series Series index (prevalence, cycle rewards, cum rewards, discounted cycle rewards, discounted cum rewards)
+	 * @param c Cycle
+	 * @return
+	 */
+	public double get(int t, int series, int c){
+		long pos=offsets[t]+8+(((long)series)*numCycles[t]+c)*8;
+		return(chunks[(int)(pos>>>CHUNK_BITS)].getDouble((int)(pos & CHUNK_MASK)));
+	}
+
+	/**
+	 * Closes and deletes the archive file
+	 */
+	public void close(){
+		try{
+			chunks=null;
+			channel.close();
+			raf.close();
+		} catch(IOException e){
+			//already closed
+		}
+		if(!file.delete()){file.deleteOnExit();} //mapped files may not be deletable until unmapped
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package markov;
+
+/**
+ * Growable column of primitive doubles, one value per cycle
+ */
+public class TraceSeries{
+	double values[];
+	int size;
+
+	//Constructor
+	public TraceSeries(){
+		values=new double[16];
+	}
+
+	public void add(double value){
+		if(size==values.length){
+			double grow[]=new double[size*2];
+			System.arraycopy(values, 0, grow, 0, size);
+			values=grow;
+		}
+		values[size]=value;
+		size++;
+	}
+
+	public double get(int index){
+		if(index<0 || index>=size){throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);}
+		return(values[index]);
+	}
+
+	public void set(int index, double value){
+		if(index<0 || index>=size){throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);}
+		values[index]=value;
+	}
+
+	public int size(){
+		return(size);
+	}
+
+	/**
+	 * Releases unused capacity once the trace is complete
+	 */
+	public void trim(){
+		if(values.length>size){
+			double trimmed[]=new double[size];
+			System.arraycopy(values, 0, trimmed, 0, size);
+			values=trimmed;
+		}
+	}
+
+	public double[] toArray(){
+		double copy[]=new double[size];
+		System.arraycopy(values, 0, copy, 0, size);
+		return(copy);
+	}
+}
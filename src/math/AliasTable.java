@@ -0,0 +1,115 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+/**
+ * Walker/Vose alias table for O(1) sampling from a discrete distribution.
+ * Tables are rebuilt in place so they can be refreshed every cycle without allocating.
+ */
+public final class AliasTable{
+	/**
+	 * Minimum number of outcomes for an alias table to beat a linear scan of cumulative probabilities
+	 */
+	public static final int MIN_SIZE=4;
+
+	int size;
+	double prob[];
+	int alias[];
+	//scratch work lists
+	int small[], large[];
+	double scaled[];
+
+	//Constructor
+	public AliasTable(int size){
+		this.size=size;
+		prob=new double[size];
+		alias=new int[size];
+		small=new int[size];
+		large=new int[size];
+		scaled=new double[size];
+	}
+
+	public int size(){
+		return(size);
+	}
+
+	/**
+	 * Rebuilds the table for the given probabilities (normalized to their sum)
+	 * @param probs
+	 */
+	public void build(double probs[]){
+		for(int i=0; i<size; i++){scaled[i]=probs[i];}
+		buildScaled();
+	}
+
+	/**
+	 * Rebuilds the table from cumulative probabilities
+	 * @param cumProbs
+	 */
+	public void buildCumulative(double cumProbs[]){
+		double prev=0;
+		for(int i=0; i<size; i++){
+			scaled[i]=Math.max(0, cumProbs[i]-prev);
+			prev=cumProbs[i];
+		}
+		buildScaled();
+	}
+
+	private void buildScaled(){
+		double sum=0;
+		for(int i=0; i<size; i++){sum+=scaled[i];}
+		int numSmall=0, numLarge=0;
+		for(int i=0; i<size; i++){
+			scaled[i]=(scaled[i]*size)/sum;
+			if(scaled[i]<1.0){small[numSmall]=i; numSmall++;}
+			else{large[numLarge]=i; numLarge++;}
+		}
+		while(numSmall>0 && numLarge>0){
+			numSmall--; int s=small[numSmall];
+			numLarge--; int l=large[numLarge];
+			prob[s]=scaled[s];
+			alias[s]=l;
+			scaled[l]=(scaled[l]+scaled[s])-1.0;
+			if(scaled[l]<1.0){small[numSmall]=l; numSmall++;}
+			else{large[numLarge]=l; numLarge++;}
+		}
+		//remaining columns are full (up to rounding)
+		while(numLarge>0){
+			numLarge--; int l=large[numLarge];
+			prob[l]=1.0; alias[l]=l;
+		}
+		while(numSmall>0){
+			numSmall--; int s=small[numSmall];
+			prob[s]=1.0; alias[s]=s;
+		}
+	}
+
+	/**
+	 * Returns an outcome using a single uniform draw in [0,1)
+	 * @param rand
+	 * @return
+	 */
+	public int sample(double rand){
+		double x=rand*size;
+		int i=(int)x;
+		if(i>=size){i=size-1;}
+		if(x-i<prob[i]){return(i);}
+		return(alias[i]);
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import java.util.ArrayList;
+
+import base.AmuaModel;
+
+/**
+ * Expression that has been tokenized and converted to Reverse Polish notation once.
+ * Literals are parsed at compile time and model symbols are resolved to list indices, so evaluation
+ * only walks the RPN program.
+ */
+public final class CompiledExpression{
+	public String expression;
+	Token program[];
+	int opcodes[]; //scalar operator codes, -1 for operands
+	int maxStack;
+	boolean matrixValued; //an operand returned a matrix, skip the scalar path
+
+	CompiledExpression(String expression, ArrayList<Token> rpn){
+		this.expression=expression;
+		int numTokens=rpn.size();
+		program=new Token[numTokens];
+		opcodes=new int[numTokens];
+		int depth=0;
+		for(int i=0; i<numTokens; i++){
+			program[i]=rpn.get(i);
+			opcodes[i]=-1;
+			if(program[i].type==Type.OPERATOR){
+				depth--;
+				opcodes[i]=ScalarStack.getOpcode(program[i].word);
+			}
+			else{depth++;}
+			maxStack=Math.max(maxStack, depth);
+		}
+	}
+
+	/**
+	 * Evaluates post-fix program from left to right
+	 * @param myModel
+	 * @param sample
+	 * @return
+	 * @throws Exception
+	 */
+	public Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+		int numTokens=program.length;
+		if(numTokens==1 && program[0].operand==null){ //single literal, return copy so callers can modify it
+			return(program[0].numeric.copy());
+		}
+		return(run(myModel,sample,new Numeric[maxStack],-1,0));
+	}
+
+	/**
+	 * Evaluates the program to a real number without allocating Numeric objects for scalar intermediates.
+	 * Operands are pushed as primitives with their type, so integer, division, and comparison rules match evaluate().
+	 * If an operand returns a matrix the remaining program is finished with Numeric operands.
+	 * @param myModel
+	 * @param sample
+	 * @return
+	 * @throws Exception
+	 */
+	public double evaluateDouble(AmuaModel myModel, boolean sample) throws Exception{
+		if(matrixValued){return(evaluate(myModel,sample).getDouble());}
+		int numTokens=program.length;
+		ScalarStack stack=ScalarStack.get();
+		int base=stack.top;
+		try{
+			for(int i=0; i<numTokens; i++){
+				Token curToken=program[i];
+				if(curToken.type==Type.OPERATOR){
+					stack.apply(opcodes[i]);
+				}
+				else{
+					boolean scalar;
+					if(curToken.operand!=null){scalar=curToken.operand.push(myModel, sample, stack);} //model-dependent operand
+					else{scalar=stack.push(curToken.numeric,false);} //literal
+					if(scalar==false){ //matrix, finish with Numeric operands
+						matrixValued=true;
+						Numeric operands[]=new Numeric[maxStack];
+						int top=-1;
+						for(int s=base+1; s<=stack.top; s++){
+							operands[++top]=stack.toNumeric(s);
+						}
+						operands[++top]=stack.matrix;
+						stack.matrix=null;
+						Numeric result=run(myModel,sample,operands,top,i+1);
+						stack.resultFormat=result.isInteger() ? ScalarStack.INTEGER : ScalarStack.DOUBLE;
+						return(result.getDouble());
+					}
+				}
+			}
+			stack.resultFormat=stack.formats[stack.top];
+			return(stack.getDouble(stack.top));
+		}
+		finally{
+			stack.top=base; //release slots for caller
+		}
+	}
+
+	private Numeric run(AmuaModel myModel, boolean sample, Numeric operands[], int top, int start) throws Exception{
+		int numTokens=program.length;
+		for(int i=start; i<numTokens; i++){
+			Token curToken=program[i];
+			if(curToken.type==Type.OPERATOR){
+				Numeric operand_2=operands[top--];
+				Numeric operand_1=operands[top];
+				operands[top]=Operators.evaluate(curToken.word,operand_1,operand_2);
+			}
+			else if(curToken.operand!=null){ //model-dependent operand
+				operands[++top]=curToken.operand.evaluate(myModel, sample);
+			}
+			else{ //literal
+				operands[++top]=curToken.numeric;
+			}
+		} //end of tokens loop
+		return(operands[top]);
+	}
+
+}
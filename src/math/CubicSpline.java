@@ -38,6 +38,11 @@ public class CubicSpline{
 	 * 0=Natural, 1=Clamped, 2=Not-a-knot, 3=Periodic
 	 */
 	public int boundaryCondition;
+	/**
+	 * Last segment found, checked first since successive queries (e.g. t or age) are usually monotone.
+	 * Shared by threads without locking: it is only a hint and is validated before use
+	 */
+	int lastIndex;
 
 	public CubicSpline(double data[][], int yCol, String boundary){
 		//old(data,yCol);
@@ -205,14 +210,53 @@ public class CubicSpline{
 			}
 		}
 		else{ //Interpolate
-			index=0;
-			while(x>knots[index+1] && index<numSplines-1){index++;}
+			index=findSegment(x);
 			x=x-knots[index];
 			y=splineCoeffs[index][0]+splineCoeffs[index][1]*x+splineCoeffs[index][2]*x*x+splineCoeffs[index][3]*x*x*x;
 		}
 		return(y);
 	}
 	
+	/**
+	 * Evaluates the spline at each x, e.g. for all states in a cycle
+	 * @param xs
+	 * @param out  Results, same length as xs
+	 */
+	public void evaluate(double xs[], double out[]){
+		for(int i=0; i<xs.length; i++){
+			out[i]=evaluate(xs[i]);
+		}
+	}
+	
+	/**
+	 * Returns the segment containing x (knots[0]<=x<=knots[numSplines]): the first spline whose right knot is >= x.
+	 * Checks the cached segment and its right neighbour before a binary search
+	 * @param x
+	 * @return
+	 */
+	private int findSegment(double x){
+		int index=lastIndex;
+		if(index<numSplines && inSegment(x,index)){return(index);}
+		if(index+1<numSplines && inSegment(x,index+1)){
+			lastIndex=index+1;
+			return(index+1);
+		}
+		int lo=0, hi=numSplines-1;
+		while(lo<hi){
+			int mid=(lo+hi)>>>1;
+			if(knots[mid+1]<x){lo=mid+1;}
+			else{hi=mid;}
+		}
+		lastIndex=lo;
+		return(lo);
+	}
+	
+	private boolean inSegment(double x, int index){
+		if(x>knots[index+1] && index<numSplines-1){return(false);} //right of segment
+		if(index>0 && x<=knots[index]){return(false);} //belongs to an earlier segment
+		return(true);
+	}
+	
 	
 
 }
\ No newline at end of file
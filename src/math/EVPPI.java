@@ -0,0 +1,250 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Expected value of (partial) perfect information from stored PSA output.
+ * EVPPI is estimated with a regression metamodel: the net benefit of each strategy is regressed on the sampled parameter values
+ * using an additive model with a restricted cubic spline for each parameter (plus linear interactions for groups),
+ * and the fitted values are used in place of the inner expectation (Strong et al. 2014).
+ */
+public final class EVPPI{
+
+	/**
+	 * Default number of spline knots per parameter
+	 */
+	public static final int DEFAULT_KNOTS=5;
+
+	/**
+	 * Expected value of perfect information
+	 * @param nb Net benefit [Strategy][Iteration]
+	 * @return
+	 */
+	public static double evpi(double nb[][]){
+		return(getValue(nb));
+	}
+
+	/**
+	 * Expected value of partial perfect information for a parameter or group of parameters
+	 * @param nb Net benefit [Strategy][Iteration]
+	 * @param params Sampled parameter values [Parameter][Iteration]
+	 * @param numKnots Number of spline knots per parameter
+	 * @return
+	 */
+	public static double evppi(double nb[][], double params[][], int numKnots){
+		double fitted[][]=fit(nb, params, numKnots);
+		return(getValue(fitted));
+	}
+
+	/**
+	 * Mean of the maximum minus maximum of the means
+	 * @param nb [Strategy][Iteration]
+	 * @return
+	 */
+	private static double getValue(double nb[][]){
+		int numStrat=nb.length;
+		int numIter=nb[0].length;
+		double meanMax=0;
+		double means[]=new double[numStrat];
+		for(int n=0; n<numIter; n++){
+			double max=nb[0][n];
+			for(int s=0; s<numStrat; s++){
+				means[s]+=nb[s][n];
+				max=Math.max(max, nb[s][n]);
+			}
+			meanMax+=max;
+		}
+		meanMax/=(numIter*1.0);
+		double maxMean=means[0];
+		for(int s=1; s<numStrat; s++){maxMean=Math.max(maxMean, means[s]);}
+		maxMean/=(numIter*1.0);
+		return(Math.max(0, meanMax-maxMean));
+	}
+
+	/**
+	 * Fits the regression metamodel for all strategies and returns the fitted values
+	 * @param nb [Strategy][Iteration]
+	 * @param params [Parameter][Iteration]
+	 * @param numKnots
+	 * @return Fitted net benefit [Strategy][Iteration]
+	 */
+	public static double[][] fit(double nb[][], double params[][], int numKnots){
+		int numStrat=nb.length;
+		int numIter=nb[0].length;
+
+		//build design matrix columns
+		double columns[][]=new double[1+params.length*Math.max(1, numKnots-1)+(params.length*(params.length-1))/2][];
+		int numCol=0;
+		double intercept[]=new double[numIter];
+		Arrays.fill(intercept, 1.0);
+		columns[numCol]=intercept; numCol++;
+		double linear[][]=new double[params.length][];
+		for(int p=0; p<params.length; p++){
+			double x[]=standardize(params[p]);
+			if(x!=null){
+				linear[p]=x;
+				columns[numCol]=x; numCol++;
+				double knots[]=getKnots(x, numKnots);
+				for(int j=0; j<knots.length-2; j++){
+					columns[numCol]=getSplineTerm(x, knots, j); numCol++;
+				}
+			}
+		}
+		//linear interactions within a group
+		for(int p=0; p<params.length; p++){
+			for(int q=p+1; q<params.length; q++){
+				if(linear[p]!=null && linear[q]!=null){
+					double xy[]=new double[numIter];
+					for(int n=0; n<numIter; n++){xy[n]=linear[p][n]*linear[q][n];}
+					columns[numCol]=xy; numCol++;
+				}
+			}
+		}
+
+		double fitted[][]=new double[numStrat][numIter];
+		if(numCol==1){ //no informative parameters - fitted values are the means
+			for(int s=0; s<numStrat; s++){
+				double mean=0;
+				for(int n=0; n<numIter; n++){mean+=nb[s][n];}
+				Arrays.fill(fitted[s], mean/(numIter*1.0));
+			}
+			return(fitted);
+		}
+
+		//normal equations X'X b = X'Y
+		double xtx[][]=new double[numCol][numCol];
+		double xty[][]=new double[numCol][numStrat];
+		for(int i=0; i<numCol; i++){
+			double ci[]=columns[i];
+			for(int j=i; j<numCol; j++){
+				double cj[]=columns[j];
+				double sum=0;
+				for(int n=0; n<numIter; n++){sum+=ci[n]*cj[n];}
+				xtx[i][j]=sum; xtx[j][i]=sum;
+			}
+			for(int s=0; s<numStrat; s++){
+				double y[]=nb[s];
+				double sum=0;
+				for(int n=0; n<numIter; n++){sum+=ci[n]*y[n];}
+				xty[i][s]=sum;
+			}
+		}
+		//small ridge penalty to keep the system well-conditioned (intercept is not penalized)
+		double maxDiag=0;
+		for(int i=1; i<numCol; i++){maxDiag=Math.max(maxDiag, xtx[i][i]);}
+		for(int i=1; i<numCol; i++){xtx[i][i]+=maxDiag*1E-9;}
+
+		RealMatrix a=MatrixUtils.createRealMatrix(xtx);
+		RealMatrix b=MatrixUtils.createRealMatrix(xty);
+		double coef[][]=new LUDecomposition(a).getSolver().solve(b).getData(); //one decomposition for all strategies
+
+		for(int s=0; s<numStrat; s++){
+			double fit[]=fitted[s];
+			for(int i=0; i<numCol; i++){
+				double beta=coef[i][s];
+				double col[]=columns[i];
+				for(int n=0; n<numIter; n++){fit[n]+=beta*col[n];}
+			}
+		}
+		return(fitted);
+	}
+
+	/**
+	 * Centers and scales x.  Returns null if x is constant or has missing values
+	 * @param x
+	 * @return
+	 */
+	private static double[] standardize(double x[]){
+		int numIter=x.length;
+		double mean=0;
+		for(int n=0; n<numIter; n++){
+			if(Double.isNaN(x[n]) || Double.isInfinite(x[n])){return(null);}
+			mean+=x[n];
+		}
+		mean/=(numIter*1.0);
+		double var=0;
+		for(int n=0; n<numIter; n++){var+=(x[n]-mean)*(x[n]-mean);}
+		var/=(numIter*1.0);
+		if(var<=0){return(null);}
+		double sd=Math.sqrt(var);
+		double z[]=new double[numIter];
+		for(int n=0; n<numIter; n++){z[n]=(x[n]-mean)/sd;}
+		return(z);
+	}
+
+	/**
+	 * Knots at equally spaced quantiles from the 5th to 95th percentile, with duplicates removed
+	 * @param x
+	 * @param numKnots
+	 * @return
+	 */
+	private static double[] getKnots(double x[], int numKnots){
+		if(numKnots<3){return(new double[0]);}
+		double sorted[]=x.clone();
+		Arrays.sort(sorted);
+		int numIter=sorted.length;
+		double knots[]=new double[numKnots];
+		int numUnique=0;
+		for(int k=0; k<numKnots; k++){
+			double q=0.05+0.9*k/((numKnots-1)*1.0);
+			double pos=q*(numIter-1);
+			int lower=(int)Math.floor(pos);
+			int upper=Math.min(lower+1, numIter-1);
+			double curKnot=sorted[lower]+(pos-lower)*(sorted[upper]-sorted[lower]);
+			if(numUnique==0 || curKnot>knots[numUnique-1]){
+				knots[numUnique]=curKnot; numUnique++;
+			}
+		}
+		if(numUnique<3){return(new double[0]);} //linear term only
+		return(Arrays.copyOf(knots, numUnique));
+	}
+
+	/**
+	 * Restricted cubic spline basis term j (linear beyond the boundary knots)
+	 * @param x
+	 * @param knots
+	 * @param j
+	 * @return
+	 */
+	private static double[] getSplineTerm(double x[], double knots[], int j){
+		int numKnots=knots.length;
+		double tK=knots[numKnots-1], tK1=knots[numKnots-2];
+		double scale=(tK-knots[0])*(tK-knots[0]);
+		double wK1=(tK-knots[j])/(tK-tK1);
+		double wK=(tK1-knots[j])/(tK-tK1);
+		int numIter=x.length;
+		double term[]=new double[numIter];
+		for(int n=0; n<numIter; n++){
+			double cur=cube(x[n]-knots[j])-cube(x[n]-tK1)*wK1+cube(x[n]-tK)*wK;
+			term[n]=cur/scale;
+		}
+		return(term);
+	}
+
+	private static double cube(double x){
+		if(x<=0){return(0);}
+		return(x*x*x);
+	}
+}
@@ -22,27 +22,58 @@ import java.util.ArrayList;
 import java.util.Stack;
 
 import base.AmuaModel;
-import main.Parameter;
 import main.Table;
-import main.Variable;
 import math.Distributions;
 
 public final class Interpreter{
 
 	public static Numeric evaluate(String expression,AmuaModel myModel,boolean sample) throws Exception{
-		ArrayList<Token> tokens=tokenize(expression,myModel,sample);
-		/*System.out.println("Tokens:");
-		for(int i=0; i<tokens.size(); i++){
-			System.out.print(tokens.get(i).word+" ");
-		}*/
-		ArrayList<Token> output=shuntTokens(tokens);
-		/*System.out.println("\nOutput:");
-		for(int i=0; i<output.size(); i++){
-			System.out.print(output.get(i).word+" ");
+		CompiledExpression compiled=compile(expression,myModel);
+		return(compiled.evaluate(myModel,sample));
+	}
+	
+	/**
+	 * Evaluates a real-valued expression without allocating Numeric objects for scalar operands (see CompiledExpression.evaluateDouble)
+	 * @param expression
+	 * @param myModel
+	 * @param sample
+	 * @return
+	 * @throws Exception
+	 */
+	public static double evaluateDouble(String expression,AmuaModel myModel,boolean sample) throws Exception{
+		CompiledExpression compiled=compile(expression,myModel);
+		return(compiled.evaluateDouble(myModel,sample));
+	}
+	
+	/**
+	 * Returns true if the last evaluateDouble on this thread produced an integer (to preserve integer types on assignment)
+	 * @return
+	 */
+	public static boolean isIntegerResult(){
+		return(ScalarStack.get().resultFormat==ScalarStack.INTEGER);
+	}
+	
+	/**
+	 * Tokenizes and converts the expression to Reverse Polish notation.  Compiled expressions are cached
+	 * in the model so repeated evaluations (i.e. during simulations) skip parsing.  The cache is cleared once it holds AmuaModel.MAX_COMPILED expressions.
+	 * @param expression
+	 * @param myModel
+	 * @return
+	 * @throws Exception
+	 */
+	public static CompiledExpression compile(String expression,AmuaModel myModel) throws Exception{
+		CompiledExpression compiled=null;
+		if(myModel!=null){compiled=myModel.compiledExpressions.get(expression);}
+		if(compiled==null){
+			ArrayList<Token> tokens=tokenize(expression,myModel);
+			ArrayList<Token> output=shuntTokens(tokens);
+			compiled=new CompiledExpression(expression,output);
+			if(myModel!=null){
+				if(myModel.compiledExpressions.size()>=AmuaModel.MAX_COMPILED){myModel.compiledExpressions.clear();} //bound the cache, live expressions are recompiled on next use
+				myModel.compiledExpressions.put(expression, compiled);
+			}
 		}
-		System.out.println("\n");*/
-		Numeric result=evaluateResult(output);
-		return(result);
+		return(compiled);
 	}
 	
 	public static String[] splitArgs(String strArgs){
@@ -116,6 +147,20 @@ public final class Interpreter{
 		return(new Numeric(matrix));
 	}
 	
+	private static Operand compileMatrix(String strMatrix, AmuaModel myModel) throws Exception{
+		//Get dimensions
+		String rows[];
+		if(strMatrix.contains("[")){rows=splitRows(strMatrix);}
+		else{rows=new String[]{strMatrix};}
+		int nrow=rows.length;
+		int ncol=rows[0].split(",").length;
+		CompiledExpression entries[][]=new CompiledExpression[nrow][];
+		for(int i=0; i<nrow; i++){
+			entries[i]=Operand.compileArgs(splitArgs(rows[i]),myModel);
+		}
+		return(new Operand.MatrixOperand(ncol,entries));
+	}
+
 	public static int findRightParen(String curExpr, int pos){
 		int index=-1;
 		boolean found=false;
@@ -152,7 +197,7 @@ public final class Interpreter{
 		return(index);
 	}
 	
-	private static ArrayList<Token> tokenize(String expression,AmuaModel myModel,boolean sample) throws Exception{
+	private static ArrayList<Token> tokenize(String expression,AmuaModel myModel) throws Exception{
 		ArrayList<Token> tokens=new ArrayList<Token>();
 		String curExpr=expression.replace(" ",""); //remove whitespace
 		curExpr=curExpr.replace('−', '-'); //convert long dashes to short dashes
@@ -167,55 +212,25 @@ public final class Interpreter{
 						if(Functions.isFunction(word)){ //Function
 							int close=findRightParen(curExpr,pos);
 							String args=curExpr.substring(pos+1,close);
-							Numeric argsNumeric[]=evalArgs(args,myModel,sample);
-							Numeric fxResult=Functions.evaluate(word, argsNumeric);
-							tokens.add(new Token(fxResult));
+							CompiledExpression argsCompiled[]=Operand.compileArgs(splitArgs(args),myModel);
+							tokens.add(new Token(new Operand.FunctionOperand(word,false,argsCompiled)));
 							off=(close+1)-pos;
 						}
 						else if(MatrixFunctions.isFunction(word)){ //Matrix Function
 							int close=findRightParen(curExpr,pos);
 							String args=curExpr.substring(pos+1,close);
-							Numeric argsNumeric[]=evalArgs(args,myModel,sample);
-							Numeric fxResult=MatrixFunctions.evaluate(word, argsNumeric);
-							tokens.add(new Token(fxResult));
+							CompiledExpression argsCompiled[]=Operand.compileArgs(splitArgs(args),myModel);
+							tokens.add(new Token(new Operand.FunctionOperand(word,true,argsCompiled)));
 							off=(close+1)-pos;
 						}
 						else if(Distributions.isDistribution(word)){ //Distribution
 							int close=findRightParen(curExpr,pos);
 							String params[]=splitArgs(curExpr.substring(pos+1,close));
-							int numParams=params.length;
-							int df=-1;
-							if(params[numParams-1].equals("~")){df=-1; numParams--;}
-							else if(params[numParams-1].equals("f")){df=0; numParams--;}
-							else if(params[numParams-1].equals("F")){df=1; numParams--;}
-							else if(params[numParams-1].equals("Q")){df=2; numParams--;}
-							else if(params[numParams-1].equals("E")){df=3; numParams--;}
-							else if(params[numParams-1].equals("V")){df=4; numParams--;}
-							else{throw new NumericException("Invalid parameter \""+params[numParams-1]+"\"",word);}
-							
-							Numeric paramsEval[]=new Numeric[numParams];
-							for(int i=0; i<numParams; i++){paramsEval[i]=evaluate(params[i], myModel,sample);}
-														
-							Numeric distResult;
-							if(sample==false){
-								distResult=Distributions.evaluate(word,paramsEval,df);
-							}
-							else{ //sample is true
-								if(df!=-1){ //not a random variable
-									distResult=Distributions.evaluate(word,paramsEval,df);
-								}
-								else{ //see if can sample
-									if(myModel.curGenerator!=null){ //RNG available
-										double rand=myModel.curGenerator.nextDouble();
-										distResult=Distributions.sample(word,paramsEval,rand,myModel.curGenerator);
-									}
-									else{ //no RNG, shouldn't sample
-										distResult=Distributions.evaluate(word,paramsEval,df);
-									}
-								}
-							}
-														
-							tokens.add(new Token(distResult));
+							int df=Operand.getDistDf(params,word);
+							String distParams[]=new String[params.length-1];
+							for(int i=0; i<distParams.length; i++){distParams[i]=params[i];}
+							CompiledExpression paramsCompiled[]=Operand.compileArgs(distParams,myModel);
+							tokens.add(new Token(new Operand.DistributionOperand(word,df,paramsCompiled)));
 							off=(close+1)-pos;
 						}
 						else if(myModel!=null && myModel.isTable(word)){ //Table
@@ -224,45 +239,16 @@ public final class Interpreter{
 							String tableType=curTable.type;
 							if(tableType.equals("Distribution")){
 								int close=findRightParen(curExpr,pos);
-								
 								String params[]=splitArgs(curExpr.substring(pos+1,close));
-								int numParams=params.length;
-								int df=-1;
-								if(params[numParams-1].equals("~")){df=-1; numParams--;}
-								else if(params[numParams-1].equals("f")){df=0; numParams--;}
-								else if(params[numParams-1].equals("F")){df=1; numParams--;}
-								else if(params[numParams-1].equals("Q")){df=2; numParams--;}
-								else if(params[numParams-1].equals("E")){df=3; numParams--;}
-								else if(params[numParams-1].equals("V")){df=4; numParams--;}
-								else{throw new NumericException("Invalid parameter \""+params[numParams-1]+"\"",word);}
-								
-								Numeric distResult;
-								if(sample==false){
-									distResult=curTable.evaluateDist(params,df);
-								}
-								else{ //sample is true
-									if(df!=-1){ //not a random variable
-										distResult=curTable.evaluateDist(params,df);
-									}
-									else{ //see if can sample
-										if(myModel.curGenerator!=null){ //RNG available
-											double rand=myModel.curGenerator.nextDouble();
-											double val=curTable.sample(params,rand);
-											distResult=new Numeric(val);
-										}
-										else{ //no RNG, shouldn't sample
-											distResult=curTable.evaluateDist(params,df);
-										}
-									}
-								}
-								
-								tokens.add(new Token(distResult));
+								Operand.TableOperand dist=new Operand.TableOperand(Operand.TableOperand.DIST,word,tableIndex,false,params);
+								dist.df=Operand.getDistDf(params,word);
+								tokens.add(new Token(dist));
 								off=(close+1)-pos;
 							}
 						}
 						else{
-							tokens.add(new Token(word,Type.NUMERIC,myModel,sample));
-							tokens.add(new Token("(",Type.PAREN_LEFT,myModel,sample));
+							tokens.add(new Token(word,Type.NUMERIC,myModel));
+							tokens.add(new Token("(",Type.PAREN_LEFT,myModel));
 						}
 						endWord=true;
 						if(off<curExpr.length()-1){curExpr=curExpr.substring(pos+off);}
@@ -270,7 +256,7 @@ public final class Interpreter{
 						
 					}
 					else{
-						tokens.add(new Token("(",Type.PAREN_LEFT,myModel,sample));
+						tokens.add(new Token("(",Type.PAREN_LEFT,myModel));
 						endWord=true;
 						curExpr=curExpr.substring(pos+1);
 					}
@@ -291,19 +277,15 @@ public final class Interpreter{
 							if(tableType.equals("Lookup")){
 								int close=findRightBracket(curExpr,pos);
 								String args[]=splitArgs(curExpr.substring(pos+1,close));
-								Numeric index=evaluate(args[0],myModel,sample);
-								Numeric val=new Numeric(curTable.getLookupValue(index.getDouble(), args[1]));
-								if(negate){val.negate();}
-								tokens.add(new Token(val));
+								Operand.TableOperand lookup=new Operand.TableOperand(Operand.TableOperand.LOOKUP,word,tableIndex,negate,args);
+								lookup.lookupIndex=compile(args[0],myModel);
+								tokens.add(new Token(lookup));
 								off=(close+1)-pos;
 							}
 							else if(tableType.equals("Matrix")){
 								int close=findRightBracket(curExpr,pos);
 								String args[]=splitArgs(curExpr.substring(pos+1,close));
-								Numeric matrix=new Numeric(curTable.data);
-								Numeric mat=matrix.getMatrixValue(args, myModel);
-								if(negate){mat.negate();}
-								tokens.add(new Token(mat));
+								tokens.add(new Token(new Operand.TableOperand(Operand.TableOperand.MATRIX_INDEX,word,tableIndex,negate,args)));
 								off=(close+1)-pos;
 							}
 						}
@@ -314,36 +296,21 @@ public final class Interpreter{
 								throw new NumericException("Invalid trace arguments","trace");
 								//throw error
 							}
-							Numeric trace=myModel.traceMarkov.getValue(args[0],args[1]);
-							if(negate){trace.negate();}
-							tokens.add(new Token(trace));
+							tokens.add(new Token(new Operand.TraceOperand(args[0],args[1],negate,myModel)));
 							off=(close+1)-pos;
 						}
 						else if(myModel!=null && myModel.isParameter(word)){ //Parameter matrix
 							int paramIndex=myModel.getParameterIndex(word);
-							Parameter curParam=myModel.parameters.get(paramIndex);
-							if(curParam.locked==false){
-								curParam.value=Interpreter.evaluate(curParam.expression,myModel,sample);
-								if(sample){curParam.locked=true;}
-							}
 							int close=findRightBracket(curExpr,pos);
 							String args[]=splitArgs(curExpr.substring(pos+1,close));
-							Numeric mat=curParam.value.getMatrixValue(args,myModel);
-							if(negate){mat.negate();}
-							tokens.add(new Token(mat));
+							tokens.add(new Token(new Operand.ParameterOperand(word,paramIndex,negate,args)));
 							off=(close+1)-pos;
 						}
 						else if(myModel!=null && myModel.isVariable(word)){ //Variable matrix
 							int varIndex=myModel.getVariableIndex(word);
-							Variable curVar=myModel.variables.get(varIndex);
-							if(curVar.value==null){ //not initialized
-								curVar.value=Interpreter.evaluate(curVar.initValue,myModel,sample);
-							}
 							int close=findRightBracket(curExpr,pos);
 							String args[]=splitArgs(curExpr.substring(pos+1,close));
-							Numeric mat=curVar.value.getMatrixValue(args,myModel);
-							if(negate){mat.negate();}
-							tokens.add(new Token(mat));
+							tokens.add(new Token(new Operand.VariableOperand(word,varIndex,negate,args)));
 							off=(close+1)-pos;
 						}
 											
@@ -354,8 +321,7 @@ public final class Interpreter{
 					else{ //beginning of word, get matrix values
 						int close=findRightBracket(curExpr,pos);
 						String strMatrix=curExpr.substring(pos+1,close);
-						Numeric matrix=parseMatrix(strMatrix,myModel,sample);
-						tokens.add(new Token(matrix));
+						tokens.add(new Token(compileMatrix(strMatrix,myModel)));
 						curExpr=curExpr.substring(close+1);
 						endWord=true;
 					}
@@ -363,29 +329,29 @@ public final class Interpreter{
 				else if(isCloseParen(curChar)){
 					if(pos>0){ //get preceding word
 						String word=curExpr.substring(0, pos); //get preceding word
-						tokens.add(new Token(word,Type.NUMERIC,myModel,sample));
+						tokens.add(new Token(word,Type.NUMERIC,myModel));
 					}
-					tokens.add(new Token(")",Type.PAREN_RIGHT,myModel,sample));
+					tokens.add(new Token(")",Type.PAREN_RIGHT,myModel));
 					endWord=true;
 					curExpr=curExpr.substring(pos+1);
 				}
 				else if(isOperator1(curChar)){
 					if(pos>0){ //get preceding word
 						String word=curExpr.substring(0, pos);
-						tokens.add(new Token(word,Type.NUMERIC,myModel,sample));
-						tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel,sample));
+						tokens.add(new Token(word,Type.NUMERIC,myModel));
+						tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel));
 						endWord=true;
 						curExpr=curExpr.substring(pos+1);
 					}
 					else{ //first char in string
 						if(curExpr.charAt(0)!='-'){ //not '-'
-							tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel,sample));
+							tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel));
 							endWord=true;
 							curExpr=curExpr.substring(pos+1);
 						}
 						else{ //is '-', check if should be subtraction operator
 							if(isOpenParen(curExpr.charAt(1)) || isOpenBracket(curExpr.charAt(1))){ //followed by ( or [, operator
-								tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel,sample));
+								tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel));
 								endWord=true;
 								curExpr=curExpr.substring(pos+1);
 							}
@@ -393,20 +359,20 @@ public final class Interpreter{
 								if(!tokens.isEmpty()){ //not first token
 									Token prevToken=tokens.get(tokens.size()-1);
 									if(prevToken.type==Type.PAREN_RIGHT || prevToken.type==Type.NUMERIC){ //operator
-										tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel,sample));
+										tokens.add(new Token(curExpr.substring(pos,pos+1),Type.OPERATOR,myModel));
 										endWord=true;
 										curExpr=curExpr.substring(pos+1);
 									}
 									else{ //add 0-
-										/*tokens.add(new Token("0",Type.NUMERIC,myModel,sample));
-										tokens.add(new Token("-",Type.OPERATOR,myModel,sample));
+										/*tokens.add(new Token("0",Type.NUMERIC,myModel));
+										tokens.add(new Token("-",Type.OPERATOR,myModel));
 										endWord=true;
 										curExpr=curExpr.substring(pos+1);*/
 									}
 								}
 								else{ //first token, add 0-
-									/*tokens.add(new Token("0",Type.NUMERIC,myModel,sample));
-									tokens.add(new Token("-",Type.OPERATOR,myModel,sample));
+									/*tokens.add(new Token("0",Type.NUMERIC,myModel));
+									tokens.add(new Token("-",Type.OPERATOR,myModel));
 									endWord=true;
 									curExpr=curExpr.substring(pos+1);*/
 								}
@@ -418,16 +384,16 @@ public final class Interpreter{
 				else if(isOperator2_1(curChar)){
 					if(pos>0){ //get preceding word
 						String word=curExpr.substring(0, pos);
-						tokens.add(new Token(word,Type.NUMERIC,myModel,sample));
+						tokens.add(new Token(word,Type.NUMERIC,myModel));
 					}
 					int off=1;
 					if(curExpr.length()>2 && isOperator2_2(curExpr.substring(pos,pos+2))){off=2;} //check double digit operator
-					tokens.add(new Token(curExpr.substring(pos,pos+off),Type.OPERATOR,myModel,sample));
+					tokens.add(new Token(curExpr.substring(pos,pos+off),Type.OPERATOR,myModel));
 					endWord=true;
 					curExpr=curExpr.substring(pos+off);
 				}
 				else if(pos==curExpr.length()-1){ //end of expression
-					tokens.add(new Token(curExpr,Type.NUMERIC,myModel,sample));
+					tokens.add(new Token(curExpr,Type.NUMERIC,myModel));
 					endWord=true;
 					curExpr=""; //empty
 				}
@@ -497,34 +463,6 @@ public final class Interpreter{
 		return(output);
 	}
 	
-	/**
-	 * Evaluates post-fix expression from left to right
-	 * @param tokens
-	 * @return
-	 * @throws NumericException 
-	 */
-	private static Numeric evaluateResult(ArrayList<Token> tokens) throws NumericException{
-		int numTokens=tokens.size();
-		Stack<Numeric> operands=new Stack<Numeric>();
-		for(int i=0; i<numTokens; i++){
-			Token curToken=tokens.get(i);
-			if(curToken.type==Type.OPERATOR){
-				String operator=curToken.word;
-				Numeric operand_2=operands.pop();
-				Numeric operand_1=operands.pop();
-				Numeric result=Operators.evaluate(operator,operand_1,operand_2);
-				operands.push(result);
-			}
-			else{ //operand
-				Numeric operand=curToken.numeric;
-				operands.push(operand);
-			}
-		} //end of tokens loop
-		Numeric result=operands.pop();
-				
-		return(result);
-	}
-	
 	private static boolean isOpenParen(char ch){
 		return(ch=='('); 
 	}
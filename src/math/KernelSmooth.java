@@ -21,61 +21,214 @@ package math;
 
 import java.util.Arrays;
 
-import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
 
 public final class KernelSmooth{
 	
-	public static double[][] density(double data[], int n){
-		int numX=data.length;
-		double min=data[0], max=data[0];
-		for(int i=0; i<numX; i++){
-			min=Math.min(min, data[i]);
-			max=Math.max(max, data[i]);
-		}
+	/**
+	 * Minimum number of samples per thread before binning is split across threads
+	 */
+	static final int PARALLEL_MIN=1<<16;
+	static final double INV_SQRT_2PI=1.0/Math.sqrt(2*Math.PI);
+	
+	/**
+	 * Gaussian kernel density estimate on an evenly spaced grid.  Samples are linearly binned onto the grid and
+	 * the bin counts are convolved with the kernel by FFT, so the cost is O(numX + n log n) instead of O(numX*n)
+	 * @param data
+	 * @param n  Number of grid points
+	 * @return [x,density][n]
+	 */
+	public static double[][] density(final double data[], int n){
+		final int numX=data.length;
+		//min, max, and moments
+		double stats[]=summarize(data);
+		double min=stats[0], max=stats[1];
 		double range=max-min;
 		min=min-range/10.0; max=max+range/10.0;
 		range=max-min; //update range
-		double nStep=range/((n-1)*1.0);
+		final double nStep=range/((n-1)*1.0);
 		//set up grid
 		double density[][]=new double[2][n];
 		
 		//calculate standard deviation
-		double eX=0, eX2=0;
-		for(int i=0; i<numX; i++){
-			eX+=data[i];
-			eX2+=(data[i]*data[i]);
-		}
-		eX=eX/(numX*1.0);
-		eX2=eX2/(numX*1.0);
+		double eX=stats[2]/(numX*1.0);
+		double eX2=stats[3]/(numX*1.0);
 		double var=eX2-eX*eX;
 		double sd=Math.sqrt(var);
 		double h=(4*Math.pow(sd, 5))/(3.0*n); //bandwidth
 		h=Math.pow(h, 0.2);
 		
-		NormalDistribution norm=new NormalDistribution(null,0,1); //standard normal
+		for(int i=0; i<n; i++){density[0][i]=min+nStep*i;} //x location
 		
-		for(int i=0; i<n; i++){
-			double curX=min+nStep*i; //x location
-			density[0][i]=curX;
-			double curDensity=0;
-			for(int j=0; j<numX; j++){
-				double xStar=(curX-data[j])/h; //(x-x_i)/h
-				curDensity+=norm.density(xStar);
+		if(!(nStep>0) || !(h>0) || n<2){ //degenerate grid or bandwidth, evaluate directly
+			for(int i=0; i<n; i++){
+				double curDensity=0;
+				for(int j=0; j<numX; j++){
+					double xStar=(density[0][i]-data[j])/h; //(x-x_i)/h
+					curDensity+=Math.exp(-0.5*xStar*xStar)*INV_SQRT_2PI;
+				}
+				density[1][i]=curDensity/(n*h);
 			}
-			curDensity=curDensity/(n*h);
-			density[1][i]=curDensity;
+			return(density);
+		}
+		
+		//linear binning
+		double counts[]=bin(data, min, nStep, n);
+		
+		//circular convolution with kernel, padded to avoid wrap-around
+		int size=1;
+		while(size<2*n){size<<=1;}
+		double paddedCounts[]=new double[size];
+		double kernel[]=new double[size];
+		System.arraycopy(counts, 0, paddedCounts, 0, n);
+		for(int d=0; d<n; d++){
+			double xStar=(d*nStep)/h;
+			double k=Math.exp(-0.5*xStar*xStar)*INV_SQRT_2PI;
+			kernel[d]=k;
+			if(d>0){kernel[size-d]=k;} //symmetric
+		}
+		FastFourierTransformer fft=new FastFourierTransformer(DftNormalization.STANDARD);
+		Complex fCounts[]=fft.transform(paddedCounts, TransformType.FORWARD);
+		Complex fKernel[]=fft.transform(kernel, TransformType.FORWARD);
+		for(int i=0; i<size; i++){fCounts[i]=fCounts[i].multiply(fKernel[i]);}
+		Complex conv[]=fft.transform(fCounts, TransformType.INVERSE);
+		
+		for(int i=0; i<n; i++){
+			double curDensity=Math.max(0, conv[i].getReal()); //clip round-off
+			density[1][i]=curDensity/(n*h);
 		}
 		
 		return(density);
 	}
 	
+	/**
+	 * @return {min, max, sum, sum of squares}
+	 */
+	private static double[] summarize(final double data[]){
+		final int numX=data.length;
+		int numThreads=getNumThreads(numX);
+		if(numThreads==1){return(summarize(data,0,numX));}
+		
+		final double partial[][]=new double[numThreads][];
+		Thread threads[]=new Thread[numThreads];
+		final int chunk=(numX+numThreads-1)/numThreads;
+		for(int t=0; t<numThreads; t++){
+			final int curT=t;
+			threads[t]=new Thread(){
+				public void run(){
+					int start=curT*chunk, end=Math.min(numX, start+chunk);
+					partial[curT]=summarize(data, start, end);
+				}
+			};
+			threads[t].start();
+		}
+		join(threads);
+		double stats[]=partial[0];
+		for(int t=1; t<numThreads; t++){
+			stats[0]=Math.min(stats[0], partial[t][0]);
+			stats[1]=Math.max(stats[1], partial[t][1]);
+			stats[2]+=partial[t][2];
+			stats[3]+=partial[t][3];
+		}
+		return(stats);
+	}
+	
+	private static double[] summarize(double data[], int start, int end){
+		double min=data[start], max=data[start], sum=0, sum2=0;
+		for(int i=start; i<end; i++){
+			double x=data[i];
+			if(x<min){min=x;}
+			if(x>max){max=x;}
+			sum+=x;
+			sum2+=x*x;
+		}
+		return(new double[]{min,max,sum,sum2});
+	}
+	
+	/**
+	 * Linear binning: each sample splits its unit weight between the two nearest grid points
+	 */
+	private static double[] bin(final double data[], final double min, final double nStep, final int n){
+		final int numX=data.length;
+		int numThreads=getNumThreads(numX);
+		if(numThreads==1){return(bin(data,0,numX,min,nStep,n));}
+		
+		final double partial[][]=new double[numThreads][];
+		Thread threads[]=new Thread[numThreads];
+		final int chunk=(numX+numThreads-1)/numThreads;
+		for(int t=0; t<numThreads; t++){
+			final int curT=t;
+			threads[t]=new Thread(){
+				public void run(){
+					int start=curT*chunk, end=Math.min(numX, start+chunk);
+					partial[curT]=bin(data, start, end, min, nStep, n);
+				}
+			};
+			threads[t].start();
+		}
+		join(threads);
+		double counts[]=partial[0];
+		for(int t=1; t<numThreads; t++){
+			for(int i=0; i<n; i++){counts[i]+=partial[t][i];}
+		}
+		return(counts);
+	}
+	
+	private static double[] bin(double data[], int start, int end, double min, double nStep, int n){
+		double counts[]=new double[n];
+		for(int i=start; i<end; i++){
+			double pos=(data[i]-min)/nStep;
+			int l=(int) pos;
+			if(l<0){counts[0]+=1;}
+			else if(l>=n-1){counts[n-1]+=1;}
+			else{
+				double w=pos-l;
+				counts[l]+=1-w;
+				counts[l+1]+=w;
+			}
+		}
+		return(counts);
+	}
+	
+	private static int getNumThreads(int numX){
+		int numThreads=Math.min(Runtime.getRuntime().availableProcessors(), numX/PARALLEL_MIN);
+		return(Math.max(1, numThreads));
+	}
+	
+	private static void join(Thread threads[]){
+		boolean interrupted=false;
+		for(int t=0; t<threads.length; t++){
+			while(true){
+				try{
+					threads[t].join();
+					break;
+				}catch(InterruptedException e){
+					interrupted=true;
+				}
+			}
+		}
+		if(interrupted){Thread.currentThread().interrupt();}
+	}
+	
+	/**
+	 * Returns a sorted copy of data to pass to histogramSorted, cdfSorted, and quantilesSorted
+	 */
+	public static double[] sort(double data[]){
+		double sorted[]=Arrays.copyOf(data, data.length);
+		Arrays.sort(sorted);
+		return(sorted);
+	}
+	
 	public static double[][] histogram(double data[], int n, int numBins){
+		double stats[]=summarize(data);
+		return(histogram(data, stats[0], stats[1], n, numBins));
+	}
+	
+	private static double[][] histogram(double data[], double min, double max, int n, int numBins){
 		int numX=data.length;
-		double min=data[0], max=data[0];
-		for(int i=0; i<numX; i++){
-			min=Math.min(min, data[i]);
-			max=Math.max(max, data[i]);
-		}
 		//bins
 		int bins[]=new int[numBins+1];
 		double range=(max-min);
@@ -104,29 +257,45 @@ public final class KernelSmooth{
 		return(hist);
 	}
 	
+	/**
+	 * Histogram of sorted data (min and max are read from the ends)
+	 */
+	public static double[][] histogramSorted(double sorted[], int n, int numBins){
+		return(histogram(sorted, sorted[0], sorted[sorted.length-1], n, numBins));
+	}
+	
 	public static double[][] cdf(double dataOrig[]){
-		double data[]=Arrays.copyOf(dataOrig,dataOrig.length);
-		int numX=data.length;
-		Arrays.sort(data);
-		double cdf[][]=new double[2][numX];
-		
+		return(cdfSorted(sort(dataOrig)));
+	}
+	
+	/**
+	 * CDF of sorted data.  The sorted array is used as the value row and is not copied
+	 */
+	public static double[][] cdfSorted(double sorted[]){
+		int numX=sorted.length;
+		double cdf[][]=new double[2][];
+		cdf[0]=sorted; //value
+		cdf[1]=new double[numX];
 		for(int n=0; n<numX; n++){
-			cdf[0][n]=data[n]; //value
 			cdf[1][n]=n/(numX*1.0); //cdf
 		}
 		return(cdf);
 	}
 
 	public static double[][] quantiles(double dataOrig[]){
-		double data[]=Arrays.copyOf(dataOrig,dataOrig.length);
-		int numX=data.length;
-		Arrays.sort(data);
-		double quants[][]=new double[2][numX];
-		
+		return(quantilesSorted(sort(dataOrig)));
+	}
+	
+	/**
+	 * Quantiles of sorted data.  The sorted array is used as the value row and is not copied
+	 */
+	public static double[][] quantilesSorted(double sorted[]){
+		int numX=sorted.length;
+		double quants[][]=new double[2][];
+		quants[0]=new double[numX];
+		quants[1]=sorted; //value
 		for(int n=0; n<numX; n++){
 			quants[0][n]=n/(numX*1.0); //quantile
-			quants[1][n]=data[n]; //value
-			
 		}
 		return(quants);
 	}
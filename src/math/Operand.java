@@ -0,0 +1,396 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import base.AmuaModel;
+import main.MersenneTwisterFast;
+import main.Parameter;
+import main.Table;
+import main.Variable;
+import markov.MarkovTrace;
+import markov.PersonTable;
+
+/**
+ * Operand of a compiled expression whose value depends on the model state (parameters, variables, tables, RNG).
+ * Model symbols are resolved once at compile time and re-checked by name in case the model lists have changed.
+ */
+abstract class Operand{
+
+	abstract Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception;
+
+	/**
+	 * Pushes the value onto a scalar stack (see CompiledExpression.evaluateDouble).  Returns false if the value is a matrix,
+	 * which is left in stack.matrix.  Operands that read stored scalars override this to avoid allocating a Numeric
+	 */
+	boolean push(AmuaModel myModel, boolean sample, ScalarStack stack) throws Exception{
+		return(stack.push(evaluate(myModel,sample),false));
+	}
+
+	static int getDistDf(String params[], String word) throws NumericException{
+		String last=params[params.length-1];
+		if(last.equals("~")){return(-1);}
+		else if(last.equals("f")){return(0);}
+		else if(last.equals("F")){return(1);}
+		else if(last.equals("Q")){return(2);}
+		else if(last.equals("E")){return(3);}
+		else if(last.equals("V")){return(4);}
+		else{throw new NumericException("Invalid parameter \""+last+"\"",word);}
+	}
+
+	static CompiledExpression[] compileArgs(String args[], AmuaModel myModel) throws Exception{
+		CompiledExpression compiled[]=new CompiledExpression[args.length];
+		for(int i=0; i<args.length; i++){
+			compiled[i]=Interpreter.compile(args[i], myModel);
+		}
+		return(compiled);
+	}
+
+	static Numeric[] evalArgs(CompiledExpression args[], AmuaModel myModel, boolean sample) throws Exception{
+		Numeric argsNumeric[]=new Numeric[args.length];
+		for(int i=0; i<args.length; i++){
+			argsNumeric[i]=args[i].evaluate(myModel, sample);
+		}
+		return(argsNumeric);
+	}
+
+	/**
+	 * Parameter value (p), or sub-matrix if indexed (p[i,j])
+	 */
+	static final class ParameterOperand extends Operand{
+		String name;
+		int index;
+		boolean negate;
+		String args[];
+
+		ParameterOperand(String name, int index, boolean negate, String args[]){
+			this.name=name; this.index=index; this.negate=negate; this.args=args;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			Parameter curParam=getParameter(myModel,sample);
+			Numeric numeric;
+			if(args==null){numeric=curParam.value.copy();}
+			else{numeric=curParam.value.getMatrixValue(args,myModel);}
+			if(negate){numeric.negate();}
+			return(numeric);
+		}
+
+		boolean push(AmuaModel myModel, boolean sample, ScalarStack stack) throws Exception{
+			if(args!=null){return(super.push(myModel, sample, stack));}
+			return(stack.push(getParameter(myModel,sample).value,negate)); //no copy needed
+		}
+
+		private Parameter getParameter(AmuaModel myModel, boolean sample) throws Exception{
+			if(index>=myModel.parameters.size() || !myModel.parameters.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getParameterIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			Parameter curParam=myModel.parameters.get(index);
+			if(curParam.locked==false){
+				curParam.value=Interpreter.evaluate(curParam.expression,myModel,sample);
+				if(sample){curParam.locked=true;}
+			}
+			return(curParam);
+		}
+	}
+
+	/**
+	 * Variable value (v), or sub-matrix if indexed (v[i,j])
+	 */
+	static final class VariableOperand extends Operand{
+		String name;
+		int index;
+		boolean negate;
+		String args[];
+
+		VariableOperand(String name, int index, boolean negate, String args[]){
+			this.name=name; this.index=index; this.negate=negate; this.args=args;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			if(index>=myModel.variables.size() || !myModel.variables.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getVariableIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			Numeric value=myModel.getVariableValue(index); //thread-bound value if present
+			if(value==null){ //not initialized
+				Variable curVar=myModel.variables.get(index);
+				value=Interpreter.evaluate(curVar.initValue,myModel,sample);
+				myModel.setVariableValue(index, value);
+			}
+			Numeric numeric;
+			if(args==null){numeric=value.copy();}
+			else{numeric=value.getMatrixValue(args,myModel);}
+			if(negate){numeric.negate();}
+			return(numeric);
+		}
+
+		boolean push(AmuaModel myModel, boolean sample, ScalarStack stack) throws Exception{
+			PersonTable.Cursor cursor=myModel.getThreadRow();
+			if(args!=null || cursor==null || cursor.row==-1){return(super.push(myModel, sample, stack));}
+			if(index>=myModel.variables.size() || !myModel.variables.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getVariableIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			byte format=cursor.table.getFormat(index, cursor.row);
+			if(format==PersonTable.MATRIX){return(stack.push(cursor.table.get(index, cursor.row),negate));}
+			stack.push(cursor.table.getValue(index, cursor.row),format,negate); //read person's column directly
+			return(true);
+		}
+	}
+
+	/**
+	 * Innate variable (e.g. t)
+	 */
+	static final class InnateVariableOperand extends Operand{
+		String name;
+		int index;
+		boolean negate;
+
+		InnateVariableOperand(String name, int index, boolean negate){
+			this.name=name; this.index=index; this.negate=negate;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			if(index>=myModel.innateVariables.size() || !myModel.innateVariables.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getInnateVariableIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			Numeric numeric=myModel.innateVariables.get(index).value.copy();
+			if(negate){numeric.negate();}
+			return(numeric);
+		}
+
+		boolean push(AmuaModel myModel, boolean sample, ScalarStack stack) throws Exception{
+			if(index>=myModel.innateVariables.size() || !myModel.innateVariables.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getInnateVariableIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			return(stack.push(myModel.innateVariables.get(index).value,negate)); //no copy needed
+		}
+	}
+
+	/**
+	 * Table entries: whole matrix (M), sub-matrix (M[i,j]), lookup (T[x,col]), or user-defined distribution (D(n,~))
+	 */
+	static final class TableOperand extends Operand{
+		static final int MATRIX=0, MATRIX_INDEX=1, LOOKUP=2, DIST=3;
+		int kind;
+		String name;
+		int index;
+		boolean negate;
+		String args[];
+		CompiledExpression lookupIndex;
+		int df;
+
+		TableOperand(int kind, String name, int index, boolean negate, String args[]){
+			this.kind=kind; this.name=name; this.index=index; this.negate=negate; this.args=args;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			if(index>=myModel.tables.size() || !myModel.tables.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getTableIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			Table curTable=myModel.tables.get(index);
+			Numeric numeric=null;
+			if(kind==MATRIX){
+				numeric=new Numeric(curTable.data);
+			}
+			else if(kind==MATRIX_INDEX){
+				Numeric matrix=new Numeric(curTable.data);
+				numeric=matrix.getMatrixValue(args, myModel);
+			}
+			else if(kind==LOOKUP){
+				Numeric curIndex=lookupIndex.evaluate(myModel, sample);
+				numeric=new Numeric(curTable.getLookupValue(curIndex.getDouble(), args[1]));
+			}
+			else if(kind==DIST){
+				if(sample==false || df!=-1){ //not a random variable
+					numeric=curTable.evaluateDist(args,df);
+				}
+				else{ //see if can sample
+					MersenneTwisterFast generator=myModel.getGenerator();
+					if(generator!=null){ //RNG available
+						double rand=generator.nextDouble();
+						double val=curTable.sample(args,rand);
+						numeric=new Numeric(val);
+					}
+					else{ //no RNG, shouldn't sample
+						numeric=curTable.evaluateDist(args,df);
+					}
+				}
+			}
+			if(negate){numeric.negate();}
+			return(numeric);
+		}
+
+		boolean push(AmuaModel myModel, boolean sample, ScalarStack stack) throws Exception{
+			if(kind!=LOOKUP){return(super.push(myModel, sample, stack));}
+			if(index>=myModel.tables.size() || !myModel.tables.get(index).name.equals(name)){ //re-resolve
+				index=myModel.getTableIndex(name);
+				if(index==-1){throw new NumericException(name+" not recognized","Token");}
+			}
+			Table curTable=myModel.tables.get(index);
+			double curIndex=lookupIndex.evaluateDouble(myModel, sample);
+			stack.push(curTable.getLookupValue(curIndex, args[1]),ScalarStack.DOUBLE,negate);
+			return(true);
+		}
+	}
+
+	/**
+	 * Built-in function or matrix function
+	 */
+	static final class FunctionOperand extends Operand{
+		String word;
+		boolean matrixFx;
+		CompiledExpression args[];
+
+		FunctionOperand(String word, boolean matrixFx, CompiledExpression args[]){
+			this.word=word; this.matrixFx=matrixFx; this.args=args;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			Numeric argsNumeric[]=evalArgs(args,myModel,sample);
+			if(matrixFx){return(MatrixFunctions.evaluate(word, argsNumeric));}
+			else{return(Functions.evaluate(word, argsNumeric));}
+		}
+	}
+
+	/**
+	 * Built-in distribution
+	 */
+	static final class DistributionOperand extends Operand{
+		String word;
+		int df;
+		CompiledExpression params[];
+
+		DistributionOperand(String word, int df, CompiledExpression params[]){
+			this.word=word; this.df=df; this.params=params;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			Numeric paramsEval[]=evalArgs(params,myModel,sample);
+			if(sample==false || df!=-1){ //not a random variable
+				return(Distributions.evaluate(word,paramsEval,df));
+			}
+			else{ //see if can sample
+				MersenneTwisterFast generator=null;
+				if(myModel!=null){generator=myModel.getGenerator();}
+				if(generator!=null){ //RNG available
+					double rand=generator.nextDouble();
+					return(Distributions.sample(word,paramsEval,rand,generator));
+				}
+				else{ //no RNG, shouldn't sample
+					return(Distributions.evaluate(word,paramsEval,df));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Markov trace lookup: trace[row,col]
+	 * Row/column specs are parsed once: ":" (all), "x:y" (range), a quoted column name, or an index expression
+	 */
+	static final class TraceOperand extends Operand{
+		boolean negate;
+		boolean allRows, allCols;
+		CompiledExpression startRow, endRow;
+		CompiledExpression startCol, endCol;
+		String colName; //quoted column name, resolved against current trace
+
+		TraceOperand(String row, String col, boolean negate, AmuaModel myModel) throws Exception{
+			this.negate=negate;
+			row=row.trim(); col=col.trim();
+			//rows
+			if(row.equals(":")){allRows=true;}
+			else if(row.contains(":")){
+				int index=row.indexOf(":");
+				startRow=Interpreter.compile(row.substring(0, index),myModel);
+				endRow=Interpreter.compile(row.substring(index+1),myModel);
+			}
+			else{startRow=Interpreter.compile(row,myModel);}
+			//cols
+			if(col.contains("\"") || col.contains("\'")){ //String
+				colName=col.replace("\"","").replace("\'","");
+			}
+			else if(col.equals(":")){allCols=true;}
+			else if(col.contains(":")){
+				int index=col.indexOf(":");
+				startCol=Interpreter.compile(col.substring(0, index),myModel);
+				endCol=Interpreter.compile(col.substring(index+1),myModel);
+			}
+			else{startCol=Interpreter.compile(col,myModel);}
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			MarkovTrace trace=myModel.traceMarkov;
+			if(trace==null){throw new NumericException("No Markov trace available","trace");}
+			int row0, row1, col0, col1;
+			if(allRows){row0=0; row1=trace.getNumRows()-1;}
+			else{
+				row0=startRow.evaluate(myModel, false).getInt();
+				if(endRow==null){row1=row0;}
+				else{row1=endRow.evaluate(myModel, false).getInt();}
+			}
+			if(colName!=null){
+				col0=trace.getColumnIndex(colName);
+				if(col0==-1){throw new NumericException("Can't find column: "+colName,"trace");}
+				col1=col0;
+			}
+			else if(allCols){col0=0; col1=trace.getNumColumns()-1;}
+			else{
+				col0=startCol.evaluate(myModel, false).getInt();
+				if(endCol==null){col1=col0;}
+				else{col1=endCol.evaluate(myModel, false).getInt();}
+			}
+			Numeric numeric=trace.getValue(row0, row1, col0, col1);
+			if(negate){numeric.negate();}
+			return(numeric);
+		}
+	}
+
+	/**
+	 * Matrix literal: [a,b;c,d] entered as [[a,b],[c,d]]
+	 */
+	static final class MatrixOperand extends Operand{
+		int ncol;
+		CompiledExpression rows[][];
+
+		MatrixOperand(int ncol, CompiledExpression rows[][]){
+			this.ncol=ncol; this.rows=rows;
+		}
+
+		Numeric evaluate(AmuaModel myModel, boolean sample) throws Exception{
+			int nrow=rows.length;
+			double matrix[][]=new double[nrow][ncol];
+			for(int i=0; i<nrow; i++){
+				Numeric entries[]=evalArgs(rows[i],myModel,sample);
+				if(entries.length!=ncol){
+					//throw error
+					return(null);
+				}
+				for(int j=0; j<ncol; j++){
+					matrix[i][j]=entries[j].getDouble();
+				}
+			}
+			return(new Numeric(matrix));
+		}
+	}
+}
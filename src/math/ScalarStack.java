@@ -0,0 +1,183 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package math;
+
+/**
+ * Per-thread operand stack of primitive values used by CompiledExpression.evaluateDouble.
+ * Each slot keeps its type (integer, double, boolean) so results match the Numeric operators exactly without allocating.
+ * Nested evaluations on the same thread push above the caller's slots and restore top when finished.
+ */
+final class ScalarStack{
+	static final byte INTEGER=0, DOUBLE=1, BOOL=2; //same codes as markov.PersonTable
+	static final int ADD=0, SUBTRACT=1, MULTIPLY=2, DIVIDE=3, POWER=4, MODULUS=5,
+			EQUAL=6, NOT_EQUAL=7, LESS=8, GREATER=9, LESS_EQ=10, GREATER_EQ=11, AND=12, OR=13, XOR=14;
+
+	private static final ThreadLocal<ScalarStack> threadStack=new ThreadLocal<ScalarStack>(){
+		@Override
+		protected ScalarStack initialValue(){
+			return(new ScalarStack());
+		}
+	};
+
+	double values[]=new double[32];
+	byte formats[]=new byte[32];
+	int top=-1;
+	Numeric matrix; //matrix operand that stopped scalar evaluation
+	byte resultFormat; //format of the last evaluateDouble result on this thread
+
+	static ScalarStack get(){
+		return(threadStack.get());
+	}
+
+	static int getOpcode(String operator){
+		switch(operator){
+		case "+": return(ADD);
+		case "-": return(SUBTRACT);
+		case "*": return(MULTIPLY);
+		case "/": return(DIVIDE);
+		case "^": return(POWER);
+		case "%": return(MODULUS);
+		case "==": return(EQUAL);
+		case "!=": return(NOT_EQUAL);
+		case "<": return(LESS);
+		case ">": return(GREATER);
+		case "<=": return(LESS_EQ);
+		case ">=": return(GREATER_EQ);
+		case "&": return(AND);
+		case "|": return(OR);
+		case "^|": return(XOR);
+		}
+		return(-1);
+	}
+
+	void push(double value, byte format, boolean negate){
+		if(top==values.length-1){ //grow
+			int size=values.length*2;
+			double newValues[]=new double[size];
+			byte newFormats[]=new byte[size];
+			System.arraycopy(values, 0, newValues, 0, values.length);
+			System.arraycopy(formats, 0, newFormats, 0, formats.length);
+			values=newValues; formats=newFormats;
+		}
+		if(negate){
+			if(format==BOOL){value=1-value;}
+			else{value=-value;}
+		}
+		top++;
+		values[top]=value;
+		formats[top]=format;
+	}
+
+	/**
+	 * Pushes a scalar Numeric.  Returns false (and keeps a reference in matrix) if the value is a matrix
+	 * @param numeric
+	 * @param negate
+	 * @return
+	 */
+	boolean push(Numeric numeric, boolean negate){
+		if(numeric.format==Format.INTEGER){push(numeric.intNum,INTEGER,negate);}
+		else if(numeric.format==Format.DOUBLE){push(numeric.doubleNum,DOUBLE,negate);}
+		else if(numeric.format==Format.BOOL){push(numeric.bool ? 1 : 0,BOOL,negate);}
+		else{
+			matrix=numeric;
+			if(negate){ //copy before negating so the stored value is unchanged
+				matrix=numeric.copy();
+				matrix.negate();
+			}
+			return(false);
+		}
+		return(true);
+	}
+
+	Numeric toNumeric(int slot){
+		if(formats[slot]==INTEGER){return(new Numeric((int)values[slot]));}
+		else if(formats[slot]==DOUBLE){return(new Numeric(values[slot]));}
+		else{return(new Numeric(values[slot]!=0));}
+	}
+
+	double getDouble(int slot) throws NumericException{
+		if(formats[slot]==BOOL){
+			throw(new NumericException("Matrix type, not real number","Numeric")); //same as Numeric.getDouble()
+		}
+		return(values[slot]);
+	}
+
+	/**
+	 * Applies a binary operator to the top two slots, following the type rules in Operators
+	 * @param opcode
+	 * @throws NumericException
+	 */
+	void apply(int opcode) throws NumericException{
+		int slot=top-1;
+		byte format1=formats[slot], format2=formats[top];
+		boolean integers=(format1==INTEGER && format2==INTEGER);
+		top--;
+		if(opcode>=AND){ //logical
+			if(format1!=BOOL || format2!=BOOL){
+				throw new NumericException("Not a Boolean type","Numeric");
+			}
+			boolean arg1=values[slot]!=0, arg2=values[slot+1]!=0, result;
+			if(opcode==AND){result=arg1 && arg2;}
+			else if(opcode==OR){result=arg1 || arg2;}
+			else{result=(arg1!=arg2);}
+			values[slot]=result ? 1 : 0;
+			formats[slot]=BOOL;
+			return;
+		}
+		double arg1=getDouble(slot), arg2=getDouble(slot+1);
+		double result=0;
+		byte format=DOUBLE;
+		switch(opcode){
+		case ADD:
+			if(integers){result=(int)arg1+(int)arg2; format=INTEGER;}
+			else{result=arg1+arg2;}
+			break;
+		case SUBTRACT:
+			if(integers){result=(int)arg1-(int)arg2; format=INTEGER;}
+			else{result=arg1-arg2;}
+			break;
+		case MULTIPLY:
+			if(integers){result=(int)arg1*(int)arg2; format=INTEGER;}
+			else{result=arg1*arg2;}
+			break;
+		case DIVIDE:
+			result=arg1/arg2;
+			int test=(int) Math.round(result); //check if integer
+			if(Math.abs(test-result)<MathUtils.tolerance){result=test; format=INTEGER;}
+			break;
+		case POWER:
+			if(integers && arg2>=0){result=(int)(Math.pow(arg1,arg2)); format=INTEGER;}
+			else{result=Math.pow(arg1,arg2);}
+			break;
+		case MODULUS:
+			if(integers){result=(int)arg1 % (int)arg2; format=INTEGER;}
+			else{result=arg1 % arg2;}
+			break;
+		case EQUAL: result=(arg1==arg2) ? 1 : 0; format=BOOL; break;
+		case NOT_EQUAL: result=(arg1!=arg2) ? 1 : 0; format=BOOL; break;
+		case LESS: result=(arg1<arg2) ? 1 : 0; format=BOOL; break;
+		case GREATER: result=(arg1>arg2) ? 1 : 0; format=BOOL; break;
+		case LESS_EQ: result=(arg1<=arg2) ? 1 : 0; format=BOOL; break;
+		case GREATER_EQ: result=(arg1>=arg2) ? 1 : 0; format=BOOL; break;
+		}
+		values[slot]=result;
+		formats[slot]=format;
+	}
+}
@@ -32,7 +32,8 @@ public class Token{
 	boolean leftAssociative; //operator association
 	String args[];
 	int tableType; //0=Lookup, 1=Distribution, 2=Matrix
-	Numeric numeric;
+	Numeric numeric; //literal value
+	Operand operand; //model-dependent value, evaluated at run-time
 	
 	public Token(Numeric numeric){
 		this.numeric=numeric;
@@ -40,7 +41,12 @@ public class Token{
 		type=Type.NUMERIC;
 	}
 	
-	public Token(String word, Type type, AmuaModel myModel, boolean sample) throws Exception{ //numeric or operator
+	Token(Operand operand){
+		this.operand=operand;
+		type=Type.NUMERIC;
+	}
+	
+	public Token(String word, Type type, AmuaModel myModel) throws Exception{ //numeric or operator
 		this.word=word;
 		this.type=type;
 		if(this.type==Type.OPERATOR){
@@ -68,49 +74,26 @@ public class Token{
 					}
 					if(Constants.isConstant(word)){
 						numeric=new Numeric(Constants.evaluate(word));
+						if(negate){
+							numeric.negate();
+						}
 					}
 					else if(myModel!=null && myModel.isParameter(word)){
-						int index=myModel.getParameterIndex(word);
-						Parameter curParam=myModel.parameters.get(index);
-						if(curParam.locked==false){
-							//if(sample){
-								//myModel.curGenerator=myModel.generatorParam; //re-point RNG
-								//myModel.curRand=myModel.curRandParam;
-							//} 
-							curParam.value=Interpreter.evaluate(curParam.expression,myModel,sample);
-							if(sample){curParam.locked=true;}
-						}
-						numeric=curParam.value.copy();
+						operand=new Operand.ParameterOperand(word,myModel.getParameterIndex(word),negate,null);
 					}
 					else if(myModel!=null && myModel.isVariable(word)){
-						int index=myModel.getVariableIndex(word);
-						Variable curVar=myModel.variables.get(index);
-						if(curVar.value==null){ //not initialized
-							//if(sample){
-								//myModel.curGenerator=myModel.generatorVar; //re-point RNG
-								//myModel.curRand=myModel.curRandVar;
-							//} 
-							curVar.value=Interpreter.evaluate(curVar.initValue, myModel, sample);
-						}
-						numeric=curVar.value.copy();
+						operand=new Operand.VariableOperand(word,myModel.getVariableIndex(word),negate,null);
 					}
 					else if(myModel!=null && myModel.isInnateVariable(word)){
-						int index=myModel.getInnateVariableIndex(word);
-						Variable curVar=myModel.innateVariables.get(index);
-						numeric=curVar.value.copy();
+						operand=new Operand.InnateVariableOperand(word,myModel.getInnateVariableIndex(word),negate);
 					}
 					else if(myModel!=null && myModel.isTable(word) && myModel.getTableType(word).equals("Matrix")){
-						int index=myModel.getTableIndex(word);
-						Table curMatrix=myModel.tables.get(index);
-						numeric=new Numeric(curMatrix.data);
+						operand=new Operand.TableOperand(Operand.TableOperand.MATRIX,word,myModel.getTableIndex(word),negate,null);
 					}
 					else{ //not understood, throw error
 						//try evaluate
 						throw new NumericException(word+" not recognized","Token");
 					}
-					if(negate){
-						numeric.negate();
-					}
 				}
 			
 			}
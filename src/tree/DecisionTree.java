@@ -20,12 +20,14 @@ package tree;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import base.AmuaModel;
+import base.ModelDependencies;
 import main.CEAHelper;
 import main.Console;
 import main.DimInfo;
@@ -97,13 +99,26 @@ public class DecisionTree{
 		return(copy);
 	}
 
+	/**
+	 * Re-points the tree and its nodes to a model (e.g. a copy of the model without a panel)
+	 * @param model
+	 */
+	public void setModel(AmuaModel model){
+		myModel=model;
+		for(int i=0; i<nodes.size(); i++){
+			TreeNode curNode=nodes.get(i);
+			curNode.myModel=model;
+			curNode.tree=this;
+		}
+	}
+
 	/**
 	 * Parse text entries and ensure tree inputs are plausible.
 	 * @return ArrayList of error messages
 	 */
 	public ArrayList<String> parseTree(){
 		myModel.validateParamsVars();
-		ArrayList<String> errors=new ArrayList<String>();
+		ModelDependencies dependencies=myModel.dependencies;
 		//Initialize root
 		TreeNode root=nodes.get(0);
 		int numDim=myModel.dimInfo.dimSymbols.length;
@@ -116,137 +131,245 @@ public class DecisionTree{
 		}
 		
 		//Parse tree inputs and variables
-		boolean validProbs=true;
 		int size=nodes.size();
 		for(int i=1; i<size; i++){ //Exclude root node
 			TreeNode curNode=nodes.get(i);
 			curNode.curCosts=new double[numDim]; 
 			curNode.curPayoffs=new double[numDim]; 
+			curNode.sumErrors=null;
+			if(dependencies!=null){curNode.paramDeps=getDependencies(curNode,dependencies);}
+			parseNode(curNode);
+		}
 
-			if(curNode.parentType!=0){ //Validate probability
-				curNode.highlightTextField(0,null); //Prob
-				if(curNode.prob.matches("C") || curNode.prob.matches("c")){curNode.curProb=-1;} //Complementary
-				else{ //Evaluate text
-					try{
-						curNode.curProb=Interpreter.evaluate(curNode.prob,myModel,false).getDouble();
-					}catch(Exception e){
-						validProbs=false;
-						curNode.highlightTextField(0, Color.YELLOW); //Prob
-						errors.add("Node "+curNode.name+": Probability Error ("+curNode.prob+")");
-					}
-					if(curNode.curProb<0 || curNode.curProb>1 || Double.isNaN(curNode.curProb)){
-						validProbs=false;
-						curNode.highlightTextField(0, Color.YELLOW); //Prob
-						errors.add("Node "+curNode.name+": Probability Error ("+curNode.prob+")");
+		//Ensure probabilities sum to 1.0
+		boolean validProbs=checkValidProbs();
+		if(validProbs){
+			for(int i=1; i<size; i++){ //Exclude root node
+				TreeNode curNode=nodes.get(i);
+				if(curNode.type!=0){ //Not decision node
+					curNode.numChildren=curNode.childIndices.size();
+					curNode.children=new TreeNode[curNode.numChildren];
+					for(int j=0; j<curNode.numChildren; j++){
+						curNode.children[j]=nodes.get(curNode.childIndices.get(j));
 					}
+					checkProbs(curNode);
 				}
 			}
-			if(curNode.type!=2){ //Not terminal, ensure it has children and validate cost
-				if(curNode.childIndices.size()==0){
-					errors.add("Node "+curNode.name+": Branches must end in a terminal node");
+		}
+		if(dependencies!=null){dependencies.complete=validProbs;}
+		return(getErrors(validProbs));
+	}
+	
+	/**
+	 * Re-validates only the nodes that depend on changed parameters, and the probability sums of their parents.
+	 * Assumes the tree structure hasn't changed since the last call to parseTree().
+	 * @param changed Changed parameters (see ModelDependencies)
+	 * @return ArrayList of error messages
+	 */
+	public ArrayList<String> revalidateTree(BitSet changed){
+		int size=nodes.size();
+		boolean reparse[]=new boolean[size];
+		boolean recheck[]=new boolean[size]; //parents to re-sum
+		for(int i=1; i<size; i++){
+			if(nodes.get(i).paramDeps.intersects(changed)){reparse[i]=true;}
+		}
+		for(int i=1; i<size; i++){
+			TreeNode curNode=nodes.get(i);
+			if(curNode.type!=0){
+				for(int j=0; j<curNode.childIndices.size(); j++){
+					if(reparse[curNode.childIndices.get(j)]){recheck[i]=true;}
+				}
+			}
+		}
+		for(int i=1; i<size; i++){
+			if(recheck[i]){ //re-parse siblings to reset complementary probs and highlights
+				TreeNode curNode=nodes.get(i);
+				for(int j=0; j<curNode.childIndices.size(); j++){
+					reparse[curNode.childIndices.get(j)]=true;
+				}
+			}
+		}
+		for(int i=1; i<size; i++){
+			if(reparse[i]){parseNode(nodes.get(i));}
+		}
+		
+		boolean validProbs=checkValidProbs();
+		if(validProbs){
+			for(int i=1; i<size; i++){
+				if(recheck[i]){checkProbs(nodes.get(i));}
+			}
+		}
+		myModel.dependencies.complete=validProbs;
+		return(getErrors(validProbs));
+	}
+	
+	private BitSet getDependencies(TreeNode curNode, ModelDependencies dependencies){
+		BitSet deps=new BitSet();
+		if(curNode.parentType!=0){deps.or(dependencies.getDependencies(curNode.prob));}
+		int numDim=myModel.dimInfo.dimSymbols.length;
+		for(int c=0; c<numDim; c++){
+			if(curNode.type!=2){deps.or(dependencies.getDependencies(curNode.cost[c]));}
+			else{deps.or(dependencies.getDependencies(curNode.payoff[c]));}
+		}
+		if(curNode.hasVarUpdates){deps.or(dependencies.getDependencies(curNode.varUpdates));}
+		return(deps);
+	}
+	
+	/**
+	 * Validates the probability, costs/payoffs, and variable updates of a node
+	 * @param curNode
+	 */
+	private void parseNode(TreeNode curNode){
+		ArrayList<String> errors=new ArrayList<String>();
+		curNode.nodeErrors=errors;
+		curNode.validProb=true;
+		int numDim=myModel.dimInfo.dimSymbols.length;
+		if(curNode.parentType!=0){ //Validate probability
+			curNode.highlightTextField(0,null); //Prob
+			if(curNode.prob.equalsIgnoreCase("C")){curNode.curProb=-1;} //Complementary
+			else{ //Evaluate text
+				try{
+					curNode.curProb=Interpreter.evaluate(curNode.prob,myModel,false).getDouble();
+				}catch(Exception e){
+					curNode.validProb=false;
+					curNode.highlightTextField(0, Color.YELLOW); //Prob
+					errors.add("Node "+curNode.name+": Probability Error ("+curNode.prob+")");
 				}
+				if(curNode.curProb<0 || curNode.curProb>1 || Double.isNaN(curNode.curProb)){
+					curNode.validProb=false;
+					curNode.highlightTextField(0, Color.YELLOW); //Prob
+					errors.add("Node "+curNode.name+": Probability Error ("+curNode.prob+")");
+				}
+			}
+		}
+		if(curNode.type!=2){ //Not terminal, ensure it has children and validate cost
+			if(curNode.childIndices.size()==0){
+				errors.add("Node "+curNode.name+": Branches must end in a terminal node");
+			}
 
-				curNode.highlightTextField(1,null); //Cost
-				for(int c=0; c<numDim; c++){
-					try{
-						curNode.curCosts[c]=Interpreter.evaluate(curNode.cost[c],myModel,false).getDouble();
-						if(Double.isNaN(curNode.curCosts[c])){
-							curNode.highlightTextField(1, Color.YELLOW); //Cost
-							errors.add("Node "+curNode.name+": Cost Error ("+curNode.cost[c]+")");
-						}
-					}catch(Exception e){
+			curNode.highlightTextField(1,null); //Cost
+			for(int c=0; c<numDim; c++){
+				try{
+					curNode.curCosts[c]=Interpreter.evaluate(curNode.cost[c],myModel,false).getDouble();
+					if(Double.isNaN(curNode.curCosts[c])){
 						curNode.highlightTextField(1, Color.YELLOW); //Cost
 						errors.add("Node "+curNode.name+": Cost Error ("+curNode.cost[c]+")");
 					}
+				}catch(Exception e){
+					curNode.highlightTextField(1, Color.YELLOW); //Cost
+					errors.add("Node "+curNode.name+": Cost Error ("+curNode.cost[c]+")");
 				}
 			}
-			else if(curNode.type==2){ //Terminal, validate payoff
-				curNode.highlightTextField(2,null); //Payoff
-				for(int c=0; c<numDim; c++){
-					try{
-						curNode.curPayoffs[c]=Interpreter.evaluate(curNode.payoff[c],myModel,false).getDouble();
-						if(Double.isNaN(curNode.curPayoffs[c])){
-							curNode.highlightTextField(2, Color.YELLOW); //Payoff
-							errors.add("Node "+curNode.name+": Payoff Error ("+curNode.payoff[c]+")");
-						}
-					}catch(Exception e){
+		}
+		else if(curNode.type==2){ //Terminal, validate payoff
+			curNode.highlightTextField(2,null); //Payoff
+			for(int c=0; c<numDim; c++){
+				try{
+					curNode.curPayoffs[c]=Interpreter.evaluate(curNode.payoff[c],myModel,false).getDouble();
+					if(Double.isNaN(curNode.curPayoffs[c])){
 						curNode.highlightTextField(2, Color.YELLOW); //Payoff
 						errors.add("Node "+curNode.name+": Payoff Error ("+curNode.payoff[c]+")");
 					}
+				}catch(Exception e){
+					curNode.highlightTextField(2, Color.YELLOW); //Payoff
+					errors.add("Node "+curNode.name+": Payoff Error ("+curNode.payoff[c]+")");
 				}
 			}
-			//check variable updates
-			curNode.highlightTextField(3,null); //Variable updates
-			if(curNode.hasVarUpdates){
-				String updates[]=curNode.varUpdates.split(";");
-				int numUpdates=updates.length;
-				curNode.curVariableUpdates=new VariableUpdate[numUpdates];
-				for(int u=0; u<updates.length; u++){
-					try{
-						curNode.curVariableUpdates[u]=new VariableUpdate(updates[u],myModel);
-						double testVal=curNode.curVariableUpdates[u].testVal.getDouble();
-						if(Double.isNaN(testVal)){
-							curNode.highlightTextField(3, Color.YELLOW); //Variable updates
-							errors.add("Node "+curNode.name+": Variable Update Error ("+updates[u]+")");
-						}
-					}catch(Exception e){
+		}
+		//check variable updates
+		curNode.highlightTextField(3,null); //Variable updates
+		if(curNode.hasVarUpdates){
+			String updates[]=curNode.varUpdates.split(";");
+			int numUpdates=updates.length;
+			curNode.curVariableUpdates=new VariableUpdate[numUpdates];
+			for(int u=0; u<updates.length; u++){
+				try{
+					curNode.curVariableUpdates[u]=new VariableUpdate(updates[u],myModel);
+					double testVal=curNode.curVariableUpdates[u].testVal.getDouble();
+					if(Double.isNaN(testVal)){
 						curNode.highlightTextField(3, Color.YELLOW); //Variable updates
 						errors.add("Node "+curNode.name+": Variable Update Error ("+updates[u]+")");
 					}
+				}catch(Exception e){
+					curNode.highlightTextField(3, Color.YELLOW); //Variable updates
+					errors.add("Node "+curNode.name+": Variable Update Error ("+updates[u]+")");
 				}
 			}
 		}
-
-		//Ensure probabilities sum to 1.0
-		if(validProbs){
-			for(int i=1; i<size; i++){ //Exclude root node
-				TreeNode curNode=nodes.get(i);
-				if(curNode.type!=0){ //Not decision node
-					curNode.numChildren=curNode.childIndices.size();
-					curNode.children=new TreeNode[curNode.numChildren];
-					if(curNode.numChildren>0){
-						double sumProb=0;
-						int numCompProb=0;
-						for(int j=0; j<curNode.numChildren; j++){
-							TreeNode child=nodes.get(curNode.childIndices.get(j));
-							curNode.children[j]=child;
-							if(child.curProb==-1){numCompProb++;}
-							else{sumProb+=child.curProb;}
-						}
-						if(numCompProb==0){
-							if(sumProb!=1.0){
-								errors.add("Node "+curNode.name+": Probabilities sum to "+sumProb+"!");
-								for(int j=0; j<curNode.numChildren; j++){
-									TreeNode child=nodes.get(curNode.childIndices.get(j));
-									child.highlightTextField(0, Color.YELLOW); //Prob
-								}
-							}
-						}
-						else if(numCompProb==1){
-							if(sumProb<0 || sumProb>1){
-								errors.add("Node "+curNode.name+": Entered probabilities sum to "+sumProb+"!");
-								for(int j=0; j<curNode.numChildren; j++){
-									TreeNode child=nodes.get(curNode.childIndices.get(j));
-									if(child.curProb!=-1){child.highlightTextField(0, Color.YELLOW);} //Entered prob
-								}
-							}
-							else{ //Calculate complementary prob
-								for(int j=0; j<curNode.numChildren; j++){
-									TreeNode child=nodes.get(curNode.childIndices.get(j));
-									if(child.curProb==-1){child.curProb=1.0-sumProb;}
-								}
-							}
-						}
-						else{ //2+ comp probs
-							errors.add("Node "+curNode.name+": At most 1 probability can be complementary!");
-							for(int j=0; j<curNode.numChildren; j++){
-								TreeNode child=nodes.get(curNode.childIndices.get(j));
-								if(child.curProb==-1){child.highlightTextField(0, Color.YELLOW);} //Comp. prob
-							}
-						}
+	}
+	
+	/**
+	 * Ensures child probabilities of a chance node sum to 1.0 and calculates the complementary probability
+	 * @param curNode
+	 */
+	private void checkProbs(TreeNode curNode){
+		ArrayList<String> errors=new ArrayList<String>();
+		curNode.sumErrors=errors;
+		if(curNode.numChildren>0){
+			double sumProb=0;
+			int numCompProb=0;
+			for(int j=0; j<curNode.numChildren; j++){
+				TreeNode child=curNode.children[j];
+				if(child.curProb==-1){numCompProb++;}
+				else{sumProb+=child.curProb;}
+			}
+			if(numCompProb==0){
+				if(sumProb!=1.0){
+					errors.add("Node "+curNode.name+": Probabilities sum to "+sumProb+"!");
+					for(int j=0; j<curNode.numChildren; j++){
+						curNode.children[j].highlightTextField(0, Color.YELLOW); //Prob
 					}
 				}
 			}
+			else if(numCompProb==1){
+				if(sumProb<0 || sumProb>1){
+					errors.add("Node "+curNode.name+": Entered probabilities sum to "+sumProb+"!");
+					for(int j=0; j<curNode.numChildren; j++){
+						TreeNode child=curNode.children[j];
+						if(child.curProb!=-1){child.highlightTextField(0, Color.YELLOW);} //Entered prob
+					}
+				}
+				else{ //Calculate complementary prob
+					for(int j=0; j<curNode.numChildren; j++){
+						TreeNode child=curNode.children[j];
+						if(child.curProb==-1){child.curProb=1.0-sumProb;}
+					}
+				}
+			}
+			else{ //2+ comp probs
+				errors.add("Node "+curNode.name+": At most 1 probability can be complementary!");
+				for(int j=0; j<curNode.numChildren; j++){
+					TreeNode child=curNode.children[j];
+					if(child.curProb==-1){child.highlightTextField(0, Color.YELLOW);} //Comp. prob
+				}
+			}
+		}
+	}
+	
+	private boolean checkValidProbs(){
+		int size=nodes.size();
+		for(int i=1; i<size; i++){
+			if(nodes.get(i).validProb==false){return(false);}
+		}
+		return(true);
+	}
+	
+	/**
+	 * Collects node errors in tree order, followed by probability sum errors if all probabilities are valid
+	 * @param validProbs
+	 * @return
+	 */
+	private ArrayList<String> getErrors(boolean validProbs){
+		ArrayList<String> errors=new ArrayList<String>();
+		int size=nodes.size();
+		for(int i=1; i<size; i++){
+			errors.addAll(nodes.get(i).nodeErrors);
+		}
+		if(validProbs){
+			for(int i=1; i<size; i++){
+				TreeNode curNode=nodes.get(i);
+				if(curNode.sumErrors!=null){errors.addAll(curNode.sumErrors);}
+			}
 		}
 		return(errors);
 	}
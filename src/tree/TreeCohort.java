@@ -89,7 +89,7 @@ public class TreeCohort{
 			int indexCompProb=-1;
 			for(int c=0; c<node.numChildren; c++){
 				TreeNode curChild=node.children[c];
-				if(curChild.prob.matches("C") || curChild.prob.matches("c")){ //Complementary
+				if(curChild.prob.equalsIgnoreCase("C")){ //Complementary
 					curChild.curProb=-1;
 					indexCompProb=c;
 				}
@@ -23,6 +23,7 @@ import javax.swing.ProgressMonitor;
 import base.AmuaModel;
 import main.MersenneTwisterFast;
 import main.Variable;
+import math.AliasTable;
 import math.Interpreter;
 import math.Numeric;
 import math.NumericException;
@@ -48,7 +49,9 @@ public class TreeMonteCarlo{
 		
 		//Individuals
 		numPeople=myModel.cohortSize;
-		progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, 100);
+		if(myModel.mainForm!=null){ //no progress monitor if headless
+			progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, 100);
+		}
 		//Initialize random number generator
 		myModel.generatorVar=new MersenneTwisterFast();
 		
@@ -77,7 +80,7 @@ public class TreeMonteCarlo{
 		
 		//Simulate people
 		boolean cancelled=false;
-		progress.setMaximum(numPeople);
+		if(progress!=null){progress.setMaximum(numPeople);}
 		person=new TreePerson();
 		person.counterVals=new Numeric[numVars];
 		
@@ -101,7 +104,7 @@ public class TreeMonteCarlo{
 			}
 			
 			//update progress
-			if(display){
+			if(display && progress!=null){
 				progress.setProgress(p);
 				//Update progress
 				double prog=((p+1)/(numPeople*1.0))*100;
@@ -115,12 +118,12 @@ public class TreeMonteCarlo{
 				progress.setProgress(p+1);
 				progress.setNote("Time left: "+minutes+":"+seconds);
 			}
-			if(progress.isCanceled()){
+			if(progress!=null && progress.isCanceled()){
 				cancelled=true;
 				p=numPeople;
 			}
 		}
-		progress.close();
+		if(progress!=null){progress.close();}
 		
 		//get EVs
 		for(int c=0; c<root.numChildren; c++){
@@ -172,7 +175,7 @@ public class TreeMonteCarlo{
 					node.totalCosts[d]+=node.curCosts[d];
 				}
 				else{ //has variable, re-evaluate cost
-					double curCost=Interpreter.evaluate(node.cost[d],myModel,false).getDouble();
+					double curCost=Interpreter.evaluateDouble(node.cost[d],myModel,false);
 					node.totalCosts[d]+=curCost;
 				}
 			}
@@ -192,7 +195,7 @@ public class TreeMonteCarlo{
 					node.totalPayoffs[c]+=node.curPayoffs[c];
 				}
 				else{ //has variable, re-evaluate payoff
-					double curPayoff=Interpreter.evaluate(node.payoff[c],myModel,false).getDouble();
+					double curPayoff=Interpreter.evaluateDouble(node.payoff[c],myModel,false);
 					node.totalPayoffs[c]+=curPayoff;
 				}
 			}
@@ -204,7 +207,10 @@ public class TreeMonteCarlo{
 			if(node.childHasProbVar==true){ //re-evaluate child probs
 				evalChildProbs(node,false);
 			}
-			while(rand>node.curChildProbs[k]){k++;}
+			if(node.curAlias!=null){k=node.curAlias.sample(rand);} //fixed probs, O(1) lookup
+			else{
+				while(rand>node.curChildProbs[k]){k++;}
+			}
 			TreeNode curChild=node.children[k];
 			traverseNode(curChild);
 		}
@@ -254,12 +260,12 @@ public class TreeMonteCarlo{
 			int indexCompProb=-1;
 			for(int c=0; c<node.numChildren; c++){
 				TreeNode curChild=node.children[c];
-				if(curChild.prob.matches("C") || curChild.prob.matches("c")){ //Complementary
+				if(curChild.prob.equalsIgnoreCase("C")){ //Complementary
 					curChild.curProb=-1;
 					indexCompProb=c;
 				}
 				else{ //Evaluate text
-					curChild.curProb=Interpreter.evaluate(curChild.prob,myModel,false).getDouble();
+					curChild.curProb=Interpreter.evaluateDouble(curChild.prob,myModel,false);
 					sumProb+=curChild.curProb;
 				}
 			}
@@ -286,6 +292,13 @@ public class TreeMonteCarlo{
 				curChild=node.children[c];
 				node.curChildProbs[c]=node.curChildProbs[c-1]+curChild.curProb;
 			}
+			
+			//Alias table for O(1) branch selection when child probs are fixed
+			if(node.childHasProbVar==false && node.numChildren>=AliasTable.MIN_SIZE){
+				if(node.curAlias==null || node.curAlias.size()!=node.numChildren){node.curAlias=new AliasTable(node.numChildren);}
+				node.curAlias.buildCumulative(node.curChildProbs);
+			}
+			else{node.curAlias=null;}
 		}
 		
 		if(recursive==true){ //move down tree
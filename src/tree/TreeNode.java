@@ -40,6 +40,7 @@ import javax.xml.bind.annotation.XmlTransient;
 import base.ModelNode;
 import main.VariableUpdate;
 import markov.MarkovTextField;
+import math.AliasTable;
 
 @XmlRootElement(name="node")
 public class TreeNode extends ModelNode{
@@ -58,6 +59,7 @@ public class TreeNode extends ModelNode{
 	@XmlTransient boolean costHasVar[];
 	@XmlTransient boolean payoffHasVar[];
 	@XmlTransient public double curChildProbs[];
+	@XmlTransient AliasTable curAlias; //null if child probs have variables or there are few children
 	@XmlTransient double totalDenom, totalCosts[], totalPayoffs[], totalNet[];
 
 	//Visual Attributes